@@ -0,0 +1,96 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.apdu.DaplugApduResponse;
+import io.daplug.exception.DaplugApduException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * DaplugApduCommand / DaplugApduResponse construction, from bytes and from the hexadecimal
+ * strings DaplugSession builds its commands with.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ApduBenchmark {
+
+	/* command data length : the response carries the same amount of data */
+	@Param({ "0", "32", "239" })
+	public int length;
+
+	private byte[] command, response;
+	private String commandHex;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		this.command = new byte[5 + this.length];
+		random.nextBytes(this.command);
+		this.command[0] = (byte) 0x80;
+		this.command[4] = (byte) this.length;
+		this.response = new byte[this.length + 2];
+		random.nextBytes(this.response);
+		this.response[this.length] = (byte) 0x90;
+		this.response[this.length + 1] = 0x00;
+		this.commandHex = DaplugUtils.byteArrayToHexString(this.command);
+	}
+
+	@Benchmark
+	public DaplugApduCommand commandFromBytes() throws DaplugApduException {
+		return new DaplugApduCommand(this.command);
+	}
+
+	@Benchmark
+	public DaplugApduCommand commandFromHexString() throws DaplugApduException {
+		return new DaplugApduCommand(DaplugUtils.hexStringToByteArray(this.commandHex));
+	}
+
+	@Benchmark
+	public DaplugApduResponse responseFromBytes() throws DaplugApduException {
+		return new DaplugApduResponse(this.response);
+	}
+
+	@Benchmark
+	public String commandToString() throws DaplugApduException {
+		return new DaplugApduCommand(this.command).toString();
+	}
+}
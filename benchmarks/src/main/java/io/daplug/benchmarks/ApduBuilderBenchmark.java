@@ -0,0 +1,102 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.apdu.DaplugApduBuilder;
+import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.apdu.DaplugApduCommandView;
+import io.daplug.apdu.DaplugInstruction;
+import io.daplug.exception.DaplugApduException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Forming an ENCRYPT command (D020 : key version, key id, IV, one diversifier, data) :
+ * the hexadecimal String path DaplugSession used, against DaplugApduBuilder.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ApduBuilderBenchmark {
+
+	/* data length, a multiple of 8 */
+	@Param({ "8", "64", "200" })
+	public int length;
+
+	private final DaplugApduBuilder builder = new DaplugApduBuilder();
+	private byte[] iv, div, data;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		this.iv = new byte[8];
+		this.div = new byte[16];
+		this.data = new byte[this.length];
+		random.nextBytes(this.iv);
+		random.nextBytes(this.div);
+		random.nextBytes(this.data);
+	}
+
+	@Benchmark
+	public DaplugApduCommand hexStringPath() throws DaplugApduException {
+		int lc = 10 + this.div.length + this.data.length;
+		String hexStrBuf = "";
+		hexStrBuf = hexStrBuf.concat("D020");
+		hexStrBuf = hexStrBuf.concat(String.format("%02X", 0x01));
+		hexStrBuf = hexStrBuf.concat(String.format("%02X", 0x12));
+		hexStrBuf = hexStrBuf.concat(String.format("%02X", lc));
+		hexStrBuf = hexStrBuf.concat(String.format("%02X", 0x30));
+		hexStrBuf = hexStrBuf.concat(String.format("%02X", 0x01));
+		hexStrBuf = hexStrBuf.concat(DaplugUtils.byteArrayToHexString(this.iv));
+		hexStrBuf = hexStrBuf.concat(DaplugUtils.byteArrayToHexString(this.div));
+		hexStrBuf = hexStrBuf.concat(DaplugUtils.byteArrayToHexString(this.data));
+		return new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
+	}
+
+	@Benchmark
+	public DaplugApduCommand builderBuild() throws DaplugApduException {
+		return this.builder.start(DaplugInstruction.CRYPT, 0x01, 0x12).u8(0x30).u8(0x01)
+				.bytes(this.iv).bytes(this.div).bytes(this.data).build();
+	}
+
+	@Benchmark
+	public DaplugApduCommandView builderView() throws DaplugApduException {
+		return this.builder.start(DaplugInstruction.CRYPT, 0x01, 0x12).u8(0x30).u8(0x01)
+				.bytes(this.iv).bytes(this.div).bytes(this.data).view();
+	}
+}
@@ -0,0 +1,140 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.crypto.DaplugCrypto;
+import io.daplug.crypto.DaplugCryptoContext;
+import io.daplug.crypto.DaplugRetailMac;
+import io.daplug.exception.DaplugCryptoException;
+
+/**
+ * DaplugCrypto primitives used on each apdu (retail MAC, data encryption) and on each authentication (session keys).
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+	/* 16 : short command, 64 : one HID report, 232 : largest data encrypted by apduDataEncryption() */
+	@Param({ "16", "64", "232" })
+	public int length;
+
+	private byte[] key, data, blocks, previousMac, counter, encrypted;
+	private DaplugCryptoContext context;
+	private DaplugRetailMac macEngine;
+	private final byte[] mac = new byte[DaplugRetailMac.MAC_LEN];
+
+	@Setup
+	public void setup() throws DaplugCryptoException {
+		Random random = new Random(42);
+		this.key = new byte[16];
+		random.nextBytes(this.key);
+		this.data = new byte[this.length];
+		random.nextBytes(this.data);
+		this.blocks = new byte[(this.length + 7) / 8 * 8];
+		random.nextBytes(this.blocks);
+		this.previousMac = new byte[8];
+		random.nextBytes(this.previousMac);
+		this.counter = new byte[] { 0x00, 0x2A };
+		this.encrypted = DaplugCrypto.apduDataEncryption(this.data, this.key, DaplugCrypto.ENCRYPT);
+		this.context = new DaplugCryptoContext(this.key, this.key, this.key, this.key, this.key);
+		this.macEngine = this.context.getCommandMacEngine();
+	}
+
+	@Benchmark
+	public byte[] retailMacCommand() {
+		return DaplugCrypto.computeRetailMac(this.data, this.key, this.previousMac, DaplugCrypto.C_MAC);
+	}
+
+	@Benchmark
+	public byte[] retailMacResponse() {
+		return DaplugCrypto.computeRetailMac(this.data, this.key, this.previousMac, DaplugCrypto.R_MAC);
+	}
+
+	/* session path : ciphers initialized once by authenticate() */
+	@Benchmark
+	public byte[] contextCommandMac() throws DaplugCryptoException {
+		return this.context.commandMac(this.data, this.previousMac);
+	}
+
+	/* allocation-free engine : MAC written into a caller buffer */
+	@Benchmark
+	public byte[] retailMacEngine() throws DaplugCryptoException {
+		this.macEngine.init(DaplugCrypto.C_MAC, this.previousMac, 0, this.previousMac.length);
+		this.macEngine.update(this.data, 0, this.data.length);
+		this.macEngine.doFinal(this.mac, 0);
+		return this.mac;
+	}
+
+	@Benchmark
+	public byte[] contextCommandDataEncrypt() throws DaplugCryptoException {
+		return this.context.commandData(this.data, DaplugCrypto.ENCRYPT);
+	}
+
+	@Benchmark
+	public byte[] full3DesMac() {
+		return DaplugCrypto.computeFull3DesMac(this.blocks, this.key);
+	}
+
+	@Benchmark
+	public byte[] sessionKey() {
+		return DaplugCrypto.computeSessionKey(this.counter, DaplugCrypto.KEY_CONSTANT_C_MAC, this.key);
+	}
+
+	@Benchmark
+	public byte[] apduDataEncrypt() {
+		return DaplugCrypto.apduDataEncryption(this.data, this.key, DaplugCrypto.ENCRYPT);
+	}
+
+	@Benchmark
+	public byte[] apduDataDecrypt() {
+		return DaplugCrypto.apduDataEncryption(this.encrypted, this.key, DaplugCrypto.DECRYPT);
+	}
+
+	@Benchmark
+	public byte[] tripleDesCbc() throws DaplugCryptoException {
+		return DaplugCrypto.tripleDES_CBC_GP(this.blocks, this.key, null, DaplugCrypto.ENCRYPT);
+	}
+
+	@Benchmark
+	public byte[] tripleDesEcb() throws DaplugCryptoException {
+		return DaplugCrypto.tripleDES_ECB_GP(this.blocks, this.key, DaplugCrypto.ENCRYPT);
+	}
+}
@@ -0,0 +1,82 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.dongle.sim.DaplugCardSim;
+import io.daplug.dongle.sim.DaplugDongleSim;
+import io.daplug.dongle.sim.DaplugSimLatency;
+import io.daplug.exception.DaplugException;
+import io.daplug.keyset.DaplugKeyset;
+import io.daplug.session.DaplugSession;
+
+/**
+ * Fixtures shared by the benchmarks : simulated dongles and sessions opened on them.
+ *
+ */
+public final class DaplugBenchmarkSupport {
+
+	/**
+	 * Default administrative keyset of the simulated card
+	 */
+	public static final DaplugKeyset ADMIN_KEYSET = new DaplugKeyset(0x01, DaplugKeyset.USAGE_GP, 0, DaplugCardSim.DEFAULT_ADMIN_KEY);
+
+	private DaplugBenchmarkSupport() {
+	}
+
+	/**
+	 * @return DaplugDongle a simulated dongle answering without any latency
+	 */
+	public static DaplugDongle simulatedDongle() {
+		return new DaplugDongle(new DaplugDongleSim(new DaplugCardSim(), DaplugSimLatency.NONE));
+	}
+
+	/**
+	 * Opens a secure channel on a new simulated dongle
+	 * @param securityLevel int secure channel security level
+	 * @return DaplugSession authenticated session
+	 * @throws DaplugException
+	 */
+	public static DaplugSession authenticatedSession(int securityLevel) throws DaplugException {
+		DaplugSession session = new DaplugSession(simulatedDongle());
+		session.authenticate(ADMIN_KEYSET, securityLevel);
+		return session;
+	}
+
+	/**
+	 * A DaplugConsoleTraceSink prints every apdu on System.out : keep the formatting cost but not the console output,
+	 * which would flood the benchmark report.
+	 */
+	public static void discardStandardOutput() {
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.apdu.DaplugApduCommandView;
+import io.daplug.apdu.DaplugApduResponse;
+import io.daplug.apdu.DaplugApduResponseView;
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.dongle.sim.DaplugCardSim;
+import io.daplug.dongle.sim.DaplugDongleSim;
+import io.daplug.dongle.sim.DaplugSimLatency;
+import io.daplug.exception.DaplugException;
+import io.daplug.keyset.DaplugKeyset;
+import io.daplug.session.DaplugSession;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Full exchange round trips against a simulated dongle without latency : what is measured is the
+ * host side cost of an apdu (building, wrapping, transport adapters, card model, unwrapping).
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExchangeBenchmark {
+
+	/* 0 : no secure channel, then C-MAC combined with C-DEC, R-MAC and R-ENC */
+	@Param({ "0", "1", "3", "17", "19", "33", "35", "49", "51" })
+	public int securityLevel;
+
+	private DaplugDongle dongle;
+	private DaplugSession session;
+	private DaplugApduCommand serial;
+	private DaplugApduCommandView serialView;
+	private byte[] serialBytes, hmacData;
+
+	private static final int HMAC_KEYSET_VERSION = 0x31;
+
+	@Setup
+	public void setup() throws DaplugException {
+		DaplugBenchmarkSupport.discardStandardOutput();
+		DaplugCardSim card = new DaplugCardSim();
+		card.storeKeyset(new DaplugKeyset(HMAC_KEYSET_VERSION, DaplugKeyset.USAGE_HMAC_SHA1, 0x14, DaplugCardSim.DEFAULT_ADMIN_KEY));
+		this.dongle = new DaplugDongle(new DaplugDongleSim(card, DaplugSimLatency.NONE));
+		this.session = new DaplugSession(this.dongle);
+		if (this.securityLevel != 0)
+			this.session.authenticate(DaplugBenchmarkSupport.ADMIN_KEYSET, this.securityLevel);
+		this.serialBytes = DaplugUtils.hexStringToByteArray("80E6000000");
+		this.serial = new DaplugApduCommand(this.serialBytes);
+		this.serialView = new DaplugApduCommandView(this.serialBytes, 0, this.serialBytes.length);
+		this.hmacData = new byte[32];
+	}
+
+	/* transport floor : no session, no secure channel */
+	@Benchmark
+	public byte[] dongleExchangeBytes() throws DaplugException {
+		return this.dongle.exchangeBytes(this.serialBytes);
+	}
+
+	@Benchmark
+	public DaplugApduResponse sessionExchange() throws DaplugException {
+		return this.session.exchange(this.serial);
+	}
+
+	/* flyweight command and response : wrap and unwrap in place in the session buffers */
+	@Benchmark
+	public DaplugApduResponseView sessionExchangeView() throws DaplugException {
+		return this.session.exchange(this.serialView);
+	}
+
+	@Benchmark
+	public byte[] getRandom() throws DaplugException {
+		return this.session.getRandom(32);
+	}
+
+	@Benchmark
+	public byte[] hmac() throws DaplugException {
+		return this.session.hmac(HMAC_KEYSET_VERSION, 0, null, null, this.hmacData);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.utils.DaplugHexCodec;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * DaplugUtils hexadecimal codecs, used to build every apdu of DaplugSession, against the table-driven
+ * DaplugHexCodec writing into caller buffers. The legacy* methods are the codecs DaplugUtils had before
+ * delegating to DaplugHexCodec, kept here as the baseline.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HexCodecBenchmark {
+
+	@Param({ "8", "64", "260" })
+	public int length;
+
+	private byte[] bytes, decoded;
+	private String hex, ascii;
+	private char[] chars;
+	private StringBuilder builder;
+
+	@Setup
+	public void setup() {
+		this.bytes = new byte[this.length];
+		new Random(42).nextBytes(this.bytes);
+		this.hex = DaplugUtils.byteArrayToHexString(this.bytes);
+		this.decoded = new byte[this.length];
+		this.chars = new char[2 * this.length];
+		this.builder = new StringBuilder(2 * this.length);
+		char[] text = new char[this.length];
+		for (int i = 0; i < text.length; i++)
+			text[i] = (char) (0x20 + (this.bytes[i] & 0x3F));
+		this.ascii = new String(text);
+	}
+
+	@Benchmark
+	public String byteArrayToHexString() {
+		return DaplugUtils.byteArrayToHexString(this.bytes);
+	}
+
+	@Benchmark
+	public String bytesToHex() {
+		return DaplugUtils.bytesToHex(this.bytes);
+	}
+
+	@Benchmark
+	public byte[] hexStringToByteArray() {
+		return DaplugUtils.hexStringToByteArray(this.hex);
+	}
+
+	@Benchmark
+	public boolean isHexInput() {
+		return DaplugUtils.isHexInput(this.hex);
+	}
+
+	@Benchmark
+	public String asciiToHex() {
+		return DaplugUtils.asciiToHex(this.ascii);
+	}
+
+	@Benchmark
+	public int encodeInto() {
+		return DaplugHexCodec.encode(this.bytes, 0, this.bytes.length, this.chars, 0);
+	}
+
+	@Benchmark
+	public StringBuilder appendTo() {
+		this.builder.setLength(0);
+		return DaplugHexCodec.append(this.bytes, 0, this.bytes.length, this.builder);
+	}
+
+	@Benchmark
+	public int decodeInto() {
+		return DaplugHexCodec.decode(this.hex, 0, this.hex.length(), this.decoded, 0);
+	}
+
+	@Benchmark
+	public String legacyByteArrayToHexString() {
+		StringBuffer sb = new StringBuffer(this.bytes.length * 2);
+		for (int i = 0; i < this.bytes.length; i++) {
+			int v = this.bytes[i] & 0xff;
+			if (v < 16)
+				sb.append('0');
+			sb.append(Integer.toHexString(v));
+		}
+		return sb.toString().toUpperCase();
+	}
+
+	@Benchmark
+	public byte[] legacyHexStringToByteArray() {
+		String s = this.hex;
+		if (!legacyIsHexInput(s))
+			return null;
+		byte[] b = new byte[s.length() / 2];
+		for (int i = 0; i < s.length(); i += 2)
+			b[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4) + Character.digit(s.charAt(i + 1), 16));
+		return b;
+	}
+
+	@Benchmark
+	public boolean legacyIsHexInput() {
+		return legacyIsHexInput(this.hex);
+	}
+
+	@Benchmark
+	public String legacyAsciiToHex() {
+		StringBuilder hex = new StringBuilder();
+		for (int i = 0; i < this.ascii.length(); i++)
+			hex.append(Integer.toHexString(this.ascii.charAt(i)));
+		return hex.toString();
+	}
+
+	private static boolean legacyIsHexInput(String input) {
+		String hexNb = "0123456789abcdefABCDEF";
+		if (input.length() % 2 != 0)
+			return false;
+		for (int i = 0; i < input.length(); i++) {
+			int j = 0;
+			while (j < 22 && input.charAt(i) != hexNb.charAt(j))
+				j++;
+			if (j == 22)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.dongle.hid.HidReportCodec;
+import io.daplug.exception.DaplugException;
+
+/**
+ * HID report framing alone : an apdu encoded in output reports, then a recorded sequence of input reports decoded
+ * in the response buffer, as HIDComm and HidrawComm do around the device reads and writes.
+ * Run with -prof gc : the steady state allocates nothing.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HidCodecBenchmark {
+
+	/**
+	 * Response data length, -1 for a response without data (status word only), 0 for 256 bytes
+	 */
+	@Param({ "-1", "62", "239", "0" })
+	public int dataLength;
+
+	private final HidReportCodec codec = new HidReportCodec();
+	private final byte[] apdu = new byte[5 + 255];
+	private final byte[] response = new byte[IDaplugDongle.RESPONSE_MAX_LEN];
+	private final byte[] sink = new byte[HidReportCodec.OUTPUT_REPORT_LENGTH];
+	private byte[][] reports;
+
+	@Setup
+	public void setup() {
+		this.apdu[0] = (byte) 0xD0;
+		this.apdu[1] = 0x20;
+		this.apdu[4] = (byte) 0xFF;
+		byte[] frame;
+		if (this.dataLength < 0) {
+			frame = new byte[] { (byte) 0x90, 0x00 };
+		} else {
+			int data = (this.dataLength == 0) ? 0x100 : this.dataLength;
+			frame = new byte[2 + data + 2];
+			frame[0] = 0x61;
+			frame[1] = (byte) this.dataLength;
+			frame[2 + data] = (byte) 0x90;
+		}
+		// recorded input reports : the frame cut in 64-bytes reports, the last one padded
+		this.reports = new byte[(frame.length + HidReportCodec.INPUT_REPORT_LENGTH - 1)
+				/ HidReportCodec.INPUT_REPORT_LENGTH][HidReportCodec.INPUT_REPORT_LENGTH];
+		for (int i = 0; i < this.reports.length; i++) {
+			int offset = i * HidReportCodec.INPUT_REPORT_LENGTH;
+			System.arraycopy(frame, offset, this.reports[i], 0,
+					Math.min(HidReportCodec.INPUT_REPORT_LENGTH, frame.length - offset));
+		}
+	}
+
+	@Benchmark
+	public int exchange() throws DaplugException {
+		HidReportCodec codec = this.codec;
+		int reports = HidReportCodec.reportCount(this.apdu.length);
+		for (int i = 0; i < reports; i++)
+			System.arraycopy(codec.encode(this.apdu, 0, this.apdu.length, i), 0, this.sink, 0, this.sink.length);
+		codec.begin(this.response, 0);
+		int i = 0;
+		boolean complete = false;
+		while (!complete) {
+			System.arraycopy(this.reports[i++], 0, codec.inputReport(), 0, HidReportCodec.INPUT_REPORT_LENGTH);
+			complete = codec.decode(HidReportCodec.INPUT_REPORT_LENGTH);
+		}
+		return codec.responseLength();
+	}
+}
@@ -0,0 +1,153 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.dongle.DaplugExchangeFuture;
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.dongle.hid.DaplugHidMultiplexer;
+import io.daplug.dongle.hid.HIDAsyncComm;
+import io.daplug.dongle.hid.IHIDPort;
+import io.daplug.dongle.sim.DaplugCardSim;
+import io.daplug.dongle.sim.DaplugSimLatency;
+import io.daplug.exception.DaplugException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * HID dongles driven by one DaplugHidMultiplexer thread : each operation sends a GET SERIAL to every dongle
+ * and waits for all the responses. The dongles are simulated cards behind non-blocking ports whose reports
+ * become readable after an HID-like latency. The time of an operation should stay close to the latency
+ * of one exchange whatever the number of dongles.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HidMultiplexerBenchmark {
+
+	/* card processing time and 64-bytes report time of a real dongle, roughly */
+	private static final DaplugSimLatency LATENCY = DaplugSimLatency.hid(300000L, 60000L);
+
+	@Param({ "1", "8", "32" })
+	public int dongles;
+
+	private DaplugHidMultiplexer mux;
+	private HIDAsyncComm[] comms;
+	private DaplugExchangeFuture[] futures;
+	private byte[][] responses;
+	private final byte[] apdu = DaplugUtils.hexStringToByteArray("80E6000000");
+
+	/**
+	 * A simulated card behind a non-blocking port : the input reports of a response are readable
+	 * once the latency of the exchange is elapsed. Used by the multiplexer thread only.
+	 */
+	static final class SimulatedPort implements IHIDPort {
+
+		private final DaplugCardSim card = new DaplugCardSim();
+		private final byte[] command = new byte[IDaplugDongle.RESPONSE_MAX_LEN],
+				response = new byte[IDaplugDongle.RESPONSE_MAX_LEN], reports = new byte[5 * 64];
+		private int received = 0, expected = -1, available = 0, read = 0;
+		private long ready;
+
+		public int write(byte[] report) {
+			int n = Math.min(64, this.expected < 0 ? 64 : this.expected - this.received);
+			System.arraycopy(report, 1, this.command, this.received, n);
+			this.received += n;
+			if (this.expected < 0) {
+				this.expected = 5 + (this.command[4] & 0xFF);
+				this.received = Math.min(this.received, this.expected);
+			}
+			if (this.received == this.expected) {
+				int len = this.card.process(this.command, 0, this.expected, this.response, 0);
+				Arrays.fill(this.reports, (byte) 0);
+				if (len == 2) {
+					System.arraycopy(this.response, 0, this.reports, 0, 2);
+					this.available = 64;
+				} else {
+					this.reports[0] = 0x61;
+					this.reports[1] = (byte) (len - 2);
+					System.arraycopy(this.response, 0, this.reports, 2, len);
+					this.available = (len + 2 + 63) / 64 * 64;
+				}
+				this.read = 0;
+				this.ready = System.nanoTime() + LATENCY.latencyNanos(this.expected, len);
+				this.received = 0;
+				this.expected = -1;
+			}
+			return report.length;
+		}
+
+		public int read(byte[] report) {
+			if (this.read == this.available || System.nanoTime() - this.ready < 0)
+				return 0;
+			System.arraycopy(this.reports, this.read, report, 0, 64);
+			this.read += 64;
+			return 64;
+		}
+
+		public void close() {
+		}
+	}
+
+	@Setup
+	public void setup() {
+		this.mux = new DaplugHidMultiplexer("daplug-hid-mux-benchmark");
+		this.comms = new HIDAsyncComm[this.dongles];
+		this.futures = new DaplugExchangeFuture[this.dongles];
+		this.responses = new byte[this.dongles][IDaplugDongle.RESPONSE_MAX_LEN];
+		for (int i = 0; i < this.dongles; i++)
+			this.comms[i] = new HIDAsyncComm(new SimulatedPort(), this.mux);
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (HIDAsyncComm comm : this.comms)
+			comm.close();
+	}
+
+	@Benchmark
+	public int exchangeAll() throws DaplugException, InterruptedException {
+		for (int i = 0; i < this.dongles; i++)
+			this.futures[i] = this.comms[i].submit(this.apdu, 0, this.apdu.length, this.responses[i], 0);
+		int total = 0;
+		for (DaplugExchangeFuture future : this.futures)
+			total += future.await();
+		return total;
+	}
+}
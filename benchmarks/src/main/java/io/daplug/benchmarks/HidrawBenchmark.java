@@ -0,0 +1,129 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.dongle.hidraw.HidrawComm;
+import io.daplug.exception.DaplugException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * HID framing of HidrawComm over pipes standing in for a hidraw node : a thread answers each apdu with
+ * the given number of data bytes. Measures the host side of an exchange (report framing, channel writes
+ * and reads) without the USB latency ; the GC profiler shows the exchange does not allocate.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HidrawBenchmark {
+
+	/* Report sizes : report number and 64 bytes out, 64 bytes in */
+	private static final int OUTPUT_SIZE = 65, INPUT_SIZE = 64;
+
+	@Param({ "0", "62", "200" })
+	public int responseLength;
+
+	private Pipe toDongle, fromDongle;
+	private HidrawComm comm;
+	private Thread dongle;
+	private final byte[] apdu = DaplugUtils.hexStringToByteArray("D024000000"),
+			response = new byte[IDaplugDongle.RESPONSE_MAX_LEN];
+
+	@Setup
+	public void setup() throws IOException {
+		this.toDongle = Pipe.open();
+		this.fromDongle = Pipe.open();
+		this.comm = new HidrawComm(this.fromDongle.source(), this.toDongle.sink());
+		final byte[] reports = reports(this.responseLength);
+		this.dongle = new Thread("hidraw-stand-in") {
+			@Override
+			public void run() {
+				ByteBuffer report = ByteBuffer.allocateDirect(OUTPUT_SIZE);
+				ByteBuffer answer = ByteBuffer.allocateDirect(reports.length);
+				try {
+					while (true) {
+						report.clear();
+						while (report.hasRemaining()) {
+							if (HidrawBenchmark.this.toDongle.source().read(report) < 0)
+								return;
+						}
+						answer.clear();
+						answer.put(reports).flip();
+						while (answer.hasRemaining())
+							HidrawBenchmark.this.fromDongle.sink().write(answer);
+					}
+				} catch (IOException e) {
+					// pipes closed by tearDown
+				}
+			}
+		};
+		this.dongle.setDaemon(true);
+		this.dongle.start();
+	}
+
+	/* Input reports of a response with the given data length and the status word 90 00 */
+	private static byte[] reports(int dataLength) {
+		if (dataLength == 0) {
+			byte[] report = new byte[INPUT_SIZE];
+			report[0] = (byte) 0x90;
+			return report;
+		}
+		int total = 2 + dataLength + 2;
+		byte[] reports = new byte[(total + INPUT_SIZE - 1) / INPUT_SIZE * INPUT_SIZE];
+		reports[0] = 0x61;
+		reports[1] = (byte) dataLength;
+		reports[2 + dataLength] = (byte) 0x90;
+		return reports;
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		this.comm.close();
+		this.toDongle.sink().close();
+		this.fromDongle.source().close();
+	}
+
+	@Benchmark
+	public int exchange() throws DaplugException, IOException {
+		return this.comm.exchange(this.apdu, 0, this.apdu.length, this.response, 0);
+	}
+}
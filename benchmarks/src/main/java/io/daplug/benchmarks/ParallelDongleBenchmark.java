@@ -0,0 +1,89 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.apdu.DaplugApduResponse;
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.dongle.sim.DaplugCardSim;
+import io.daplug.dongle.sim.DaplugDongleSim;
+import io.daplug.dongle.sim.DaplugSimLatency;
+import io.daplug.exception.DaplugException;
+import io.daplug.session.DaplugSession;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * One session per thread, each on its own simulated dongle with an HID-like latency :
+ * the throughput should grow with the number of threads (-t), as no state is shared between dongles.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Thread)
+public class ParallelDongleBenchmark {
+
+	/* card processing time and 64-bytes report time of a real dongle, roughly */
+	private static final DaplugSimLatency LATENCY = DaplugSimLatency.hid(300000L, 60000L);
+
+	private DaplugDongle dongle;
+	private DaplugSession session;
+	private DaplugApduCommand serial;
+
+	@Setup
+	public void setup() throws DaplugException {
+		DaplugBenchmarkSupport.discardStandardOutput();
+		DaplugDongleSim sim = new DaplugDongleSim("sim-" + Thread.currentThread().getId(), new DaplugCardSim(), LATENCY);
+		this.dongle = new DaplugDongle(sim);
+		this.session = new DaplugSession(this.dongle);
+		this.session.authenticate(DaplugBenchmarkSupport.ADMIN_KEYSET, DaplugSession.SEC_LEVEL_C_MAC
+				| DaplugSession.SEC_LEVEL_C_DEC | DaplugSession.SEC_LEVEL_R_MAC | DaplugSession.SEC_LEVEL_R_ENC);
+		this.serial = new DaplugApduCommand(DaplugUtils.hexStringToByteArray("80E6000000"));
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.dongle.close();
+	}
+
+	@Benchmark
+	public DaplugApduResponse sessionExchange() throws DaplugException {
+		return this.session.exchange(this.serial);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.dongle.sim.DaplugCardSim;
+import io.daplug.dongle.sim.DaplugDongleSim;
+import io.daplug.dongle.sim.DaplugSimLatency;
+import io.daplug.exception.DaplugException;
+import io.daplug.keyset.DaplugKeyset;
+import io.daplug.pool.DaplugPool;
+
+/**
+ * HMAC requests served by a DaplugPool of simulated dongles with an HID-like latency :
+ * the throughput should grow linearly with the number of dongles.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PoolBenchmark {
+
+	private static final int BATCH = 64;
+	private static final int HMAC_KEYSET_VERSION = 0x31;
+	private static final DaplugSimLatency LATENCY = DaplugSimLatency.hid(300000L, 60000L);
+
+	@Param({ "1", "2", "4", "8" })
+	public int dongles;
+
+	private DaplugPool pool;
+	private final byte[] data = new byte[32];
+
+	@Setup
+	public void setup() throws DaplugException {
+		DaplugBenchmarkSupport.discardStandardOutput();
+		List<DaplugDongle> list = new ArrayList<DaplugDongle>();
+		for (int i = 0; i < this.dongles; i++) {
+			DaplugCardSim card = new DaplugCardSim();
+			card.storeKeyset(new DaplugKeyset(HMAC_KEYSET_VERSION, DaplugKeyset.USAGE_HMAC_SHA1, 0x14, DaplugCardSim.DEFAULT_ADMIN_KEY));
+			list.add(new DaplugDongle(new DaplugDongleSim("sim-" + i, card, LATENCY)));
+		}
+		this.pool = new DaplugPool(list, DaplugBenchmarkSupport.ADMIN_KEYSET, 0x33);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.pool.close();
+	}
+
+	/* a batch of requests in flight, as a signing backend receives them */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public byte[] hmacBatch() throws DaplugException, InterruptedException, ExecutionException {
+		List<Future<byte[]>> results = new ArrayList<Future<byte[]>>(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			results.add(this.pool.hmac(HMAC_KEYSET_VERSION, 0, null, null, this.data));
+		}
+		byte[] last = null;
+		for (Future<byte[]> f : results) {
+			last = f.get();
+		}
+		return last;
+	}
+}
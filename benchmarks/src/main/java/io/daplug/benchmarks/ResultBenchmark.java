@@ -0,0 +1,109 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.dongle.sim.DaplugCardSim;
+import io.daplug.dongle.sim.DaplugDongleSim;
+import io.daplug.dongle.sim.DaplugSimLatency;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugStatusWordException;
+import io.daplug.keyset.DaplugKeyset;
+import io.daplug.session.DaplugResult;
+import io.daplug.session.DaplugSession;
+
+/**
+ * Card refusals, as an OTP validation flow meets them : the throwing hmac() against the DaplugResult variant,
+ * which reports the status word without exception or throws a shared stackless one on check().
+ * The refused hmac names a keyset the card does not hold (status word 6A88).
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultBenchmark {
+
+	/* 0 : no secure channel, 51 : C-MAC, C-DEC, R-MAC and R-ENC */
+	@Param({ "0", "51" })
+	public int securityLevel;
+
+	private DaplugSession session;
+	private final DaplugResult result = new DaplugResult();
+	private byte[] hmacData;
+
+	private static final int HMAC_KEYSET_VERSION = 0x31, MISSING_KEYSET_VERSION = 0x41;
+
+	@Setup
+	public void setup() throws DaplugException {
+		DaplugBenchmarkSupport.discardStandardOutput();
+		DaplugCardSim card = new DaplugCardSim();
+		card.storeKeyset(new DaplugKeyset(HMAC_KEYSET_VERSION, DaplugKeyset.USAGE_HMAC_SHA1, 0x14, DaplugCardSim.DEFAULT_ADMIN_KEY));
+		this.session = new DaplugSession(new DaplugDongle(new DaplugDongleSim(card, DaplugSimLatency.NONE)));
+		if (this.securityLevel != 0)
+			this.session.authenticate(DaplugBenchmarkSupport.ADMIN_KEYSET, this.securityLevel);
+		this.hmacData = new byte[32];
+	}
+
+	@Benchmark
+	public DaplugResult hmacResult() throws DaplugException {
+		return this.session.hmac(this.result, HMAC_KEYSET_VERSION, 0, null, null, this.hmacData);
+	}
+
+	@Benchmark
+	public Object refusedHmac() {
+		try {
+			return this.session.hmac(MISSING_KEYSET_VERSION, 0, null, null, this.hmacData);
+		} catch (DaplugException e) {
+			return e;
+		}
+	}
+
+	@Benchmark
+	public int refusedHmacResult() throws DaplugException {
+		return this.session.hmac(this.result, MISSING_KEYSET_VERSION, 0, null, null, this.hmacData).getOutcome();
+	}
+
+	@Benchmark
+	public Object refusedHmacCheck() throws DaplugException {
+		try {
+			return this.session.hmac(this.result, MISSING_KEYSET_VERSION, 0, null, null, this.hmacData).check();
+		} catch (DaplugStatusWordException e) {
+			return e;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.apdu.DaplugApduResponse;
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.dongle.sim.DaplugCardSim;
+import io.daplug.dongle.sim.DaplugDongleSim;
+import io.daplug.dongle.sim.DaplugSimLatency;
+import io.daplug.exception.DaplugException;
+import io.daplug.session.DaplugSession;
+import io.daplug.session.DaplugSessionExecutor;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Many threads sharing one session on one simulated dongle : through a DaplugSessionExecutor,
+ * or by locking the session around each exchange. executorBurst submits several commands before waiting
+ * for their results, so that the executor thread drains them in batches.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class SessionExecutorBenchmark {
+
+	/* commands submitted by a thread before it waits for the results */
+	private static final int BURST = 16;
+
+	private static final DaplugSimLatency LATENCY = DaplugSimLatency.hid(20000L, 5000L);
+
+	private final Object lock = new Object();
+	private DaplugSession executorSession, lockedSession;
+	private DaplugSessionExecutor executor;
+	private DaplugApduCommand serial;
+
+	@Setup
+	public void setup() throws DaplugException {
+		DaplugBenchmarkSupport.discardStandardOutput();
+		this.executorSession = openSession("sim-executor");
+		this.lockedSession = openSession("sim-locked");
+		this.executor = new DaplugSessionExecutor(this.executorSession);
+		this.serial = new DaplugApduCommand(DaplugUtils.hexStringToByteArray("80E6000000"));
+	}
+
+	private static DaplugSession openSession(String path) throws DaplugException {
+		DaplugSession session = new DaplugSession(new DaplugDongle(new DaplugDongleSim(path, new DaplugCardSim(), LATENCY)));
+		session.authenticate(DaplugBenchmarkSupport.ADMIN_KEYSET, DaplugSession.SEC_LEVEL_C_MAC
+				| DaplugSession.SEC_LEVEL_C_DEC | DaplugSession.SEC_LEVEL_R_MAC | DaplugSession.SEC_LEVEL_R_ENC);
+		return session;
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		this.executor.close(1000);
+	}
+
+	@Benchmark
+	public DaplugApduResponse executorExchange() throws DaplugException, InterruptedException, ExecutionException {
+		return this.executor.exchange(this.serial).get();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public DaplugApduResponse executorBurst() throws DaplugException, InterruptedException, ExecutionException {
+		List<Future<DaplugApduResponse>> futures = new ArrayList<Future<DaplugApduResponse>>(BURST);
+		for (int i = 0; i < BURST; i++)
+			futures.add(this.executor.exchange(this.serial));
+		DaplugApduResponse last = null;
+		for (Future<DaplugApduResponse> f : futures)
+			last = f.get();
+		return last;
+	}
+
+	@Benchmark
+	public DaplugApduResponse lockedExchange() throws DaplugException {
+		synchronized (this.lock) {
+			return this.lockedSession.exchange(this.serial);
+		}
+	}
+}
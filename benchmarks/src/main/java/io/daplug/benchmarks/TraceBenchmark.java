@@ -0,0 +1,88 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.apdu.DaplugApduCommandView;
+import io.daplug.apdu.DaplugApduResponseView;
+import io.daplug.exception.DaplugException;
+import io.daplug.session.DaplugSession;
+import io.daplug.trace.DaplugConsoleTraceSink;
+import io.daplug.trace.DaplugRingTraceSink;
+import io.daplug.trace.DaplugTrace;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Cost of the trace on a C-MAC exchange with a simulated dongle without latency : disabled sink,
+ * binary ring and console printing (to a discarded System.out).
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceBenchmark {
+
+	@Param({ "none", "ring", "console" })
+	public String sink;
+
+	private DaplugSession session;
+	private DaplugApduCommandView serial;
+
+	@Setup
+	public void setup() throws DaplugException {
+		DaplugBenchmarkSupport.discardStandardOutput();
+		this.session = DaplugBenchmarkSupport.authenticatedSession(0x01);
+		if ("ring".equals(this.sink))
+			this.session.setTraceSink(new DaplugRingTraceSink());
+		else if ("console".equals(this.sink))
+			this.session.setTraceSink(new DaplugConsoleTraceSink());
+		else
+			this.session.setTraceSink(DaplugTrace.NONE);
+		byte[] bytes = DaplugUtils.hexStringToByteArray("80E6000000");
+		this.serial = new DaplugApduCommandView(bytes, 0, bytes.length);
+	}
+
+	@Benchmark
+	public DaplugApduResponseView exchange() throws DaplugException {
+		return this.session.exchange(this.serial);
+	}
+
+	/* exchange followed by an informative message */
+	@Benchmark
+	public void selectFile() throws DaplugException {
+		this.session.selectFile(0x3F00);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.session;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.apdu.DaplugApduResponse;
+import io.daplug.benchmarks.DaplugBenchmarkSupport;
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.exception.DaplugException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * DaplugSession.wrapApdu() / unwrapApdu() at every security level combination, and their in place versions.
+ * The wrapped response is produced once by the simulated card ; the R-MAC chaining value is restored
+ * before each unwrap so that the same response can be verified again.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionWrapBenchmark implements SessionConstante {
+
+	/* 0 : no secure channel, then C-MAC combined with C-DEC, R-MAC and R-ENC */
+	@Param({ "0", "1", "3", "17", "19", "33", "35", "49", "51" })
+	public int securityLevel;
+
+	/* GET RANDOM command : 32 bytes of data in the command and in the response */
+	private static final String APDU = "D024000020" + "0000000000000000000000000000000000000000000000000000000000000000";
+
+	private DaplugSession session;
+	private DaplugApduCommand command;
+	private byte[] response, rMac;
+
+	@Setup
+	public void setup() throws DaplugException {
+		DaplugBenchmarkSupport.discardStandardOutput();
+		DaplugDongle dongle = DaplugBenchmarkSupport.simulatedDongle();
+		this.session = new DaplugSession(dongle);
+		if (this.securityLevel != 0)
+			this.session.authenticate(DaplugBenchmarkSupport.ADMIN_KEYSET, this.securityLevel);
+		this.command = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(APDU));
+		DaplugApduCommand wrapped = this.session.wrapApdu(this.command);
+		this.rMac = this.session.getRMac();
+		this.response = dongle.exchangeBytes(wrapped.getBytes());
+		if (!unwrap().normalEnding())
+			throw new IllegalStateException("SessionWrapBenchmark - unexpected response " + DaplugUtils.byteArrayToHexString(this.response));
+	}
+
+	@Benchmark
+	public DaplugApduCommand wrap() throws DaplugException {
+		return this.session.wrapApdu(this.command);
+	}
+
+	@Benchmark
+	public DaplugApduResponse unwrap() throws DaplugException {
+		this.session.setRMac(this.rMac);
+		return this.session.unwrapApdu(this.command, this.response);
+	}
+
+	/* in place in the session buffers : no DaplugApduCommand / DaplugApduResponse built */
+	@Benchmark
+	public int wrapInPlace() throws DaplugException {
+		byte[] bytes = this.command.getBytes();
+		return this.session.wrapCommand(bytes, 0, bytes.length);
+	}
+
+	/* the response is copied back into the session buffer first, as unwrapping overwrites it */
+	@Benchmark
+	public int unwrapInPlace() throws DaplugException {
+		this.session.setRMac(this.rMac);
+		System.arraycopy(this.response, 0, this.session.getResponseBuffer(), 0, this.response.length);
+		byte[] bytes = this.command.getBytes();
+		return this.session.unwrapResponse(bytes, 0, bytes.length, this.response.length);
+	}
+}
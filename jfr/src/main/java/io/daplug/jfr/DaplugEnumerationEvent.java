@@ -0,0 +1,44 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A scan of the Daplug dongles plugged in (DaplugEnumerator).
+ *
+ */
+@Name(DaplugFlightRecorder.ENUMERATION_EVENT)
+@Label("Daplug Enumeration")
+@Category({ "Daplug" })
+@Description("Scan of the Daplug dongles plugged in")
+@StackTrace(false)
+class DaplugEnumerationEvent extends jdk.jfr.Event {
+
+	@Label("HID Dongles")
+	int hidDongles;
+
+	@Label("WINUSB Dongles")
+	int winusbDongles;
+}
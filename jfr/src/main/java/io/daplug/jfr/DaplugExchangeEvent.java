@@ -0,0 +1,68 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An apdu exchanged by a DaplugSession : wrapping, transport and unwrapping.
+ *
+ */
+@Name(DaplugFlightRecorder.EXCHANGE_EVENT)
+@Label("Daplug Exchange")
+@Category({ "Daplug" })
+@Description("APDU exchanged by a Daplug session")
+@StackTrace(false)
+class DaplugExchangeEvent extends jdk.jfr.Event {
+
+	@Label("Dongle")
+	String dongle;
+
+	@Label("INS")
+	@Description("Instruction byte")
+	int ins;
+
+	@Label("Lc")
+	@Description("Length of the command data, before wrapping")
+	int lc;
+
+	@Label("Le")
+	@Description("Expected response length, for commands without data")
+	int le;
+
+	@Label("Status Word")
+	int sw;
+
+	@Label("Security Level")
+	@Description("Security level of the secure channel, 0 without secure channel")
+	int securityLevel;
+
+	@Label("Bytes Sent")
+	@jdk.jfr.DataAmount
+	int bytesSent;
+
+	@Label("Bytes Received")
+	@jdk.jfr.DataAmount
+	int bytesReceived;
+}
@@ -0,0 +1,128 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.jfr;
+
+/**
+ * Creates and commits the flight recorder events. DaplugFlightRecorder finds this recorder with
+ * java.util.ServiceLoader, once jdk.jfr is known to be available.
+ *
+ */
+public final class DaplugJfr implements IDaplugRecorder {
+
+	/* Probes of the event settings : isEnabled() tells if the event type is enabled in a running recording */
+	private static final DaplugExchangeEvent EXCHANGE = new DaplugExchangeEvent();
+	private static final DaplugSecureChannelEvent SECURE_CHANNEL = new DaplugSecureChannelEvent();
+	private static final DaplugTransferEvent TRANSFER = new DaplugTransferEvent();
+	private static final DaplugEnumerationEvent ENUMERATION = new DaplugEnumerationEvent();
+
+	/**
+	 * Constructs the recorder, for ServiceLoader
+	 */
+	public DaplugJfr() {
+	}
+
+	public Object beginExchange() {
+		if (!EXCHANGE.isEnabled())
+			return null;
+		DaplugExchangeEvent event = new DaplugExchangeEvent();
+		event.begin();
+		return event;
+	}
+
+	public void endExchange(Object e, String dongle, int ins, int lc, int le, int sw, int securityLevel,
+			int bytesSent, int bytesReceived) {
+		DaplugExchangeEvent event = (DaplugExchangeEvent) e;
+		event.end();
+		if (event.shouldCommit()) {
+			event.dongle = dongle;
+			event.ins = ins;
+			event.lc = lc;
+			event.le = le;
+			event.sw = sw;
+			event.securityLevel = securityLevel;
+			event.bytesSent = bytesSent;
+			event.bytesReceived = bytesReceived;
+			event.commit();
+		}
+	}
+
+	public Object beginSecureChannel() {
+		if (!SECURE_CHANNEL.isEnabled())
+			return null;
+		DaplugSecureChannelEvent event = new DaplugSecureChannelEvent();
+		event.begin();
+		return event;
+	}
+
+	public void endSecureChannel(Object e, String dongle, String operation, int keysetVersion, int securityLevel,
+			boolean succeeded) {
+		DaplugSecureChannelEvent event = (DaplugSecureChannelEvent) e;
+		event.end();
+		if (event.shouldCommit()) {
+			event.dongle = dongle;
+			event.operation = operation;
+			event.keysetVersion = keysetVersion;
+			event.securityLevel = securityLevel;
+			event.succeeded = succeeded;
+			event.commit();
+		}
+	}
+
+	public Object beginTransfer() {
+		if (!TRANSFER.isEnabled())
+			return null;
+		DaplugTransferEvent event = new DaplugTransferEvent();
+		event.begin();
+		return event;
+	}
+
+	public void endTransfer(Object e, String transport, int blocksWritten, int blocksRead, int bytesWritten,
+			int bytesRead, boolean timedOut) {
+		DaplugTransferEvent event = (DaplugTransferEvent) e;
+		event.end();
+		if (event.shouldCommit()) {
+			event.transport = transport;
+			event.blocksWritten = blocksWritten;
+			event.blocksRead = blocksRead;
+			event.bytesWritten = bytesWritten;
+			event.bytesRead = bytesRead;
+			event.timedOut = timedOut;
+			event.commit();
+		}
+	}
+
+	public Object beginEnumeration() {
+		if (!ENUMERATION.isEnabled())
+			return null;
+		DaplugEnumerationEvent event = new DaplugEnumerationEvent();
+		event.begin();
+		return event;
+	}
+
+	public void endEnumeration(Object e, int hidDongles, int winusbDongles) {
+		DaplugEnumerationEvent event = (DaplugEnumerationEvent) e;
+		event.end();
+		if (event.shouldCommit()) {
+			event.hidDongles = hidDongles;
+			event.winusbDongles = winusbDongles;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The USB transfers of one exchange by the HID or WINUSB transport.
+ *
+ */
+@Name(DaplugFlightRecorder.TRANSFER_EVENT)
+@Label("Daplug USB Transfer")
+@Category({ "Daplug" })
+@Description("USB transfers of an APDU exchange")
+@StackTrace(false)
+class DaplugTransferEvent extends jdk.jfr.Event {
+
+	@Label("Transport")
+	@Description("HID or WINUSB")
+	String transport;
+
+	@Label("Blocks Written")
+	int blocksWritten;
+
+	@Label("Blocks Read")
+	int blocksRead;
+
+	@Label("Bytes Written")
+	@jdk.jfr.DataAmount
+	int bytesWritten;
+
+	@Label("Bytes Read")
+	@jdk.jfr.DataAmount
+	int bytesRead;
+
+	@Label("Timed Out")
+	boolean timedOut;
+}
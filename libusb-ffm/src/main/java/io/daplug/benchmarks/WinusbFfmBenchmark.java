@@ -0,0 +1,166 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.benchmarks;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.usb4java.BufferUtils;
+
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.dongle.sim.DaplugCardSim;
+import io.daplug.dongle.winusb.IWinusb;
+import io.daplug.dongle.winusb.ffm.FfmBulkTransfer;
+import io.daplug.dongle.winusb.ffm.FfmWinusbComm;
+import io.daplug.exception.DaplugException;
+
+/**
+ * Host side of a WINUSB exchange, without the USB latency : a simulated card stands in for libusb_bulk_transfer.
+ * usb4javaStaging allocates and fills direct buffers per exchange as WinusbComm does ; ffmExchange copies through
+ * the native segments of FfmWinusbComm, allocated once ; ffmSegment leaves the response in native memory.
+ * Run with -prof gc to compare the allocation rates.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+@State(Scope.Thread)
+public class WinusbFfmBenchmark {
+
+	/* bulk endpoints of the stand-in */
+	private static final int OUT = 0x02, IN = 0x82;
+
+	/**
+	 * Number of random bytes asked to the card
+	 */
+	@Param({ "8", "64", "200" })
+	public int randomLength;
+
+	private DaplugCardSim card;
+	private CardLink link;
+	private FfmWinusbComm comm;
+	private byte[] apdu;
+	private final byte[] response = new byte[IDaplugDongle.RESPONSE_MAX_LEN];
+	private final byte[] scratch = new byte[IWinusb.PACKET_SIZE];
+
+	/**
+	 * libusb_bulk_transfer stand-in : the command written to the OUT endpoint is processed by the card,
+	 * the next reads of the IN endpoint return the response framed as the dongle does (61 Lr data SW)
+	 */
+	private static final class CardLink implements FfmBulkTransfer {
+
+		private final DaplugCardSim card;
+		private final byte[] command = new byte[IWinusb.PACKET_SIZE], reply = new byte[IWinusb.PACKET_SIZE];
+		private int replyLength = 0, replyOffset = 0;
+
+		CardLink(DaplugCardSim card) {
+			this.card = card;
+		}
+
+		public int transfer(int endpoint, MemorySegment data, int length, MemorySegment transferred, int timeout) {
+			if (endpoint == OUT) {
+				MemorySegment.copy(data, JAVA_BYTE, 0, this.command, 0, length);
+				int len = this.card.process(this.command, 0, length, this.reply, 2);
+				if (len > 2) {
+					this.reply[0] = 0x61;
+					this.reply[1] = (byte) (len - 2);
+					this.replyOffset = 0;
+				} else {
+					this.replyOffset = 2;
+				}
+				this.replyLength = 2 + len;
+			} else {
+				length = Math.min(length, this.replyLength - this.replyOffset);
+				MemorySegment.copy(this.reply, this.replyOffset, data, JAVA_BYTE, 0, length);
+				this.replyOffset += length;
+			}
+			transferred.set(JAVA_INT, 0, length);
+			return 0;
+		}
+
+		public void close() {
+		}
+	}
+
+	@Setup
+	public void setup() {
+		this.card = new DaplugCardSim();
+		this.link = new CardLink(this.card);
+		this.comm = new FfmWinusbComm(this.link, OUT, IN);
+		this.apdu = new byte[5 + this.randomLength];
+		this.apdu[0] = (byte) 0xD0;
+		this.apdu[1] = 0x24;
+		this.apdu[4] = (byte) this.randomLength;
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.comm.close();
+	}
+
+	@Benchmark
+	public int usb4javaStaging() {
+		ByteBuffer w_buffer = BufferUtils.allocateByteBuffer(this.apdu.length);
+		w_buffer.put(this.apdu, 0, this.apdu.length);
+		IntBuffer w_transferred = BufferUtils.allocateIntBuffer();
+		w_buffer.rewind();
+		w_buffer.get(this.scratch, 0, this.apdu.length);
+		w_transferred.put(0, this.apdu.length);
+		int len = this.card.process(this.scratch, 0, this.apdu.length, this.response, 0);
+
+		ByteBuffer r_buffer = BufferUtils.allocateByteBuffer(IWinusb.PACKET_SIZE);
+		IntBuffer r_transferred = BufferUtils.allocateIntBuffer();
+		r_buffer.position(2);
+		r_buffer.put(this.response, 0, len);
+		r_transferred.put(0, len + 2);
+		r_buffer.position(2);
+		r_buffer.get(this.response, 0, r_transferred.get(0) - 2);
+		return len;
+	}
+
+	@Benchmark
+	public int ffmExchange() throws DaplugException {
+		return this.comm.exchange(this.apdu, 0, this.apdu.length, this.response, 0);
+	}
+
+	@Benchmark
+	public long ffmSegment() throws DaplugException {
+		return this.comm.exchangeSegment(this.apdu, 0, this.apdu.length).byteSize();
+	}
+}
@@ -0,0 +1,46 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb.ffm;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * The bulk transfers of one opened WINUSB dongle, over native memory : libusb_bulk_transfer on a claimed
+ * interface (FfmUsbContext.open()), or a stand-in answering from the simulator in the benchmarks.
+ *
+ */
+public interface FfmBulkTransfer {
+
+	/**
+	 * Runs one bulk transfer, as libusb_bulk_transfer does
+	 * @param endpoint int endpoint address (ENDPOINT_IN bit set for a read)
+	 * @param data MemorySegment native buffer written to, or read into, the dongle
+	 * @param length int number of bytes to write, or maximum number of bytes to read
+	 * @param transferred MemorySegment native int receiving the number of bytes transferred
+	 * @param timeout int timeout in milliseconds
+	 * @return int 0 on success, a libusb error code otherwise
+	 */
+	public int transfer(int endpoint, MemorySegment data, int length, MemorySegment transferred, int timeout);
+
+	/**
+	 * Releases the interface and closes the device handle
+	 */
+	public void close();
+}
@@ -0,0 +1,279 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb.ffm;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Vector;
+
+import io.daplug.dongle.winusb.IWinusb;
+import io.daplug.exception.DaplugCommunicationException;
+import io.daplug.exception.DaplugException;
+
+/**
+ * The libusb context shared by the WINUSB dongles opened through java.lang.foreign, as DaplugUsbContext
+ * is for usb4java : initialized by the first acquire() and freed by the last release().
+ *
+ * A dongle is opened once : its vendor specific interface is found in the descriptors, the kernel driver is
+ * detached automatically and the interface is claimed until the handle is closed.
+ *
+ * All methods are thread-safe. Exchanges do not lock the context : each dongle owns its handle.
+ *
+ */
+final class FfmUsbContext implements IWinusb {
+
+	private static final FfmUsbContext INSTANCE = new FfmUsbContext();
+
+	private MemorySegment context = MemorySegment.NULL;
+	private int references = 0;
+
+	private FfmUsbContext() {
+	}
+
+	/**
+	 * Gets the shared context, initializing libusb on first use
+	 * @return FfmUsbContext the shared context
+	 * @throws DaplugException if libusb cannot be initialized
+	 */
+	static FfmUsbContext acquire() throws DaplugException {
+		synchronized (INSTANCE) {
+			if (INSTANCE.references == 0) {
+				try (Arena arena = Arena.ofConfined()) {
+					MemorySegment ctx = arena.allocate(ADDRESS);
+					check((int) LibUsbFfm.INIT.invokeExact(ctx), "Unable to initialize libusb");
+					INSTANCE.context = ctx.get(ADDRESS, 0);
+				} catch (DaplugException e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new DaplugCommunicationException(e);
+				}
+			}
+			INSTANCE.references++;
+			return INSTANCE;
+		}
+	}
+
+	/**
+	 * Releases the shared context : libusb is freed when the last user releases it
+	 */
+	void release() {
+		synchronized (INSTANCE) {
+			if (this.references == 0)
+				return;
+			if (--this.references == 0) {
+				try {
+					LibUsbFfm.EXIT.invokeExact(this.context);
+				} catch (Throwable e) {
+					System.err.println("FfmUsbContext - libusb_exit failed : " + e);
+				}
+				this.context = MemorySegment.NULL;
+			}
+		}
+	}
+
+	/**
+	 * Lists the paths of the devices : their libusb pointer, as DaplugUsbContext lists them
+	 * @param vid int vendor_id
+	 * @param pid int product_id
+	 * @param filter boolean false to list all the devices
+	 * @return Vector<String> paths
+	 * @throws DaplugException if the devices can not be listed
+	 */
+	synchronized Vector<String> listPaths(int vid, int pid, boolean filter) throws DaplugException {
+		Vector<String> paths = new Vector<String>();
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment list = deviceList(arena);
+			try {
+				for (int i = 0; ; i++) {
+					MemorySegment device = list.getAtIndex(ADDRESS, i);
+					if (device.equals(MemorySegment.NULL))
+						break;
+					if (!filter || matches(arena, device, vid, pid))
+						paths.add(String.valueOf(device.address()));
+				}
+			} finally {
+				LibUsbFfm.FREE_DEVICE_LIST.invokeExact(list, 1);
+			}
+		} catch (DaplugException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new DaplugCommunicationException(e);
+		}
+		return paths;
+	}
+
+	/**
+	 * Opens a Daplug dongle by its path and claims its vendor specific interface
+	 * @param path String device path, as given by listPaths()
+	 * @return FfmWinusbComm the exchanges with the opened dongle, null if no dongle has this path
+	 * @throws DaplugException if the dongle can not be opened
+	 */
+	synchronized FfmWinusbComm open(String path) throws DaplugException {
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment list = deviceList(arena);
+			try {
+				for (int i = 0; ; i++) {
+					MemorySegment device = list.getAtIndex(ADDRESS, i);
+					if (device.equals(MemorySegment.NULL))
+						return null;
+					if (path.equals(String.valueOf(device.address())) && matches(arena, device, VENDOR_ID, PRODUCT_ID))
+						return open(arena, device, path);
+				}
+			} finally {
+				LibUsbFfm.FREE_DEVICE_LIST.invokeExact(list, 1);
+			}
+		} catch (DaplugException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new DaplugCommunicationException(e);
+		}
+	}
+
+	/* the device list, NULL terminated, to free with libusb_free_device_list */
+	private MemorySegment deviceList(Arena arena) throws Throwable {
+		if (this.context.equals(MemorySegment.NULL))
+			throw new IllegalStateException("FfmUsbContext - libusb context is not acquired");
+		MemorySegment out = arena.allocate(ADDRESS);
+		long count = (long) LibUsbFfm.GET_DEVICE_LIST.invokeExact(this.context, out);
+		check((int) count, "Unable to get device list");
+		return out.get(ADDRESS, 0).reinterpret((count + 1) * ADDRESS.byteSize());
+	}
+
+	private static boolean matches(Arena arena, MemorySegment device, int vid, int pid) throws Throwable {
+		MemorySegment descriptor = arena.allocate(LibUsbFfm.DEVICE_DESCRIPTOR);
+		if ((int) LibUsbFfm.GET_DEVICE_DESCRIPTOR.invokeExact(device, descriptor) != LibUsbFfm.SUCCESS)
+			return false;
+		return (descriptor.get(JAVA_SHORT, LibUsbFfm.ID_VENDOR) & 0xFFFF) == (vid & 0xFFFF)
+				&& (descriptor.get(JAVA_SHORT, LibUsbFfm.ID_PRODUCT) & 0xFFFF) == (pid & 0xFFFF);
+	}
+
+	private static FfmWinusbComm open(Arena arena, MemorySegment device, String path) throws Throwable {
+		int[] endpoints = findEndpoints(arena, device);
+		if (endpoints == null)
+			throw new DaplugCommunicationException("open() - No vendor specific bulk interface on device " + path);
+		MemorySegment out = arena.allocate(ADDRESS);
+		check((int) LibUsbFfm.OPEN.invokeExact(device, out), "Unable to open device " + path);
+		final MemorySegment handle = out.get(ADDRESS, 0);
+		final int deviceInterface = endpoints[0];
+		// not supported on all platforms : the kernel driver is then not bound to the interface
+		int result = (int) LibUsbFfm.SET_AUTO_DETACH_KERNEL_DRIVER.invokeExact(handle, 1);
+		if (result != LibUsbFfm.SUCCESS && result != LibUsbFfm.ERROR_NOT_SUPPORTED) {
+			LibUsbFfm.CLOSE.invokeExact(handle);
+			check(result, "Unable to detach kernel driver");
+		}
+		result = (int) LibUsbFfm.CLAIM_INTERFACE.invokeExact(handle, deviceInterface);
+		if (result != LibUsbFfm.SUCCESS) {
+			LibUsbFfm.CLOSE.invokeExact(handle);
+			check(result, "Unable to claim interface " + deviceInterface);
+		}
+		return new FfmWinusbComm(new FfmBulkTransfer() {
+			public int transfer(int endpoint, MemorySegment data, int length, MemorySegment transferred, int timeout) {
+				try {
+					return (int) LibUsbFfm.BULK_TRANSFER.invokeExact(handle, (byte) endpoint, data, length,
+							transferred, timeout);
+				} catch (Throwable e) {
+					return LibUsbFfm.ERROR_IO;
+				}
+			}
+
+			public void close() {
+				try {
+					int released = (int) LibUsbFfm.RELEASE_INTERFACE.invokeExact(handle, deviceInterface);
+					LibUsbFfm.CLOSE.invokeExact(handle);
+					if (released != LibUsbFfm.SUCCESS && released != LibUsbFfm.ERROR_NO_DEVICE)
+						System.err.println("close() - Unable to release interface : " + LibUsbFfm.strerror(released));
+				} catch (Throwable e) {
+					System.err.println("close() - " + e);
+				}
+			}
+		}, endpoints[1], endpoints[2], endpoints[3]);
+	}
+
+	/**
+	 * Finds the vendor specific interface and its bulk endpoints, as WinusbComm.initComm() does
+	 * @return int [] interface number, OUT and IN endpoint addresses, IN wMaxPacketSize ; null if the device has none
+	 */
+	private static int[] findEndpoints(Arena arena, MemorySegment device) throws Throwable {
+		MemorySegment descriptor = arena.allocate(LibUsbFfm.DEVICE_DESCRIPTOR);
+		check((int) LibUsbFfm.GET_DEVICE_DESCRIPTOR.invokeExact(device, descriptor), "Unable to read device descriptor");
+		int configurations = descriptor.get(JAVA_BYTE, LibUsbFfm.NUM_CONFIGURATIONS) & 0xFF;
+		MemorySegment out = arena.allocate(ADDRESS);
+		for (int i = 0; i < configurations; i++) {
+			check((int) LibUsbFfm.GET_CONFIG_DESCRIPTOR.invokeExact(device, (byte) i, out),
+					"Unable to read configuration descriptor");
+			MemorySegment config = out.get(ADDRESS, 0).reinterpret(LibUsbFfm.CONFIG_DESCRIPTOR.byteSize());
+			try {
+				int interfaces = config.get(JAVA_BYTE, LibUsbFfm.NUM_INTERFACES) & 0xFF;
+				MemorySegment ifaces = config.get(ADDRESS, LibUsbFfm.CONFIG_INTERFACE)
+						.reinterpret(interfaces * LibUsbFfm.INTERFACE.byteSize());
+				for (int j = 0; j < interfaces; j++) {
+					MemorySegment iface = ifaces.asSlice(j * LibUsbFfm.INTERFACE.byteSize(), LibUsbFfm.INTERFACE);
+					int altsettings = iface.get(JAVA_INT, LibUsbFfm.NUM_ALTSETTING);
+					MemorySegment alts = iface.get(ADDRESS, LibUsbFfm.ALTSETTING)
+							.reinterpret(altsettings * LibUsbFfm.INTERFACE_DESCRIPTOR.byteSize());
+					for (int k = 0; k < altsettings; k++) {
+						MemorySegment alt = alts.asSlice(k * LibUsbFfm.INTERFACE_DESCRIPTOR.byteSize(),
+								LibUsbFfm.INTERFACE_DESCRIPTOR);
+						if ((alt.get(JAVA_BYTE, LibUsbFfm.INTERFACE_CLASS) & 0xFF) != LibUsbFfm.CLASS_VENDOR_SPEC)
+							continue;
+						int[] found = bulkEndpoints(alt);
+						if (found != null)
+							return found;
+					}
+				}
+			} finally {
+				LibUsbFfm.FREE_CONFIG_DESCRIPTOR.invokeExact(config);
+			}
+		}
+		return null;
+	}
+
+	private static int[] bulkEndpoints(MemorySegment alt) {
+		int count = alt.get(JAVA_BYTE, LibUsbFfm.NUM_ENDPOINTS) & 0xFF;
+		MemorySegment endpoints = alt.get(ADDRESS, LibUsbFfm.ENDPOINT)
+				.reinterpret(count * LibUsbFfm.ENDPOINT_DESCRIPTOR.byteSize());
+		int output = -1, input = -1, packetSize = 0;
+		for (int l = 0; l < count && (output < 0 || input < 0); l++) {
+			long base = l * LibUsbFfm.ENDPOINT_DESCRIPTOR.byteSize();
+			int address = endpoints.get(JAVA_BYTE, base + LibUsbFfm.ENDPOINT_ADDRESS) & 0xFF;
+			int attributes = endpoints.get(JAVA_BYTE, base + LibUsbFfm.ENDPOINT_ATTRIBUTES) & 0xFF;
+			if ((attributes & LibUsbFfm.TRANSFER_TYPE_MASK) != LibUsbFfm.TRANSFER_TYPE_BULK)
+				continue;
+			if ((address & LibUsbFfm.ENDPOINT_DIR_MASK) == LibUsbFfm.ENDPOINT_IN) {
+				input = address;
+				packetSize = endpoints.get(JAVA_SHORT, base + LibUsbFfm.MAX_PACKET_SIZE) & 0x7FF;
+			} else
+				output = address;
+		}
+		if (output < 0 || input < 0)
+			return null;
+		return new int[] { alt.get(JAVA_BYTE, LibUsbFfm.INTERFACE_NUMBER) & 0xFF, output, input, packetSize };
+	}
+
+	private static void check(int result, String message) throws DaplugCommunicationException {
+		if (result < 0)
+			throw new DaplugCommunicationException("FfmUsbContext - " + message + " : " + LibUsbFfm.strerror(result));
+	}
+}
@@ -0,0 +1,93 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb.ffm;
+
+import java.util.Vector;
+
+import io.daplug.dongle.winusb.IWinusbBackend;
+import io.daplug.dongle.winusb.IWinusbComm;
+import io.daplug.exception.DaplugException;
+
+/**
+ * The WINUSB backend binding libusb with java.lang.foreign, found by java.util.ServiceLoader and selected
+ * with -Ddaplug.winusb=ffm. The JVM must be started with --enable-native-access=ALL-UNNAMED
+ * (or the module of this jar) to call libusb without warning.
+ *
+ * The libusb context is acquired on first use : ServiceLoader instantiates every backend it finds.
+ *
+ */
+public final class FfmWinusbBackend implements IWinusbBackend {
+
+	/**
+	 * Name of this backend
+	 */
+	public static final String NAME = "ffm";
+
+	private FfmUsbContext usb = null;
+	private boolean released = false;
+
+	/**
+	 * Constructs the backend, for ServiceLoader
+	 */
+	public FfmWinusbBackend() {
+	}
+
+	public String getName() {
+		return NAME;
+	}
+
+	public Vector<String> listPaths() {
+		try {
+			return context().listPaths(0, 0, false);
+		} catch (DaplugException e) {
+			System.err.println("listPaths() - " + e.getMessage());
+			return new Vector<String>();
+		}
+	}
+
+	public Vector<String> listPaths(int vid, int pid) {
+		try {
+			return context().listPaths(vid, pid, true);
+		} catch (DaplugException e) {
+			System.err.println("listPaths() - " + e.getMessage());
+			return new Vector<String>();
+		}
+	}
+
+	public IWinusbComm open(String path) throws DaplugException {
+		return context().open(path);
+	}
+
+	public synchronized void release() {
+		if (!this.released) {
+			this.released = true;
+			if (this.usb != null)
+				this.usb.release();
+		}
+	}
+
+	private synchronized FfmUsbContext context() throws DaplugException {
+		if (this.released)
+			throw new IllegalStateException("FfmWinusbBackend - backend is released");
+		if (this.usb == null)
+			this.usb = FfmUsbContext.acquire();
+		return this.usb;
+	}
+}
@@ -0,0 +1,241 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb.ffm;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import io.daplug.dongle.DaplugTimeoutPolicy;
+import io.daplug.dongle.winusb.IWinusb;
+import io.daplug.dongle.winusb.IWinusbComm;
+import io.daplug.dongle.winusb.WinusbFraming;
+import io.daplug.exception.DaplugCommunicationException;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugTimeoutException;
+import io.daplug.jfr.DaplugFlightRecorder;
+import io.daplug.metrics.DaplugDongleMetrics;
+import io.daplug.metrics.DaplugMetrics;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Exchanges with one WINUSB dongle through libusb bound with java.lang.foreign.
+ * The command, response and transferred count live in native segments allocated once with the handle :
+ * an exchange copies the apdu in, runs the two bulk transfers and copies the response out, with no
+ * buffer allocated per exchange as usb4java does. exchangeSegment() leaves the response in native memory.
+ * The response frame is read by packets of the IN endpoint size, as long as its header declares (see WinusbFraming).
+ *
+ * Exchanges on the same dongle are serialized; different dongles exchange in parallel.
+ *
+ */
+public final class FfmWinusbComm implements IWinusb, IWinusbComm {
+
+	private final FfmBulkTransfer link;
+	private final int outputEndpoint, inputEndpoint, packetSize;
+	private final Arena arena = Arena.ofShared();
+	private final MemorySegment command, response, transferred;
+	private volatile DaplugDongleMetrics metrics = null;
+	private volatile DaplugTimeoutPolicy timeoutPolicy = null;
+	private boolean closed = false;
+
+	/**
+	 * Constructs the exchanges over bulk transfers, reading by packets of PACKET_SIZE bytes
+	 * @param link FfmBulkTransfer transfers of the opened dongle, owned by this object from now on
+	 * @param outputEndpoint int bulk OUT endpoint address
+	 * @param inputEndpoint int bulk IN endpoint address
+	 */
+	public FfmWinusbComm(FfmBulkTransfer link, int outputEndpoint, int inputEndpoint) {
+		this(link, outputEndpoint, inputEndpoint, PACKET_SIZE);
+	}
+
+	/**
+	 * Constructs the exchanges over bulk transfers
+	 * @param link FfmBulkTransfer transfers of the opened dongle, owned by this object from now on
+	 * @param outputEndpoint int bulk OUT endpoint address
+	 * @param inputEndpoint int bulk IN endpoint address
+	 * @param maxPacketSize int wMaxPacketSize of the IN endpoint
+	 */
+	public FfmWinusbComm(FfmBulkTransfer link, int outputEndpoint, int inputEndpoint, int maxPacketSize) {
+		if (link == null)
+			throw new NullPointerException("FfmWinusbComm() - link is required");
+		this.link = link;
+		this.outputEndpoint = outputEndpoint;
+		this.inputEndpoint = inputEndpoint;
+		this.packetSize = WinusbFraming.packetSize(maxPacketSize);
+		this.command = this.arena.allocate(PACKET_SIZE);
+		this.response = this.arena.allocate(WinusbFraming.bufferSize(this.packetSize));
+		this.transferred = this.arena.allocate(JAVA_INT);
+	}
+
+	/**
+	 * Sets the metrics receiving the write and read latencies of the exchanges
+	 * @param metrics DaplugDongleMetrics, null to record nothing
+	 */
+	public void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the policy giving the timeout of each exchange, TIMEOUT at most
+	 * @param timeoutPolicy DaplugTimeoutPolicy, null to apply TIMEOUT
+	 */
+	public void setTimeoutPolicy(DaplugTimeoutPolicy timeoutPolicy) {
+		this.timeoutPolicy = timeoutPolicy;
+	}
+
+	/**
+	 * Closes the device handle and frees the native buffers. Next exchanges fail.
+	 */
+	public synchronized void close() {
+		if (!this.closed) {
+			this.closed = true;
+			this.link.close();
+			this.arena.close();
+		}
+	}
+
+	/**
+	 * make an exchange with a daplug dongle winusb without hexadecimal conversion.
+	 * The response is written in the given buffer : data first, then the status word.
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugException if a transfer fails or the dongle is closed
+	 */
+	public synchronized int exchange(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset)
+			throws DaplugException {
+		MemorySegment received = this.exchangeSegment(apdu, apduOffset, apduLength);
+		int len = (int) received.byteSize();
+		MemorySegment.copy(received, JAVA_BYTE, 0, response, responseOffset, len);
+		return len;
+	}
+
+	/**
+	 * make an exchange with a daplug dongle winusb. The response stays in native memory : the returned
+	 * segment is a slice of the response buffer of this object, valid until the next exchange or close().
+	 * The caller must hold the lock of this object across the exchange and the reading of the response
+	 * when exchanges are made from several threads.
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @return MemorySegment response : data followed by the status word
+	 * @throws DaplugException if a transfer fails or the dongle is closed
+	 */
+	public synchronized MemorySegment exchangeSegment(byte[] apdu, int apduOffset, int apduLength)
+			throws DaplugException {
+		if (this.closed)
+			throw new DaplugCommunicationException("exchange() - Device is closed");
+		if (apduLength > PACKET_SIZE)
+			throw new DaplugCommunicationException("exchange() - apdu too long : " + apduLength);
+
+		DaplugDongleMetrics metrics = this.metrics;
+		boolean timed = metrics != null && apduLength > 1 && DaplugMetrics.isEnabled();
+		long sending = timed ? System.nanoTime() : 0;
+
+		Object event = DaplugFlightRecorder.beginTransfer();
+		int blocksWritten = 0, blocksRead = 0, received = 0, frameLength = 0;
+		boolean timedOut = false;
+		long written = 0;
+		int timeout = (apduLength < 2) ? TIMEOUT
+				: DaplugTimeoutPolicy.timeoutMillis(this.timeoutPolicy, apdu[apduOffset + 1], TIMEOUT);
+		try {
+			MemorySegment.copy(apdu, apduOffset, this.command, JAVA_BYTE, 0, apduLength);
+			int result = this.link.transfer(this.outputEndpoint, this.command, apduLength, this.transferred, timeout);
+			if (result != LibUsbFfm.SUCCESS) {
+				timedOut = (result == LibUsbFfm.ERROR_TIMEOUT);
+				throw failure("Unable to send data", result);
+			}
+			blocksWritten = 1;
+
+			written = timed ? System.nanoTime() : 0;
+
+			// read the first packet : its header gives the frame length
+			result = this.link.transfer(this.inputEndpoint, this.response, this.packetSize, this.transferred, timeout);
+			if (result != LibUsbFfm.SUCCESS) {
+				timedOut = (result == LibUsbFfm.ERROR_TIMEOUT);
+				throw failure("Unable to read data", result);
+			}
+			blocksRead = 1;
+			received = this.transferred.get(JAVA_INT, 0);
+			if (received < 2)
+				throw new DaplugCommunicationException("exchange() - Invalid response of " + received + " bytes");
+			frameLength = WinusbFraming.frameLength(this.response.get(JAVA_BYTE, 0), this.response.get(JAVA_BYTE, 1));
+			// then the rest of the frame, by whole packets, when the first one is full
+			if (received < frameLength) {
+				if (received != this.packetSize)
+					throw truncated(received, frameLength);
+				result = this.link.transfer(this.inputEndpoint, this.response.asSlice(received),
+						WinusbFraming.readLength(frameLength - received, this.packetSize), this.transferred, timeout);
+				if (result != LibUsbFfm.SUCCESS) {
+					timedOut = (result == LibUsbFfm.ERROR_TIMEOUT);
+					throw failure("Unable to read data", result);
+				}
+				blocksRead = 2;
+				received += this.transferred.get(JAVA_INT, 0);
+				if (received < frameLength)
+					throw truncated(received, frameLength);
+			}
+		} finally {
+			if (event != null)
+				DaplugFlightRecorder.endTransfer(event, "WINUSB-FFM", blocksWritten, blocksRead,
+						blocksWritten * apduLength, received, timedOut);
+		}
+		if (timed)
+			metrics.recordTransfer(apdu[apduOffset + 1], written - sending, System.nanoTime() - written);
+
+		int start = WinusbFraming.responseOffset(this.response.get(JAVA_BYTE, 0));
+		return this.response.asSlice(start, frameLength - start);
+	}
+
+	/**
+	 * make an exchange with a daplug dongle winusb.
+	 * return value is a String [] with 2 values :
+	 * first the data received if exist
+	 * second the status word
+	 * @param apdu byte [] apdu to send to the dongle
+	 * @return String[2] result, null if the exchange failed
+	 */
+	public String[] exchange(byte[] apdu) {
+		byte[] response = new byte[PACKET_SIZE];
+		try {
+			int len = this.exchange(apdu, 0, apdu.length, response, 0);
+			return DaplugUtils.responseToHexStrings(response, 0, len);
+		} catch (DaplugException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static DaplugCommunicationException truncated(int received, int frameLength) {
+		return new DaplugCommunicationException("exchange() - Truncated response : " + received + " of " + frameLength
+				+ " bytes");
+	}
+
+	private static DaplugCommunicationException failure(String message, int result) {
+		if (result == LibUsbFfm.ERROR_TIMEOUT)
+			return new DaplugTimeoutException("exchange() - " + message + " : libusb error " + result);
+		return new DaplugCommunicationException("exchange() - " + message + " : libusb error " + result);
+	}
+}
@@ -0,0 +1,236 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb.ffm;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Downcall handles of the libusb-1.0 functions used by the backend, and the layouts of the descriptors they fill
+ * (libusb.h, 64-bits platforms). The library is looked up once, by the daplug.libusb.path system property when set,
+ * by its usual names otherwise.
+ *
+ * The handles are invoked with invokeExact : the call sites keep the exact types of the descriptors below.
+ *
+ */
+final class LibUsbFfm {
+
+	/**
+	 * System property giving the path of the libusb-1.0 library
+	 */
+	static final String LIBRARY_PROPERTY = "daplug.libusb.path";
+
+	/* libusb_error and constants */
+	static final int SUCCESS = 0,
+			ERROR_IO = -1,
+			ERROR_NO_DEVICE = -4,
+			ERROR_NOT_FOUND = -5,
+			ERROR_TIMEOUT = -7,
+			ERROR_NOT_SUPPORTED = -12;
+	static final int CLASS_VENDOR_SPEC = 0xFF,
+			TRANSFER_TYPE_MASK = 0x03,
+			TRANSFER_TYPE_BULK = 0x02,
+			ENDPOINT_DIR_MASK = 0x80,
+			ENDPOINT_IN = 0x80;
+
+	/* struct libusb_device_descriptor */
+	static final StructLayout DEVICE_DESCRIPTOR = MemoryLayout.structLayout(
+			JAVA_BYTE.withName("bLength"),
+			JAVA_BYTE.withName("bDescriptorType"),
+			JAVA_SHORT.withName("bcdUSB"),
+			JAVA_BYTE.withName("bDeviceClass"),
+			JAVA_BYTE.withName("bDeviceSubClass"),
+			JAVA_BYTE.withName("bDeviceProtocol"),
+			JAVA_BYTE.withName("bMaxPacketSize0"),
+			JAVA_SHORT.withName("idVendor"),
+			JAVA_SHORT.withName("idProduct"),
+			JAVA_SHORT.withName("bcdDevice"),
+			JAVA_BYTE.withName("iManufacturer"),
+			JAVA_BYTE.withName("iProduct"),
+			JAVA_BYTE.withName("iSerialNumber"),
+			JAVA_BYTE.withName("bNumConfigurations"));
+
+	/* struct libusb_config_descriptor */
+	static final StructLayout CONFIG_DESCRIPTOR = MemoryLayout.structLayout(
+			JAVA_BYTE.withName("bLength"),
+			JAVA_BYTE.withName("bDescriptorType"),
+			JAVA_SHORT.withName("wTotalLength"),
+			JAVA_BYTE.withName("bNumInterfaces"),
+			JAVA_BYTE.withName("bConfigurationValue"),
+			JAVA_BYTE.withName("iConfiguration"),
+			JAVA_BYTE.withName("bmAttributes"),
+			JAVA_BYTE.withName("MaxPower"),
+			MemoryLayout.paddingLayout(7),
+			ADDRESS.withName("interface"),
+			ADDRESS.withName("extra"),
+			JAVA_INT.withName("extra_length"),
+			MemoryLayout.paddingLayout(4));
+
+	/* struct libusb_interface */
+	static final StructLayout INTERFACE = MemoryLayout.structLayout(
+			ADDRESS.withName("altsetting"),
+			JAVA_INT.withName("num_altsetting"),
+			MemoryLayout.paddingLayout(4));
+
+	/* struct libusb_interface_descriptor */
+	static final StructLayout INTERFACE_DESCRIPTOR = MemoryLayout.structLayout(
+			JAVA_BYTE.withName("bLength"),
+			JAVA_BYTE.withName("bDescriptorType"),
+			JAVA_BYTE.withName("bInterfaceNumber"),
+			JAVA_BYTE.withName("bAlternateSetting"),
+			JAVA_BYTE.withName("bNumEndpoints"),
+			JAVA_BYTE.withName("bInterfaceClass"),
+			JAVA_BYTE.withName("bInterfaceSubClass"),
+			JAVA_BYTE.withName("bInterfaceProtocol"),
+			JAVA_BYTE.withName("iInterface"),
+			MemoryLayout.paddingLayout(7),
+			ADDRESS.withName("endpoint"),
+			ADDRESS.withName("extra"),
+			JAVA_INT.withName("extra_length"),
+			MemoryLayout.paddingLayout(4));
+
+	/* struct libusb_endpoint_descriptor */
+	static final StructLayout ENDPOINT_DESCRIPTOR = MemoryLayout.structLayout(
+			JAVA_BYTE.withName("bLength"),
+			JAVA_BYTE.withName("bDescriptorType"),
+			JAVA_BYTE.withName("bEndpointAddress"),
+			JAVA_BYTE.withName("bmAttributes"),
+			JAVA_SHORT.withName("wMaxPacketSize"),
+			JAVA_BYTE.withName("bInterval"),
+			JAVA_BYTE.withName("bRefresh"),
+			JAVA_BYTE.withName("bSynchAddress"),
+			MemoryLayout.paddingLayout(7),
+			ADDRESS.withName("extra"),
+			JAVA_INT.withName("extra_length"),
+			MemoryLayout.paddingLayout(4));
+
+	static final long ID_VENDOR = offset(DEVICE_DESCRIPTOR, "idVendor"),
+			ID_PRODUCT = offset(DEVICE_DESCRIPTOR, "idProduct"),
+			NUM_CONFIGURATIONS = offset(DEVICE_DESCRIPTOR, "bNumConfigurations"),
+			NUM_INTERFACES = offset(CONFIG_DESCRIPTOR, "bNumInterfaces"),
+			CONFIG_INTERFACE = offset(CONFIG_DESCRIPTOR, "interface"),
+			ALTSETTING = offset(INTERFACE, "altsetting"),
+			NUM_ALTSETTING = offset(INTERFACE, "num_altsetting"),
+			INTERFACE_NUMBER = offset(INTERFACE_DESCRIPTOR, "bInterfaceNumber"),
+			NUM_ENDPOINTS = offset(INTERFACE_DESCRIPTOR, "bNumEndpoints"),
+			INTERFACE_CLASS = offset(INTERFACE_DESCRIPTOR, "bInterfaceClass"),
+			ENDPOINT = offset(INTERFACE_DESCRIPTOR, "endpoint"),
+			ENDPOINT_ADDRESS = offset(ENDPOINT_DESCRIPTOR, "bEndpointAddress"),
+			ENDPOINT_ATTRIBUTES = offset(ENDPOINT_DESCRIPTOR, "bmAttributes"),
+			MAX_PACKET_SIZE = offset(ENDPOINT_DESCRIPTOR, "wMaxPacketSize");
+
+	private static final Linker LINKER = Linker.nativeLinker();
+	private static final SymbolLookup LIBUSB = lookup();
+
+	/* int libusb_init(libusb_context **ctx) */
+	static final MethodHandle INIT = function("libusb_init", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+	/* void libusb_exit(libusb_context *ctx) */
+	static final MethodHandle EXIT = function("libusb_exit", FunctionDescriptor.ofVoid(ADDRESS));
+	/* ssize_t libusb_get_device_list(libusb_context *ctx, libusb_device ***list) */
+	static final MethodHandle GET_DEVICE_LIST = function("libusb_get_device_list",
+			FunctionDescriptor.of(JAVA_LONG, ADDRESS, ADDRESS));
+	/* void libusb_free_device_list(libusb_device **list, int unref_devices) */
+	static final MethodHandle FREE_DEVICE_LIST = function("libusb_free_device_list",
+			FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT));
+	/* int libusb_get_device_descriptor(libusb_device *dev, struct libusb_device_descriptor *desc) */
+	static final MethodHandle GET_DEVICE_DESCRIPTOR = function("libusb_get_device_descriptor",
+			FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+	/* int libusb_get_config_descriptor(libusb_device *dev, uint8_t config_index, struct libusb_config_descriptor **config) */
+	static final MethodHandle GET_CONFIG_DESCRIPTOR = function("libusb_get_config_descriptor",
+			FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_BYTE, ADDRESS));
+	/* void libusb_free_config_descriptor(struct libusb_config_descriptor *config) */
+	static final MethodHandle FREE_CONFIG_DESCRIPTOR = function("libusb_free_config_descriptor",
+			FunctionDescriptor.ofVoid(ADDRESS));
+	/* int libusb_open(libusb_device *dev, libusb_device_handle **dev_handle) */
+	static final MethodHandle OPEN = function("libusb_open", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+	/* void libusb_close(libusb_device_handle *dev_handle) */
+	static final MethodHandle CLOSE = function("libusb_close", FunctionDescriptor.ofVoid(ADDRESS));
+	/* int libusb_set_auto_detach_kernel_driver(libusb_device_handle *dev_handle, int enable) */
+	static final MethodHandle SET_AUTO_DETACH_KERNEL_DRIVER = function("libusb_set_auto_detach_kernel_driver",
+			FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+	/* int libusb_claim_interface(libusb_device_handle *dev_handle, int interface_number) */
+	static final MethodHandle CLAIM_INTERFACE = function("libusb_claim_interface",
+			FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+	/* int libusb_release_interface(libusb_device_handle *dev_handle, int interface_number) */
+	static final MethodHandle RELEASE_INTERFACE = function("libusb_release_interface",
+			FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+	/* int libusb_bulk_transfer(libusb_device_handle *dev_handle, unsigned char endpoint, unsigned char *data,
+	   int length, int *actual_length, unsigned int timeout) */
+	static final MethodHandle BULK_TRANSFER = function("libusb_bulk_transfer",
+			FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_BYTE, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT));
+	/* const char *libusb_strerror(int errcode) */
+	static final MethodHandle STRERROR = function("libusb_strerror", FunctionDescriptor.of(ADDRESS, JAVA_INT));
+
+	private LibUsbFfm() {
+	}
+
+	private static long offset(StructLayout layout, String field) {
+		return layout.byteOffset(PathElement.groupElement(field));
+	}
+
+	private static SymbolLookup lookup() {
+		String path = System.getProperty(LIBRARY_PROPERTY);
+		if (path != null)
+			return SymbolLookup.libraryLookup(java.nio.file.Path.of(path), Arena.global());
+		String[] names = { "libusb-1.0.so.0", "libusb-1.0.so", "libusb-1.0.dylib", "libusb-1.0.dll", "libusb-1.0" };
+		IllegalArgumentException failure = null;
+		for (String name : names) {
+			try {
+				return SymbolLookup.libraryLookup(name, Arena.global());
+			} catch (IllegalArgumentException e) {
+				failure = e;
+			}
+		}
+		throw new UnsatisfiedLinkError("LibUsbFfm - libusb-1.0 not found (set " + LIBRARY_PROPERTY + ") : "
+				+ failure.getMessage());
+	}
+
+	private static MethodHandle function(String name, FunctionDescriptor descriptor) {
+		MemorySegment symbol = LIBUSB.find(name)
+				.orElseThrow(() -> new UnsatisfiedLinkError("LibUsbFfm - " + name + " not found in libusb-1.0"));
+		return LINKER.downcallHandle(symbol, descriptor);
+	}
+
+	/**
+	 * @param errcode int libusb error code
+	 * @return String description of the error
+	 */
+	static String strerror(int errcode) {
+		try {
+			MemorySegment text = (MemorySegment) STRERROR.invokeExact(errcode);
+			return text.reinterpret(256).getString(0);
+		} catch (Throwable e) {
+			return "libusb error " + errcode;
+		}
+	}
+}
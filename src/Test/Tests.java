@@ -27,6 +27,8 @@ import io.daplug.dongle.Daplug;
 import io.daplug.keyboard.DaplugKeyboard;
 import io.daplug.keyset.DaplugKeyset;
 import io.daplug.session.DaplugSession;
+import io.daplug.trace.DaplugConsoleTraceSink;
+import io.daplug.trace.DaplugTrace;
 import io.daplug.utils.DaplugUtils;
 
 public class Tests {
@@ -549,6 +551,8 @@ public class Tests {
 
 	public static void main(String[] args) {
 		
+		//Print the exchanged apdus
+		DaplugTrace.setSink(new DaplugConsoleTraceSink());
 		
 		//Uncomment and test
 		
@@ -0,0 +1,221 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.apdu;
+
+import io.daplug.exception.DaplugApduException;
+
+/**
+ * Builds APDU commands in binary form, straight into a reusable buffer : no hexadecimal string is formatted nor parsed.
+ * A command starts from a DaplugInstruction header; its data fields are then appended and Lc is set by view() or build().
+ * <pre>
+ * builder.start(DaplugInstruction.UPDATE_BINARY).p1p2(offset).bytes(data).view()
+ * </pre>
+ * Appending beyond the maximum command length is reported by view() / build().
+ *
+ * A builder is not thread-safe; the view it returns is only valid until the next start().
+ *
+ */
+public final class DaplugApduBuilder {
+
+	private final byte[] buffer = new byte[DaplugApduCommand.APDU_COMMAND_MAX_LEN];
+	private final DaplugApduCommandView view = new DaplugApduCommandView();
+	private int position = 0;
+	private boolean overflow = false;
+
+	/**
+	 * Starts a command : the header of the instruction, no data
+	 * @param instruction DaplugInstruction
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder start(DaplugInstruction instruction) {
+		instruction.writeHeader(this.buffer, 0);
+		this.buffer[4] = 0;
+		this.position = DaplugApduCommand.APDU_HEADER_LEN;
+		this.overflow = false;
+		return this;
+	}
+
+	/**
+	 * Starts a command with the given P1 and P2
+	 * @param instruction DaplugInstruction
+	 * @param p1 int
+	 * @param p2 int
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder start(DaplugInstruction instruction, int p1, int p2) {
+		return start(instruction).p1(p1).p2(p2);
+	}
+
+	/**
+	 * @param p1 int P1 value
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder p1(int p1) {
+		this.buffer[2] = (byte) p1;
+		return this;
+	}
+
+	/**
+	 * @param p2 int P2 value
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder p2(int p2) {
+		this.buffer[3] = (byte) p2;
+		return this;
+	}
+
+	/**
+	 * Sets P1 P2 from a 16-bits value (an offset for instance)
+	 * @param p1p2 int
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder p1p2(int p1p2) {
+		return p1(p1p2 >> 8).p2(p1p2);
+	}
+
+	/**
+	 * Sets the expected response length of a command without data
+	 * @param le int Le value
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder le(int le) {
+		this.buffer[4] = (byte) le;
+		return this;
+	}
+
+	/**
+	 * Appends a byte
+	 * @param value int
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder u8(int value) {
+		if (reserve(1))
+			this.buffer[this.position++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * Appends a 16-bits big-endian value
+	 * @param value int
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder u16(int value) {
+		if (reserve(2)) {
+			this.buffer[this.position++] = (byte) (value >> 8);
+			this.buffer[this.position++] = (byte) value;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a 32-bits big-endian value
+	 * @param value int
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder u32(int value) {
+		if (reserve(4)) {
+			this.buffer[this.position++] = (byte) (value >> 24);
+			this.buffer[this.position++] = (byte) (value >> 16);
+			this.buffer[this.position++] = (byte) (value >> 8);
+			this.buffer[this.position++] = (byte) value;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends bytes
+	 * @param data byte [] appended as is, nothing if null
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder bytes(byte[] data) {
+		return (data == null) ? this : bytes(data, 0, data.length);
+	}
+
+	/**
+	 * Appends a part of a buffer
+	 * @param data byte []
+	 * @param offset int
+	 * @param length int
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder bytes(byte[] data, int offset, int length) {
+		if (reserve(length)) {
+			System.arraycopy(data, offset, this.buffer, this.position, length);
+			this.position += length;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends zero bytes
+	 * @param count int
+	 * @return DaplugApduBuilder this builder
+	 */
+	public DaplugApduBuilder zeros(int count) {
+		if (reserve(count)) {
+			for (int i = 0; i < count; i++)
+				this.buffer[this.position++] = 0;
+		}
+		return this;
+	}
+
+	/**
+	 * @return int length of the command built so far : header and data
+	 */
+	public int getLength() {
+		return this.position;
+	}
+
+	/**
+	 * Completes the command (Lc) and returns a view over the builder buffer, valid until the next start()
+	 * @return DaplugApduCommandView
+	 * @throws DaplugApduException if too much data was appended
+	 */
+	public DaplugApduCommandView view() throws DaplugApduException {
+		complete();
+		return this.view.wrap(this.buffer, 0, this.position);
+	}
+
+	/**
+	 * Completes the command (Lc) and returns a copy of it
+	 * @return DaplugApduCommand
+	 * @throws DaplugApduException if too much data was appended
+	 */
+	public DaplugApduCommand build() throws DaplugApduException {
+		complete();
+		return new DaplugApduCommand(this.buffer, 0, this.position);
+	}
+
+	private void complete() throws DaplugApduException {
+		if (this.overflow)
+			throw new DaplugApduException("DaplugApduBuilder() - Length exceeded !");
+		if (this.position > DaplugApduCommand.APDU_HEADER_LEN)
+			this.buffer[4] = (byte) (this.position - DaplugApduCommand.APDU_HEADER_LEN);
+	}
+
+	private boolean reserve(int length) {
+		if (this.position + length > this.buffer.length || length < 0) {
+			this.overflow = true;
+			return false;
+		}
+		return !this.overflow;
+	}
+}
@@ -20,6 +20,8 @@
 
 package io.daplug.apdu;
 
+import java.util.Arrays;
+
 import io.daplug.exception.DaplugApduException;
 import io.daplug.utils.DaplugUtils;
 
@@ -53,17 +55,23 @@ public final class DaplugApduCommand{
 	 * @throws DaplugApduException  If an error occurs when constructing the object.
 	 */
 	public DaplugApduCommand(byte[] bytes) throws DaplugApduException {
+		this(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Constructs a new DaplugApduCommand object from a part of a buffer.
+	 * @param buffer buffer holding the APDU command value.
+	 * @param offset offset of the APDU command in the buffer.
+	 * @param len APDU command length.
+	 * @throws DaplugApduException  If an error occurs when constructing the object.
+	 */
+	public DaplugApduCommand(byte[] buffer, int offset, int len) throws DaplugApduException {
 		
-		int len = bytes.length;
-		
-		if(len > APDU_COMMAND_MAX_LEN) throw new DaplugApduException("DaplugApduCommand() - Length exceeded : " + bytes.length);
-		if(len < 5) throw new DaplugApduException("DaplugApduCommand() - Incomplete Apdu header : " + DaplugUtils.byteArrayToHexString(bytes));
+		if(len > APDU_COMMAND_MAX_LEN) throw new DaplugApduException("DaplugApduCommand() - Length exceeded : " + len);
+		if(len < 5) throw new DaplugApduException("DaplugApduCommand() - Incomplete Apdu header : " + DaplugUtils.byteArrayToHexString(Arrays.copyOfRange(buffer, offset, offset + len)));
 		
-		this.bytes = new byte[len];
+		this.bytes = Arrays.copyOfRange(buffer, offset, offset + len);
 		this.header = new byte[APDU_HEADER_LEN];
-		this.data = new byte[len-APDU_HEADER_LEN];
-		
-		System.arraycopy(bytes, 0, this.bytes, 0, len);
 		
 		this.cla = this.bytes[0] & 0xFF;
 		this.ins = this.bytes[1] & 0xFF;
@@ -73,11 +81,11 @@ public final class DaplugApduCommand{
 		if(len == APDU_HEADER_LEN){
 			this.lc = 0; 
 			this.le = this.bytes[4] & 0xFF;
+			this.data = new byte[0];
 		}else{
 			this.lc = len - APDU_HEADER_LEN;
 			this.bytes[4] = (byte) this.lc;
-			this.data = new byte[this.lc];
-			System.arraycopy(this.bytes, APDU_HEADER_LEN, this.data, 0, this.lc);
+			this.data = Arrays.copyOfRange(this.bytes, APDU_HEADER_LEN, len);
 		}
 		
 		System.arraycopy(this.bytes, 0, this.header, 0, APDU_HEADER_LEN);
@@ -0,0 +1,174 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.apdu;
+
+import java.util.Arrays;
+
+import io.daplug.exception.DaplugApduException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * A flyweight APDU command : a view over a part of a buffer, without copy.
+ * A view is re-pointed with wrap() and may be reused for each command, so that sending a command allocates nothing.
+ * The buffer is not copied : it must not change while the command is exchanged.
+ *
+ */
+public final class DaplugApduCommandView {
+
+	private byte[] buffer;
+	private int offset, length;
+
+	/**
+	 * Constructs an empty view, to be set with wrap()
+	 */
+	public DaplugApduCommandView() {
+	}
+
+	/**
+	 * Constructs a view over a part of a buffer
+	 * @param buffer byte [] buffer holding the command : header and data
+	 * @param offset int offset of the command in the buffer
+	 * @param length int command length
+	 * @throws DaplugApduException if the length is not a valid command length
+	 */
+	public DaplugApduCommandView(byte[] buffer, int offset, int length) throws DaplugApduException {
+		wrap(buffer, offset, length);
+	}
+
+	/**
+	 * Points the view at a part of a buffer
+	 * @param buffer byte [] buffer holding the command : header and data
+	 * @param offset int offset of the command in the buffer
+	 * @param length int command length
+	 * @return DaplugApduCommandView this view
+	 * @throws DaplugApduException if the length is not a valid command length
+	 */
+	public DaplugApduCommandView wrap(byte[] buffer, int offset, int length) throws DaplugApduException {
+		if (length > DaplugApduCommand.APDU_COMMAND_MAX_LEN)
+			throw new DaplugApduException("DaplugApduCommandView() - Length exceeded : " + length);
+		if (length < DaplugApduCommand.APDU_HEADER_LEN)
+			throw new DaplugApduException("DaplugApduCommandView() - Incomplete Apdu header !");
+		if (offset < 0 || offset + length > buffer.length)
+			throw new DaplugApduException("DaplugApduCommandView() - Invalid buffer range !");
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	/**
+	 * Points the view at the value of a command
+	 * @param apdu DaplugApduCommand
+	 * @return DaplugApduCommandView this view
+	 * @throws DaplugApduException
+	 */
+	public DaplugApduCommandView wrap(DaplugApduCommand apdu) throws DaplugApduException {
+		byte[] b = apdu.getBytes();
+		return wrap(b, 0, b.length);
+	}
+
+	/**
+	 * @return byte [] the underlying buffer
+	 */
+	public byte[] getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * @return int offset of the command in the buffer
+	 */
+	public int getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return int command length : header and data
+	 */
+	public int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * @return int CLA value
+	 */
+	public int getCLA() {
+		return this.buffer[this.offset] & 0xFF;
+	}
+
+	/**
+	 * @return int INS value
+	 */
+	public int getINS() {
+		return this.buffer[this.offset + 1] & 0xFF;
+	}
+
+	/**
+	 * @return int P1 value
+	 */
+	public int getP1() {
+		return this.buffer[this.offset + 2] & 0xFF;
+	}
+
+	/**
+	 * @return int P2 value
+	 */
+	public int getP2() {
+		return this.buffer[this.offset + 3] & 0xFF;
+	}
+
+	/**
+	 * Gets the data length, computed from the command length as DaplugApduCommand does (the P3 byte is not read).
+	 * @return int Lc value
+	 */
+	public int getLc() {
+		return this.length - DaplugApduCommand.APDU_HEADER_LEN;
+	}
+
+	/**
+	 * Gets the P3 byte as it is sent : Lc for a command with data, Le otherwise
+	 * @return int P3 value
+	 */
+	public int getP3() {
+		return (this.length == DaplugApduCommand.APDU_HEADER_LEN) ? (this.buffer[this.offset + 4] & 0xFF) : getLc();
+	}
+
+	/**
+	 * @return int offset of the command data in the buffer
+	 */
+	public int getDataOffset() {
+		return this.offset + DaplugApduCommand.APDU_HEADER_LEN;
+	}
+
+	/**
+	 * @return DaplugApduCommand a copy of the command
+	 * @throws DaplugApduException
+	 */
+	public DaplugApduCommand toCommand() throws DaplugApduException {
+		return new DaplugApduCommand(this.buffer, this.offset, this.length);
+	}
+
+	/**
+	 * @return String hexadecimal value of the command
+	 */
+	public String toString() {
+		return DaplugUtils.byteArrayToHexString(Arrays.copyOfRange(this.buffer, this.offset, this.offset + this.length));
+	}
+}
@@ -20,6 +20,8 @@
 
 package io.daplug.apdu;
 
+import java.util.Arrays;
+
 import io.daplug.exception.DaplugApduException;
 import io.daplug.utils.DaplugUtils;
 
@@ -43,22 +45,25 @@ public final class DaplugApduResponse {
 	 * @throws DaplugApduException If an error occurs when constructing the object.
 	 */
 	public DaplugApduResponse(byte[] bytes) throws DaplugApduException{
-		
-		int len = bytes.length;
+		this(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Constructs a new DaplugApduResponse object from a part of a buffer.
+	 * @param buffer buffer holding the APDU response value : data followed by the SW.
+	 * @param offset offset of the APDU response in the buffer.
+	 * @param len APDU response length.
+	 * @throws DaplugApduException If an error occurs when constructing the object.
+	 */
+	public DaplugApduResponse(byte[] buffer, int offset, int len) throws DaplugApduException{
 		
 		if(len > DaplugApduCommand.APDU_DATA_MAX_LEN + 2) throw new DaplugApduException("Length exceeded !");
 		if(len < 2) throw new DaplugApduException("Invalid Apdu response !");
 		
-		this.bytes = new byte[len];
-		this.sw = new byte[2];
 		this.dataLen = len-2;
-		
-		System.arraycopy(bytes, 0, this.bytes, 0, len);
-		
-		this.data = new byte[this.dataLen];
-		System.arraycopy(this.bytes, 0, this.data, 0, this.dataLen);
-				
-		System.arraycopy(this.bytes, this.dataLen, this.sw, 0, 2);
+		this.bytes = Arrays.copyOfRange(buffer, offset, offset + len);
+		this.data = Arrays.copyOfRange(this.bytes, 0, this.dataLen);
+		this.sw = Arrays.copyOfRange(this.bytes, this.dataLen, len);
 		this.sw1 = (int) this.sw[0];
 		this.sw2 = (int) this.sw[1];
 	}
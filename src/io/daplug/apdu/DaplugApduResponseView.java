@@ -0,0 +1,168 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.apdu;
+
+import java.util.Arrays;
+
+import io.daplug.exception.DaplugApduException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * A flyweight APDU response : a view over a part of a buffer holding the data followed by the status word.
+ * A DaplugSession returns the same view, over its own response buffer, for each exchange : the view and its
+ * content are only valid until the next exchange on the session. Use getData() or toResponse() to keep them.
+ *
+ */
+public final class DaplugApduResponseView {
+
+	private byte[] buffer;
+	private int offset, length;
+
+	/**
+	 * Constructs an empty view, to be set with wrap()
+	 */
+	public DaplugApduResponseView() {
+	}
+
+	/**
+	 * Points the view at a part of a buffer
+	 * @param buffer byte [] buffer holding the response : data followed by the status word
+	 * @param offset int offset of the response in the buffer
+	 * @param length int response length (data length + 2)
+	 * @return DaplugApduResponseView this view
+	 * @throws DaplugApduException if the length is not a valid response length
+	 */
+	public DaplugApduResponseView wrap(byte[] buffer, int offset, int length) throws DaplugApduException {
+		if (length < 2)
+			throw new DaplugApduException("Invalid Apdu response !");
+		if (offset < 0 || offset + length > buffer.length)
+			throw new DaplugApduException("DaplugApduResponseView() - Invalid buffer range !");
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	/**
+	 * @return byte [] the underlying buffer
+	 */
+	public byte[] getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * @return int offset of the response (and of its data) in the buffer
+	 */
+	public int getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return int response length : data and status word
+	 */
+	public int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * @return int response data length
+	 */
+	public int getDataLen() {
+		return this.length - 2;
+	}
+
+	/**
+	 * @return int first byte of the status word, unsigned
+	 */
+	public int getSW1() {
+		return this.buffer[this.offset + this.length - 2] & 0xFF;
+	}
+
+	/**
+	 * @return int second byte of the status word, unsigned
+	 */
+	public int getSW2() {
+		return this.buffer[this.offset + this.length - 1] & 0xFF;
+	}
+
+	/**
+	 * @return int status word, e.g. 0x9000
+	 */
+	public int getStatusWord() {
+		return (getSW1() << 8) | getSW2();
+	}
+
+	/**
+	 * Indicates if the command associated to this response was successfully executed by the card.
+	 * @return true if the status word is 9000
+	 */
+	public boolean normalEnding() {
+		return getStatusWord() == 0x9000;
+	}
+
+	/**
+	 * Copies the response data
+	 * @param dest byte [] destination buffer
+	 * @param destOffset int offset in the destination buffer
+	 * @return int number of bytes copied
+	 */
+	public int copyData(byte[] dest, int destOffset) {
+		int len = getDataLen();
+		System.arraycopy(this.buffer, this.offset, dest, destOffset, len);
+		return len;
+	}
+
+	/**
+	 * Copies a part of the response data
+	 * @param dataOffset int offset in the response data
+	 * @param dest byte [] destination buffer
+	 * @param destOffset int offset in the destination buffer
+	 * @param len int number of bytes to copy
+	 * @throws DaplugApduException if the part exceeds the response data
+	 */
+	public void copyData(int dataOffset, byte[] dest, int destOffset, int len) throws DaplugApduException {
+		if (dataOffset < 0 || len < 0 || dataOffset + len > getDataLen())
+			throw new DaplugApduException("DaplugApduResponseView() - Invalid data range !");
+		System.arraycopy(this.buffer, this.offset + dataOffset, dest, destOffset, len);
+	}
+
+	/**
+	 * @return byte [] a copy of the response data
+	 */
+	public byte[] getData() {
+		return Arrays.copyOfRange(this.buffer, this.offset, this.offset + getDataLen());
+	}
+
+	/**
+	 * @return DaplugApduResponse a copy of the response
+	 * @throws DaplugApduException
+	 */
+	public DaplugApduResponse toResponse() throws DaplugApduException {
+		return new DaplugApduResponse(this.buffer, this.offset, this.length);
+	}
+
+	/**
+	 * @return String hexadecimal value of the response
+	 */
+	public String toString() {
+		return DaplugUtils.byteArrayToHexString(Arrays.copyOfRange(this.buffer, this.offset, this.offset + this.length));
+	}
+}
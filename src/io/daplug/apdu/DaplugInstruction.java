@@ -0,0 +1,143 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.apdu;
+
+/**
+ * The catalog of the Daplug dongle instructions : the CLA INS P1 P2 header of each command, precompiled.
+ * P1 and P2 are the default values ; a DaplugApduBuilder overrides them when they carry a parameter.
+ *
+ */
+public final class DaplugInstruction {
+
+	/** GET SERIAL (80 E6) */
+	public static final DaplugInstruction GET_SERIAL = new DaplugInstruction("GET SERIAL", 0x80, 0xE6, 0x00, 0x00);
+	/** GET STATUS (80 F2) */
+	public static final DaplugInstruction GET_STATUS = new DaplugInstruction("GET STATUS", 0x80, 0xF2, 0x40, 0x00);
+	/** SET STATUS (80 F0), P2 : status */
+	public static final DaplugInstruction SET_STATUS = new DaplugInstruction("SET STATUS", 0x80, 0xF0, 0x40, 0x00);
+
+	/** INITIALIZE UPDATE (80 50), P1 : keyset version */
+	public static final DaplugInstruction INITIALIZE_UPDATE = new DaplugInstruction("INITIALIZE UPDATE", 0x80, 0x50, 0x00, 0x00);
+	/** INITIALIZE UPDATE with a diversifier (D0 50), P1 : keyset version */
+	public static final DaplugInstruction INITIALIZE_UPDATE_DIV = new DaplugInstruction("INITIALIZE UPDATE DIV", 0xD0, 0x50, 0x00, 0x10);
+	/** EXTERNAL AUTHENTICATE (80 82), P1 : security level */
+	public static final DaplugInstruction EXTERNAL_AUTHENTICATE = new DaplugInstruction("EXTERNAL AUTHENTICATE", 0x80, 0x82, 0x00, 0x00);
+	/** Any command refused by the card : closes the secure channel */
+	public static final DaplugInstruction CLOSE_SECURE_CHANNEL = new DaplugInstruction("CLOSE SECURE CHANNEL", 0x00, 0x00, 0x00, 0x00);
+
+	/** PUT KEY (80 D8), P1 : keyset version, P2 : mode */
+	public static final DaplugInstruction PUT_KEY = new DaplugInstruction("PUT KEY", 0x80, 0xD8, 0x00, 0x81);
+	/** EXPORT KEY (D0 A0), P1 : keyset version, P2 : key index */
+	public static final DaplugInstruction EXPORT_KEY = new DaplugInstruction("EXPORT KEY", 0xD0, 0xA0, 0x00, 0x00);
+	/** IMPORT KEY (D0 A2), P1 : keyset version, P2 : key index */
+	public static final DaplugInstruction IMPORT_KEY = new DaplugInstruction("IMPORT KEY", 0xD0, 0xA2, 0x00, 0x00);
+
+	/** CREATE FILE / DIRECTORY (80 E0) */
+	public static final DaplugInstruction CREATE_FILE = new DaplugInstruction("CREATE FILE", 0x80, 0xE0, 0x00, 0x00);
+	/** DELETE FILE / DIRECTORY (80 E4) */
+	public static final DaplugInstruction DELETE_FILE = new DaplugInstruction("DELETE FILE", 0x80, 0xE4, 0x00, 0x00);
+	/** SELECT FILE (80 A4) */
+	public static final DaplugInstruction SELECT_FILE = new DaplugInstruction("SELECT FILE", 0x80, 0xA4, 0x00, 0x00);
+	/** READ BINARY (80 B0), P1 P2 : offset */
+	public static final DaplugInstruction READ_BINARY = new DaplugInstruction("READ BINARY", 0x80, 0xB0, 0x00, 0x00);
+	/** UPDATE BINARY (80 D6), P1 P2 : offset */
+	public static final DaplugInstruction UPDATE_BINARY = new DaplugInstruction("UPDATE BINARY", 0x80, 0xD6, 0x00, 0x00);
+
+	/** ENCRYPT / DECRYPT (D0 20), P1 : direction, P2 : mode */
+	public static final DaplugInstruction CRYPT = new DaplugInstruction("CRYPT", 0xD0, 0x20, 0x00, 0x00);
+	/** HMAC-SHA1 / HOTP / TOTP (D0 22), P1 : keyset version, P2 : options */
+	public static final DaplugInstruction HMAC_SHA1 = new DaplugInstruction("HMAC-SHA1", 0xD0, 0x22, 0x00, 0x00);
+	/** GET RANDOM (D0 24) */
+	public static final DaplugInstruction GET_RANDOM = new DaplugInstruction("GET RANDOM", 0xD0, 0x24, 0x00, 0x00);
+	/** SET TIME REFERENCE (D0 B2), P1 : keyset version, P2 : key id */
+	public static final DaplugInstruction SET_TIME_OTP = new DaplugInstruction("SET TIME OTP", 0xD0, 0xB2, 0x00, 0x00);
+	/** GET TIME REFERENCE (D0 B0) */
+	public static final DaplugInstruction GET_TIME_OTP = new DaplugInstruction("GET TIME OTP", 0xD0, 0xB0, 0x00, 0x00);
+
+	/** USE AS KEYBOARD FILE (D0 32) */
+	public static final DaplugInstruction USE_AS_KEYBOARD = new DaplugInstruction("USE AS KEYBOARD", 0xD0, 0x32, 0x00, 0x00);
+	/** KEYBOARD AT BOOT (D0 32), P1 : 02 to activate, 01 to deactivate */
+	public static final DaplugInstruction KEYBOARD_AT_BOOT = new DaplugInstruction("KEYBOARD AT BOOT", 0xD0, 0x32, 0x02, 0x00);
+	/** TRIGGER KEYBOARD (D0 30) */
+	public static final DaplugInstruction TRIGGER_KEYBOARD = new DaplugInstruction("TRIGGER KEYBOARD", 0xD0, 0x30, 0x01, 0x00);
+	/** SWITCH MODE (D0 52 08), P2 : 01 HID, 02 WINUSB */
+	public static final DaplugInstruction SWITCH_MODE = new DaplugInstruction("SWITCH MODE", 0xD0, 0x52, 0x08, 0x01);
+	/** RESET (D0 52 01) */
+	public static final DaplugInstruction RESET = new DaplugInstruction("RESET", 0xD0, 0x52, 0x01, 0x00);
+	/** HALT (D0 52 02) */
+	public static final DaplugInstruction HALT = new DaplugInstruction("HALT", 0xD0, 0x52, 0x02, 0x00);
+
+	private final String name;
+	private final byte cla, ins, p1, p2;
+
+	/**
+	 * Constructs an instruction, for commands missing from the catalog
+	 * @param name String name used in traces
+	 * @param cla int CLA
+	 * @param ins int INS
+	 * @param p1 int default P1
+	 * @param p2 int default P2
+	 */
+	public DaplugInstruction(String name, int cla, int ins, int p1, int p2) {
+		this.name = name;
+		this.cla = (byte) cla;
+		this.ins = (byte) ins;
+		this.p1 = (byte) p1;
+		this.p2 = (byte) p2;
+	}
+
+	/**
+	 * Writes the CLA INS P1 P2 header
+	 * @param buffer byte [] destination buffer
+	 * @param offset int offset in the buffer
+	 */
+	void writeHeader(byte[] buffer, int offset) {
+		buffer[offset] = this.cla;
+		buffer[offset + 1] = this.ins;
+		buffer[offset + 2] = this.p1;
+		buffer[offset + 3] = this.p2;
+	}
+
+	/**
+	 * @return int CLA value
+	 */
+	public int getCLA() {
+		return this.cla & 0xFF;
+	}
+
+	/**
+	 * @return int INS value
+	 */
+	public int getINS() {
+		return this.ins & 0xFF;
+	}
+
+	/**
+	 * @return String the instruction name
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	public String toString() {
+		return this.name;
+	}
+}
@@ -0,0 +1,162 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.crypto;
+
+import io.daplug.exception.DaplugCryptoException;
+
+/**
+ * The session keys of a secure channel (S-ENC, R-ENC, C-MAC, R-MAC, DEK) with their ciphers initialized once.
+ * A context is created by each authentication and serves the secure messaging of the session.
+ *
+ * A context is not thread-safe : it is confined to the session (or to the simulated card) which created it.
+ *
+ */
+public final class DaplugCryptoContext {
+
+	private final DaplugKeyCipher sEnc, rEnc, cMac, rMac, dek;
+
+	/**
+	 * Constructs a context from the session keys
+	 * @param sEncKey byte [] session command encryption key
+	 * @param rEncKey byte [] session response encryption key
+	 * @param cMacKey byte [] session command integrity key
+	 * @param rMacKey byte [] session response integrity key
+	 * @param dekKey byte [] session DEK key
+	 * @throws DaplugCryptoException if a key is invalid
+	 */
+	public DaplugCryptoContext(byte[] sEncKey, byte[] rEncKey, byte[] cMacKey, byte[] rMacKey, byte[] dekKey)
+			throws DaplugCryptoException {
+		this.sEnc = new DaplugKeyCipher(sEncKey);
+		this.rEnc = new DaplugKeyCipher(rEncKey);
+		this.cMac = new DaplugKeyCipher(cMacKey);
+		this.rMac = new DaplugKeyCipher(rMacKey);
+		this.dek = new DaplugKeyCipher(dekKey);
+	}
+
+	/**
+	 * Computes the C-MAC of a command
+	 * @param data byte [] command header (CLA ORed with 0x04, Lc including the MAC) followed by the clear data
+	 * @param previousMac byte [] previous C-MAC (empty for the first command)
+	 * @return byte [] 8-bytes C-MAC
+	 * @throws DaplugCryptoException
+	 */
+	public byte[] commandMac(byte[] data, byte[] previousMac) throws DaplugCryptoException {
+		return this.cMac.retailMac(data, previousMac, DaplugCrypto.C_MAC);
+	}
+
+	/**
+	 * Computes the R-MAC of a response
+	 * @param data byte [] command, response data length, response data and status word
+	 * @param previousMac byte [] previous R-MAC
+	 * @return byte [] 8-bytes R-MAC
+	 * @throws DaplugCryptoException
+	 */
+	public byte[] responseMac(byte[] data, byte[] previousMac) throws DaplugCryptoException {
+		return this.rMac.retailMac(data, previousMac, DaplugCrypto.R_MAC);
+	}
+
+	/**
+	 * @return the C-MAC engine, to compute a C-MAC over byte ranges without allocation
+	 */
+	public DaplugRetailMac getCommandMacEngine() {
+		return this.cMac.getRetailMac();
+	}
+
+	/**
+	 * @return the R-MAC engine, to compute a R-MAC over byte ranges without allocation
+	 */
+	public DaplugRetailMac getResponseMacEngine() {
+		return this.rMac.getRetailMac();
+	}
+
+	/**
+	 * C-DEC : encrypts (encrypt = ENCRYPT, data is padded) or decrypts (padded clear data is returned) command data
+	 * @param data byte []
+	 * @param encrypt int DaplugCrypto.ENCRYPT or DaplugCrypto.DECRYPT
+	 * @return byte [] result
+	 * @throws DaplugCryptoException
+	 */
+	public byte[] commandData(byte[] data, int encrypt) throws DaplugCryptoException {
+		return this.sEnc.apduDataEncryption(data, encrypt);
+	}
+
+	/**
+	 * R-ENC : encrypts (encrypt = ENCRYPT, data is padded) or decrypts (padded clear data is returned) response data
+	 * @param data byte []
+	 * @param encrypt int DaplugCrypto.ENCRYPT or DaplugCrypto.DECRYPT
+	 * @return byte [] result
+	 * @throws DaplugCryptoException
+	 */
+	public byte[] responseData(byte[] data, int encrypt) throws DaplugCryptoException {
+		return this.rEnc.apduDataEncryption(data, encrypt);
+	}
+
+	/**
+	 * Wraps (encrypt = ENCRYPT) or unwraps a key value with the session DEK key (3DES-ECB), as PUT KEY does
+	 * @param key byte [] 16-bytes key value
+	 * @param encrypt int DaplugCrypto.ENCRYPT or DaplugCrypto.DECRYPT
+	 * @return byte [] result
+	 * @throws DaplugCryptoException
+	 */
+	public byte[] keyData(byte[] key, int encrypt) throws DaplugCryptoException {
+		byte[] out = new byte[key.length];
+		if (encrypt != DaplugCrypto.DECRYPT)
+			this.dek.encryptECB(key, 0, key.length, out, 0);
+		else
+			this.dek.decryptECB(key, 0, key.length, out, 0);
+		return out;
+	}
+
+	/**
+	 * @return the S-ENC key cipher (card and host cryptograms)
+	 */
+	public DaplugKeyCipher getSEnc() {
+		return this.sEnc;
+	}
+
+	/**
+	 * @return the R-ENC key cipher
+	 */
+	public DaplugKeyCipher getREnc() {
+		return this.rEnc;
+	}
+
+	/**
+	 * @return the C-MAC key cipher
+	 */
+	public DaplugKeyCipher getCMac() {
+		return this.cMac;
+	}
+
+	/**
+	 * @return the R-MAC key cipher
+	 */
+	public DaplugKeyCipher getRMac() {
+		return this.rMac;
+	}
+
+	/**
+	 * @return the DEK key cipher
+	 */
+	public DaplugKeyCipher getDek() {
+		return this.dek;
+	}
+}
@@ -0,0 +1,245 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.crypto;
+
+/**
+ * Single DES block cipher on one key, with its key schedule precomputed.
+ * Blocks are handled as big-endian longs : encrypting or decrypting a block allocates nothing.
+ * It is the engine of the retail MAC (DaplugRetailMac), where the JCE ciphers cost more in call overhead
+ * than in computation for 8-bytes blocks.
+ *
+ * A DaplugDes is not thread-safe when re-keyed; encrypt and decrypt only read the schedule.
+ *
+ */
+final class DaplugDes {
+
+	/* FIPS 46-3 tables, bit 1 is the most significant bit */
+	private static final byte[] IP = {
+		58, 50, 42, 34, 26, 18, 10, 2, 60, 52, 44, 36, 28, 20, 12, 4,
+		62, 54, 46, 38, 30, 22, 14, 6, 64, 56, 48, 40, 32, 24, 16, 8,
+		57, 49, 41, 33, 25, 17,  9, 1, 59, 51, 43, 35, 27, 19, 11, 3,
+		61, 53, 45, 37, 29, 21, 13, 5, 63, 55, 47, 39, 31, 23, 15, 7 };
+
+	private static final byte[] P = {
+		16,  7, 20, 21, 29, 12, 28, 17,  1, 15, 23, 26,  5, 18, 31, 10,
+		 2,  8, 24, 14, 32, 27,  3,  9, 19, 13, 30,  6, 22, 11,  4, 25 };
+
+	private static final byte[] PC1 = {
+		57, 49, 41, 33, 25, 17,  9,  1, 58, 50, 42, 34, 26, 18,
+		10,  2, 59, 51, 43, 35, 27, 19, 11,  3, 60, 52, 44, 36,
+		63, 55, 47, 39, 31, 23, 15,  7, 62, 54, 46, 38, 30, 22,
+		14,  6, 61, 53, 45, 37, 29, 21, 13,  5, 28, 20, 12,  4 };
+
+	private static final byte[] PC2 = {
+		14, 17, 11, 24,  1,  5,  3, 28, 15,  6, 21, 10,
+		23, 19, 12,  4, 26,  8, 16,  7, 27, 20, 13,  2,
+		41, 52, 31, 37, 47, 55, 30, 40, 51, 45, 33, 48,
+		44, 49, 39, 56, 34, 53, 46, 42, 50, 36, 29, 32 };
+
+	private static final byte[] SHIFTS = { 1, 1, 2, 2, 2, 2, 2, 2, 1, 2, 2, 2, 2, 2, 2, 1 };
+
+	private static final byte[][] S = {
+		{ 14,  4, 13,  1,  2, 15, 11,  8,  3, 10,  6, 12,  5,  9,  0,  7,
+		   0, 15,  7,  4, 14,  2, 13,  1, 10,  6, 12, 11,  9,  5,  3,  8,
+		   4,  1, 14,  8, 13,  6,  2, 11, 15, 12,  9,  7,  3, 10,  5,  0,
+		  15, 12,  8,  2,  4,  9,  1,  7,  5, 11,  3, 14, 10,  0,  6, 13 },
+		{ 15,  1,  8, 14,  6, 11,  3,  4,  9,  7,  2, 13, 12,  0,  5, 10,
+		   3, 13,  4,  7, 15,  2,  8, 14, 12,  0,  1, 10,  6,  9, 11,  5,
+		   0, 14,  7, 11, 10,  4, 13,  1,  5,  8, 12,  6,  9,  3,  2, 15,
+		  13,  8, 10,  1,  3, 15,  4,  2, 11,  6,  7, 12,  0,  5, 14,  9 },
+		{ 10,  0,  9, 14,  6,  3, 15,  5,  1, 13, 12,  7, 11,  4,  2,  8,
+		  13,  7,  0,  9,  3,  4,  6, 10,  2,  8,  5, 14, 12, 11, 15,  1,
+		  13,  6,  4,  9,  8, 15,  3,  0, 11,  1,  2, 12,  5, 10, 14,  7,
+		   1, 10, 13,  0,  6,  9,  8,  7,  4, 15, 14,  3, 11,  5,  2, 12 },
+		{  7, 13, 14,  3,  0,  6,  9, 10,  1,  2,  8,  5, 11, 12,  4, 15,
+		  13,  8, 11,  5,  6, 15,  0,  3,  4,  7,  2, 12,  1, 10, 14,  9,
+		  10,  6,  9,  0, 12, 11,  7, 13, 15,  1,  3, 14,  5,  2,  8,  4,
+		   3, 15,  0,  6, 10,  1, 13,  8,  9,  4,  5, 11, 12,  7,  2, 14 },
+		{  2, 12,  4,  1,  7, 10, 11,  6,  8,  5,  3, 15, 13,  0, 14,  9,
+		  14, 11,  2, 12,  4,  7, 13,  1,  5,  0, 15, 10,  3,  9,  8,  6,
+		   4,  2,  1, 11, 10, 13,  7,  8, 15,  9, 12,  5,  6,  3,  0, 14,
+		  11,  8, 12,  7,  1, 14,  2, 13,  6, 15,  0,  9, 10,  4,  5,  3 },
+		{ 12,  1, 10, 15,  9,  2,  6,  8,  0, 13,  3,  4, 14,  7,  5, 11,
+		  10, 15,  4,  2,  7, 12,  9,  5,  6,  1, 13, 14,  0, 11,  3,  8,
+		   9, 14, 15,  5,  2,  8, 12,  3,  7,  0,  4, 10,  1, 13, 11,  6,
+		   4,  3,  2, 12,  9,  5, 15, 10, 11, 14,  1,  7,  6,  0,  8, 13 },
+		{  4, 11,  2, 14, 15,  0,  8, 13,  3, 12,  9,  7,  5, 10,  6,  1,
+		  13,  0, 11,  7,  4,  9,  1, 10, 14,  3,  5, 12,  2, 15,  8,  6,
+		   1,  4, 11, 13, 12,  3,  7, 14, 10, 15,  6,  8,  0,  5,  9,  2,
+		   6, 11, 13,  8,  1,  4, 10,  7,  9,  5,  0, 15, 14,  2,  3, 12 },
+		{ 13,  2,  8,  4,  6, 15, 11,  1, 10,  9,  3, 14,  5,  0, 12,  7,
+		   1, 15, 13,  8, 10,  3,  7,  4, 12,  5,  6, 11,  0, 14,  9,  2,
+		   7, 11,  4,  1,  9, 12, 14,  2,  0,  6, 10, 13, 15,  3,  5,  8,
+		   2,  1, 14,  7,  4, 10,  8, 13, 15, 12,  9,  0,  3,  5,  6, 11 } };
+
+	/* S-box i followed by the P permutation, indexed by the 6-bits input of the S-box */
+	private static final int[][] SP = new int[8][64];
+	private static final int[] SP0 = SP[0], SP1 = SP[1], SP2 = SP[2], SP3 = SP[3],
+			SP4 = SP[4], SP5 = SP[5], SP6 = SP[6], SP7 = SP[7];
+
+	/* initial and final permutations, one table per input byte */
+	private static final long[][] IP_TABLE = new long[8][256], FP_TABLE = new long[8][256];
+
+	static {
+		for (int i = 0; i < 8; i++) {
+			for (int v = 0; v < 64; v++) {
+				// row : bits 1 and 6, column : bits 2 to 5
+				int s = S[i][((v & 0x20) | ((v & 0x01) << 4)) | ((v >>> 1) & 0x0F)];
+				int in = s << (28 - 4 * i), out = 0;
+				for (int k = 0; k < 32; k++) {
+					if ((in & (1 << (32 - P[k]))) != 0)
+						out |= 1 << (31 - k);
+				}
+				SP[i][v] = out;
+			}
+		}
+		byte[] fp = new byte[64];
+		for (int k = 0; k < 64; k++)
+			fp[IP[k] - 1] = (byte) (k + 1);
+		fillTable(IP_TABLE, IP);
+		fillTable(FP_TABLE, fp);
+	}
+
+	private static void fillTable(long[][] table, byte[] perm) {
+		for (int k = 0; k < 64; k++) {
+			int src = perm[k] - 1;
+			long outBit = 1L << (63 - k);
+			int inBit = 1 << (7 - (src & 7));
+			for (int v = 0; v < 256; v++) {
+				if ((v & inBit) != 0)
+					table[src >>> 3][v] |= outBit;
+			}
+		}
+	}
+
+	/* 16 rounds x 8 subkeys of 6 bits, in encryption and in decryption order */
+	private final int[] encryptSchedule = new int[128], decryptSchedule = new int[128];
+
+	/**
+	 * Constructs a DES cipher
+	 * @param key byte [] key buffer
+	 * @param off int offset of the 8-bytes key in the buffer (parity bits are ignored)
+	 */
+	DaplugDes(byte[] key, int off) {
+		setKey(key, off);
+	}
+
+	/**
+	 * Changes the key, the schedule is computed again
+	 * @param key byte [] key buffer
+	 * @param off int offset of the 8-bytes key in the buffer (parity bits are ignored)
+	 */
+	void setKey(byte[] key, int off) {
+		long k = toLong(key, off);
+		int c = 0, d = 0;
+		for (int i = 0; i < 28; i++) {
+			c = (c << 1) | (int) ((k >>> (64 - PC1[i])) & 1);
+			d = (d << 1) | (int) ((k >>> (64 - PC1[i + 28])) & 1);
+		}
+		for (int round = 0; round < 16; round++) {
+			for (int s = 0; s < SHIFTS[round]; s++) {
+				c = ((c << 1) | (c >>> 27)) & 0x0FFFFFFF;
+				d = ((d << 1) | (d >>> 27)) & 0x0FFFFFFF;
+			}
+			long cd = ((long) c << 28) | d;
+			for (int i = 0; i < 8; i++) {
+				int sub = 0;
+				for (int j = 0; j < 6; j++)
+					sub = (sub << 1) | (int) ((cd >>> (56 - PC2[i * 6 + j])) & 1);
+				this.encryptSchedule[round * 8 + i] = sub;
+				this.decryptSchedule[(15 - round) * 8 + i] = sub;
+			}
+		}
+	}
+
+	/**
+	 * Encrypts one block
+	 * @param block long 8-bytes block, big-endian
+	 * @return long encrypted block
+	 */
+	long encrypt(long block) {
+		return crypt(block, this.encryptSchedule);
+	}
+
+	/**
+	 * Decrypts one block
+	 * @param block long 8-bytes block, big-endian
+	 * @return long decrypted block
+	 */
+	long decrypt(long block) {
+		return crypt(block, this.decryptSchedule);
+	}
+
+	private static long crypt(long block, int[] ks) {
+		long x = permute(IP_TABLE, block);
+		int l = (int) (x >>> 32), r = (int) x;
+		for (int k = 0; k < 128; k += 8) {
+			// expansion E : 8 overlapping 6-bits groups of R
+			int t = (r >>> 1) | (r << 31);
+			int f = SP0[((t >>> 26) & 0x3F) ^ ks[k]]
+					| SP1[((t >>> 22) & 0x3F) ^ ks[k + 1]]
+					| SP2[((t >>> 18) & 0x3F) ^ ks[k + 2]]
+					| SP3[((t >>> 14) & 0x3F) ^ ks[k + 3]]
+					| SP4[((t >>> 10) & 0x3F) ^ ks[k + 4]]
+					| SP5[((t >>> 6) & 0x3F) ^ ks[k + 5]]
+					| SP6[((t >>> 2) & 0x3F) ^ ks[k + 6]]
+					| SP7[(((r & 0x1F) << 1) | (r >>> 31)) ^ ks[k + 7]];
+			int tmp = l ^ f;
+			l = r;
+			r = tmp;
+		}
+		// R16 L16
+		return permute(FP_TABLE, ((long) r << 32) | (l & 0xFFFFFFFFL));
+	}
+
+	private static long permute(long[][] table, long x) {
+		return table[0][(int) (x >>> 56) & 0xFF] | table[1][(int) (x >>> 48) & 0xFF]
+				| table[2][(int) (x >>> 40) & 0xFF] | table[3][(int) (x >>> 32) & 0xFF]
+				| table[4][(int) (x >>> 24) & 0xFF] | table[5][(int) (x >>> 16) & 0xFF]
+				| table[6][(int) (x >>> 8) & 0xFF] | table[7][(int) x & 0xFF];
+	}
+
+	/**
+	 * Reads a big-endian block
+	 * @param b byte [] buffer
+	 * @param off int offset of the 8 bytes
+	 * @return long block
+	 */
+	static long toLong(byte[] b, int off) {
+		long x = 0;
+		for (int i = 0; i < 8; i++)
+			x = (x << 8) | (b[off + i] & 0xFF);
+		return x;
+	}
+
+	/**
+	 * Writes a big-endian block
+	 * @param x long block
+	 * @param b byte [] buffer
+	 * @param off int offset where the 8 bytes are written
+	 */
+	static void toBytes(long x, byte[] b, int off) {
+		for (int i = 7; i >= 0; i--) {
+			b[off + i] = (byte) x;
+			x >>>= 8;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.daplug.exception.DaplugCryptoException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * A GlobalPlatform 16-bytes key with its ciphers initialized once : 3DES (K1 K2 K1) ECB in both directions
+ * and the retail MAC engine (DaplugRetailMac). CBC is done here over the ECB ciphers, so that
+ * no cipher is re-initialized with an IV.
+ *
+ * A DaplugKeyCipher is not thread-safe : it is owned by one DaplugCryptoContext (one session),
+ * or confined to the calling thread when used by the static DaplugCrypto methods.
+ *
+ */
+public final class DaplugKeyCipher {
+
+	/**
+	 * DES block size
+	 */
+	public static final int BLOCK_SIZE = 8;
+
+	/* Re-keyed cipher used by the static DaplugCrypto methods */
+	private static final ThreadLocal<DaplugKeyCipher> THREAD_CIPHER = new ThreadLocal<DaplugKeyCipher>();
+
+	private final Cipher tdesEncrypt, tdesDecrypt;
+	private DaplugRetailMac retailMac = null;
+	private final byte[] key = new byte[16];
+	private boolean keyed = false;
+
+	/* scratch blocks */
+	private final byte[] block = new byte[BLOCK_SIZE], chain = new byte[BLOCK_SIZE], saved = new byte[BLOCK_SIZE];
+
+	/**
+	 * Constructs a DaplugKeyCipher for the given GP key
+	 * @param key byte [] 16-bytes GP key
+	 * @throws DaplugCryptoException if the key is invalid
+	 */
+	public DaplugKeyCipher(byte[] key) throws DaplugCryptoException {
+		this();
+		setKey(key);
+	}
+
+	private DaplugKeyCipher() throws DaplugCryptoException {
+		try {
+			this.tdesEncrypt = Cipher.getInstance("DESede/ECB/NoPadding");
+			this.tdesDecrypt = Cipher.getInstance("DESede/ECB/NoPadding");
+		} catch (GeneralSecurityException e) {
+			throw new DaplugCryptoException("DaplugKeyCipher() - DES ciphers not available : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the cipher of the calling thread, keyed with the given key. Initialization is skipped when the
+	 * thread already used this key on its previous call.
+	 * The returned object must not be kept : the next call on the same thread changes its key.
+	 * @param key byte [] 16-bytes GP key
+	 * @return DaplugKeyCipher
+	 * @throws DaplugCryptoException if the key is invalid
+	 */
+	static DaplugKeyCipher forKey(byte[] key) throws DaplugCryptoException {
+		DaplugKeyCipher c = THREAD_CIPHER.get();
+		if (c == null) {
+			c = new DaplugKeyCipher();
+			THREAD_CIPHER.set(c);
+		}
+		c.setKey(key);
+		return c;
+	}
+
+	private void setKey(byte[] gpKey) throws DaplugCryptoException {
+		if (gpKey == null || gpKey.length != 16) {
+			throw new DaplugCryptoException("DaplugKeyCipher() - Invalid GP key : "
+					+ (gpKey == null ? "null" : DaplugUtils.byteArrayToHexString(gpKey)));
+		}
+		if (this.keyed && Arrays.equals(this.key, gpKey))
+			return;
+		// 3DES key K1 K2 K1
+		byte[] _3DESKey = new byte[24];
+		System.arraycopy(gpKey, 0, _3DESKey, 0, 16);
+		System.arraycopy(gpKey, 0, _3DESKey, 16, 8);
+		try {
+			SecretKeySpec k = new SecretKeySpec(_3DESKey, "DESede");
+			this.tdesEncrypt.init(Cipher.ENCRYPT_MODE, k);
+			this.tdesDecrypt.init(Cipher.DECRYPT_MODE, k);
+		} catch (GeneralSecurityException e) {
+			this.keyed = false;
+			throw new DaplugCryptoException("DaplugKeyCipher() - Invalid GP key : " + e.getMessage());
+		}
+		if (this.retailMac == null)
+			this.retailMac = new DaplugRetailMac(gpKey);
+		else
+			this.retailMac.setKey(gpKey);
+		System.arraycopy(gpKey, 0, this.key, 0, 16);
+		this.keyed = true;
+	}
+
+	/**
+	 * 3DES-ECB encryption. in and out may be the same range.
+	 * @param in byte [] input buffer
+	 * @param inOff int input offset
+	 * @param len int length, a multiple of 8
+	 * @param out byte [] output buffer
+	 * @param outOff int output offset
+	 * @throws DaplugCryptoException
+	 */
+	public void encryptECB(byte[] in, int inOff, int len, byte[] out, int outOff) throws DaplugCryptoException {
+		checkLength(len);
+		run(this.tdesEncrypt, in, inOff, len, out, outOff);
+	}
+
+	/**
+	 * 3DES-ECB decryption. in and out may be the same range.
+	 * @param in byte [] input buffer
+	 * @param inOff int input offset
+	 * @param len int length, a multiple of 8
+	 * @param out byte [] output buffer
+	 * @param outOff int output offset
+	 * @throws DaplugCryptoException
+	 */
+	public void decryptECB(byte[] in, int inOff, int len, byte[] out, int outOff) throws DaplugCryptoException {
+		checkLength(len);
+		run(this.tdesDecrypt, in, inOff, len, out, outOff);
+	}
+
+	/**
+	 * 3DES-CBC encryption. in and out may be the same range.
+	 * @param in byte [] input buffer
+	 * @param inOff int input offset
+	 * @param len int length, a multiple of 8
+	 * @param out byte [] output buffer
+	 * @param outOff int output offset
+	 * @param iv byte [] 8-bytes IV, zero IV if null
+	 * @throws DaplugCryptoException
+	 */
+	public void encryptCBC(byte[] in, int inOff, int len, byte[] out, int outOff, byte[] iv) throws DaplugCryptoException {
+		checkLength(len);
+		setChain(iv);
+		for (int i = 0; i < len; i += BLOCK_SIZE) {
+			for (int j = 0; j < BLOCK_SIZE; j++)
+				this.block[j] = (byte) (in[inOff + i + j] ^ this.chain[j]);
+			run(this.tdesEncrypt, this.block, 0, BLOCK_SIZE, this.chain, 0);
+			System.arraycopy(this.chain, 0, out, outOff + i, BLOCK_SIZE);
+		}
+	}
+
+	/**
+	 * 3DES-CBC decryption. in and out may be the same range.
+	 * @param in byte [] input buffer
+	 * @param inOff int input offset
+	 * @param len int length, a multiple of 8
+	 * @param out byte [] output buffer
+	 * @param outOff int output offset
+	 * @param iv byte [] 8-bytes IV, zero IV if null
+	 * @throws DaplugCryptoException
+	 */
+	public void decryptCBC(byte[] in, int inOff, int len, byte[] out, int outOff, byte[] iv) throws DaplugCryptoException {
+		checkLength(len);
+		setChain(iv);
+		for (int i = 0; i < len; i += BLOCK_SIZE) {
+			System.arraycopy(in, inOff + i, this.saved, 0, BLOCK_SIZE);
+			run(this.tdesDecrypt, this.saved, 0, BLOCK_SIZE, this.block, 0);
+			for (int j = 0; j < BLOCK_SIZE; j++) {
+				out[outOff + i + j] = (byte) (this.block[j] ^ this.chain[j]);
+				this.chain[j] = this.saved[j];
+			}
+		}
+	}
+
+	/**
+	 * Retail MAC (ISO 9797-1 algorithm 3, method 2 padding) : single DES-CBC with K1, 3DES on the last block.
+	 * In C_MAC mode the previous MAC is prepended to the data and the IV is zero,
+	 * in R_MAC mode the previous MAC is the IV.
+	 * @param data byte [] data to sign
+	 * @param previousMac byte [] previous MAC of the chain (may be empty in C_MAC mode)
+	 * @param mode int DaplugCrypto.C_MAC or DaplugCrypto.R_MAC
+	 * @return byte [] 8-bytes MAC
+	 * @throws DaplugCryptoException
+	 */
+	public byte[] retailMac(byte[] data, byte[] previousMac, int mode) throws DaplugCryptoException {
+		byte[] mac = new byte[DaplugRetailMac.MAC_LEN];
+		this.retailMac.mac(mode, previousMac, data, 0, data.length, mac, 0);
+		return mac;
+	}
+
+	/**
+	 * @return the retail MAC engine of this key, for MACs over byte ranges without allocation
+	 */
+	public DaplugRetailMac getRetailMac() {
+		return this.retailMac;
+	}
+
+	/**
+	 * Full 3DES MAC : 3DES-CBC with a zero IV over the data padded with 80 00 .., last block.
+	 * @param data byte [] data to sign
+	 * @return byte [] 8-bytes MAC
+	 * @throws DaplugCryptoException
+	 */
+	public byte[] full3DesMac(byte[] data) throws DaplugCryptoException {
+		byte[] padded = pad(data);
+		encryptCBC(padded, 0, padded.length, padded, 0, null);
+		return Arrays.copyOfRange(padded, padded.length - BLOCK_SIZE, padded.length);
+	}
+
+	/**
+	 * Secure messaging data encryption : 3DES-CBC with a zero IV. Encryption pads the data with 80 00 ..,
+	 * decryption returns the padded clear data.
+	 * @param data byte [] data
+	 * @param encrypt int DaplugCrypto.ENCRYPT or DaplugCrypto.DECRYPT
+	 * @return byte [] result
+	 * @throws DaplugCryptoException
+	 */
+	public byte[] apduDataEncryption(byte[] data, int encrypt) throws DaplugCryptoException {
+		if (encrypt != DaplugCrypto.DECRYPT) {
+			byte[] padded = pad(data);
+			encryptCBC(padded, 0, padded.length, padded, 0, null);
+			return padded;
+		}
+		byte[] result = new byte[data.length];
+		decryptCBC(data, 0, data.length, result, 0, null);
+		return result;
+	}
+
+	/* data || 80 00 .. up to the next multiple of 8 */
+	private static byte[] pad(byte[] data) {
+		byte[] padded = new byte[(data.length / BLOCK_SIZE + 1) * BLOCK_SIZE];
+		System.arraycopy(data, 0, padded, 0, data.length);
+		padded[data.length] = (byte) 0x80;
+		return padded;
+	}
+
+	private void setChain(byte[] iv) throws DaplugCryptoException {
+		if (iv == null) {
+			Arrays.fill(this.chain, (byte) 0);
+		} else if (iv.length == BLOCK_SIZE) {
+			System.arraycopy(iv, 0, this.chain, 0, BLOCK_SIZE);
+		} else {
+			throw new DaplugCryptoException("DaplugKeyCipher() - Invalid IV : " + DaplugUtils.byteArrayToHexString(iv));
+		}
+	}
+
+	private static void checkLength(int len) throws DaplugCryptoException {
+		if (len % BLOCK_SIZE != 0)
+			throw new DaplugCryptoException("DaplugKeyCipher() - Invalid data length !");
+	}
+
+	private static void run(Cipher cipher, byte[] in, int inOff, int len, byte[] out, int outOff) throws DaplugCryptoException {
+		try {
+			cipher.doFinal(in, inOff, len, out, outOff);
+		} catch (GeneralSecurityException e) {
+			throw new DaplugCryptoException("DaplugKeyCipher() - " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.crypto;
+
+import io.daplug.exception.DaplugCryptoException;
+
+/**
+ * Retail MAC engine (ISO 9797-1 algorithm 3, method 2 padding) used by the secure messaging :
+ * single DES-CBC with K1 over the padded data, then the last block is 3DES encrypted (K1 K2 K1).
+ * The DES key schedules are computed once; the MAC is computed over caller-supplied byte ranges
+ * and written into a caller buffer, with no allocation.
+ *
+ * A MAC is computed in three steps : init() with the chaining mode and the previous MAC,
+ * update() for each range of data, doFinal() which writes the 8-bytes MAC and resets the engine.
+ * In C_MAC mode the previous MAC is prepended to the data and the IV is zero,
+ * in R_MAC mode the previous MAC is the IV.
+ *
+ * A DaplugRetailMac is not thread-safe : it is owned by one session (one DaplugCryptoContext).
+ *
+ */
+public final class DaplugRetailMac {
+
+	/**
+	 * MAC length
+	 */
+	public static final int MAC_LEN = 8;
+
+	private final DaplugDes k1, k2;
+
+	/* chaining value, pending (partial) block and its length */
+	private long chain = 0;
+	private long block = 0;
+	private int fill = 0;
+
+	/**
+	 * Constructs a retail MAC engine for the given GP key
+	 * @param key byte [] 16-bytes GP key
+	 * @throws DaplugCryptoException if the key is invalid
+	 */
+	public DaplugRetailMac(byte[] key) throws DaplugCryptoException {
+		checkKey(key);
+		this.k1 = new DaplugDes(key, 0);
+		this.k2 = new DaplugDes(key, 8);
+	}
+
+	/**
+	 * Changes the key, the DES key schedules are computed again
+	 * @param key byte [] 16-bytes GP key
+	 * @throws DaplugCryptoException if the key is invalid
+	 */
+	public void setKey(byte[] key) throws DaplugCryptoException {
+		checkKey(key);
+		this.k1.setKey(key, 0);
+		this.k2.setKey(key, 8);
+		reset();
+	}
+
+	/**
+	 * Starts a new MAC computation
+	 * @param mode int DaplugCrypto.C_MAC or DaplugCrypto.R_MAC
+	 * @param previousMac byte [] buffer holding the previous MAC of the chain
+	 * @param off int offset of the previous MAC
+	 * @param len int length of the previous MAC : 8, or 0 for the first C-MAC of a session
+	 * @throws DaplugCryptoException if the previous MAC is invalid for the mode
+	 */
+	public void init(int mode, byte[] previousMac, int off, int len) throws DaplugCryptoException {
+		reset();
+		if (mode == DaplugCrypto.C_MAC) {
+			if (len != 0 && len != MAC_LEN)
+				throw new DaplugCryptoException("DaplugRetailMac() - Invalid previous C-MAC length : " + len);
+			update(previousMac, off, len);
+		} else if (mode == DaplugCrypto.R_MAC) {
+			if (len != MAC_LEN)
+				throw new DaplugCryptoException("DaplugRetailMac() - Invalid previous R-MAC length : " + len);
+			this.chain = DaplugDes.toLong(previousMac, off);
+		} else {
+			throw new DaplugCryptoException("DaplugRetailMac() - Invalid mode : " + mode);
+		}
+	}
+
+	/**
+	 * Adds one byte to the data signed
+	 * @param b byte
+	 */
+	public void update(byte b) {
+		this.block = (this.block << 8) | (b & 0xFF);
+		if (++this.fill == MAC_LEN)
+			absorb();
+	}
+
+	/**
+	 * Adds a range of bytes to the data signed
+	 * @param data byte [] buffer
+	 * @param off int offset of the range
+	 * @param len int length of the range
+	 */
+	public void update(byte[] data, int off, int len) {
+		int end = off + len;
+		// complete the pending block
+		while (this.fill != 0 && off < end)
+			update(data[off++]);
+		// whole blocks
+		while (end - off >= MAC_LEN) {
+			this.chain = this.k1.encrypt(this.chain ^ DaplugDes.toLong(data, off));
+			off += MAC_LEN;
+		}
+		while (off < end)
+			update(data[off++]);
+	}
+
+	/**
+	 * Pads the data (80 00 ..), computes the MAC and resets the engine
+	 * @param out byte [] buffer receiving the MAC
+	 * @param outOff int offset where the 8-bytes MAC is written
+	 */
+	public void doFinal(byte[] out, int outOff) {
+		// the last block always holds the 0x80 byte
+		int shift = (MAC_LEN - this.fill) * 8;
+		long last = (this.block << shift) | (0x80L << (shift - 8));
+		long x = this.chain ^ last;
+		x = this.k1.encrypt(this.k2.decrypt(this.k1.encrypt(x)));
+		DaplugDes.toBytes(x, out, outOff);
+		reset();
+	}
+
+	/**
+	 * Computes a MAC over one range of data
+	 * @param mode int DaplugCrypto.C_MAC or DaplugCrypto.R_MAC
+	 * @param previousMac byte [] previous MAC of the chain (may be empty in C_MAC mode)
+	 * @param data byte [] buffer holding the data to sign
+	 * @param off int offset of the data
+	 * @param len int length of the data
+	 * @param out byte [] buffer receiving the MAC
+	 * @param outOff int offset where the 8-bytes MAC is written
+	 * @throws DaplugCryptoException if the previous MAC is invalid for the mode
+	 */
+	public void mac(int mode, byte[] previousMac, byte[] data, int off, int len, byte[] out, int outOff)
+			throws DaplugCryptoException {
+		init(mode, previousMac, 0, previousMac.length);
+		update(data, off, len);
+		doFinal(out, outOff);
+	}
+
+	private void absorb() {
+		this.chain = this.k1.encrypt(this.chain ^ this.block);
+		this.block = 0;
+		this.fill = 0;
+	}
+
+	private void reset() {
+		this.chain = 0;
+		this.block = 0;
+		this.fill = 0;
+	}
+
+	private static void checkKey(byte[] key) throws DaplugCryptoException {
+		if (key == null || key.length != 16)
+			throw new DaplugCryptoException("DaplugRetailMac() - Invalid GP key !");
+	}
+}
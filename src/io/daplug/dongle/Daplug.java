@@ -21,23 +21,27 @@
 package io.daplug.dongle;
 
 import io.daplug.session.DaplugSession;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Vector;
 
 public class Daplug {
 
-	private static Vector<String> listDevices = null;
+	/* last listing : replaced as a whole, never modified, so that concurrent selections see a consistent list */
+	private static volatile List<String> listDevices = Collections.emptyList();
 	
 	public Daplug() {
-		Daplug.listDevices =  new Vector<String>();
 	}
 	
 	public static Vector<String> listAllDevices() {
-		Daplug.listDevices = DaplugEnumerator.listDaplugDongles();
-		return Daplug.listDevices;
+		Vector<String> devices = DaplugEnumerator.listDaplugDongles();
+		Daplug.listDevices = Collections.unmodifiableList(new ArrayList<String>(devices));
+		return devices;
 	}
 	
 	public static DaplugSession selectElementListById(int id) {
-		DaplugDongle dongle = new DaplugDongle(Daplug.listDevices.elementAt(id));
+		DaplugDongle dongle = new DaplugDongle(Daplug.listDevices.get(id));
 		DaplugSession session = new DaplugSession(dongle);
 		return session;	
 	}
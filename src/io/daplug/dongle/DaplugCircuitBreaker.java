@@ -0,0 +1,163 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle;
+
+import io.daplug.exception.DaplugCommunicationException;
+
+/**
+ * Quarantines a dongle which stops answering : after threshold consecutive timeouts the breaker opens
+ * and the exchanges fail at once, without reaching the dongle, for the quarantine time. Then a single
+ * exchange is let through as a probe (half-open) : its success closes the breaker, its failure opens it again.
+ *
+ * Errors other than timeouts (status words, closed device) do not open a closed breaker.
+ *
+ */
+public final class DaplugCircuitBreaker {
+
+	/**
+	 * States of the breaker
+	 */
+	public static final int CLOSED = 0, OPEN = 1, HALF_OPEN = 2;
+
+	/**
+	 * Default number of consecutive timeouts opening the breaker
+	 */
+	public static final int DEFAULT_THRESHOLD = 2;
+
+	/**
+	 * Default quarantine time, in milliseconds
+	 */
+	public static final long DEFAULT_QUARANTINE_MILLIS = 10000L;
+
+	private final int threshold;
+	private final long quarantineNanos;
+	// transitions under the lock ; a closed breaker without timeouts is read without it
+	private volatile int state = CLOSED;
+	private volatile int timeouts = 0;
+	private long openedAt;
+	private boolean probing = false;
+
+	/**
+	 * Constructs a breaker with the default threshold and quarantine time
+	 */
+	public DaplugCircuitBreaker() {
+		this(DEFAULT_THRESHOLD, DEFAULT_QUARANTINE_MILLIS);
+	}
+
+	/**
+	 * Constructs a breaker
+	 * @param threshold int number of consecutive timeouts opening the breaker
+	 * @param quarantineMillis long time the exchanges fail at once, in milliseconds
+	 */
+	public DaplugCircuitBreaker(int threshold, long quarantineMillis) {
+		if (threshold < 1 || quarantineMillis < 0)
+			throw new IllegalArgumentException("DaplugCircuitBreaker() - invalid threshold or quarantine");
+		this.threshold = threshold;
+		this.quarantineNanos = quarantineMillis * 1000000L;
+	}
+
+	/**
+	 * Lets an exchange through, or fails it while the dongle is quarantined
+	 * @param dongle String name of the dongle, for the message
+	 * @throws DaplugCommunicationException if the breaker is open, or half-open with a probe in flight
+	 */
+	public void acquire(String dongle) throws DaplugCommunicationException {
+		if (this.state == CLOSED)
+			return;
+		synchronized (this) {
+			if (this.state == OPEN) {
+				if (System.nanoTime() - this.openedAt < this.quarantineNanos)
+					throw new DaplugCommunicationException("exchange() - Dongle " + dongle
+							+ " is quarantined after " + this.threshold + " timeouts");
+				this.state = HALF_OPEN;
+				this.probing = false;
+			}
+			if (this.state == HALF_OPEN) {
+				if (this.probing)
+					throw new DaplugCommunicationException("exchange() - Dongle " + dongle + " is being probed");
+				this.probing = true;
+			}
+		}
+	}
+
+	/**
+	 * An exchange let through got its response
+	 */
+	public void onSuccess() {
+		if (this.state == CLOSED && this.timeouts == 0)
+			return;
+		synchronized (this) {
+			this.state = CLOSED;
+			this.timeouts = 0;
+			this.probing = false;
+		}
+	}
+
+	/**
+	 * An exchange let through timed out
+	 */
+	public synchronized void onTimeout() {
+		this.timeouts++;
+		if (this.state == HALF_OPEN || this.timeouts >= this.threshold)
+			this.open();
+	}
+
+	/**
+	 * An exchange let through failed otherwise : a failed probe opens the breaker again
+	 */
+	public void onFailure() {
+		if (this.state == CLOSED)
+			return;
+		synchronized (this) {
+			if (this.state == HALF_OPEN)
+				this.open();
+		}
+	}
+
+	/**
+	 * Closes the breaker : the dongle is trusted again
+	 */
+	public synchronized void reset() {
+		this.state = CLOSED;
+		this.timeouts = 0;
+		this.probing = false;
+	}
+
+	/**
+	 * @return int CLOSED, OPEN or HALF_OPEN
+	 */
+	public int getState() {
+		return this.state;
+	}
+
+	/**
+	 * @return int number of consecutive timeouts
+	 */
+	public int getTimeouts() {
+		return this.timeouts;
+	}
+
+	/* with the lock held */
+	private void open() {
+		this.state = OPEN;
+		this.probing = false;
+		this.openedAt = System.nanoTime();
+	}
+}
@@ -0,0 +1,136 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.dongle;
+
+/**
+ * An immutable description of an attached Daplug dongle, as seen by the DaplugDeviceRegistry.
+ * Two descriptions are equal when they have the same interface type and path.
+ *
+ */
+public final class DaplugDeviceInfo {
+
+	/**
+	 * HID interface type
+	 */
+	public static final String TYPE_HID = "HID";
+
+	/**
+	 * WINUSB interface type
+	 */
+	public static final String TYPE_WINUSB = "WINUSB";
+
+	private final String type;
+	private final String path;
+	private final int vendorId, productId;
+	private final String serial;
+	private final String manufacturer;
+
+	/**
+	 * Constructs a device description
+	 * @param type String TYPE_HID or TYPE_WINUSB
+	 * @param path String device path (HID path or libusb pointer)
+	 * @param vendorId int vendor_id
+	 * @param productId int product_id
+	 * @param serial String serial number, null if unknown
+	 * @param manufacturer String manufacturer, null if unknown
+	 */
+	public DaplugDeviceInfo(String type, String path, int vendorId, int productId, String serial, String manufacturer) {
+		if (type == null || path == null)
+			throw new NullPointerException("DaplugDeviceInfo() - type and path are required");
+		this.type = type;
+		this.path = path;
+		this.vendorId = vendorId;
+		this.productId = productId;
+		this.serial = serial;
+		this.manufacturer = manufacturer;
+	}
+
+	/**
+	 * @return String the interface type : TYPE_HID or TYPE_WINUSB
+	 */
+	public String getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return String the device path
+	 */
+	public String getPath() {
+		return this.path;
+	}
+
+	/**
+	 * @return int the vendor_id
+	 */
+	public int getVendorId() {
+		return this.vendorId;
+	}
+
+	/**
+	 * @return int the product_id
+	 */
+	public int getProductId() {
+		return this.productId;
+	}
+
+	/**
+	 * @return String the serial number, null if unknown
+	 */
+	public String getSerial() {
+		return this.serial;
+	}
+
+	/**
+	 * @return String the manufacturer, null if unknown
+	 */
+	public String getManufacturer() {
+		return this.manufacturer;
+	}
+
+	/**
+	 * The description in the DaplugEnumerator format : ", type,path,manufacturer".
+	 * It is the value expected by the DaplugDongle(String) constructor.
+	 * @return String
+	 */
+	public String toDongleString() {
+		return ", " + this.type + "," + this.path + "," + (this.manufacturer == null ? "Plug-up" : this.manufacturer);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof DaplugDeviceInfo))
+			return false;
+		DaplugDeviceInfo other = (DaplugDeviceInfo) o;
+		return this.type.equals(other.type) && this.path.equals(other.path);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * this.type.hashCode() + this.path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return this.type + "," + this.path + "," + this.serial + "," + this.manufacturer;
+	}
+}
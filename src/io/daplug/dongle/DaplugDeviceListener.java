@@ -0,0 +1,41 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.dongle;
+
+/**
+ * Receives the arrivals and removals of Daplug dongles seen by a DaplugDeviceRegistry.
+ * Listeners are called from the registry thread : they must return quickly.
+ *
+ */
+public interface DaplugDeviceListener {
+
+	/**
+	 * A dongle was attached (or was already attached when the listener was added)
+	 * @param device DaplugDeviceInfo
+	 */
+	void deviceArrived(DaplugDeviceInfo device);
+
+	/**
+	 * A dongle was removed
+	 * @param device DaplugDeviceInfo
+	 */
+	void deviceRemoved(DaplugDeviceInfo device);
+}
@@ -0,0 +1,405 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.dongle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.usb4java.Context;
+import org.usb4java.Device;
+import org.usb4java.HotplugCallback;
+import org.usb4java.HotplugCallbackHandle;
+import org.usb4java.LibUsb;
+
+import com.codeminders.hidapi.HIDDeviceInfo;
+
+import io.daplug.dongle.hid.HIDExec;
+import io.daplug.dongle.hid.IHIDExec;
+import io.daplug.dongle.winusb.DaplugUsbContext;
+import io.daplug.dongle.winusb.IWinusb;
+import io.daplug.trace.DaplugTrace;
+
+/**
+ * A long-lived view of the attached Daplug dongles (HID and WINUSB), updated incrementally
+ * instead of enumerating the devices for every listing.
+ *
+ * WINUSB dongles are followed with libusb hotplug callbacks when the platform supports them,
+ * HID dongles (and WINUSB dongles otherwise) by polling : each scan is compared to the current
+ * view and only the differences are applied, so a known dongle is never described again.
+ * Listeners are told of every arrival and removal; lookups by path or serial number are
+ * hash lookups on the current view.
+ *
+ * All methods are thread-safe. The registry runs one daemon thread between start() and close().
+ *
+ */
+public class DaplugDeviceRegistry {
+
+	/**
+	 * Default time between two scans (ms)
+	 */
+	public static final long DEFAULT_POLL_INTERVAL = 500;
+
+	private final long pollInterval;
+	private final Map<String, DaplugDeviceInfo> byPath = new ConcurrentHashMap<String, DaplugDeviceInfo>();
+	private final Map<String, DaplugDeviceInfo> bySerial = new ConcurrentHashMap<String, DaplugDeviceInfo>();
+	private final List<DaplugDeviceListener> listeners = new CopyOnWriteArrayList<DaplugDeviceListener>();
+
+	/* WINUSB hotplug events, queued by the libusb callback and applied by the registry thread */
+	private final ConcurrentLinkedQueue<HotplugEvent> hotplugEvents = new ConcurrentLinkedQueue<HotplugEvent>();
+
+	private HIDExec hidexec = null;
+	private DaplugUsbContext usb = null;
+	private HotplugCallbackHandle hotplugHandle = null;
+	private Thread thread = null;
+	private volatile boolean running = false;
+
+	/**
+	 * Constructs a registry scanning every DEFAULT_POLL_INTERVAL ms. Nothing is scanned before start().
+	 */
+	public DaplugDeviceRegistry() {
+		this(DEFAULT_POLL_INTERVAL);
+	}
+
+	/**
+	 * Constructs a registry. Nothing is scanned before start().
+	 * @param pollIntervalMillis long time between two scans (ms)
+	 */
+	public DaplugDeviceRegistry(long pollIntervalMillis) {
+		if (pollIntervalMillis <= 0)
+			throw new IllegalArgumentException("DaplugDeviceRegistry() - Invalid poll interval : " + pollIntervalMillis);
+		this.pollInterval = pollIntervalMillis;
+	}
+
+	/**
+	 * Scans the attached dongles once, then follows arrivals and removals until close().
+	 * A transport whose native library is not available is ignored. The unavailable transports and the
+	 * failed scans are reported to the trace sink (see DaplugTrace).
+	 */
+	public synchronized void start() {
+		if (this.running)
+			return;
+		try {
+			this.hidexec = new HIDExec();
+		} catch (LinkageError e) {
+			DaplugTrace.message("DaplugDeviceRegistry - HID not available : " + e.getMessage());
+		}
+		try {
+			this.usb = DaplugUsbContext.acquire();
+		} catch (RuntimeException e) {
+			DaplugTrace.message("DaplugDeviceRegistry - WINUSB not available : " + e.getMessage());
+		} catch (LinkageError e) {
+			DaplugTrace.message("DaplugDeviceRegistry - WINUSB not available : " + e.getMessage());
+		}
+		if (this.usb != null && this.usb.hasHotplug()) {
+			try {
+				this.hotplugHandle = this.usb.registerHotplug(new HotplugCallback() {
+					public int processEvent(Context context, Device device, int event, Object userData) {
+						hotplugEvents.add(new HotplugEvent(event == LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED,
+								String.valueOf(device.getPointer())));
+						return 0; // keep the callback registered
+					}
+				});
+			} catch (RuntimeException e) {
+				DaplugTrace.message("DaplugDeviceRegistry - WINUSB hotplug not available, polling : " + e.getMessage());
+			}
+		}
+		refresh();
+		this.running = true;
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, "daplug-registry");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stops following the dongles. The current view is kept but not updated anymore.
+	 */
+	public void close() {
+		Thread t;
+		synchronized (this) {
+			if (!this.running)
+				return;
+			this.running = false;
+			t = this.thread;
+			this.thread = null;
+		}
+		t.interrupt();
+		try {
+			t.join(this.pollInterval * 2 + 1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			releaseUsb();
+		}
+	}
+
+	/**
+	 * @return boolean true if WINUSB dongles are followed with hotplug callbacks rather than polling
+	 */
+	public synchronized boolean isHotplugActive() {
+		return this.hotplugHandle != null;
+	}
+
+	/**
+	 * Adds a listener. The dongles already attached are reported to it as arrivals.
+	 * @param listener DaplugDeviceListener
+	 */
+	public synchronized void addListener(DaplugDeviceListener listener) {
+		this.listeners.add(listener);
+		for (DaplugDeviceInfo device : this.byPath.values()) {
+			listener.deviceArrived(device);
+		}
+	}
+
+	/**
+	 * Removes a listener
+	 * @param listener DaplugDeviceListener
+	 */
+	public void removeListener(DaplugDeviceListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * @param path String device path
+	 * @return DaplugDeviceInfo the attached dongle with this path, null if none
+	 */
+	public DaplugDeviceInfo getByPath(String path) {
+		return this.byPath.get(path);
+	}
+
+	/**
+	 * @param serial String serial number
+	 * @return DaplugDeviceInfo the attached dongle with this serial number, null if none
+	 */
+	public DaplugDeviceInfo getBySerial(String serial) {
+		return this.bySerial.get(serial);
+	}
+
+	/**
+	 * @return List<DaplugDeviceInfo> the attached dongles
+	 */
+	public List<DaplugDeviceInfo> getDevices() {
+		return Collections.unmodifiableList(new ArrayList<DaplugDeviceInfo>(this.byPath.values()));
+	}
+
+	/**
+	 * @return int number of attached dongles
+	 */
+	public int size() {
+		return this.byPath.size();
+	}
+
+	/**
+	 * The attached dongles in the DaplugEnumerator format (see DaplugDeviceInfo.toDongleString()),
+	 * HID dongles first, without enumerating the devices again.
+	 * @return Vector<String> list of the dongles
+	 */
+	public Vector<String> listDaplugDongles() {
+		Vector<String> hid = new Vector<String>(), winusb = new Vector<String>();
+		for (DaplugDeviceInfo device : this.byPath.values()) {
+			if (DaplugDeviceInfo.TYPE_HID.equals(device.getType()))
+				hid.add(device.toDongleString());
+			else
+				winusb.add(device.toDongleString());
+		}
+		hid.addAll(winusb);
+		return hid;
+	}
+
+	/**
+	 * Opens a dongle of the registry
+	 * @param path String device path
+	 * @return DaplugDongle the opened dongle
+	 * @throws IllegalArgumentException if no attached dongle has this path
+	 */
+	public DaplugDongle openDongle(String path) {
+		DaplugDeviceInfo device = getByPath(path);
+		if (device == null)
+			throw new IllegalArgumentException("DaplugDeviceRegistry.openDongle() - No Daplug dongle with path " + path);
+		return new DaplugDongle(device.toDongleString());
+	}
+
+	/**
+	 * Scans the attached dongles now and applies the differences to the view
+	 */
+	public synchronized void refresh() {
+		try {
+			scanHid();
+		} catch (RuntimeException e) {
+			DaplugTrace.message("DaplugDeviceRegistry - HID scan failed : " + e.getMessage());
+		}
+		try {
+			if (this.hotplugHandle == null)
+				scanWinusb();
+			else
+				applyHotplugEvents();
+		} catch (RuntimeException e) {
+			DaplugTrace.message("DaplugDeviceRegistry - WINUSB scan failed : " + e.getMessage());
+		}
+	}
+
+	private void watch() {
+		long nextScan = System.nanoTime() + this.pollInterval * 1000000L;
+		while (this.running) {
+			try {
+				long wait = nextScan - System.nanoTime();
+				if (wait > 0) {
+					if (isHotplugActive()) {
+						this.usb.handleEvents(wait / 1000);
+						synchronized (this) {
+							applyHotplugEvents();
+						}
+						continue;
+					}
+					Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+				}
+				nextScan = System.nanoTime() + this.pollInterval * 1000000L;
+				refresh();
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				DaplugTrace.message("DaplugDeviceRegistry - event handling failed : " + e.getMessage());
+			}
+		}
+	}
+
+	private void scanHid() {
+		if (this.hidexec == null)
+			return;
+		Map<String, DaplugDeviceInfo> seen = new HashMap<String, DaplugDeviceInfo>();
+		for (HIDDeviceInfo dev : this.hidexec.listAllDaplug()) {
+			// same filter as DaplugEnumerator
+			if (dev.getInterface_number() == 0)
+				continue;
+			DaplugDeviceInfo known = this.byPath.get(dev.getPath());
+			seen.put(dev.getPath(), known != null ? known : new DaplugDeviceInfo(DaplugDeviceInfo.TYPE_HID, dev.getPath(),
+					IHIDExec.VENDOR_ID, IHIDExec.PRODUCT_ID, dev.getSerial_number(), dev.getManufacturer_string()));
+		}
+		update(DaplugDeviceInfo.TYPE_HID, seen);
+	}
+
+	private void scanWinusb() {
+		if (this.usb == null)
+			return;
+		Map<String, DaplugDeviceInfo> seen = new HashMap<String, DaplugDeviceInfo>();
+		for (String path : this.usb.listPaths(IWinusb.VENDOR_ID, IWinusb.PRODUCT_ID)) {
+			DaplugDeviceInfo known = this.byPath.get(path);
+			seen.put(path, known != null ? known : winusbDevice(path));
+		}
+		update(DaplugDeviceInfo.TYPE_WINUSB, seen);
+	}
+
+	private void applyHotplugEvents() {
+		HotplugEvent event;
+		while ((event = this.hotplugEvents.poll()) != null) {
+			if (event.arrived) {
+				if (!this.byPath.containsKey(event.path))
+					add(winusbDevice(event.path));
+			} else {
+				DaplugDeviceInfo known = this.byPath.get(event.path);
+				if (known != null)
+					remove(known);
+			}
+		}
+	}
+
+	private DaplugDeviceInfo winusbDevice(String path) {
+		// the serial number is read once, when the dongle arrives
+		return new DaplugDeviceInfo(DaplugDeviceInfo.TYPE_WINUSB, path, IWinusb.VENDOR_ID, IWinusb.PRODUCT_ID,
+				this.usb.readSerial(path), "Plug-up");
+	}
+
+	/**
+	 * Applies a scan of one interface type : dongles of this type not seen anymore are removed,
+	 * dongles seen for the first time are added
+	 * @param type String interface type scanned
+	 * @param seen Map<String, DaplugDeviceInfo> dongles found by the scan, by path
+	 */
+	synchronized void update(String type, Map<String, DaplugDeviceInfo> seen) {
+		for (DaplugDeviceInfo known : this.byPath.values()) {
+			if (known.getType().equals(type) && !seen.containsKey(known.getPath()))
+				remove(known);
+		}
+		for (DaplugDeviceInfo device : seen.values()) {
+			if (!this.byPath.containsKey(device.getPath()))
+				add(device);
+		}
+	}
+
+	private void add(DaplugDeviceInfo device) {
+		this.byPath.put(device.getPath(), device);
+		if (device.getSerial() != null)
+			this.bySerial.put(device.getSerial(), device);
+		for (DaplugDeviceListener listener : this.listeners) {
+			try {
+				listener.deviceArrived(device);
+			} catch (RuntimeException e) {
+				DaplugTrace.message("DaplugDeviceRegistry - deviceArrived() of a listener failed : " + e);
+			}
+		}
+	}
+
+	private void remove(DaplugDeviceInfo device) {
+		this.byPath.remove(device.getPath());
+		if (device.getSerial() != null && device.equals(this.bySerial.get(device.getSerial())))
+			this.bySerial.remove(device.getSerial());
+		for (DaplugDeviceListener listener : this.listeners) {
+			try {
+				listener.deviceRemoved(device);
+			} catch (RuntimeException e) {
+				DaplugTrace.message("DaplugDeviceRegistry - deviceRemoved() of a listener failed : " + e);
+			}
+		}
+	}
+
+	private void releaseUsb() {
+		if (this.usb == null)
+			return;
+		if (this.hotplugHandle != null) {
+			this.usb.deregisterHotplug(this.hotplugHandle);
+			this.hotplugHandle = null;
+		}
+		this.usb.release();
+		this.usb = null;
+	}
+
+	private static final class HotplugEvent {
+
+		private final boolean arrived;
+		private final String path;
+
+		HotplugEvent(boolean arrived, String path) {
+			this.arrived = arrived;
+			this.path = path;
+		}
+	}
+}
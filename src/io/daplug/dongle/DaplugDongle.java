@@ -21,12 +21,20 @@
 package io.daplug.dongle;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import io.daplug.dongle.hid.DaplugDongleHID;
+import io.daplug.dongle.hidraw.DaplugDongleHidraw;
+import io.daplug.dongle.sim.DaplugCardSim;
+import io.daplug.dongle.sim.DaplugDongleSim;
+import io.daplug.dongle.sim.DaplugSimLatency;
 import io.daplug.dongle.winusb.DaplugDongleWinusb;
 import io.daplug.exception.DaplugCommunicationException;
 import io.daplug.exception.DaplugException;
 import io.daplug.exception.DaplugStatusWordException;
+import io.daplug.exception.DaplugTimeoutException;
+import io.daplug.metrics.DaplugDongleMetrics;
+import io.daplug.metrics.DaplugMetrics;
 import io.daplug.utils.DaplugUtils;
 
 public class DaplugDongle {
@@ -35,7 +43,13 @@ public class DaplugDongle {
 	private String path = null;
 
 	private DaplugDongleHID daplugHID = null;
+	private DaplugDongleHidraw daplugHIDRAW = null;
 	private DaplugDongleWinusb daplugWINUSB = null;
+	private DaplugDongleSim daplugSIM = null;
+	
+	private DaplugDongleMetrics metrics = null;
+	private final DaplugTimeoutPolicy timeoutPolicy = new DaplugTimeoutPolicy();
+	private final DaplugCircuitBreaker circuitBreaker = new DaplugCircuitBreaker();
 
 	/**
 	 * This constructor create the specific DaplugDongle (HID/WINUSB) and open it.
@@ -57,11 +71,92 @@ public class DaplugDongle {
 		} catch (DaplugCommunicationException e) {
 			e.printStackTrace();
 		}
+		this.attachMetrics();
+		this.attachTimeoutPolicy();
+	}
+	
+	/**
+	 * This constructor wraps a simulated DaplugDongle (type "SIM").
+	 * @param sim DaplugDongleSim
+	 * 
+	 */
+	public DaplugDongle(DaplugDongleSim sim) {
+		if(sim == null)
+			throw new NullPointerException("Simulated dongle does not exist");
+		this.type = "SIM";
+		this.path = sim.getPath();
+		this.daplugSIM = sim;
+		this.attachMetrics();
+		this.attachTimeoutPolicy();
+	}
+	
+	/**
+	 * This constructor wraps an opened hidraw DaplugDongle (type "HIDRAW").
+	 * @param hidraw DaplugDongleHidraw
+	 * 
+	 */
+	public DaplugDongle(DaplugDongleHidraw hidraw) {
+		if(hidraw == null)
+			throw new NullPointerException("Hidraw dongle does not exist");
+		this.type = "HIDRAW";
+		this.path = hidraw.getPath();
+		this.daplugHIDRAW = hidraw;
+		this.attachMetrics();
+		this.attachTimeoutPolicy();
+	}
+	
+	/**
+	 * This constructor wraps an opened HID DaplugDongle (type "HID"), such as a dongle whose exchanges
+	 * are driven by an HIDAsyncComm.
+	 * @param hid DaplugDongleHID
+	 * @param path String path of the device
+	 * 
+	 */
+	public DaplugDongle(DaplugDongleHID hid, String path) {
+		if(hid == null)
+			throw new NullPointerException("HID dongle does not exist");
+		this.type = "HID";
+		this.path = path;
+		this.daplugHID = hid;
+		this.attachMetrics();
+		this.attachTimeoutPolicy();
 	}
 	
 	/**
-	 * This methode initialize one of the two interface(HID/WINUSB) according to
-	 * the path the user given
+	 * Gets the metrics of this dongle, named by its type and path, and hands them to the interface
+	 * for the write and read latencies.
+	 * 
+	 */
+	private void attachMetrics() {
+		this.metrics = DaplugMetrics.forDongle(this.getName());
+		if (this.daplugHID != null)
+			this.daplugHID.setMetrics(this.metrics);
+		else if (this.daplugHIDRAW != null)
+			this.daplugHIDRAW.setMetrics(this.metrics);
+		else if (this.daplugSIM != null)
+			this.daplugSIM.setMetrics(this.metrics);
+		else if (this.daplugWINUSB != null)
+			this.daplugWINUSB.setMetrics(this.metrics);
+	}
+	
+	/**
+	 * Hands the timeout policy of this dongle to the interface, which times the exchanges out with it.
+	 * Simulated dongles have no exchange timeout.
+	 * 
+	 */
+	private void attachTimeoutPolicy() {
+		if (this.daplugHID != null)
+			this.daplugHID.setTimeoutPolicy(this.timeoutPolicy);
+		else if (this.daplugHIDRAW != null)
+			this.daplugHIDRAW.setTimeoutPolicy(this.timeoutPolicy);
+		else if (this.daplugWINUSB != null)
+			this.daplugWINUSB.setTimeoutPolicy(this.timeoutPolicy);
+	}
+	
+	/**
+	 * This methode initialize one of the interfaces (HID/HIDRAW/WINUSB/SIM) according to
+	 * the path the user given. A "SIM" path gives a new default simulated card without latency,
+	 * a "HIDRAW" path is a Linux hidraw node (/dev/hidrawN).
 	 * @param type String 
 	 * @throws DaplugCommunicationException
 	 * 
@@ -69,13 +164,57 @@ public class DaplugDongle {
 	private void WhichOneToselect(String type) throws DaplugCommunicationException {
 		if (this.type.equals("HID"))
 				this.daplugHID = new DaplugDongleHID(this.path);
+		else if (this.type.equals("HIDRAW"))
+			this.daplugHIDRAW = new DaplugDongleHidraw(this.path);
+		else if (this.type.equals("SIM"))
+			this.daplugSIM = new DaplugDongleSim(this.path, new DaplugCardSim(), DaplugSimLatency.NONE);
 		else
 			this.daplugWINUSB = new DaplugDongleWinusb(this.path);
 	}
 	
+	/**
+	 * @return DaplugDongleMetrics the metrics of this dongle (shared by the dongles with the same type and path)
+	 * 
+	 */
+	public DaplugDongleMetrics getMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * @return DaplugTimeoutPolicy the timeouts of the exchanges, learned by instruction
+	 * 
+	 */
+	public DaplugTimeoutPolicy getTimeoutPolicy() {
+		return this.timeoutPolicy;
+	}
+	
+	/**
+	 * @return DaplugCircuitBreaker the breaker quarantining this dongle when it stops answering
+	 * 
+	 */
+	public DaplugCircuitBreaker getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+	
+	/**
+	 * @return String the name of this dongle in the metrics and the flight recorder events : its type and path
+	 * 
+	 */
+	public String getName() {
+		return this.type + ":" + this.path;
+	}
+	
+	/**
+	 * @return String the interface type : "HID", "HIDRAW", "WINUSB" or "SIM"
+	 * 
+	 */
+	public String getType() {
+		return this.type;
+	}
+	
 	 
 	/**
-	 * High-Level method to process the exchange with the DaplugDongle whatever is his interface(HID/WINSUB)
+	 * High-Level method to process the exchange with the DaplugDongle whatever is his interface(HID/HIDRAW/WINSUB/SIM)
 	 * 
 	 * @param  apdu String
 	 * @return result String []
@@ -89,12 +228,16 @@ public class DaplugDongle {
 			DaplugStatusWordException, DaplugException, IOException {
 		if (this.type.equals("HID"))
 			return this.daplugHID.exchange(apdu);
+		else if (this.type.equals("HIDRAW"))
+			return this.daplugHIDRAW.exchange(apdu);
+		else if (this.type.equals("SIM"))
+			return this.daplugSIM.exchange(apdu);
 		else
 			return this.daplugWINUSB.exchange(apdu);
 	}
 
 	/**
-	 * High-Level method to process the exchange with the DaplugDongle whatever is his interface(HID/WINSUB)
+	 * High-Level method to process the exchange with the DaplugDongle whatever is his interface(HID/HIDRAW/WINSUB/SIM)
 	 * 
 	 * @param  apdu byte [] 
 	 * @return result String []
@@ -108,10 +251,97 @@ public class DaplugDongle {
 	DaplugStatusWordException, DaplugException, IOException {
 		if (this.type.equals("HID"))
 			return this.daplugHID.exchange(apdu);
+		else if (this.type.equals("HIDRAW"))
+			return this.daplugHIDRAW.exchange(apdu);
+		else if (this.type.equals("SIM"))
+			return this.daplugSIM.exchange(apdu);
 		else
 			return this.daplugWINUSB.exchange(apdu);
 	}
 	
+	/**
+	 * Byte-level exchange with the DaplugDongle whatever is his interface(HID/HIDRAW/WINSUB/SIM).
+	 * No hexadecimal conversion is done : the response (data followed by the status word)
+	 * is written in the given buffer.
+	 * The exchange goes through the circuit breaker of the dongle, and its latency teaches the timeout policy.
+	 * 
+	 * @param  apdu byte [] buffer holding the apdu
+	 * @param  apduOffset int offset of the apdu in the buffer
+	 * @param  apduLength int length of the apdu
+	 * @param  response byte [] buffer receiving the response (at least IDaplugDongle.RESPONSE_MAX_LEN bytes available)
+	 * @param  responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugTimeoutException if the dongle did not answer in time
+	 * @throws DaplugCommunicationException if the dongle is quarantined by its circuit breaker
+	 * @throws DaplugException
+	 * 
+	 */
+	public int exchange(byte[] apdu, int apduOffset, int apduLength,
+			byte[] response, int responseOffset) throws DaplugException {
+		this.circuitBreaker.acquire(this.getName());
+		long start = System.nanoTime();
+		boolean answered = false, timedOut = false;
+		int len;
+		try {
+			len = this.transmit(apdu, apduOffset, apduLength, response, responseOffset);
+			answered = true;
+		} catch (DaplugTimeoutException e) {
+			timedOut = true;
+			throw e;
+		} finally {
+			if (answered)
+				this.circuitBreaker.onSuccess();
+			else if (timedOut)
+				this.circuitBreaker.onTimeout();
+			else
+				this.circuitBreaker.onFailure();
+		}
+		if (apduLength > 1)
+			this.timeoutPolicy.record(apdu[apduOffset + 1], System.nanoTime() - start);
+		return len;
+	}
+	
+	/**
+	 * Byte-level exchange through the interface of the dongle, once let through by the circuit breaker
+	 * 
+	 * @param  apdu byte [] buffer holding the apdu
+	 * @param  apduOffset int offset of the apdu in the buffer
+	 * @param  apduLength int length of the apdu
+	 * @param  response byte [] buffer receiving the response
+	 * @param  responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugException
+	 * 
+	 */
+	private int transmit(byte[] apdu, int apduOffset, int apduLength,
+			byte[] response, int responseOffset) throws DaplugException {
+		if (this.type.equals("HID"))
+			return this.daplugHID.exchange(apdu, apduOffset, apduLength, response, responseOffset);
+		else if (this.type.equals("HIDRAW"))
+			return this.daplugHIDRAW.exchange(apdu, apduOffset, apduLength, response, responseOffset);
+		else if (this.type.equals("SIM"))
+			return this.daplugSIM.exchange(apdu, apduOffset, apduLength, response, responseOffset);
+		else
+			return this.daplugWINUSB.exchange(apdu, apduOffset, apduLength, response, responseOffset);
+	}
+	
+	/**
+	 * Byte-level exchange with the DaplugDongle whatever is his interface(HID/HIDRAW/WINSUB/SIM).
+	 * As exchange(byte[], int, int, byte[], int), it goes through the circuit breaker and teaches the timeout policy.
+	 * 
+	 * @param  apdu byte [] 
+	 * @return result byte [] data followed by the status word
+	 * @throws DaplugTimeoutException if the dongle did not answer in time
+	 * @throws DaplugCommunicationException if the dongle is quarantined by its circuit breaker
+	 * @throws DaplugException
+	 * 
+	 */
+	public byte[] exchangeBytes(byte[] apdu) throws DaplugException {
+		byte[] response = new byte[IDaplugDongle.RESPONSE_MAX_LEN];
+		int len = this.exchange(apdu, 0, apdu.length, response, 0);
+		return Arrays.copyOf(response, len);
+	}
+	
 	/**
 	 * close current device according to the previous path given 
 	 * 
@@ -119,6 +349,10 @@ public class DaplugDongle {
 	public void close() {
 		if (this.type.equals("HID"))
 			 this.daplugHID.close();
+		else if (this.type.equals("HIDRAW"))
+			this.daplugHIDRAW.close();
+		else if (this.type.equals("SIM"))
+			this.daplugSIM.close();
 		else
 			this.daplugWINUSB.CloseContext();
 	}
@@ -24,10 +24,21 @@ package io.daplug.dongle;
 import java.util.Vector;
 import com.codeminders.hidapi.HIDDeviceInfo;
 import io.daplug.dongle.hid.HIDExec;
+import io.daplug.dongle.hidraw.HidrawDeviceInfo;
+import io.daplug.dongle.hidraw.HidrawExec;
 import io.daplug.dongle.winusb.DaplugDongleWinusb;
+import io.daplug.jfr.DaplugFlightRecorder;
+import io.daplug.trace.DaplugTrace;
+import io.daplug.trace.DaplugTraceSink;
 
 public class DaplugEnumerator{
 
+	/**
+	 * System property choosing the HID transport : "hidraw" lists the HID dongles through Linux hidraw
+	 * (type HIDRAW, no native library), any other value through hidapi (type HID)
+	 */
+	public static final String HID_TRANSPORT_PROPERTY = "daplug.hid";
+
 	/**
 	 * List all HID device
 	 * String format in Vector :
@@ -53,6 +64,28 @@ public class DaplugEnumerator{
 		 return hid;
 	}
 	
+	/**
+	 * List all HID device through Linux hidraw
+	 * String format in Vector :
+	 * HIDRAW, path, name
+	 * @return Vector<String> list of all hidraw Daplug Device
+	 * 
+	 */
+	private static Vector<String> listDaplugHidrawDevice()
+	{
+		Vector<String> hidraw = new Vector<String>();
+		for(HidrawDeviceInfo dev : new HidrawExec().listAllDaplug()) {
+			if(dev.getInterfaceNumber() != 0) {
+				StringBuilder sb = new StringBuilder();
+				sb.append(", HIDRAW").append(",").
+					append(dev.getPath()).append(",").
+					append(dev.getName());
+				hidraw.add(sb.toString());
+			}
+		}
+		return hidraw;
+	}
+	
 	/**
 	 * List all WINUSB device
 	 * format String :  WINSUB, vid, pid, path, interface_number, manufactured
@@ -60,28 +93,40 @@ public class DaplugEnumerator{
 	 * 
 	 */
 	private static Vector<String> listDaplugWinusbDevice() {
-		return new DaplugDongleWinusb().getPath();
+		DaplugDongleWinusb winusb = new DaplugDongleWinusb();
+		try {
+			return winusb.getPath();
+		} finally {
+			winusb.CloseContext();
+		}
 	}
 	
 	/**
-	 * list all daplug device in HID and WINUSB
-	 * format of String : type (HID/WINUSB), vid, pid, path, interface_number, manufactured
+	 * list all daplug device in HID and WINUSB. HID dongles are listed through hidraw when
+	 * the daplug.hid system property is "hidraw".
+	 * format of String : type (HID/HIDRAW/WINUSB), vid, pid, path, interface_number, manufactured
 	 * all information are separated by a coma (,)
 	 * @return Vector<String> list all DaplugDevice 
 	 * 
 	 */
 	public static Vector<String> listDaplugDongles() {
-		System.out.println("List all Daplug Dongle (HID/WINUSB)");
-		Vector <String> hid = listDaplugHIDDevice();
+		DaplugTraceSink trace = DaplugTrace.getSink();
+		Object event = DaplugFlightRecorder.beginEnumeration();
+		Vector <String> hid = "hidraw".equalsIgnoreCase(System.getProperty(HID_TRANSPORT_PROPERTY))
+				? listDaplugHidrawDevice() : listDaplugHIDDevice();
 		Vector <String> winusb = listDaplugWinusbDevice();
-		int i = 0;
-		for(String value : hid) {
-			System.out.println("Dongle " + i + value);
-			i++;
-		}
-		for(String value : winusb){
-			System.out.println("Dongle " + i + value);
-			i++;
+		DaplugFlightRecorder.endEnumeration(event, hid.size(), winusb.size());
+		if(trace.isEnabled()) {
+			trace.message("List all Daplug Dongle (HID/WINUSB)");
+			int i = 0;
+			for(String value : hid) {
+				trace.message("Dongle " + i + value);
+				i++;
+			}
+			for(String value : winusb){
+				trace.message("Dongle " + i + value);
+				i++;
+			}
 		}
 		//add ath the end of HID vector list, all data contained by winusb vector
 		hid.addAll(winusb);
@@ -0,0 +1,180 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugTimeoutException;
+import io.daplug.session.DaplugCallback;
+
+/**
+ * The pending result of an asynchronous exchange with a dongle (WinusbAsyncComm.submit(), HIDAsyncComm.submit()) :
+ * the response length, once the response is written in the buffer given with the apdu.
+ *
+ * Callbacks run on the thread completing the future : the I/O thread shared by all the dongles of the transport
+ * (libusb event thread, HID multiplexer), which must not be blocked. A callback registered on a completed future
+ * runs on the registering thread.
+ *
+ */
+public final class DaplugExchangeFuture implements Future<Integer> {
+
+	private boolean done = false;
+	private int length = 0;
+	private DaplugException failure = null;
+	private List<DaplugCallback<? super Integer>> callbacks = null;
+
+	/**
+	 * Constructs a pending exchange, completed by the transport
+	 */
+	public DaplugExchangeFuture() {
+	}
+
+	/**
+	 * Registers a callback, run once the exchange is done
+	 * @param callback DaplugCallback<Integer> receiving the response length or the DaplugException of the failure
+	 */
+	public void addCallback(DaplugCallback<? super Integer> callback) {
+		synchronized (this) {
+			if (!this.done) {
+				if (this.callbacks == null)
+					this.callbacks = new ArrayList<DaplugCallback<? super Integer>>(2);
+				this.callbacks.add(callback);
+				return;
+			}
+		}
+		call(callback);
+	}
+
+	/**
+	 * Completes the exchange : called once by the transport
+	 * @param length int response length
+	 * @param failure DaplugException, null on success
+	 */
+	public void finish(int length, DaplugException failure) {
+		List<DaplugCallback<? super Integer>> l;
+		synchronized (this) {
+			if (this.done)
+				return;
+			this.length = length;
+			this.failure = failure;
+			this.done = true;
+			l = this.callbacks;
+			this.callbacks = null;
+			notifyAll();
+		}
+		if (l != null) {
+			for (DaplugCallback<? super Integer> c : l)
+				call(c);
+		}
+	}
+
+	private void call(DaplugCallback<? super Integer> callback) {
+		try {
+			if (this.failure == null)
+				callback.onSuccess(this.length);
+			else
+				callback.onFailure(this.failure);
+		} catch (RuntimeException e) {
+			// a failing callback must not break the event thread nor the other callbacks
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Waits for the exchange, which the transport completes in its own time (its timeout included)
+	 * @return int response length (data length + 2)
+	 * @throws DaplugException if the exchange failed
+	 * @throws InterruptedException
+	 */
+	public synchronized int await() throws DaplugException, InterruptedException {
+		while (!this.done)
+			wait();
+		if (this.failure != null)
+			throw this.failure;
+		return this.length;
+	}
+
+	/**
+	 * Waits for the exchange
+	 * @param timeout long
+	 * @param unit TimeUnit
+	 * @return int response length (data length + 2)
+	 * @throws DaplugTimeoutException if the exchange did not complete in time
+	 * @throws DaplugException if the exchange failed
+	 * @throws InterruptedException
+	 */
+	public synchronized int await(long timeout, TimeUnit unit) throws DaplugException, InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!this.done) {
+			long left = deadline - System.nanoTime();
+			if (left <= 0)
+				throw new DaplugTimeoutException("exchange() - No response from the dongle");
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		if (this.failure != null)
+			throw this.failure;
+		return this.length;
+	}
+
+	/**
+	 * An USB exchange can not be interrupted
+	 * @param mayInterruptIfRunning boolean ignored
+	 * @return boolean false
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	public boolean isCancelled() {
+		return false;
+	}
+
+	public synchronized boolean isDone() {
+		return this.done;
+	}
+
+	public synchronized Integer get() throws InterruptedException, ExecutionException {
+		while (!this.done)
+			wait();
+		if (this.failure != null)
+			throw new ExecutionException(this.failure);
+		return this.length;
+	}
+
+	public synchronized Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!this.done) {
+			long left = deadline - System.nanoTime();
+			if (left <= 0)
+				throw new TimeoutException("DaplugExchangeFuture.get() - timed out");
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		if (this.failure != null)
+			throw new ExecutionException(this.failure);
+		return this.length;
+	}
+}
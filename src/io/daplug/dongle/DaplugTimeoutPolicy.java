@@ -0,0 +1,140 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.daplug.metrics.DaplugHistogram;
+
+/**
+ * The timeouts of the exchanges with one dongle, learned by instruction (INS byte) : once MIN_SAMPLES exchanges
+ * of an instruction succeeded, its timeout is the QUANTILE of their latencies multiplied by the margin,
+ * no shorter than the floor and no longer than the timeout of the transport (IHIDComm.DEFAULT_TIMEOUT,
+ * IWinusb.TIMEOUT), which also applies while the instruction is being learned.
+ *
+ * A status read is then given up after a few hundred milliseconds instead of seconds, while a long
+ * cryptographic operation keeps the time it needs. Timed out exchanges are not recorded.
+ *
+ */
+public final class DaplugTimeoutPolicy {
+
+	/**
+	 * Number of successful exchanges of an instruction before its timeout is learned
+	 */
+	public static final int MIN_SAMPLES = 16;
+
+	/**
+	 * Quantile of the latencies the timeout is derived from
+	 */
+	public static final double QUANTILE = 0.999;
+
+	/**
+	 * Default shortest timeout, in milliseconds
+	 */
+	public static final int DEFAULT_FLOOR_MILLIS = 250;
+
+	/**
+	 * Default multiplier of the latency quantile
+	 */
+	public static final int DEFAULT_MARGIN = 4;
+
+	/* the learned timeout is computed again every RECOMPUTE exchanges */
+	private static final int RECOMPUTE = 64;
+
+	/* the latencies of one instruction and the timeout learned from them, 0 while learning */
+	private static final class Instruction {
+		final DaplugHistogram latencies = new DaplugHistogram();
+		final AtomicLong samples = new AtomicLong();
+		volatile int timeoutMillis = 0;
+	}
+
+	private final int floorMillis, margin;
+	private final AtomicReferenceArray<Instruction> instructions = new AtomicReferenceArray<Instruction>(256);
+
+	/**
+	 * Constructs a policy with the default floor and margin
+	 */
+	public DaplugTimeoutPolicy() {
+		this(DEFAULT_FLOOR_MILLIS, DEFAULT_MARGIN);
+	}
+
+	/**
+	 * Constructs a policy
+	 * @param floorMillis int shortest timeout, in milliseconds
+	 * @param margin int multiplier of the latency quantile
+	 */
+	public DaplugTimeoutPolicy(int floorMillis, int margin) {
+		if (floorMillis <= 0 || margin < 1)
+			throw new IllegalArgumentException("DaplugTimeoutPolicy() - invalid floor or margin");
+		this.floorMillis = floorMillis;
+		this.margin = margin;
+	}
+
+	/**
+	 * Records the latency of a successful exchange
+	 * @param ins int INS byte of the command
+	 * @param nanos long latency of the exchange, in nanoseconds
+	 */
+	public void record(int ins, long nanos) {
+		Instruction instruction = this.instructions.get(ins & 0xFF);
+		if (instruction == null) {
+			this.instructions.compareAndSet(ins & 0xFF, null, new Instruction());
+			instruction = this.instructions.get(ins & 0xFF);
+		}
+		instruction.latencies.record(nanos);
+		long samples = instruction.samples.incrementAndGet();
+		if (samples == MIN_SAMPLES || samples % RECOMPUTE == 0) {
+			long quantile = instruction.latencies.getValueAtQuantile(QUANTILE);
+			long millis = (quantile / 1000000L + 1) * this.margin;
+			instruction.timeoutMillis = (int) Math.min(Math.max(millis, this.floorMillis), Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * @param ins int INS byte of the command
+	 * @return int timeout learned for the instruction, in milliseconds, 0 while it is being learned
+	 */
+	public int getTimeoutMillis(int ins) {
+		Instruction instruction = this.instructions.get(ins & 0xFF);
+		return (instruction == null) ? 0 : instruction.timeoutMillis;
+	}
+
+	/**
+	 * @param ins int INS byte of the command
+	 * @param ceilingMillis int timeout of the transport, in milliseconds
+	 * @return int timeout of the exchange, in milliseconds
+	 */
+	public int timeoutMillis(int ins, int ceilingMillis) {
+		int learned = this.getTimeoutMillis(ins);
+		return (learned == 0) ? ceilingMillis : Math.min(learned, ceilingMillis);
+	}
+
+	/**
+	 * The timeout of an exchange for a transport whose policy may not be set
+	 * @param policy DaplugTimeoutPolicy, null to apply the timeout of the transport
+	 * @param ins int INS byte of the command
+	 * @param ceilingMillis int timeout of the transport, in milliseconds
+	 * @return int timeout of the exchange, in milliseconds
+	 */
+	public static int timeoutMillis(DaplugTimeoutPolicy policy, int ins, int ceilingMillis) {
+		return (policy == null) ? ceilingMillis : policy.timeoutMillis(ins, ceilingMillis);
+	}
+}
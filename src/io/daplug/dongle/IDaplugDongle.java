@@ -20,8 +20,15 @@
 
 package io.daplug.dongle;
 
+import io.daplug.exception.DaplugException;
+
 public interface IDaplugDongle {
 	
+	/**
+	 * Maximum length of a response : 256 bytes of data (T=0) followed by the status word
+	 */
+	static final int RESPONSE_MAX_LEN = 256 + 2;
+	
 	/**
 	 * List all devices on the computer whatever his kind (HID, WINUSB)
 	 * @return Object array of all devices (the array content will change according, to the implementation) 
@@ -85,4 +92,27 @@ public interface IDaplugDongle {
 	 */
 	public Object exchange(String apdu);
 	
+	/**
+	 * exchange command with the daplugDongle without any hexadecimal conversion.
+	 * The response is written in the given buffer : data first, then the status word.
+	 * @param apdu byte [] buffer containing the apdu to send
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response (at least RESPONSE_MAX_LEN bytes available)
+	 * @param responseOffset int offset where the response is written
+	 * @return int number of bytes written in response (data length + 2)
+	 * @throws DaplugException
+	 * 
+	 */
+	public int exchange(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset) throws DaplugException;
+	
+	/**
+	 * exchange command with the daplugDongle without any hexadecimal conversion.
+	 * @param apdu byte [] apdu to send
+	 * @return byte [] response : data followed by the status word
+	 * @throws DaplugException
+	 * 
+	 */
+	public byte[] exchangeBytes(byte[] apdu) throws DaplugException;
+	
 }
@@ -21,23 +21,38 @@
 package io.daplug.dongle.hid;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Vector;
 
 import io.daplug.exception.*;
+import io.daplug.dongle.DaplugTimeoutPolicy;
 import io.daplug.dongle.IDaplugDongle;
 import io.daplug.dongle.hid.HIDComm;
 import io.daplug.dongle.hid.HIDExec;
+import io.daplug.metrics.DaplugDongleMetrics;
 
 import com.codeminders.hidapi.HIDDevice;
 import com.codeminders.hidapi.HIDDeviceInfo;
 
+/**
+ * A Daplug dongle in HID mode. Each instance owns its device; enumeration and opening go through
+ * the HID manager shared by the process (see HIDExec). Sessions on different dongles exchange in parallel.
+ *
+ */
 public class DaplugDongleHID implements IDaplugDongle {
 
-	private HIDDevice device = null;
-	private boolean deviceStatus;
+	/**
+	 * System property driving the opened HID dongles from the shared DaplugHidMultiplexer (HIDAsyncComm)
+	 * when "true", instead of parking a thread in each exchange (HIDComm)
+	 */
+	public static final String HID_MUX_PROPERTY = "daplug.hid.mux";
+
+	private volatile HIDDevice device = null;
+	private volatile boolean deviceStatus;
 	private HIDExec hidexec = null;
-	private HIDComm hidComm = null;
-	private static DaplugDongleHID _this = null;
+	private volatile HIDComm hidComm = null;
+	private volatile DaplugDongleMetrics metrics = null;
+	private volatile DaplugTimeoutPolicy timeoutPolicy = null;
 	
 	static {
 		com.codeminders.hidapi.ClassPathLibraryLoader.loadNativeHIDLibrary();
@@ -48,7 +63,6 @@ public class DaplugDongleHID implements IDaplugDongle {
 	 * 
 	 */
 	public DaplugDongleHID(){
-		_this = this;
 		this.hidexec = new HIDExec();
 		this.hidComm = new HIDComm();
 		this.deviceStatus = true;
@@ -61,11 +75,10 @@ public class DaplugDongleHID implements IDaplugDongle {
 	 * 
 	 */
 	public DaplugDongleHID(String path){
-		_this = this;
 		this.deviceStatus = true;
 		this.hidexec = new HIDExec();
 		this.device = (HIDDevice) this.openDevice(path);
-		this.hidComm = new HIDComm(this.device, this.deviceStatus);
+		this.hidComm = newComm(this.device, this.deviceStatus);
 		
 	
 	}
@@ -77,11 +90,29 @@ public class DaplugDongleHID implements IDaplugDongle {
 	 * 
 	 */
 	public DaplugDongleHID(HIDDevice device, boolean deviceStatus){
-		_this = this;
 		this.hidexec = new HIDExec();
 		this.device = device;
 		this.deviceStatus = deviceStatus;
-		this.hidComm = new HIDComm(device, deviceStatus);
+		this.hidComm = newComm(device, deviceStatus);
+	}
+	
+	/**
+	 * create the comm of an opened device : an HIDAsyncComm when the daplug.hid.mux system property is "true"
+	 * @param device HIDDevice
+	 * @param deviceStatus boolean
+	 * @return HIDComm
+	 * 
+	 */
+	private static HIDComm newComm(HIDDevice device, boolean deviceStatus) {
+		if (device != null && deviceStatus && "true".equalsIgnoreCase(System.getProperty(HID_MUX_PROPERTY))) {
+			try {
+				return new HIDAsyncComm(device);
+			} catch (IOException e) {
+				// the device stays in blocking mode
+				e.printStackTrace();
+			}
+		}
+		return new HIDComm(device, deviceStatus);
 	}
 	
 	/**
@@ -91,7 +122,7 @@ public class DaplugDongleHID implements IDaplugDongle {
 	 */
 	public Object ListAllDevices()
 	{
-		return _this.hidexec.listDevice();
+		return this.hidexec.listDevice();
 	}
 	
 	/**
@@ -103,7 +134,7 @@ public class DaplugDongleHID implements IDaplugDongle {
 	 */
 	public Object ListAllDevices(int vid, int pid)
 	{
-		return _this.hidexec.listDevice(vid, pid);
+		return this.hidexec.listDevice(vid, pid);
 	}
 	
 	/**
@@ -113,7 +144,7 @@ public class DaplugDongleHID implements IDaplugDongle {
 	 */
 	public Object ListAllDaplug()
 	{
-		return _this.hidexec.listAllDaplug();
+		return this.hidexec.listAllDaplug();
 	}
 	
 	/**
@@ -173,12 +204,8 @@ public class DaplugDongleHID implements IDaplugDongle {
 	 * 
 	 */
 	public void close() {
-		try {
-			this.device.close();
-			this.deviceStatus = false;
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		this.hidComm.close();
+		this.deviceStatus = false;
 	}
 	
 	
@@ -236,6 +263,42 @@ public class DaplugDongleHID implements IDaplugDongle {
 		return null;
 	}
 	
+	/**
+	 * exchange command with the daplugDongle without hexadecimal conversion.
+	 * The response is written in the given buffer : data first, then the status word.
+	 * @param apdu byte[] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte[] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugException
+	 * 
+	 */
+	public int exchange(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset)
+			throws DaplugException
+	{
+		try {
+			return this.hidComm.exchange(apdu, apduOffset, apduLength, response, responseOffset);
+		} catch (IOException e) {
+			throw new DaplugCommunicationException(e);
+		}
+	}
+	
+	/**
+	 * exchange command with the daplugDongle without hexadecimal conversion.
+	 * @param apdu byte[]
+	 * @return byte [] response : data followed by the status word
+	 * @throws DaplugException
+	 * 
+	 */
+	public byte[] exchangeBytes(byte[] apdu) throws DaplugException
+	{
+		byte[] response = new byte[RESPONSE_MAX_LEN];
+		int len = this.exchange(apdu, 0, apdu.length, response, 0);
+		return Arrays.copyOf(response, len);
+	}
+	
 	/**
 	 * The RESET function performs a warm reset of the Plug-up dongle. It is freely available (as long as the dongle is not halted by the HALT command).
 	 * @return String [] result
@@ -290,7 +353,29 @@ public class DaplugDongleHID implements IDaplugDongle {
 	 * 
 	 */
 	public void setHidComm(HIDComm hidComm) {
+		hidComm.setMetrics(this.metrics);
+		hidComm.setTimeoutPolicy(this.timeoutPolicy);
 		this.hidComm = hidComm;
 	}
 	
+	/**
+	 * set the metrics receiving the write and read latencies of the exchanges
+	 * @param metrics DaplugDongleMetrics, null to record nothing
+	 * 
+	 */
+	public void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+		this.hidComm.setMetrics(metrics);
+	}
+	
+	/**
+	 * set the policy giving the timeout of each exchange
+	 * @param timeoutPolicy DaplugTimeoutPolicy, null to apply IHIDComm.DEFAULT_TIMEOUT
+	 * 
+	 */
+	public void setTimeoutPolicy(DaplugTimeoutPolicy timeoutPolicy) {
+		this.timeoutPolicy = timeoutPolicy;
+		this.hidComm.setTimeoutPolicy(timeoutPolicy);
+	}
+	
 }
@@ -0,0 +1,151 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hid;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One thread driving the exchanges of many HID dongles (HIDAsyncComm) : it writes the reports of the queued
+ * apdus and polls the non-blocking ports for the responses, so no thread is parked per dongle.
+ * It is started by the first registered dongle and stopped when the last one is closed.
+ *
+ * While a response is awaited, the thread pauses between two polls for MIN_PAUSE_NANOS, doubled up to
+ * MAX_PAUSE_NANOS while no report arrives; with no exchange in flight it sleeps until an exchange is submitted.
+ *
+ */
+public final class DaplugHidMultiplexer implements Runnable {
+
+	/**
+	 * Shortest pause between two polls while a response is awaited, in nanoseconds
+	 */
+	public static final long MIN_PAUSE_NANOS = 20000L;
+
+	/**
+	 * Longest pause between two polls while a response is awaited, in nanoseconds :
+	 * a quarter of the 1 ms interval of the HID interrupt endpoint
+	 */
+	public static final long MAX_PAUSE_NANOS = 250000L;
+
+	/* with no exchange in flight : submit() wakes the thread up, the pause only bounds a missed wake-up */
+	private static final long IDLE_PAUSE_NANOS = 100000000L;
+
+	private static final DaplugHidMultiplexer DEFAULT = new DaplugHidMultiplexer("daplug-hid-mux");
+
+	private final String name;
+	private final List<HIDAsyncComm> comms = new CopyOnWriteArrayList<HIDAsyncComm>();
+	private volatile Thread thread = null;
+
+	/**
+	 * @return the multiplexer shared by the process
+	 */
+	public static DaplugHidMultiplexer getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Constructs a multiplexer, to drive a group of dongles apart from the shared one
+	 * @param name String name of its thread
+	 */
+	public DaplugHidMultiplexer(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return int number of dongles driven by this multiplexer
+	 */
+	public int getDongleCount() {
+		return this.comms.size();
+	}
+
+	/**
+	 * Registers a dongle, starting the thread if needed
+	 * @param comm HIDAsyncComm
+	 */
+	synchronized void register(HIDAsyncComm comm) {
+		this.comms.add(comm);
+		if (this.thread == null) {
+			Thread t = new Thread(this, this.name);
+			t.setDaemon(true);
+			this.thread = t;
+			t.start();
+		}
+	}
+
+	/**
+	 * Unregisters a dongle. The thread is stopped with the last one, and joined unless it is the caller.
+	 * @param comm HIDAsyncComm
+	 */
+	void unregister(HIDAsyncComm comm) {
+		Thread t;
+		synchronized (this) {
+			this.comms.remove(comm);
+			if (!this.comms.isEmpty() || this.thread == null)
+				return;
+			t = this.thread;
+			this.thread = null;
+		}
+		if (t == Thread.currentThread())
+			return;
+		LockSupport.unpark(t);
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wakes the thread up : an exchange is submitted
+	 */
+	void wakeup() {
+		Thread t = this.thread;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+
+	/**
+	 * @return boolean true if the caller is the thread of this multiplexer (a completion callback)
+	 */
+	boolean isMultiplexerThread() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	public void run() {
+		long pause = MIN_PAUSE_NANOS;
+		// a new thread may be started while this one is stopping : each one runs while it is the current one
+		while (this.thread == Thread.currentThread()) {
+			long now = System.nanoTime();
+			int state = HIDAsyncComm.IDLE;
+			for (HIDAsyncComm comm : this.comms)
+				state = Math.max(state, comm.poll(now));
+			if (state == HIDAsyncComm.BUSY) {
+				pause = MIN_PAUSE_NANOS;
+			} else if (state == HIDAsyncComm.IDLE) {
+				pause = MIN_PAUSE_NANOS;
+				LockSupport.parkNanos(this, IDLE_PAUSE_NANOS);
+			} else {
+				LockSupport.parkNanos(this, pause);
+				pause = Math.min(pause * 2, MAX_PAUSE_NANOS);
+			}
+		}
+	}
+}
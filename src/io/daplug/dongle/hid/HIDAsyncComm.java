@@ -0,0 +1,358 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hid;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.codeminders.hidapi.HIDDevice;
+
+import io.daplug.dongle.DaplugExchangeFuture;
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.exception.DaplugCommunicationException;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugStatusWordException;
+import io.daplug.exception.DaplugTimeoutException;
+import io.daplug.jfr.DaplugFlightRecorder;
+import io.daplug.metrics.DaplugDongleMetrics;
+import io.daplug.metrics.DaplugMetrics;
+import io.daplug.session.DaplugCallback;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Exchanges with one HID dongle without blocking a thread : the port is non-blocking and the exchanges are
+ * driven by the thread of a DaplugHidMultiplexer, shared by many dongles, which completes the
+ * DaplugExchangeFuture of each exchange. Exchanges on the same dongle are queued and sent one at a time,
+ * with the reports framed by the HidReportCodec of the dongle.
+ *
+ * A blocking exchange() waits for its future, so the comm can replace an HIDComm (DaplugDongleHID.setHidComm()).
+ *
+ */
+public class HIDAsyncComm extends HIDComm {
+
+	/* states returned by poll() : nothing in flight, a response is awaited, a report was written or read */
+	static final int IDLE = 0, WAITING = 1, BUSY = 2;
+
+	/* an exchange, queued then in flight */
+	private static final class Pending {
+		final byte[] apdu, response;
+		final int apduOffset, apduLength, responseOffset;
+		final DaplugExchangeFuture future = new DaplugExchangeFuture();
+		long deadline, sending, written;
+		int timeout, blocksWritten = 0, blocksRead = 0;
+		boolean timedOut = false;
+		Object event = null;
+		/* outcome, set with the lock held, reported once the lock is released */
+		int length = 0;
+		DaplugException failure = null;
+
+		Pending(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset) {
+			this.apdu = apdu;
+			this.apduOffset = apduOffset;
+			this.apduLength = apduLength;
+			this.response = response;
+			this.responseOffset = responseOffset;
+		}
+	}
+
+	private final IHIDPort port;
+	private final DaplugHidMultiplexer mux;
+	private final HidReportCodec codec = new HidReportCodec();
+	private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<Pending>();
+	// exchange in flight and port state, under the lock
+	private Pending current = null;
+	private boolean stale = false, portClosed = false;
+	private volatile boolean closed = false;
+	private volatile DaplugDongleMetrics metrics = null;
+
+	/**
+	 * Drives an opened hidapi device from the shared multiplexer
+	 * @param device HIDDevice opened device, switched to non-blocking mode and owned by this object from now on
+	 * @throws IOException if the device can not be switched to non-blocking mode
+	 */
+	public HIDAsyncComm(HIDDevice device) throws IOException {
+		this(device, new HIDDevicePort(device), DaplugHidMultiplexer.getDefault());
+	}
+
+	/**
+	 * Drives a port from a multiplexer
+	 * @param port IHIDPort non-blocking port, owned by this object from now on
+	 * @param mux DaplugHidMultiplexer the multiplexer driving the exchanges
+	 */
+	public HIDAsyncComm(IHIDPort port, DaplugHidMultiplexer mux) {
+		this(null, port, mux);
+	}
+
+	private HIDAsyncComm(HIDDevice device, IHIDPort port, DaplugHidMultiplexer mux) {
+		super(device, true);
+		if (port == null || mux == null)
+			throw new NullPointerException("HIDAsyncComm() - port and multiplexer are required");
+		this.port = port;
+		this.mux = mux;
+		mux.register(this);
+	}
+
+	@Override
+	public void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the multiplexer driving the exchanges
+	 */
+	public DaplugHidMultiplexer getMultiplexer() {
+		return this.mux;
+	}
+
+	/**
+	 * Queues an exchange. The apdu and response buffers belong to the exchange until it is done.
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response : data first, then the status word
+	 * @param responseOffset int offset where the response is written
+	 * @return DaplugExchangeFuture the response length (data length + 2), completed on the multiplexer thread
+	 */
+	public DaplugExchangeFuture submit(byte[] apdu, int apduOffset, int apduLength, byte[] response,
+			int responseOffset) {
+		Pending p = new Pending(apdu, apduOffset, apduLength, response, responseOffset);
+		if (this.closed || !this.isDeviceStatus()) {
+			p.future.finish(0, new DaplugCommunicationException(
+					"exchange(): device Status is closed , please open it again"));
+			return p.future;
+		}
+		this.queue.add(p);
+		if (this.closed)
+			// close() may have drained the queue before the add
+			this.failQueued();
+		else
+			this.mux.wakeup();
+		return p.future;
+	}
+
+	/**
+	 * Queues an exchange and registers a callback, run on the multiplexer thread once it is done
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response : data first, then the status word
+	 * @param responseOffset int offset where the response is written
+	 * @param callback DaplugCallback<Integer> receiving the response length or the DaplugException of the failure
+	 */
+	public void submit(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset,
+			DaplugCallback<? super Integer> callback) {
+		this.submit(apdu, apduOffset, apduLength, response, responseOffset).addCallback(callback);
+	}
+
+	/**
+	 * exchange command with the daplugDongle without hexadecimal conversion : the calling thread waits
+	 * for the future of the exchange. The response is written in the given buffer : data first, then the status word.
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugTimeoutException if the dongle did not answer in time
+	 * @throws DaplugCommunicationException if the exchange failed
+	 * @throws DaplugStatusWordException
+	 * @throws DaplugException
+	 */
+	@Override
+	public int exchange(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset)
+			throws DaplugException {
+		if (this.mux.isMultiplexerThread())
+			throw new IllegalStateException("exchange() - blocking exchange on the HID multiplexer thread");
+		int len;
+		try {
+			// the multiplexer fails the exchange once its timeout is elapsed after it is sent
+			len = this.submit(apdu, apduOffset, apduLength, response, responseOffset).await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DaplugCommunicationException("exchange() - Interrupted");
+		}
+		if (len < 2)
+			throw new DaplugStatusWordException();
+		return len;
+	}
+
+	/**
+	 * exchange command with the daplugDongle. It return a String array with at
+	 * element 0 : the response from daplugDongle at element 1 : the status word
+	 * @param apdu byte []
+	 * @return result String[]
+	 * @throws DaplugException
+	 */
+	@Override
+	public String[] exchange(byte[] apdu) throws DaplugException {
+		byte[] response = new byte[IDaplugDongle.RESPONSE_MAX_LEN];
+		int len = this.exchange(apdu, 0, apdu.length, response, 0);
+		return DaplugUtils.responseToHexStrings(response, 0, len);
+	}
+
+	/**
+	 * exchange command with the daplugDongle. It return a String array with at
+	 * element 0 : the response from daplugDongle at element 1 : the status word
+	 * @param hexaApdu String
+	 * @return result String[]
+	 * @throws DaplugException
+	 */
+	@Override
+	public String[] exchange(String hexaApdu) throws DaplugException {
+		return this.exchange(DaplugUtils.hexStringToByteArray(hexaApdu));
+	}
+
+	/**
+	 * Fails the pending exchanges, closes the port, then leaves the multiplexer
+	 */
+	@Override
+	public void close() {
+		Pending p;
+		synchronized (this) {
+			if (this.closed)
+				return;
+			this.closed = true;
+			this.setDeviceStatus(false);
+			p = this.current;
+			this.current = null;
+			if (p != null)
+				p.failure = new DaplugCommunicationException("exchange() - Device is closed");
+			this.portClosed = true;
+			try {
+				this.port.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (p != null)
+			this.finish(p);
+		this.failQueued();
+		this.mux.unregister(this);
+	}
+
+	/* fails the exchanges not sent yet */
+	private void failQueued() {
+		Pending p;
+		while ((p = this.queue.poll()) != null)
+			p.future.finish(0, new DaplugCommunicationException("exchange() - Device is closed"));
+	}
+
+	/**
+	 * Multiplexer thread : sends the next exchange, or reads a report of the exchange in flight
+	 * @param now long System.nanoTime()
+	 * @return int IDLE, WAITING or BUSY
+	 */
+	int poll(long now) {
+		Pending done = null;
+		int state;
+		synchronized (this) {
+			if (this.portClosed)
+				return IDLE;
+			Pending p = this.current;
+			if (p == null) {
+				p = this.queue.poll();
+				if (p == null)
+					return IDLE;
+				if (!this.send(p, now))
+					done = p;
+				state = BUSY;
+			} else {
+				state = WAITING;
+				try {
+					int size = this.port.read(this.codec.inputReport());
+					if (size < 0)
+						throw new DaplugCommunicationException("exchangeApdu(): Read failure !");
+					if (size > 0) {
+						state = BUSY;
+						p.blocksRead++;
+						if (this.codec.decode(size)) {
+							p.length = this.codec.responseLength();
+							done = p;
+						}
+					} else if (now - p.deadline >= 0) {
+						p.timedOut = true;
+						// a late response is dropped before the next exchange is sent
+						this.stale = true;
+						p.failure = new DaplugTimeoutException(
+								"exchangeApdu(): No response from the dongle after " + p.timeout + " ms");
+						done = p;
+					}
+				} catch (IOException e) {
+					p.failure = new DaplugCommunicationException(e);
+					done = p;
+				} catch (DaplugCommunicationException e) {
+					p.failure = e;
+					done = p;
+				}
+				if (done != null)
+					this.current = null;
+			}
+		}
+		if (done != null)
+			this.finish(done);
+		return state;
+	}
+
+	/**
+	 * With the lock held : writes the reports of an exchange, which is in flight if they are all written
+	 * @param p Pending exchange
+	 * @param now long System.nanoTime()
+	 * @return boolean false if the exchange failed
+	 */
+	private boolean send(Pending p, long now) {
+		DaplugDongleMetrics metrics = this.metrics;
+		if (metrics != null && p.apduLength > 1 && DaplugMetrics.isEnabled())
+			p.sending = now;
+		p.event = DaplugFlightRecorder.beginTransfer();
+		HidReportCodec codec = this.codec;
+		try {
+			if (this.stale) {
+				while (this.port.read(codec.inputReport()) > 0)
+					;
+				this.stale = false;
+			}
+			int reports = HidReportCodec.reportCount(p.apduLength);
+			for (; p.blocksWritten < reports; p.blocksWritten++)
+				this.port.write(codec.encode(p.apdu, p.apduOffset, p.apduLength, p.blocksWritten));
+		} catch (IOException e) {
+			p.failure = new DaplugCommunicationException(e);
+			return false;
+		}
+		if (p.sending != 0)
+			p.written = System.nanoTime();
+		p.timeout = this.timeoutMillis(p.apdu, p.apduOffset, p.apduLength);
+		p.deadline = now + p.timeout * 1000000L;
+		codec.begin(p.response, p.responseOffset);
+		this.current = p;
+		return true;
+	}
+
+	/* reports a done exchange, without the lock */
+	private void finish(Pending p) {
+		boolean ok = p.failure == null;
+		if (p.event != null)
+			DaplugFlightRecorder.endTransfer(p.event, "HID-MUX", p.blocksWritten, p.blocksRead,
+					p.blocksWritten * HID_BLOCK_SIZE, p.blocksRead * HID_BLOCK_SIZE, p.timedOut);
+		DaplugDongleMetrics metrics = this.metrics;
+		if (ok && p.written != 0 && metrics != null)
+			metrics.recordTransfer(p.apdu[p.apduOffset + 1], p.written - p.sending, System.nanoTime() - p.written);
+		p.future.finish(p.length, p.failure);
+	}
+}
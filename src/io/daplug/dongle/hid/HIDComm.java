@@ -21,15 +21,32 @@ package io.daplug.dongle.hid;
 
 import io.daplug.exception.*;
 import java.io.IOException;
+import java.util.Arrays;
 
 import com.codeminders.hidapi.HIDDevice;
 
+import io.daplug.dongle.DaplugTimeoutPolicy;
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.jfr.DaplugFlightRecorder;
+import io.daplug.metrics.DaplugDongleMetrics;
+import io.daplug.metrics.DaplugMetrics;
 import io.daplug.utils.DaplugUtils;
 
+/**
+ * Exchanges with one HID dongle. Exchanges on the same dongle are serialized;
+ * different dongles exchange in parallel.
+ *
+ */
 public class HIDComm implements IHIDComm {
 
-	private HIDDevice device = null;
-	private boolean deviceStatus;
+	private volatile HIDDevice device = null;
+	private volatile boolean deviceStatus;
+	private volatile DaplugDongleMetrics metrics = null;
+	private volatile DaplugTimeoutPolicy timeoutPolicy = null;
+	// report buffers of the dongle, used under the lock of the exchanges
+	private final HidReportCodec codec = new HidReportCodec();
+	// a timed out response may still come : it is dropped before the next exchange
+	private boolean stale = false;
 
 	static {
 		com.codeminders.hidapi.ClassPathLibraryLoader.loadNativeHIDLibrary();
@@ -46,98 +63,146 @@ public class HIDComm implements IHIDComm {
 
 	/**
 	 * send data to specific HIDDevice, and get back his response.
+	 * The response (data followed by the status word) is written in the given buffer,
+	 * the reports being framed by the HidReportCodec of the dongle.
 	 * 
 	 * @param apdu
-	 *            byte[] apdu to send to daplug card
-	 * @return result byte []
-	 * @throws IOException
+	 *            byte[] buffer holding the apdu to send to daplug card
+	 * @param apduOffset
+	 *            int offset of the apdu in the buffer
+	 * @param apduLength
+	 *            int length of the apdu
+	 * @param response
+	 *            byte[] buffer receiving the response
+	 * @param responseOffset
+	 *            int offset where the response is written
+	 * @return int response length
+	 * @throws IOException if a report can not be written or read
 	 * @throws PlugupException
-	 * @throws DaplugCommunicationException
+	 * @throws DaplugTimeoutException if the dongle does not answer within the timeout of the instruction
+	 * @throws DaplugCommunicationException if the dongle sends an invalid report
 	 * @throws DaplugStatusWordException
 	 * 
 	 */
 
-	private byte[] p_exchange(byte[] apdu) throws DaplugException,
+	private synchronized int p_exchange(byte[] apdu, int apduOffset, int apduLength,
+			byte[] response, int responseOffset) throws DaplugException,
 			DaplugCommunicationException, DaplugStatusWordException,
 			IOException {
-		byte[] w_block = new byte[HID_BLOCK_SIZE + 1];
-		byte[] r_block = new byte[HID_BLOCK_SIZE + 1];
-		byte[] response = null;
 		if (this.deviceStatus == false)
 			throw new DaplugException(
 					"exchangeApdu(): device Status is closed , please open it again");
-		else {
-			try {
-				int offset = 0;
-				int blockSize = 0;
-				for (; offset != apdu.length; offset += blockSize) {
-					blockSize = ((offset + HID_BLOCK_SIZE) < apdu.length ? HID_BLOCK_SIZE
-							: apdu.length - offset);
-					System.arraycopy(apdu, offset, w_block, 1, blockSize);
-					device.write(w_block);
-				}
-				// read the result from device and put it in the r_block
-				int size = device.readTimeout(r_block, DEFAULT_TIMEOUT);
-
-				if (size < 0) {
+		HidReportCodec codec = this.codec;
+		DaplugDongleMetrics metrics = this.metrics;
+		boolean timed = metrics != null && apduLength > 1 && DaplugMetrics.isEnabled();
+		Object event = DaplugFlightRecorder.beginTransfer();
+		int blocksWritten = 0, blocksRead = 0;
+		boolean timedOut = false;
+		int timeout = this.timeoutMillis(apdu, apduOffset, apduLength);
+		try {
+			if (this.stale) {
+				while (device.readTimeout(codec.inputReport(), 0) > 0)
+					;
+				this.stale = false;
+			}
+			long start = timed ? System.nanoTime() : 0;
+			int reports = HidReportCodec.reportCount(apduLength);
+			for (; blocksWritten < reports; blocksWritten++)
+				device.write(codec.encode(apdu, apduOffset, apduLength, blocksWritten));
+			long written = timed ? System.nanoTime() : 0;
+			// read the result from device, report by report, straight in the response
+			codec.begin(response, responseOffset);
+			boolean complete = false;
+			while (!complete) {
+				int size = device.readTimeout(codec.inputReport(), timeout);
+				if (size < 0)
 					throw new DaplugCommunicationException(
 							"exchangeApdu(): Read failure !");
+				if (size == 0) {
+					timedOut = true;
+					this.stale = true;
+					throw new DaplugTimeoutException(
+							"exchangeApdu(): No response from the dongle after " + timeout + " ms");
 				}
-				// response without data
-				if (r_block[0] != STATUSWORD_DATA) {
-					response = new byte[2];
-					// copy r_block content in response
-					// the r_block[0] = status word
-					// the r_block[1] = response length
-					System.arraycopy(r_block, 0, response, 0, 2);
-				} else {
-					// we get a response with data
-					// FROM ubunity team
-					int responseSize = (r_block[1] & 0xff);
-					if (responseSize == 0) {
-						responseSize = 0x100; // T=0 compliance
-					}
-					responseSize += 2; // include the Status Word
-					response = new byte[responseSize];
-					offset = 0;
-					blockSize = 0;
-					for (; offset != responseSize; offset += blockSize) {
-						int startOffset = (offset != 0) ? 0 : 2;
-						blockSize = ((offset + HID_BLOCK_SIZE - startOffset) < responseSize ? (HID_BLOCK_SIZE - startOffset)
-								: responseSize - offset);
-						System.arraycopy(r_block, startOffset, response,
-								offset, blockSize);
-						if (offset == responseSize) {
-							break;
-						}
-						size = device.readTimeout(r_block, DEFAULT_TIMEOUT);
-					}
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
+				blocksRead++;
+				complete = codec.decode(size);
 			}
+			if (timed)
+				metrics.recordTransfer(apdu[apduOffset + 1], written - start, System.nanoTime() - written);
+		} finally {
+			if (event != null)
+				DaplugFlightRecorder.endTransfer(event, "HID", blocksWritten, blocksRead,
+						blocksWritten * HID_BLOCK_SIZE, blocksRead * HID_BLOCK_SIZE, timedOut);
 		}
-		return response;
+		return codec.responseLength();
+	}
+
+	/**
+	 * timeout of an exchange : learned for its instruction by the timeout policy, DEFAULT_TIMEOUT at most
+	 * @param apdu byte[] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @return int timeout in milliseconds
+	 * 
+	 */
+	int timeoutMillis(byte[] apdu, int apduOffset, int apduLength) {
+		DaplugTimeoutPolicy policy = this.timeoutPolicy;
+		if (policy == null || apduLength < 2)
+			return DEFAULT_TIMEOUT;
+		return policy.timeoutMillis(apdu[apduOffset + 1], DEFAULT_TIMEOUT);
 	}
 
 	/**
 	 * send data to specific HIDDevice, and get back his response.
 	 * 
-	 * @param hexaApdu
-	 *            String apdu in hexadecimal format
-	 * @return byte[] result
+	 * @param apdu
+	 *            byte[] apdu to send to daplug card
+	 * @return result byte []
+	 * @throws IOException
+	 * @throws PlugupException
+	 * @throws DaplugCommunicationException
+	 * @throws DaplugStatusWordException
+	 * 
+	 */
+	private byte[] p_exchange(byte[] apdu) throws DaplugException,
+			DaplugCommunicationException, DaplugStatusWordException,
+			IOException {
+		byte[] response = new byte[IDaplugDongle.RESPONSE_MAX_LEN];
+		int len = this.p_exchange(apdu, 0, apdu.length, response, 0);
+		return Arrays.copyOf(response, len);
+	}
+
+	/**
+	 * exchange command with the daplugDongle without hexadecimal conversion.
+	 * The response is written in the given buffer : data first, then the status word.
+	 * 
+	 * @param apdu
+	 *            byte [] buffer holding the apdu
+	 * @param apduOffset
+	 *            int offset of the apdu in the buffer
+	 * @param apduLength
+	 *            int length of the apdu
+	 * @param response
+	 *            byte [] buffer receiving the response
+	 * @param responseOffset
+	 *            int offset where the response is written
+	 * @return int response length (data length + 2)
 	 * @throws IOException
 	 * @throws PlugupException
 	 * @throws DaplugCommunicationException
 	 * @throws DaplugStatusWordException
 	 * 
 	 */
-	private byte[] p_exchange(String hexaApdu) throws DaplugException,
+	@Override
+	public int exchange(byte[] apdu, int apduOffset, int apduLength,
+			byte[] response, int responseOffset) throws DaplugException,
 			DaplugCommunicationException, DaplugStatusWordException,
 			IOException {
-		
-		byte[] apdu = DaplugUtils.hexStringToByteArray(hexaApdu);
-		return this.p_exchange(apdu);
+		int len = this.p_exchange(apdu, apduOffset, apduLength, response,
+				responseOffset);
+		if (len < 2)
+			throw new DaplugStatusWordException();
+		return len;
 	}
 
 	/**
@@ -157,20 +222,7 @@ public class HIDComm implements IHIDComm {
 			DaplugCommunicationException, DaplugStatusWordException,
 			IOException {
 		byte[] tempo = this.p_exchange(apdu);
-		String apdu_result = DaplugUtils.bytesToHex(tempo).toString();
-		if (apdu_result.length() > 4) { // the result is compose of data + sw
-			String[] result = new String[2];
-			String status_word = apdu_result.substring(
-					apdu_result.length() - 4, apdu_result.length());
-			result[0] = apdu_result.substring(0, apdu_result.length() - 4);
-			result[1] = status_word;
-			return result;
-		} else {
-			String[] result = new String[2];
-			result[0] = "";
-			result[1] = apdu_result;
-			return result;
-		}
+		return DaplugUtils.responseToHexStrings(tempo, 0, tempo.length);
 	}
 
 	/**
@@ -189,20 +241,21 @@ public class HIDComm implements IHIDComm {
 	public String[] exchange(String hexaApdu) throws DaplugException,
 			DaplugCommunicationException, DaplugStatusWordException,
 			IOException {
-		byte[] tempo = this.p_exchange(hexaApdu);
-		String apdu_result = DaplugUtils.bytesToHex(tempo).toString();
-		if (apdu_result.length() > 4) { // the result is compose of data + sw
-			String[] result = new String[2];
-			String status_word = apdu_result.substring(
-					apdu_result.length() - 4, apdu_result.length());
-			result[0] = apdu_result.substring(0, apdu_result.length() - 4);
-			result[1] = status_word;
-			return result;
-		} else {
-			String[] result = new String[2];
-			result[0] = "";
-			result[1] = apdu_result;
-			return result;
+		return this.exchange(DaplugUtils.hexStringToByteArray(hexaApdu));
+	}
+
+	/**
+	 * close the HIDDevice : next exchanges fail. An exchange in progress completes first.
+	 * 
+	 */
+	public synchronized void close() {
+		this.deviceStatus = false;
+		if (this.device == null)
+			return;
+		try {
+			this.device.close();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 
@@ -224,6 +277,24 @@ public class HIDComm implements IHIDComm {
 		this.device = device;
 	}
 	
+	/**
+	 * set the metrics receiving the write and read latencies of the exchanges
+	 * @param  metrics DaplugDongleMetrics, null to record nothing
+	 * 
+	 */
+	public void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * set the policy giving the timeout of each exchange, DEFAULT_TIMEOUT at most
+	 * @param  timeoutPolicy DaplugTimeoutPolicy, null to apply DEFAULT_TIMEOUT
+	 * 
+	 */
+	public void setTimeoutPolicy(DaplugTimeoutPolicy timeoutPolicy) {
+		this.timeoutPolicy = timeoutPolicy;
+	}
+	
 	/**
 	 * get HIDDevice Status is open or closed
 	 * @return deviceStatus boolean
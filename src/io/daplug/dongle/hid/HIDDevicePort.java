@@ -0,0 +1,65 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hid;
+
+import java.io.IOException;
+
+import com.codeminders.hidapi.HIDDevice;
+
+/**
+ * An hidapi device as the port of an HIDAsyncComm : the device is switched to non-blocking reads,
+ * so a read returns at once when the dongle did not answer yet.
+ *
+ */
+public class HIDDevicePort implements IHIDPort {
+
+	private final HIDDevice device;
+
+	/**
+	 * Switches an opened device to non-blocking mode
+	 * @param device HIDDevice opened device, owned by the port from now on
+	 * @throws IOException if the mode can not be changed
+	 */
+	public HIDDevicePort(HIDDevice device) throws IOException {
+		if (device == null)
+			throw new NullPointerException("HIDDevicePort() - device is required");
+		device.disableBlocking();
+		this.device = device;
+	}
+
+	/**
+	 * @return the hidapi device
+	 */
+	public HIDDevice getDevice() {
+		return this.device;
+	}
+
+	public int write(byte[] report) throws IOException {
+		return this.device.write(report);
+	}
+
+	public int read(byte[] report) throws IOException {
+		return this.device.read(report);
+	}
+
+	public void close() throws IOException {
+		this.device.close();
+	}
+}
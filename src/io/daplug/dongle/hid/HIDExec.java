@@ -26,8 +26,16 @@ import com.codeminders.hidapi.HIDDevice;
 import com.codeminders.hidapi.HIDDeviceInfo;
 import com.codeminders.hidapi.HIDManager;
 
+/**
+ * Enumeration and opening of HID devices. The HID manager is shared by the process and its
+ * native enumeration is not reentrant : every call to the manager holds MANAGER_LOCK.
+ * Exchanges do not take this lock.
+ *
+ */
 public class HIDExec implements IHIDExec{
 	
+	private static final Object MANAGER_LOCK = new Object();
+	
 	private HIDManager manager = null;
 	@SuppressWarnings("unused")
 	private boolean status;
@@ -47,7 +55,9 @@ public class HIDExec implements IHIDExec{
 	 */
 	private void initManager(){
 		try {
-			this.manager = HIDManager.getInstance();
+			synchronized (MANAGER_LOCK) {
+				this.manager = HIDManager.getInstance();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -70,7 +80,9 @@ public class HIDExec implements IHIDExec{
 	public HIDDevice openDevice() {
 		HIDDevice device = null;
 		try {
-			device = this.manager.openById(PRODUCT_ID,VENDOR_ID, null);
+			synchronized (MANAGER_LOCK) {
+				device = this.manager.openById(PRODUCT_ID,VENDOR_ID, null);
+			}
 			this.updateStatusDevice(true);
 		}catch (IOException e){
 			System.out.println("OpenDevice() methode failed due to an IOException :\n" + e.getMessage());
@@ -88,7 +100,9 @@ public class HIDExec implements IHIDExec{
 	public HIDDevice openDevice(int vid, int pid) {
 		HIDDevice device = null;
 		try {
-			device = this.manager.openById(vid, pid, null);
+			synchronized (MANAGER_LOCK) {
+				device = this.manager.openById(vid, pid, null);
+			}
 			this.updateStatusDevice(true);
 		}catch (IOException e){
 			System.out.println("OpenDevice(vid,pid) methode failed due to an IOException :\n" + e.getMessage());
@@ -105,7 +119,9 @@ public class HIDExec implements IHIDExec{
 	public HIDDevice openDevice(String path) {
 		HIDDevice device = null;
 		try{
-			device = this.manager.openByPath(path);
+			synchronized (MANAGER_LOCK) {
+				device = this.manager.openByPath(path);
+			}
 			this.updateStatusDevice(true);
 		}catch (IOException e) {
 			System.out.println("openDevice(path) methode failed due to an IOException :\n" + e.getMessage());
@@ -119,10 +135,12 @@ public class HIDExec implements IHIDExec{
 	 */
 	public void closeAllDevice() {
 		try{
-			HIDDeviceInfo[] devices = this.manager.listDevices();
-			for(HIDDeviceInfo device : devices)
-			{
-				this.manager.openById(device.getVendor_id(),device.getProduct_id(),null).close(); 
+			synchronized (MANAGER_LOCK) {
+				HIDDeviceInfo[] devices = this.manager.listDevices();
+				for(HIDDeviceInfo device : devices)
+				{
+					this.manager.openById(device.getVendor_id(),device.getProduct_id(),null).close(); 
+				}
 			}
 		}catch(IOException e){
 			System.out.println("closeAllDevice() methode failed due to an IOException :\n" + e.getMessage());
@@ -137,7 +155,9 @@ public class HIDExec implements IHIDExec{
 	 */
 	public void closeDevice(int vid, int pid) {
 		try {
-			this.manager.openById(vid, pid, null).close();
+			synchronized (MANAGER_LOCK) {
+				this.manager.openById(vid, pid, null).close();
+			}
 		}catch (IOException e) {
 			System.out.println("closeAllDevice(vid,pid) methode failed due to an IOException :\n" + e.getMessage());
 		}
@@ -163,7 +183,9 @@ public class HIDExec implements IHIDExec{
 	 */
 	public void closeDevice(String path) {
 		try {
-			this.manager.openByPath(path).close();
+			synchronized (MANAGER_LOCK) {
+				this.manager.openByPath(path).close();
+			}
 		} catch (IOException e) {
 			System.out.println("closeAllDevice(path) methode failed due to an IOException :\n" + e.getMessage());
 		}
@@ -175,7 +197,9 @@ public class HIDExec implements IHIDExec{
 	 */
 	public void closeDevice() {
 		try {
-			this.manager.openById(VENDOR_ID, PRODUCT_ID, null).close();
+			synchronized (MANAGER_LOCK) {
+				this.manager.openById(VENDOR_ID, PRODUCT_ID, null).close();
+			}
 		} catch (IOException e) {
 			System.out.println("closeAllDevice() methode failed due to an IOException :\n" + e.getMessage());
 		}
@@ -191,7 +215,9 @@ public class HIDExec implements IHIDExec{
 	public HIDDeviceInfo[] listDevice(){
 		 HIDDeviceInfo[] infos = null;
 		 try {
-	            infos = this.manager.listDevices();
+	            synchronized (MANAGER_LOCK) {
+	            	infos = this.manager.listDevices();
+	            }
 	        } catch (IOException e) {
 	        	System.out.println("listDevice methode failed :\n" + e.getMessage());
 	        }
@@ -209,7 +235,9 @@ public class HIDExec implements IHIDExec{
 		 HIDDeviceInfo[] infos = null;
 		 Vector<HIDDeviceInfo> currentList = new Vector<HIDDeviceInfo>();
 		 try {
-	            infos =this.manager.listDevices();
+	            synchronized (MANAGER_LOCK) {
+	            	infos = this.manager.listDevices();
+	            }
 	            for(HIDDeviceInfo deviceinfo : infos) {
 	            	if (deviceinfo.getVendor_id() == vid && deviceinfo.getProduct_id() == pid)
 	            		currentList.add(deviceinfo);
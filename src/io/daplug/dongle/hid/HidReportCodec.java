@@ -0,0 +1,152 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hid;
+
+import java.util.Arrays;
+
+import io.daplug.exception.DaplugCommunicationException;
+
+/**
+ * Framing of the apdus and responses in the 64-bytes reports of a HID dongle, over report buffers reused by
+ * every exchange of the dongle.
+ *
+ * An apdu is cut in output reports : the report number 0, then 64 bytes of the apdu, the last report padded with
+ * zeroes. A response comes in input reports : a response without data is the status word alone ; a response with
+ * data starts with 0x61 and the data length (0 for 256 bytes, T=0 compliance), followed by the data and the status
+ * word, continued in the next reports.
+ *
+ * The response is written straight in the caller buffer : begin() gives it, then each input report is given to
+ * decode() until it returns true.
+ *
+ * A codec is not thread-safe : it belongs to the dongle, whose exchanges are serialized.
+ *
+ */
+public final class HidReportCodec {
+
+	/**
+	 * Length of an output report : the report number and 64 bytes
+	 */
+	public static final int OUTPUT_REPORT_LENGTH = IHIDComm.HID_BLOCK_SIZE + 1;
+
+	/**
+	 * Length of an input report
+	 */
+	public static final int INPUT_REPORT_LENGTH = IHIDComm.HID_BLOCK_SIZE;
+
+	private final byte[] output = new byte[OUTPUT_REPORT_LENGTH];
+	private final byte[] input = new byte[INPUT_REPORT_LENGTH];
+
+	/* response being decoded */
+	private byte[] response = null;
+	private int responseOffset = 0, responseLength = 0, received = 0;
+
+	/**
+	 * @param apduLength int length of an apdu
+	 * @return int number of output reports carrying it
+	 */
+	public static int reportCount(int apduLength) {
+		return (apduLength + IHIDComm.HID_BLOCK_SIZE - 1) / IHIDComm.HID_BLOCK_SIZE;
+	}
+
+	/**
+	 * @return byte [] the output report filled by encode(), to write to the device
+	 */
+	public byte[] outputReport() {
+		return this.output;
+	}
+
+	/**
+	 * @return byte [] the input report to read from the device, then to give to decode()
+	 */
+	public byte[] inputReport() {
+		return this.input;
+	}
+
+	/**
+	 * Fills the output report with a part of an apdu. The bytes after the apdu are zeroes.
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param index int report index, from 0 to reportCount(apduLength) - 1
+	 * @return byte [] the output report
+	 */
+	public byte[] encode(byte[] apdu, int apduOffset, int apduLength, int index) {
+		int offset = index * IHIDComm.HID_BLOCK_SIZE;
+		int blockSize = Math.min(IHIDComm.HID_BLOCK_SIZE, apduLength - offset);
+		this.output[0] = 0; // report number : the dongle does not number its reports
+		System.arraycopy(apdu, apduOffset + offset, this.output, 1, blockSize);
+		Arrays.fill(this.output, 1 + blockSize, OUTPUT_REPORT_LENGTH, (byte) 0);
+		return this.output;
+	}
+
+	/**
+	 * Starts the decoding of a response
+	 * @param response byte [] buffer receiving the response : data first, then the status word
+	 * @param responseOffset int offset where the response is written
+	 */
+	public void begin(byte[] response, int responseOffset) {
+		this.response = response;
+		this.responseOffset = responseOffset;
+		this.responseLength = 0;
+		this.received = 0;
+	}
+
+	/**
+	 * Decodes the input report read from the device
+	 * @param reportLength int number of bytes read in the input report
+	 * @return boolean true once the response is complete
+	 * @throws DaplugCommunicationException if the report is too short
+	 */
+	public boolean decode(int reportLength) throws DaplugCommunicationException {
+		if (this.response == null)
+			throw new IllegalStateException("HidReportCodec - decode() without begin()");
+		int start = 0;
+		if (this.responseLength == 0) {
+			if (reportLength < 2)
+				throw new DaplugCommunicationException("decode() - Invalid input report of " + reportLength + " bytes");
+			if ((this.input[0] & 0xFF) != IHIDComm.STATUSWORD_DATA) {
+				// response without data : the report starts with the status word
+				this.responseLength = 2;
+			} else {
+				int dataLength = this.input[1] & 0xFF;
+				if (dataLength == 0)
+					dataLength = 0x100; // T=0 compliance
+				this.responseLength = dataLength + 2; // include the Status Word
+				start = 2;
+			}
+		}
+		int blockSize = Math.min(IHIDComm.HID_BLOCK_SIZE - start, this.responseLength - this.received);
+		if (reportLength < start + blockSize)
+			throw new DaplugCommunicationException("decode() - Truncated input report : " + reportLength + " bytes");
+		System.arraycopy(this.input, start, this.response, this.responseOffset + this.received, blockSize);
+		this.received += blockSize;
+		if (this.received < this.responseLength)
+			return false;
+		this.response = null;
+		return true;
+	}
+
+	/**
+	 * @return int length of the response decoded (data length + 2), once decode() returned true
+	 */
+	public int responseLength() {
+		return this.responseLength;
+	}
+}
@@ -35,5 +35,8 @@ public interface IHIDComm {
 	 
 	 String[] exchange(String hexaApdu) throws DaplugException,
 		DaplugCommunicationException,DaplugStatusWordException, IOException;
+	 
+	 int exchange(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset) throws DaplugException,
+		DaplugCommunicationException,DaplugStatusWordException, IOException;
 	
 }
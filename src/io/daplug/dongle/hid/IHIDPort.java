@@ -0,0 +1,52 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hid;
+
+import java.io.IOException;
+
+/**
+ * The reports of one HID dongle, in non-blocking mode : the port of an HIDAsyncComm, driven by
+ * the thread of a DaplugHidMultiplexer. HIDDevicePort is the hidapi implementation.
+ *
+ */
+public interface IHIDPort {
+
+	/**
+	 * Writes an output report (report id first, see HidReportCodec)
+	 * @param report byte [] output report
+	 * @return int number of bytes written
+	 * @throws IOException if the report can not be written
+	 */
+	int write(byte[] report) throws IOException;
+
+	/**
+	 * Reads an input report if one is ready, without waiting
+	 * @param report byte [] buffer receiving the input report
+	 * @return int report length, 0 if no report is ready
+	 * @throws IOException if the device can not be read
+	 */
+	int read(byte[] report) throws IOException;
+
+	/**
+	 * Closes the device
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+}
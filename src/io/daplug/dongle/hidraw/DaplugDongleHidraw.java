@@ -0,0 +1,271 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hidraw;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import io.daplug.dongle.DaplugTimeoutPolicy;
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.exception.DaplugCommunicationException;
+import io.daplug.exception.DaplugException;
+import io.daplug.metrics.DaplugDongleMetrics;
+
+/**
+ * A Daplug dongle in HID mode reached through Linux hidraw (type "HIDRAW") : a pure Java alternative to
+ * DaplugDongleHID, which loads the hidapi native library. Devices are found in sysfs (HidrawExec) and exchanged
+ * with through their /dev/hidrawN node (HidrawComm), with the same framing.
+ * Sessions on different dongles exchange in parallel.
+ *
+ */
+public class DaplugDongleHidraw implements IHidraw, IDaplugDongle {
+
+	private final HidrawExec hidrawexec;
+	private volatile HidrawComm hidrawComm = null;
+	private volatile DaplugDongleMetrics metrics = null;
+	private volatile DaplugTimeoutPolicy timeoutPolicy = null;
+	private volatile String path = null;
+
+	/**
+	 * Simple Constructor : no device is opened, the object can list the Daplug dongles
+	 */
+	public DaplugDongleHidraw() {
+		this.hidrawexec = new HidrawExec();
+	}
+
+	/**
+	 * Constructor opening the Daplug dongle of the given hidraw node
+	 * @param path String device node, such as /dev/hidraw0
+	 * @throws DaplugCommunicationException if the node can not be opened
+	 */
+	public DaplugDongleHidraw(String path) throws DaplugCommunicationException {
+		this.hidrawexec = new HidrawExec();
+		try {
+			this.open(path);
+		} catch (IOException e) {
+			throw new DaplugCommunicationException("DaplugDongleHidraw() - Unable to open " + path + " : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Constructor exchanging through the given HidrawComm, such as one over pipes standing in for a dongle
+	 * @param path String path reported for this dongle
+	 * @param hidrawComm HidrawComm
+	 */
+	public DaplugDongleHidraw(String path, HidrawComm hidrawComm) {
+		this.hidrawexec = new HidrawExec();
+		this.path = path;
+		this.hidrawComm = hidrawComm;
+	}
+
+	private synchronized HidrawComm open(String path) throws IOException {
+		HidrawComm comm = new HidrawComm(path);
+		comm.setMetrics(this.metrics);
+		comm.setTimeoutPolicy(this.timeoutPolicy);
+		if (this.hidrawComm != null)
+			this.hidrawComm.close();
+		this.hidrawComm = comm;
+		this.path = path;
+		return comm;
+	}
+
+	/**
+	 * List all hidraw devices
+	 * @return Vector<HidrawDeviceInfo> all devices
+	 */
+	public Object ListAllDevices() {
+		return this.hidrawexec.listDevice();
+	}
+
+	/**
+	 * List all hidraw devices with a specific vendor_id, and product_id
+	 * @param vid int vendor_id
+	 * @param pid int product_id
+	 * @return Vector<HidrawDeviceInfo> matching devices
+	 */
+	public Object ListAllDevices(int vid, int pid) {
+		return this.hidrawexec.listDevice(vid, pid);
+	}
+
+	/**
+	 * List all Daplug dongles in HID mode
+	 * @return Vector<HidrawDeviceInfo> devices with Plug-up vendor_id and product_id
+	 */
+	public Object ListAllDaplug() {
+		return this.hidrawexec.listAllDaplug();
+	}
+
+	/**
+	 * Open the first Daplug dongle found
+	 * @return HidrawComm the opened device, null if none could be opened
+	 */
+	public Object openDevice() {
+		return this.openDevice(VENDOR_ID, PRODUCT_ID);
+	}
+
+	/**
+	 * Open the first device with the given vid and pid, on an interface other than 0 when it is known
+	 * (the apdu interface of a Daplug dongle)
+	 * @param vid int vendor_id
+	 * @param pid int product_id
+	 * @return HidrawComm the opened device, null if none could be opened
+	 */
+	public Object openDevice(int vid, int pid) {
+		Vector<HidrawDeviceInfo> devices = this.hidrawexec.listDevice(vid, pid);
+		for (HidrawDeviceInfo device : devices) {
+			if (device.getInterfaceNumber() != 0)
+				return this.openDevice(device.getPath());
+		}
+		return null;
+	}
+
+	/**
+	 * Open a device with its node
+	 * @param path String device node, such as /dev/hidraw0
+	 * @return HidrawComm the opened device, null if it could not be opened
+	 */
+	public Object openDevice(String path) {
+		try {
+			return this.open(path);
+		} catch (IOException e) {
+			System.out.println("openDevice(path) methode failed due to an IOException :\n" + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * @return String the node of the opened device, null if none is opened
+	 */
+	public String getPath() {
+		return this.path;
+	}
+
+	/**
+	 * @return HidrawComm the opened device, null if none is opened
+	 */
+	public HidrawComm getHidrawComm() {
+		return this.hidrawComm;
+	}
+
+	/**
+	 * close the current device
+	 */
+	public synchronized void close() {
+		if (this.hidrawComm != null)
+			this.hidrawComm.close();
+	}
+
+	private HidrawComm comm() throws DaplugCommunicationException {
+		HidrawComm comm = this.hidrawComm;
+		if (comm == null)
+			throw new DaplugCommunicationException("exchange() - No hidraw device opened !");
+		return comm;
+	}
+
+	/**
+	 * exchange command with the daplugDongle. It return a String array which element is :
+	 * element 0 : the response data, element 1 : the status word
+	 * @param apdu byte[]
+	 * @return String [] result, null if the exchange failed
+	 */
+	public String[] exchange(byte[] apdu) {
+		try {
+			return this.comm().exchange(apdu);
+		} catch (DaplugException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * exchange command with the daplugDongle. It return a String array which element is :
+	 * element 0 : the response data, element 1 : the status word
+	 * @param apdu String
+	 * @return String [] result, null if the exchange failed
+	 */
+	public String[] exchange(String apdu) {
+		try {
+			return this.comm().exchange(apdu);
+		} catch (DaplugException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * exchange command with the daplugDongle without hexadecimal conversion.
+	 * The response is written in the given buffer : data first, then the status word.
+	 * @param apdu byte[] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte[] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugException
+	 */
+	public int exchange(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset)
+			throws DaplugException {
+		try {
+			return this.comm().exchange(apdu, apduOffset, apduLength, response, responseOffset);
+		} catch (IOException e) {
+			throw new DaplugCommunicationException(e);
+		}
+	}
+
+	/**
+	 * exchange command with the daplugDongle without hexadecimal conversion.
+	 * @param apdu byte[]
+	 * @return byte [] response : data followed by the status word
+	 * @throws DaplugException
+	 */
+	public byte[] exchangeBytes(byte[] apdu) throws DaplugException {
+		try {
+			return this.comm().exchangeBytes(apdu);
+		} catch (IOException e) {
+			throw new DaplugCommunicationException(e);
+		}
+	}
+
+	/**
+	 * set the metrics receiving the write and read latencies of the exchanges
+	 * @param metrics DaplugDongleMetrics, null to record nothing
+	 */
+	public void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+		HidrawComm comm = this.hidrawComm;
+		if (comm != null)
+			comm.setMetrics(metrics);
+	}
+
+	/**
+	 * set the policy giving the timeout of each exchange, IHIDComm.DEFAULT_TIMEOUT at most
+	 * @param timeoutPolicy DaplugTimeoutPolicy, null to apply IHIDComm.DEFAULT_TIMEOUT
+	 */
+	public void setTimeoutPolicy(DaplugTimeoutPolicy timeoutPolicy) {
+		this.timeoutPolicy = timeoutPolicy;
+		HidrawComm comm = this.hidrawComm;
+		if (comm != null)
+			comm.setTimeoutPolicy(timeoutPolicy);
+	}
+}
@@ -0,0 +1,399 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hidraw;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import io.daplug.dongle.DaplugTimeoutPolicy;
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.dongle.hid.HidReportCodec;
+import io.daplug.dongle.hid.IHIDComm;
+import io.daplug.exception.*;
+import io.daplug.jfr.DaplugFlightRecorder;
+import io.daplug.metrics.DaplugDongleMetrics;
+import io.daplug.metrics.DaplugMetrics;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Exchanges with one HID dongle through its Linux hidraw node, without native code. The framing is the one of HIDComm :
+ * the apdu is written in 64-bytes output reports (after the report number 0), the response comes in 64-bytes input
+ * reports, the first one starting with 0x61 and the data length when data follows, or with the status word otherwise.
+ *
+ * The reports are framed by a HidReportCodec and go through two direct buffers, reused by every exchange. Exchanges on the same dongle are serialized;
+ * different dongles exchange in parallel. A hidraw node has no read timeout : a reader thread, started by the first
+ * exchange, reads the input reports and queues them, and the exchange waits for them until its deadline
+ * (DEFAULT_TIMEOUT at most, as HIDComm). A response coming after its exchange timed out is dropped before the next one.
+ * close() ends the reader and a pending exchange with an exception.
+ *
+ */
+public class HidrawComm implements IHIDComm {
+
+	private final ReadableByteChannel in;
+	private final WritableByteChannel out;
+	private final ByteBuffer w_block = ByteBuffer.allocateDirect(HidReportCodec.OUTPUT_REPORT_LENGTH);
+	private final ByteBuffer r_block = ByteBuffer.allocateDirect(HidReportCodec.INPUT_REPORT_LENGTH);
+	private final HidReportCodec codec = new HidReportCodec();
+	private volatile boolean deviceStatus = true;
+	private volatile DaplugDongleMetrics metrics = null;
+	private volatile DaplugTimeoutPolicy timeoutPolicy = null;
+	// a timed out response may still come : it is dropped before the next exchange
+	private boolean stale = false;
+
+	// input reports read by the reader thread, taken by the exchanges : guarded by their own lock
+	private static final int QUEUED_REPORTS = 8;
+	private final byte[][] reports = new byte[QUEUED_REPORTS][HidReportCodec.INPUT_REPORT_LENGTH];
+	private int head = 0, queued = 0;
+	private IOException readFailure = null;
+	private Thread reader = null;
+
+	/**
+	 * Opens a hidraw node for reading and writing
+	 * @param path String device node, such as /dev/hidraw0
+	 * @throws IOException if the node can not be opened (missing, or no permission)
+	 */
+	public HidrawComm(String path) throws IOException {
+		this(FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE));
+	}
+
+	/**
+	 * Exchanges through an opened hidraw node
+	 * @param device FileChannel opened for reading and writing
+	 */
+	public HidrawComm(FileChannel device) {
+		this(device, device);
+	}
+
+	/**
+	 * Exchanges through a pair of channels, such as the ends of pipes standing in for a dongle. Each report written
+	 * is the report number 0 followed by 64 bytes ; the reports read are 64 bytes, possibly received in several parts.
+	 * @param in ReadableByteChannel input reports
+	 * @param out WritableByteChannel output reports
+	 */
+	public HidrawComm(ReadableByteChannel in, WritableByteChannel out) {
+		if (in == null || out == null)
+			throw new NullPointerException("HidrawComm() - channels are required");
+		this.in = in;
+		this.out = out;
+	}
+
+	/**
+	 * send data to the hidraw device, and get back its response.
+	 * The response (data followed by the status word) is written in the given buffer.
+	 * 
+	 * @param apdu byte[] buffer holding the apdu to send to daplug card
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte[] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length
+	 * @throws DaplugTimeoutException if the dongle does not answer within the timeout of the instruction
+	 * @throws DaplugException if the device is closed, or sends an invalid report
+	 * @throws IOException if a report can not be written or read
+	 * 
+	 */
+	private synchronized int p_exchange(byte[] apdu, int apduOffset, int apduLength,
+			byte[] response, int responseOffset) throws DaplugException, IOException {
+		if (this.deviceStatus == false)
+			throw new DaplugException(
+					"exchangeApdu(): device Status is closed , please open it again");
+		DaplugDongleMetrics metrics = this.metrics;
+		boolean timed = metrics != null && apduLength > 1 && DaplugMetrics.isEnabled();
+		Object event = DaplugFlightRecorder.beginTransfer();
+		int blocksWritten = 0, blocksRead = 0, responseSize = 0;
+		boolean timedOut = false;
+		int timeout = this.timeoutMillis(apdu, apduOffset, apduLength);
+		long start = timed ? System.nanoTime() : 0, written = 0;
+		try {
+			this.startReader();
+			if (this.stale) {
+				this.dropReports();
+				this.stale = false;
+			}
+			HidReportCodec codec = this.codec;
+			ByteBuffer w = this.w_block;
+			int reports = HidReportCodec.reportCount(apduLength);
+			for (; blocksWritten < reports; blocksWritten++) {
+				w.clear();
+				w.put(codec.encode(apdu, apduOffset, apduLength, blocksWritten));
+				w.flip();
+				while (w.hasRemaining())
+					this.out.write(w);
+			}
+			written = timed ? System.nanoTime() : 0;
+
+			codec.begin(response, responseOffset);
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			boolean complete = false;
+			while (!complete) {
+				if (!this.takeReport(codec.inputReport(), deadline)) {
+					timedOut = true;
+					this.stale = true;
+					throw new DaplugTimeoutException(
+							"exchangeApdu(): No response from the dongle after " + timeout + " ms");
+				}
+				blocksRead++;
+				complete = codec.decode(HidReportCodec.INPUT_REPORT_LENGTH);
+			}
+			responseSize = codec.responseLength();
+		} finally {
+			if (event != null)
+				DaplugFlightRecorder.endTransfer(event, "HIDRAW", blocksWritten, blocksRead,
+						blocksWritten * HID_BLOCK_SIZE, blocksRead * HID_BLOCK_SIZE, timedOut);
+		}
+		if (timed)
+			metrics.recordTransfer(apdu[apduOffset + 1], written - start, System.nanoTime() - written);
+		return responseSize;
+	}
+
+	/**
+	 * timeout of an exchange : learned for its instruction by the timeout policy, DEFAULT_TIMEOUT at most
+	 * @param apdu byte[] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @return int timeout in milliseconds
+	 * 
+	 */
+	int timeoutMillis(byte[] apdu, int apduOffset, int apduLength) {
+		DaplugTimeoutPolicy policy = this.timeoutPolicy;
+		if (policy == null || apduLength < 2)
+			return DEFAULT_TIMEOUT;
+		return policy.timeoutMillis(apdu[apduOffset + 1], DEFAULT_TIMEOUT);
+	}
+
+	/* with the lock of the exchanges : starts the reader thread, once */
+	private void startReader() {
+		if (this.reader != null)
+			return;
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				read();
+			}
+		}, "daplug-hidraw-reader");
+		t.setDaemon(true);
+		this.reader = t;
+		t.start();
+	}
+
+	/* Reader thread : queues the input reports until the channel is closed or fails */
+	private void read() {
+		byte[][] reports = this.reports;
+		try {
+			for (;;) {
+				ByteBuffer r = this.readReport();
+				synchronized (reports) {
+					// no exchange takes them : the oldest one is dropped
+					if (this.queued == QUEUED_REPORTS) {
+						this.head = (this.head + 1) % QUEUED_REPORTS;
+						this.queued--;
+					}
+					r.get(reports[(this.head + this.queued) % QUEUED_REPORTS]);
+					this.queued++;
+					reports.notifyAll();
+				}
+			}
+		} catch (IOException e) {
+			synchronized (reports) {
+				this.readFailure = e;
+				reports.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Takes the next input report read by the reader thread
+	 * @param report byte[] receiving the report
+	 * @param deadline long System.nanoTime() after which the report is given up
+	 * @return boolean false if no report came before the deadline
+	 * @throws IOException if the device was closed or could not be read
+	 * @throws DaplugCommunicationException if the thread was interrupted
+	 */
+	private boolean takeReport(byte[] report, long deadline) throws IOException, DaplugCommunicationException {
+		byte[][] reports = this.reports;
+		synchronized (reports) {
+			try {
+				while (this.queued == 0 && this.readFailure == null && this.deviceStatus) {
+					long left = deadline - System.nanoTime();
+					if (left <= 0)
+						return false;
+					TimeUnit.NANOSECONDS.timedWait(reports, left);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DaplugCommunicationException("exchangeApdu(): Interrupted");
+			}
+			if (this.queued == 0) {
+				IOException failure = this.readFailure;
+				if (failure instanceof EOFException)
+					throw new EOFException(failure.getMessage());
+				throw new IOException("readReport() - Device closed during the exchange", failure);
+			}
+			System.arraycopy(reports[this.head], 0, report, 0, report.length);
+			this.head = (this.head + 1) % QUEUED_REPORTS;
+			this.queued--;
+			return true;
+		}
+	}
+
+	/* drops the reports of a timed out response */
+	private void dropReports() {
+		synchronized (this.reports) {
+			this.head = 0;
+			this.queued = 0;
+		}
+	}
+
+	/**
+	 * @return int input reports read and not yet taken by an exchange
+	 */
+	int queuedReports() {
+		synchronized (this.reports) {
+			return this.queued;
+		}
+	}
+
+	/* Reader thread : reads one input report in the read buffer, returned ready to be read */
+	private ByteBuffer readReport() throws IOException {
+		ByteBuffer r = this.r_block;
+		r.clear();
+		while (r.hasRemaining()) {
+			if (this.in.read(r) < 0)
+				throw new EOFException("readReport() - Device closed during the exchange");
+		}
+		r.flip();
+		return r;
+	}
+
+	/**
+	 * exchange command with the daplugDongle without hexadecimal conversion.
+	 * The response is written in the given buffer : data first, then the status word.
+	 * 
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugTimeoutException if the dongle does not answer within the timeout of the instruction
+	 * @throws DaplugException if the device is closed
+	 * @throws IOException if a report can not be written or read
+	 * 
+	 */
+	@Override
+	public int exchange(byte[] apdu, int apduOffset, int apduLength,
+			byte[] response, int responseOffset) throws DaplugException, IOException {
+		return this.p_exchange(apdu, apduOffset, apduLength, response, responseOffset);
+	}
+
+	/**
+	 * exchange command with the daplugDongle. It return a String array with at
+	 * element 0 : the response from daplugDongle at element 1 : the status word
+	 * 
+	 * @param apdu byte []
+	 * @return result String[]
+	 * @throws DaplugException if the device is closed
+	 * @throws IOException if a report can not be written or read
+	 * 
+	 */
+	public String[] exchange(byte[] apdu) throws DaplugException, IOException {
+		byte[] response = new byte[IDaplugDongle.RESPONSE_MAX_LEN];
+		int len = this.p_exchange(apdu, 0, apdu.length, response, 0);
+		return DaplugUtils.responseToHexStrings(response, 0, len);
+	}
+
+	/**
+	 * exchange command with the daplugDongle. It return a String array with at
+	 * element 0 : the response from daplugDongle at element 1 : the status word
+	 * 
+	 * @param hexaApdu String
+	 * @return result String[]
+	 * @throws DaplugException if the device is closed
+	 * @throws IOException if a report can not be written or read
+	 * 
+	 */
+	public String[] exchange(String hexaApdu) throws DaplugException, IOException {
+		return this.exchange(DaplugUtils.hexStringToByteArray(hexaApdu));
+	}
+
+	/**
+	 * exchange command with the daplugDongle without hexadecimal conversion.
+	 * @param apdu byte []
+	 * @return byte [] response : data followed by the status word
+	 * @throws DaplugException if the device is closed
+	 * @throws IOException if a report can not be written or read
+	 * 
+	 */
+	public byte[] exchangeBytes(byte[] apdu) throws DaplugException, IOException {
+		byte[] response = new byte[IDaplugDongle.RESPONSE_MAX_LEN];
+		int len = this.p_exchange(apdu, 0, apdu.length, response, 0);
+		return Arrays.copyOf(response, len);
+	}
+
+	/**
+	 * Closes the channels : next exchanges fail, a pending read ends with an exception
+	 * 
+	 */
+	public void close() {
+		this.deviceStatus = false;
+		synchronized (this.reports) {
+			this.reports.notifyAll();
+		}
+		try {
+			this.in.close();
+			if (this.out != this.in)
+				this.out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return boolean false once closed
+	 */
+	public boolean isDeviceStatus() {
+		return this.deviceStatus;
+	}
+
+	/**
+	 * set the metrics receiving the write and read latencies of the exchanges
+	 * @param metrics DaplugDongleMetrics, null to record nothing
+	 * 
+	 */
+	public void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * set the policy giving the timeout of each exchange, DEFAULT_TIMEOUT at most
+	 * @param timeoutPolicy DaplugTimeoutPolicy, null to apply DEFAULT_TIMEOUT
+	 * 
+	 */
+	public void setTimeoutPolicy(DaplugTimeoutPolicy timeoutPolicy) {
+		this.timeoutPolicy = timeoutPolicy;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hidraw;
+
+/**
+ * A hidraw device found in sysfs : the device node and the identification of its HID device.
+ *
+ */
+public final class HidrawDeviceInfo {
+
+	private final String path, name, serial;
+	private final int vendorId, productId, interfaceNumber;
+
+	/**
+	 * @param path String device node, such as /dev/hidraw0
+	 * @param vendorId int
+	 * @param productId int
+	 * @param interfaceNumber int USB interface number, -1 if unknown
+	 * @param name String HID name, may be empty
+	 * @param serial String HID serial number, may be empty
+	 */
+	public HidrawDeviceInfo(String path, int vendorId, int productId, int interfaceNumber, String name, String serial) {
+		this.path = path;
+		this.vendorId = vendorId;
+		this.productId = productId;
+		this.interfaceNumber = interfaceNumber;
+		this.name = name;
+		this.serial = serial;
+	}
+
+	/**
+	 * @return String device node, such as /dev/hidraw0
+	 */
+	public String getPath() {
+		return this.path;
+	}
+
+	/**
+	 * @return int vendor_id
+	 */
+	public int getVendorId() {
+		return this.vendorId;
+	}
+
+	/**
+	 * @return int product_id
+	 */
+	public int getProductId() {
+		return this.productId;
+	}
+
+	/**
+	 * @return int USB interface number, -1 if unknown
+	 */
+	public int getInterfaceNumber() {
+		return this.interfaceNumber;
+	}
+
+	/**
+	 * @return String HID name, may be empty
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return String HID serial number, may be empty
+	 */
+	public String getSerial() {
+		return this.serial;
+	}
+
+	@Override
+	public String toString() {
+		return this.path + " (" + Integer.toHexString(this.vendorId) + ":" + Integer.toHexString(this.productId)
+				+ ", interface " + this.interfaceNumber + ")";
+	}
+}
@@ -0,0 +1,163 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hidraw;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Enumeration of the hidraw devices through sysfs, without native code : each /sys/class/hidraw/hidrawN/device/uevent
+ * gives the bus, vendor and product ids (HID_ID), the name (HID_NAME), the serial number (HID_UNIQ) and the
+ * USB interface (HID_PHYS, "usb-.../inputN"). The device node is /dev/hidrawN.
+ *
+ */
+public class HidrawExec implements IHidraw {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final File sysfs, dev;
+
+	/**
+	 * Enumerates the devices of /sys/class/hidraw, opened as /dev/hidrawN
+	 */
+	public HidrawExec() {
+		this(new File(SYSFS_HIDRAW), new File(DEV_DIR));
+	}
+
+	/**
+	 * Enumerates the devices of another sysfs tree (a copy or a stand-in)
+	 * @param sysfs File directory holding the hidrawN entries
+	 * @param dev File directory holding the device nodes
+	 */
+	public HidrawExec(File sysfs, File dev) {
+		this.sysfs = sysfs;
+		this.dev = dev;
+	}
+
+	/**
+	 * List all hidraw devices
+	 * @return Vector<HidrawDeviceInfo> all devices, empty if hidraw is not available
+	 */
+	public Vector<HidrawDeviceInfo> listDevice() {
+		Vector<HidrawDeviceInfo> devices = new Vector<HidrawDeviceInfo>();
+		String[] names = this.sysfs.list();
+		if (names == null)
+			return devices;
+		Arrays.sort(names);
+		for (String name : names) {
+			if (!name.startsWith("hidraw"))
+				continue;
+			try {
+				HidrawDeviceInfo info = this.readDevice(name);
+				if (info != null)
+					devices.add(info);
+			} catch (IOException e) {
+				// device removed during the scan, or not readable
+			}
+		}
+		return devices;
+	}
+
+	/**
+	 * List all hidraw devices with a specific vendor_id and product_id
+	 * @param vid int vendor_id
+	 * @param pid int product_id
+	 * @return Vector<HidrawDeviceInfo> matching devices
+	 */
+	public Vector<HidrawDeviceInfo> listDevice(int vid, int pid) {
+		Vector<HidrawDeviceInfo> devices = new Vector<HidrawDeviceInfo>();
+		for (HidrawDeviceInfo info : this.listDevice()) {
+			if (info.getVendorId() == vid && info.getProductId() == pid)
+				devices.add(info);
+		}
+		return devices;
+	}
+
+	/**
+	 * List all Daplug dongles in HID mode
+	 * @return Vector<HidrawDeviceInfo> devices with Plug-up vendor_id and product_id
+	 */
+	public Vector<HidrawDeviceInfo> listAllDaplug() {
+		return this.listDevice(VENDOR_ID, PRODUCT_ID);
+	}
+
+	/* Reads hidrawN/device/uevent, null if it is not an USB HID device or its ids can not be read */
+	private HidrawDeviceInfo readDevice(String name) throws IOException {
+		File device = new File(new File(this.sysfs, name), "device");
+		List<String> lines = Files.readAllLines(new File(device, "uevent").toPath(), ASCII);
+		String id = null, hidName = "", serial = "", phys = "";
+		for (String line : lines) {
+			if (line.startsWith("HID_ID="))
+				id = line.substring(7);
+			else if (line.startsWith("HID_NAME="))
+				hidName = line.substring(9);
+			else if (line.startsWith("HID_UNIQ="))
+				serial = line.substring(9);
+			else if (line.startsWith("HID_PHYS="))
+				phys = line.substring(9);
+		}
+		// HID_ID=bus:vendor:product, in hexadecimal ; bus 0003 is USB
+		if (id == null)
+			return null;
+		String[] ids = id.split(":");
+		int vid, pid;
+		try {
+			if (ids.length != 3 || Integer.parseInt(ids[0], 16) != 0x03)
+				return null;
+			vid = (int) Long.parseLong(ids[1], 16);
+			pid = (int) Long.parseLong(ids[2], 16);
+		} catch (NumberFormatException e) {
+			// malformed HID_ID : the node is skipped
+			return null;
+		}
+		return new HidrawDeviceInfo(new File(this.dev, name).getPath(), vid, pid, interfaceNumber(device, phys),
+				hidName, serial);
+	}
+
+	/* USB interface number : "inputN" at the end of HID_PHYS, or bInterfaceNumber of the parent USB interface */
+	private static int interfaceNumber(File device, String phys) {
+		int i = phys.lastIndexOf("/input");
+		if (i >= 0) {
+			try {
+				return Integer.parseInt(phys.substring(i + 6));
+			} catch (NumberFormatException e) {
+				// fall back to the USB interface
+			}
+		}
+		try {
+			File usbInterface = device.getCanonicalFile().getParentFile();
+			if (usbInterface != null) {
+				List<String> lines = Files.readAllLines(new File(usbInterface, "bInterfaceNumber").toPath(), ASCII);
+				if (!lines.isEmpty())
+					return Integer.parseInt(lines.get(0).trim(), 16);
+			}
+		} catch (IOException e) {
+			// not an USB device
+		} catch (NumberFormatException e) {
+			// not an USB device
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hidraw;
+
+import io.daplug.dongle.hid.IHIDComm;
+import io.daplug.dongle.hid.IHIDExec;
+
+public interface IHidraw {
+
+	 static final int VENDOR_ID  = IHIDExec.VENDOR_ID;
+	 static final int PRODUCT_ID = IHIDExec.PRODUCT_ID;
+	 
+	 /**
+	  * Size of an input or output report, without the report number
+	  */
+	 static final int REPORT_SIZE = IHIDComm.HID_BLOCK_SIZE;
+	 
+	 /**
+	  * sysfs directory of the hidraw devices : one hidrawN entry per device, its HID device in hidrawN/device
+	  */
+	 static final String SYSFS_HIDRAW = "/sys/class/hidraw";
+	 
+	 /**
+	  * Directory of the hidraw device nodes
+	  */
+	 static final String DEV_DIR = "/dev";
+}
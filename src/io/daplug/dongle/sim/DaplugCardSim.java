@@ -0,0 +1,923 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.dongle.sim;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.daplug.crypto.DaplugCrypto;
+import io.daplug.crypto.DaplugCryptoContext;
+import io.daplug.exception.DaplugCryptoException;
+import io.daplug.exception.DaplugException;
+import io.daplug.keyset.DaplugKeyset;
+import io.daplug.session.SessionConstante;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Card side of the simulated Daplug dongle.
+ * It answers the APDUs sent by DaplugSession : SCP02-style secure channel (C-MAC, C-DEC, R-MAC, R-ENC),
+ * file system, keysets management, encryption (D020), HMAC/HOTP/TOTP (D022) and random (D024).
+ *
+ * The card is a software model : access conditions of files are stored but not enforced,
+ * and HMAC diversification uses the same 3DES diversification as the GP keys.
+ * The card processes one APDU at a time.
+ *
+ */
+public class DaplugCardSim implements SessionConstante {
+
+	/**
+	 * Default administrative keyset (0x01), the GlobalPlatform test key
+	 */
+	public static final byte[] DEFAULT_ADMIN_KEY = DaplugUtils.hexStringToByteArray("404142434445464748494a4b4c4d4e4f");
+
+	/**
+	 * Default transient export keyset version
+	 */
+	public static final int DEFAULT_EXPORT_KEYSET = 0xFD;
+
+	/**
+	 * Transient keyset version (virtual keyset located in RAM)
+	 */
+	public static final int TRANSIENT_KEYSET = 0xF0;
+
+	// Status words
+	static final int SW_OK = 0x9000,
+					SW_AUTH_FAILED = 0x6300,
+					SW_WRONG_LENGTH = 0x6700,
+					SW_NOT_DF = 0x6981,
+					SW_SECURITY = 0x6982,
+					SW_CONDITIONS = 0x6985,
+					SW_NO_CURRENT_EF = 0x6986,
+					SW_WRONG_DATA = 0x6A80,
+					SW_NOT_FOUND = 0x6A82,
+					SW_INCORRECT_P1P2 = 0x6A86,
+					SW_REF_NOT_FOUND = 0x6A88,
+					SW_FILE_EXISTS = 0x6A89,
+					SW_WRONG_P1P2 = 0x6B00,
+					SW_INS_NOT_SUPPORTED = 0x6D00,
+					SW_CLA_NOT_SUPPORTED = 0x6E00,
+					SW_UNKNOWN = 0x6F00,
+					SW_HALTED = 0x6FAA;
+
+	// Key files location : 3F00:C00F:C0DE:0001:10xx
+	private static final int[] KEY_DIR_PATH = { 0xC00F, 0xC0DE, 0x0001 };
+	// Counter files location : 3F00:C010
+	private static final int COUNTER_DIR = 0xC010;
+
+	private static final int	STATUS_PERSONALIZED = 0x0F;
+
+	private final SecureRandom random = new SecureRandom();
+
+	/* card persistent state */
+	private final byte[] serial;
+	private int status;
+	private final Map<Integer, DaplugKeyset> keysets = new HashMap<Integer, DaplugKeyset>();
+	private final SimFile masterFile;
+	private SimFile current;
+	private int sequenceCounter;
+	private int mode = HID_DEVICE;
+	private boolean keyboardAtBoot;
+	private boolean halted;
+
+	/* OTP time reference */
+	private boolean timeSet;
+	private long timeReference;
+	private long timeSetAt;
+	private int timeStep;
+
+	/* secure channel state */
+	private boolean channelOpened;
+	private int securityLevel;
+	private byte[] sEncKey;
+	private DaplugCryptoContext crypto;
+	private byte[] cMac = new byte[0], rMac = new byte[MAC_LEN];
+
+	/* pending authentication (between INITIALIZE UPDATE and EXTERNAL AUTHENTICATE) */
+	private boolean authPending;
+	private int authKeysetMinLevel;
+	private byte[] hostChallenge, cardChallenge, counter;
+
+	/**
+	 * Constructs a personalized card holding the default administrative keyset (0x01)
+	 * and a transient export keyset (0xFD), both with the GlobalPlatform test key.
+	 */
+	public DaplugCardSim() {
+		this(null);
+	}
+
+	/**
+	 * Constructs a personalized card holding the default keysets.
+	 * @param serial byte [] 18-bytes card serial. A random serial is used if null.
+	 */
+	public DaplugCardSim(byte[] serial) {
+		if (serial == null) {
+			serial = new byte[18];
+			this.random.nextBytes(serial);
+		}
+		this.serial = Arrays.copyOf(serial, serial.length);
+		this.status = STATUS_PERSONALIZED;
+		this.masterFile = new SimFile(FS_MASTER_FILE, null, true, 0);
+		this.current = this.masterFile;
+		SimFile dir = this.masterFile;
+		for (int id : KEY_DIR_PATH) {
+			dir = dir.addChild(new SimFile(id, dir, true, 0));
+		}
+		this.masterFile.addChild(new SimFile(COUNTER_DIR, this.masterFile, true, 0));
+		storeKeyset(new DaplugKeyset(0x01, DaplugKeyset.USAGE_GP, 0, DEFAULT_ADMIN_KEY));
+		storeKeyset(new DaplugKeyset(DEFAULT_EXPORT_KEYSET, DaplugKeyset.USAGE_IMPORT_EXPORT_TRANSIENT, 0, DEFAULT_ADMIN_KEY));
+	}
+
+	/**
+	 * Adds or replaces a keyset on the card, as a personalization step would do.
+	 * @param keyset DaplugKeyset
+	 */
+	public synchronized void storeKeyset(DaplugKeyset keyset) {
+		DaplugKeyset k = copyOf(keyset);
+		this.keysets.put(k.getVersion(), k);
+		if (k.getVersion() != TRANSIENT_KEYSET) {
+			SimFile keyDir = keyDirectory();
+			int fileId = 0x1000 + k.getVersion();
+			if (keyDir.getChild(fileId) == null)
+				keyDir.addChild(new SimFile(fileId, keyDir, false, 0));
+		}
+	}
+
+	/**
+	 * @return the card serial
+	 */
+	public byte[] getSerial() {
+		return Arrays.copyOf(this.serial, this.serial.length);
+	}
+
+	/**
+	 * @return the exchange mode requested for the next boot (HID_DEVICE or WINUSB_DEVICE)
+	 */
+	public synchronized int getMode() {
+		return this.mode;
+	}
+
+	/**
+	 * Simulates the dongle being unplugged and plugged again : secure channel, transient keyset,
+	 * time reference and halt state are lost.
+	 */
+	public synchronized void powerCycle() {
+		closeChannel();
+		this.keysets.remove(TRANSIENT_KEYSET);
+		this.timeSet = false;
+		this.halted = false;
+		this.current = this.masterFile;
+	}
+
+	/**
+	 * Processes an APDU command and writes the response (data followed by the status word).
+	 * @param apdu byte [] buffer holding the command
+	 * @param apduOffset int offset of the command in the buffer
+	 * @param apduLength int command length
+	 * @param response byte [] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length
+	 */
+	public synchronized int process(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset) {
+		if (this.halted)
+			return writeSW(response, responseOffset, SW_HALTED);
+		if (apduLength < 5 || apduLength != 5 + (apdu[apduOffset + 4] & 0xFF) && apduLength != 5)
+			return writeSW(response, responseOffset, SW_WRONG_LENGTH);
+
+		int cla = apdu[apduOffset] & 0xFF,
+			ins = apdu[apduOffset + 1] & 0xFF;
+		byte[] data = Arrays.copyOfRange(apdu, apduOffset + 5, apduOffset + apduLength);
+		boolean secured = (cla & 0x04) != 0;
+		boolean extAuth = (cla & ~0x04) == 0x80 && ins == 0x82;
+
+		if (secured) {
+			if (!this.channelOpened && !(extAuth && this.authPending)) {
+				return writeSW(response, responseOffset, SW_SECURITY);
+			}
+			try {
+				data = unwrapCommand(apdu, apduOffset, data, extAuth);
+			} catch (DaplugCryptoException e) {
+				data = null;
+			}
+			if (data == null) {
+				closeChannel();
+				return writeSW(response, responseOffset, SW_SECURITY);
+			}
+		} else if (this.channelOpened) {
+			// a command sent outside the secure channel closes it
+			closeChannel();
+		}
+
+		// the command as built by the host before wrapping : used for R-MAC computation
+		byte[] clearCommand = new byte[5 + data.length];
+		System.arraycopy(apdu, apduOffset, clearCommand, 0, 4);
+		clearCommand[0] = (byte) (cla & ~0x04);
+		clearCommand[4] = (byte) (data.length > 0 ? data.length : (secured ? 0 : apdu[apduOffset + 4]));
+		System.arraycopy(data, 0, clearCommand, 5, data.length);
+
+		boolean wrapResponse = this.channelOpened && !extAuth;
+		int level = this.securityLevel;
+
+		Reply reply;
+		try {
+			reply = dispatch(clearCommand, data);
+		} catch (DaplugException e) {
+			reply = new Reply(SW_UNKNOWN);
+		} catch (GeneralSecurityException e) {
+			reply = new Reply(SW_UNKNOWN);
+		}
+
+		int len;
+		try {
+			len = wrapResponse ? wrapResponse(clearCommand, reply, level, response, responseOffset)
+					: writeReply(reply.data, reply.sw, response, responseOffset);
+		} catch (DaplugCryptoException e) {
+			closeChannel();
+			return writeSW(response, responseOffset, SW_UNKNOWN);
+		}
+		if (reply.closeChannel)
+			closeChannel();
+		return len;
+	}
+
+	// ================= secure messaging =================
+
+	/* Verifies the C-MAC and decrypts command data. Returns null on integrity failure */
+	private byte[] unwrapCommand(byte[] apdu, int apduOffset, byte[] data, boolean extAuth) throws DaplugCryptoException {
+		if (data.length < MAC_LEN)
+			return null;
+		byte[] body = Arrays.copyOf(data, data.length - MAC_LEN);
+		byte[] receivedMac = Arrays.copyOfRange(data, data.length - MAC_LEN, data.length);
+		byte[] clear = body;
+		if ((this.securityLevel & SEC_LEVEL_C_DEC) != 0 && !extAuth) {
+			if (body.length == 0 || body.length % 8 != 0)
+				return null;
+			byte[] padded = this.crypto.commandData(body, DaplugCrypto.DECRYPT);
+			int i = padded.length - 1;
+			while (i > 0 && padded[i] == 0)
+				i--;
+			if (padded[i] != (byte) 0x80)
+				return null;
+			clear = Arrays.copyOf(padded, i);
+		}
+		byte[] macInput = new byte[5 + clear.length];
+		System.arraycopy(apdu, apduOffset, macInput, 0, 4);
+		macInput[4] = (byte) (clear.length + MAC_LEN);
+		System.arraycopy(clear, 0, macInput, 5, clear.length);
+		byte[] mac = this.crypto.commandMac(macInput, this.cMac);
+		if (!Arrays.equals(mac, receivedMac))
+			return null;
+		this.cMac = mac;
+		return clear;
+	}
+
+	/* Applies R-ENC then R-MAC to the response according to the security level */
+	private int wrapResponse(byte[] clearCommand, Reply reply, int level, byte[] response, int responseOffset)
+			throws DaplugCryptoException {
+		byte[] outData = reply.data;
+		if ((level & SEC_LEVEL_R_ENC) != 0 && reply.data.length > 0) {
+			outData = this.crypto.responseData(reply.data, DaplugCrypto.ENCRYPT);
+		}
+		if ((level & SEC_LEVEL_R_MAC) != 0) {
+			byte[] macInput = new byte[clearCommand.length + 1 + reply.data.length + 2];
+			System.arraycopy(clearCommand, 0, macInput, 0, clearCommand.length);
+			macInput[clearCommand.length] = (byte) reply.data.length;
+			System.arraycopy(reply.data, 0, macInput, clearCommand.length + 1, reply.data.length);
+			macInput[macInput.length - 2] = (byte) (reply.sw >> 8);
+			macInput[macInput.length - 1] = (byte) reply.sw;
+			this.rMac = this.crypto.responseMac(macInput, this.rMac);
+			outData = DaplugUtils.byteArrayConcat(outData, this.rMac);
+		}
+		return writeReply(outData, reply.sw, response, responseOffset);
+	}
+
+	private void closeChannel() {
+		this.channelOpened = false;
+		this.authPending = false;
+		this.securityLevel = 0;
+		this.cMac = new byte[0];
+	}
+
+	// ================= dispatch =================
+
+	private Reply dispatch(byte[] cmd, byte[] data) throws DaplugException, GeneralSecurityException {
+		int cla = cmd[0] & 0xFF, ins = cmd[1] & 0xFF, p1 = cmd[2] & 0xFF, p2 = cmd[3] & 0xFF;
+		if (cla == 0x80) {
+			switch (ins) {
+				case 0x50 : return initializeUpdate(p1, data, null);
+				case 0x82 : return externalAuthenticate(p1, data);
+				case 0xE6 : return new Reply(this.serial);
+				case 0xF2 : return getStatus();
+				case 0xF0 : this.status = p2; return new Reply(SW_OK);
+				case 0xD8 : return putKey(p1, p2, data);
+				case 0xE0 : return createFile(data);
+				case 0xE4 : return deleteFile(data);
+				case 0xA4 : return selectFile(data);
+				case 0xB0 : return readBinary((p1 << 8) + p2);
+				case 0xD6 : return updateBinary((p1 << 8) + p2, data);
+				default : return new Reply(SW_INS_NOT_SUPPORTED, true);
+			}
+		} else if (cla == 0xD0) {
+			switch (ins) {
+				case 0x50 : return initializeUpdate(p1, data, data.length == 24 ? Arrays.copyOfRange(data, 8, 24) : null);
+				case 0x20 : return crypt(p1, p2, data);
+				case 0x22 : return hmacSha1(p1, p2, data);
+				case 0x24 : return getRandom(data.length);
+				case 0xA0 : return exportKey(p1, p2);
+				case 0xA2 : return importKey(p1, p2, data);
+				case 0xB2 : return setTimeReference(p1, p2, data);
+				case 0xB0 : return getTime();
+				case 0x30 : return new Reply(SW_OK);
+				case 0x32 : return keyboard(p1);
+				case 0x52 : return control(p1, p2);
+				default : return new Reply(SW_INS_NOT_SUPPORTED, true);
+			}
+		}
+		// the dongle drops the secure channel on an unsupported class (used by DaplugSession.deAuthenticate())
+		return new Reply(SW_CLA_NOT_SUPPORTED, true);
+	}
+
+	// ================= authentication =================
+
+	private Reply initializeUpdate(int version, byte[] data, byte[] diversifier) throws DaplugException {
+		closeChannel();
+		if (data.length != 8 && data.length != 24)
+			return new Reply(SW_WRONG_LENGTH);
+		DaplugKeyset keys = null;
+		if (version == 0) {
+			for (DaplugKeyset k : this.keysets.values()) {
+				if (isGPKeyset(k)) { keys = k; break; }
+			}
+		} else {
+			keys = this.keysets.get(version);
+		}
+		if (keys == null || !isGPKeyset(keys))
+			return new Reply(SW_REF_NOT_FOUND);
+
+		byte[] encKey = keys.getKey(0), macKey = keys.getKey(1), dek = keys.getKey(2);
+		if (diversifier != null) {
+			encKey = DaplugCrypto.computeDiversifiedKey(encKey, diversifier);
+			macKey = DaplugCrypto.computeDiversifiedKey(macKey, diversifier);
+			dek = DaplugCrypto.computeDiversifiedKey(dek, diversifier);
+		}
+
+		this.sequenceCounter = (this.sequenceCounter + 1) & 0xFFFF;
+		this.counter = new byte[] { (byte) (this.sequenceCounter >> 8), (byte) this.sequenceCounter };
+		this.hostChallenge = Arrays.copyOf(data, 8);
+		this.cardChallenge = new byte[6];
+		this.random.nextBytes(this.cardChallenge);
+
+		this.sEncKey = DaplugCrypto.computeSessionKey(this.counter, DaplugCrypto.KEY_CONSTANT_S_ENC, encKey);
+		this.crypto = new DaplugCryptoContext(this.sEncKey,
+				DaplugCrypto.computeSessionKey(this.counter, DaplugCrypto.KEY_CONSTANT_R_ENC, encKey),
+				DaplugCrypto.computeSessionKey(this.counter, DaplugCrypto.KEY_CONSTANT_C_MAC, macKey),
+				DaplugCrypto.computeSessionKey(this.counter, DaplugCrypto.KEY_CONSTANT_R_MAC, macKey),
+				DaplugCrypto.computeSessionKey(this.counter, DaplugCrypto.KEY_CONSTANT_DEK, dek));
+
+		byte[] cryptogram = DaplugCrypto.computeCardCryptogram(this.hostChallenge, this.cardChallenge, this.counter, this.sEncKey);
+
+		byte[] out = new byte[28];
+		System.arraycopy(this.serial, 0, out, 0, 10); // key diversification data
+		out[10] = (byte) keys.getVersion();
+		out[11] = 0x02; // SCP02
+		System.arraycopy(this.counter, 0, out, 12, 2);
+		System.arraycopy(this.cardChallenge, 0, out, 14, 6);
+		System.arraycopy(cryptogram, 0, out, 20, 8);
+
+		this.authKeysetMinLevel = keys.getUsage() == DaplugKeyset.USAGE_GP ? keys.getAccess() & 0xFF : 0;
+		this.authPending = true;
+		return new Reply(out);
+	}
+
+	private Reply externalAuthenticate(int level, byte[] data) {
+		if (!this.authPending)
+			return new Reply(SW_CONDITIONS);
+		this.authPending = false;
+		byte[] expected = DaplugCrypto.computeHostCryptogram(this.hostChallenge, this.cardChallenge, this.counter, this.sEncKey);
+		if (data.length != 8 || !Arrays.equals(expected, data)) {
+			closeChannel();
+			return new Reply(SW_AUTH_FAILED);
+		}
+		if ((level & this.authKeysetMinLevel) != this.authKeysetMinLevel) {
+			closeChannel();
+			return new Reply(SW_SECURITY);
+		}
+		this.securityLevel = level;
+		this.rMac = Arrays.copyOf(this.cMac, MAC_LEN);
+		this.channelOpened = true;
+		return new Reply(SW_OK);
+	}
+
+	// ================= keysets =================
+
+	private Reply putKey(int version, int mode, byte[] data) throws DaplugException {
+		if (!this.channelOpened)
+			return new Reply(SW_SECURITY);
+		if (data.length != 0x55 || (data[0] & 0xFF) != version)
+			return new Reply(SW_WRONG_DATA);
+		if (mode != 0x81 && mode != 0x82)
+			return new Reply(SW_INCORRECT_P1P2);
+		byte[][] keys = new byte[3][];
+		int usage = 0, access = 0;
+		int off = 1;
+		for (int i = 0; i < 3; i++) {
+			if ((data[off] & 0xFF) != 0xFF || (data[off + 1] & 0xFF) != 0x80 || data[off + 2] != 0x10)
+				return new Reply(SW_WRONG_DATA);
+			byte[] wrapped = Arrays.copyOfRange(data, off + 3, off + 19);
+			keys[i] = this.crypto.keyData(wrapped, DaplugCrypto.DECRYPT);
+			byte[] kcv = Arrays.copyOfRange(data, off + 20, off + 23);
+			if (!Arrays.equals(kcv, DaplugCrypto.computeKCV(keys[i])))
+				return new Reply(SW_WRONG_DATA);
+			usage = data[off + 24] & 0xFF;
+			access = ((data[off + 26] & 0xFF) << 8) + (data[off + 27] & 0xFF);
+			off += 28;
+		}
+		DaplugKeyset existing = this.keysets.get(version);
+		if (mode == 0x82 && existing != null) {
+			for (int i = 0; i < 3; i++) {
+				byte[] old = existing.getKey(i);
+				for (int j = 0; j < keys[i].length; j++)
+					keys[i][j] ^= old[j];
+			}
+		}
+		// bit 0x80 of the usage byte only tells who the parent of the keyset is
+		storeKeyset(new DaplugKeyset(version, usage & 0x7F, access, keys[0], keys[1], keys[2]));
+		return new Reply(SW_OK);
+	}
+
+	private Reply exportKey(int version, int index) throws DaplugException, GeneralSecurityException {
+		DaplugKeyset exportKeys = this.keysets.get(version);
+		DaplugKeyset transientKeys = this.keysets.get(TRANSIENT_KEYSET);
+		if (exportKeys == null || exportKeys.getUsage() != DaplugKeyset.USAGE_IMPORT_EXPORT_TRANSIENT || transientKeys == null)
+			return new Reply(SW_REF_NOT_FOUND);
+		if (index < 1 || index > 3)
+			return new Reply(SW_INCORRECT_P1P2);
+		byte[] key = exportKeys.getKey(index - 1);
+		byte[] clear = new byte[56];
+		clear[0] = (byte) TRANSIENT_KEYSET;
+		clear[1] = (byte) transientKeys.getUsage();
+		clear[2] = (byte) (transientKeys.getAccess() >> 8);
+		clear[3] = (byte) transientKeys.getAccess();
+		for (int i = 0; i < 3; i++)
+			System.arraycopy(transientKeys.getKey(i), 0, clear, 4 + i * 16, 16);
+		clear[52] = (byte) 0x80;
+		byte[] blob = DaplugCrypto.tripleDES_CBC_GP(clear, key, null, DaplugCrypto.ENCRYPT);
+		return new Reply(DaplugUtils.byteArrayConcat(blob, DaplugCrypto.computeFull3DesMac(blob, key)));
+	}
+
+	private Reply importKey(int version, int index, byte[] data) throws DaplugException, GeneralSecurityException {
+		DaplugKeyset exportKeys = this.keysets.get(version);
+		if (exportKeys == null || exportKeys.getUsage() != DaplugKeyset.USAGE_IMPORT_EXPORT_TRANSIENT)
+			return new Reply(SW_REF_NOT_FOUND);
+		if (index < 1 || index > 3)
+			return new Reply(SW_INCORRECT_P1P2);
+		if (data.length != 64)
+			return new Reply(SW_WRONG_LENGTH);
+		byte[] key = exportKeys.getKey(index - 1);
+		byte[] blob = Arrays.copyOf(data, 56);
+		if (!Arrays.equals(DaplugCrypto.computeFull3DesMac(blob, key), Arrays.copyOfRange(data, 56, 64)))
+			return new Reply(SW_WRONG_DATA);
+		byte[] clear = DaplugCrypto.tripleDES_CBC_GP(blob, key, null, DaplugCrypto.DECRYPT);
+		int access = ((clear[2] & 0xFF) << 8) + (clear[3] & 0xFF);
+		storeKeyset(new DaplugKeyset(TRANSIENT_KEYSET, clear[1] & 0xFF, access,
+				Arrays.copyOfRange(clear, 4, 20), Arrays.copyOfRange(clear, 20, 36), Arrays.copyOfRange(clear, 36, 52)));
+		return new Reply(SW_OK);
+	}
+
+	// ================= file system =================
+
+	private Reply createFile(byte[] data) {
+		SimFile dir = currentDirectory();
+		// FCP template : 62 L 82 02 xx 21 83 02 id [81 02 size] 8C L access [86 01 ief] [87 01 icf]
+		// the template length is not checked : the whole command data is parsed
+		if (data.length < 2 || (data[0] & 0xFF) != 0x62)
+			return new Reply(SW_WRONG_DATA);
+		int id = -1, size = 0;
+		boolean isDir = false, counterFile = false;
+		byte[] access = new byte[0];
+		int off = 2;
+		while (off + 1 < data.length) {
+			int tag = data[off] & 0xFF, len = data[off + 1] & 0xFF, v = off + 2;
+			if (v + len > data.length)
+				return new Reply(SW_WRONG_DATA);
+			// the values read below : two bytes for the id and the size, one for the descriptors
+			if ((tag == 0x83 || tag == 0x81) && len != 2 || (tag == 0x82 || tag == 0x87) && len < 1)
+				return new Reply(SW_WRONG_DATA);
+			switch (tag) {
+				case 0x82 : isDir = (data[v] & 0xFF) == 0x32; break;
+				case 0x83 : id = ((data[v] & 0xFF) << 8) + (data[v + 1] & 0xFF); break;
+				case 0x81 : size = ((data[v] & 0xFF) << 8) + (data[v + 1] & 0xFF); break;
+				case 0x8C : access = Arrays.copyOfRange(data, v, v + len); break;
+				case 0x87 : counterFile = data[v] != 0; break;
+				default : break;
+			}
+			off = v + len;
+		}
+		if (id < 0)
+			return new Reply(SW_WRONG_DATA);
+		if (dir.getChild(id) != null)
+			return new Reply(SW_FILE_EXISTS);
+		SimFile f = new SimFile(id, dir, isDir, counterFile ? 8 : size);
+		f.access = access;
+		dir.addChild(f);
+		return new Reply(SW_OK);
+	}
+
+	private Reply deleteFile(byte[] data) {
+		if (data.length != 2)
+			return new Reply(SW_WRONG_LENGTH);
+		int id = ((data[0] & 0xFF) << 8) + (data[1] & 0xFF);
+		SimFile dir = currentDirectory();
+		SimFile f = dir.getChild(id);
+		if (f == null)
+			return new Reply(SW_NOT_FOUND);
+		dir.children.remove(id);
+		if (dir == keyDirectory() && (id & 0xFF00) == 0x1000)
+			this.keysets.remove(id & 0xFF);
+		for (SimFile c = this.current; c != null; c = c.parent) {
+			if (c == f) {
+				this.current = dir;
+				break;
+			}
+		}
+		return new Reply(SW_OK);
+	}
+
+	private Reply selectFile(byte[] data) {
+		if (data.length != 2)
+			return new Reply(SW_WRONG_LENGTH);
+		int id = ((data[0] & 0xFF) << 8) + (data[1] & 0xFF);
+		if (id == FS_MASTER_FILE) {
+			this.current = this.masterFile;
+			return new Reply(SW_OK);
+		}
+		SimFile dir = currentDirectory();
+		SimFile f = dir.getChild(id);
+		if (f == null && dir.parent != null && dir.parent.id == id)
+			f = dir.parent;
+		if (f == null)
+			return new Reply(SW_NOT_FOUND);
+		this.current = f;
+		return new Reply(SW_OK);
+	}
+
+	private Reply readBinary(int offset) {
+		if (this.current.isDir)
+			return new Reply(SW_NO_CURRENT_EF);
+		byte[] content = this.current.content;
+		if (offset > content.length)
+			return new Reply(SW_WRONG_P1P2);
+		int len = Math.min(MAX_REAL_DATA_SIZE, content.length - offset);
+		return new Reply(Arrays.copyOfRange(content, offset, offset + len));
+	}
+
+	private Reply updateBinary(int offset, byte[] data) {
+		if (this.current.isDir)
+			return new Reply(SW_NO_CURRENT_EF);
+		byte[] content = this.current.content;
+		if (offset + data.length > content.length)
+			return new Reply(SW_WRONG_LENGTH);
+		System.arraycopy(data, 0, content, offset, data.length);
+		return new Reply(SW_OK);
+	}
+
+	private SimFile currentDirectory() {
+		return this.current.isDir ? this.current : this.current.parent;
+	}
+
+	private SimFile keyDirectory() {
+		SimFile dir = this.masterFile;
+		for (int id : KEY_DIR_PATH)
+			dir = dir.getChild(id);
+		return dir;
+	}
+
+	// ================= crypto services =================
+
+	private Reply crypt(int operation, int mode, byte[] data) throws DaplugException {
+		if (operation != ENCRYPT && operation != DECRYPT)
+			return new Reply(SW_INCORRECT_P1P2);
+		int off = 10;
+		if ((mode & (ENC_1_DIV | ENC_2_DIV)) != 0)
+			off += 16;
+		if ((mode & ENC_2_DIV) != 0)
+			off += 16;
+		if (data.length < off || (data.length - off) % 8 != 0)
+			return new Reply(SW_WRONG_LENGTH);
+		DaplugKeyset keys = this.keysets.get(data[0] & 0xFF);
+		int keyId = data[1] & 0xFF;
+		if (keys == null || keyId < 1 || keyId > 3)
+			return new Reply(SW_REF_NOT_FOUND);
+		int usage = keys.getUsage();
+		boolean allowed = usage == DaplugKeyset.USAGE_ENC_DEC
+				|| (usage == DaplugKeyset.USAGE_ENC && operation == ENCRYPT)
+				|| (usage == DaplugKeyset.USAGE_DEC && operation == DECRYPT);
+		if (!allowed)
+			return new Reply(SW_CONDITIONS);
+		byte[] key = keys.getKey(keyId - 1);
+		if ((mode & (ENC_1_DIV | ENC_2_DIV)) != 0)
+			key = DaplugCrypto.computeDiversifiedKey(key, Arrays.copyOfRange(data, 10, 26));
+		if ((mode & ENC_2_DIV) != 0)
+			key = DaplugCrypto.computeDiversifiedKey(key, Arrays.copyOfRange(data, 26, 42));
+		byte[] iv = Arrays.copyOfRange(data, 2, 10);
+		byte[] in = Arrays.copyOfRange(data, off, data.length);
+		int enc = operation == ENCRYPT ? DaplugCrypto.ENCRYPT : DaplugCrypto.DECRYPT;
+		byte[] out = (mode & ENC_CBC) != 0 ? DaplugCrypto.tripleDES_CBC_GP(in, key, iv, enc)
+				: DaplugCrypto.tripleDES_ECB_GP(in, key, enc);
+		return new Reply(out);
+	}
+
+	private Reply hmacSha1(int version, int options, byte[] data) throws DaplugException, GeneralSecurityException {
+		DaplugKeyset keys = this.keysets.get(version);
+		if (keys == null)
+			return new Reply(SW_REF_NOT_FOUND);
+		int off = 0;
+		byte[] div1 = null, div2 = null;
+		if ((options & (OTP_1_DIV | OTP_2_DIV)) != 0) {
+			if (data.length < 16)
+				return new Reply(SW_WRONG_LENGTH);
+			div1 = Arrays.copyOfRange(data, 0, 16);
+			off = 16;
+		}
+		if ((options & OTP_2_DIV) != 0) {
+			if (data.length < 32)
+				return new Reply(SW_WRONG_LENGTH);
+			div2 = Arrays.copyOfRange(data, 16, 32);
+			off = 32;
+		}
+		byte[] in = Arrays.copyOfRange(data, off, data.length);
+		byte[] key = hmacKey(keys, div1, div2);
+		int digits = (options & OTP_8_DIGIT) != 0 ? 8 : (options & OTP_7_DIGIT) != 0 ? 7 : (options & OTP_6_DIGIT) != 0 ? 6 : 0;
+
+		switch (keys.getUsage()) {
+			case DaplugKeyset.USAGE_HMAC_SHA1 :
+				return new Reply(hmac(key, in));
+			case DaplugKeyset.USAGE_HOTP :
+			case DaplugKeyset.USAGE_HOTP_LOCK : {
+				if (digits == 0)
+					return new Reply(SW_INCORRECT_P1P2);
+				if (in.length != 2)
+					return new Reply(SW_WRONG_LENGTH);
+				SimFile counterFile = findCounterFile(((in[0] & 0xFF) << 8) + (in[1] & 0xFF));
+				if (counterFile == null)
+					return new Reply(SW_NOT_FOUND);
+				byte[] value = counterFile.content;
+				byte[] otp = otp(key, value, digits);
+				// increment the counter file
+				for (int i = value.length - 1; i >= 0; i--) {
+					if (++value[i] != 0)
+						break;
+				}
+				return new Reply(otp);
+			}
+			case DaplugKeyset.USAGE_HOTP_VALIDATION : // also USAGE_TOTP_VALIDATION : counter or time given by the host
+				if (digits == 0)
+					return new Reply(SW_INCORRECT_P1P2);
+				if (in.length != 8)
+					return new Reply(SW_WRONG_LENGTH);
+				return new Reply(otp(key, in, digits));
+			case DaplugKeyset.USAGE_TOTP :
+			case DaplugKeyset.USAGE_TOTP_LOCK : {
+				if (digits == 0)
+					return new Reply(SW_INCORRECT_P1P2);
+				if (!this.timeSet)
+					return new Reply(SW_CONDITIONS);
+				long t = currentTime() / this.timeStep;
+				byte[] value = new byte[8];
+				for (int i = 7; i >= 0; i--, t >>>= 8)
+					value[i] = (byte) t;
+				return new Reply(otp(key, value, digits));
+			}
+			default :
+				return new Reply(SW_CONDITIONS);
+		}
+	}
+
+	private Reply getRandom(int length) {
+		if (length <= 0 || length > MAX_REAL_DATA_SIZE)
+			return new Reply(SW_WRONG_LENGTH);
+		byte[] out = new byte[length];
+		this.random.nextBytes(out);
+		return new Reply(out);
+	}
+
+	private Reply setTimeReference(int version, int keyId, byte[] data) throws DaplugException {
+		if (data.length != 24)
+			return new Reply(SW_WRONG_LENGTH);
+		DaplugKeyset keys = this.keysets.get(version);
+		if (keys == null || keys.getUsage() != DaplugKeyset.USAGE_TOTP_TIME_SRC || keyId < 1 || keyId > 3)
+			return new Reply(SW_REF_NOT_FOUND);
+		byte[] in = Arrays.copyOf(data, 16);
+		byte[] out = DaplugCrypto.tripleDES_CBC_GP(in, keys.getKey(keyId - 1), null, DaplugCrypto.ENCRYPT);
+		if (!Arrays.equals(Arrays.copyOfRange(out, 8, 16), Arrays.copyOfRange(data, 16, 24)))
+			return new Reply(SW_SECURITY);
+		this.timeStep = (data[11] & 0xFF) == 0 ? HOTP_TIME_STEP : data[11] & 0xFF;
+		this.timeReference = ((data[12] & 0xFFL) << 24) + ((data[13] & 0xFF) << 16) + ((data[14] & 0xFF) << 8) + (data[15] & 0xFF);
+		this.timeSetAt = System.nanoTime();
+		this.timeSet = true;
+		return new Reply(SW_OK);
+	}
+
+	private Reply getTime() {
+		if (!this.timeSet)
+			return new Reply(new byte[0]);
+		long t = currentTime();
+		return new Reply(new byte[] { (byte) (t >> 24), (byte) (t >> 16), (byte) (t >> 8), (byte) t });
+	}
+
+	private long currentTime() {
+		return this.timeReference + (System.nanoTime() - this.timeSetAt) / 1000000000L;
+	}
+
+	// ================= dongle management =================
+
+	private Reply getStatus() {
+		byte[] out = new byte[16];
+		out[0] = (byte) 0x08; // AID length
+		System.arraycopy(this.serial, 0, out, 1, 8);
+		out[9] = (byte) this.status;
+		out[10] = (byte) 0x80; // privileges
+		return new Reply(out);
+	}
+
+	private Reply keyboard(int p1) {
+		switch (p1) {
+			case 0x00 : return (this.current.isDir) ? new Reply(SW_NO_CURRENT_EF) : new Reply(SW_OK);
+			case 0x01 : this.keyboardAtBoot = false; return new Reply(SW_OK);
+			case 0x02 : this.keyboardAtBoot = true; return new Reply(SW_OK);
+			default : return new Reply(SW_INCORRECT_P1P2);
+		}
+	}
+
+	private Reply control(int p1, int p2) {
+		switch (p1) {
+			case 0x01 : // warm reset
+				this.current = this.masterFile;
+				return new Reply(SW_OK, true);
+			case 0x02 : // halt until unplugged
+				this.halted = true;
+				return new Reply(SW_OK, true);
+			case 0x08 : // exchange mode for next boot
+				if (p2 == 0x01) this.mode = HID_DEVICE;
+				else if (p2 == 0x02) this.mode = WINUSB_DEVICE;
+				else return new Reply(SW_INCORRECT_P1P2);
+				return new Reply(SW_OK);
+			default :
+				return new Reply(SW_INCORRECT_P1P2);
+		}
+	}
+
+	/**
+	 * @return true if keyboard emulation is activated at boot
+	 */
+	public synchronized boolean isKeyboardAtBoot() {
+		return this.keyboardAtBoot;
+	}
+
+	// ================= helpers =================
+
+	private SimFile findCounterFile(int id) {
+		SimFile f = this.masterFile.getChild(COUNTER_DIR).getChild(id);
+		if (f == null)
+			f = currentDirectory().getChild(id);
+		return (f != null && !f.isDir && f.content.length == 8) ? f : null;
+	}
+
+	private static boolean isGPKeyset(DaplugKeyset k) {
+		int u = k.getUsage();
+		return u == DaplugKeyset.USAGE_GP || u == DaplugKeyset.USAGE_GP_AUTH || u == DaplugKeyset.USAGE_SAM_GP;
+	}
+
+	/* HMAC key : first (access & 0xFF) bytes of the keyset keys, each key being diversified if required */
+	private static byte[] hmacKey(DaplugKeyset keys, byte[] div1, byte[] div2) throws DaplugException {
+		byte[] all = new byte[48];
+		for (int i = 0; i < 3; i++) {
+			byte[] k = keys.getKey(i);
+			if (div1 != null)
+				k = DaplugCrypto.computeDiversifiedKey(k, div1);
+			if (div2 != null)
+				k = DaplugCrypto.computeDiversifiedKey(k, div2);
+			System.arraycopy(k, 0, all, i * 16, 16);
+		}
+		int len = keys.getAccess() & 0xFF;
+		if (len == 0 || len > 48)
+			len = 48;
+		return Arrays.copyOf(all, len);
+	}
+
+	private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance("HmacSHA1");
+		mac.init(new SecretKeySpec(key, "HmacSHA1"));
+		return mac.doFinal(data);
+	}
+
+	/* RFC 4226 dynamic truncation, digits returned as ASCII characters */
+	private static byte[] otp(byte[] key, byte[] movingFactor, int digits) throws GeneralSecurityException {
+		byte[] h = hmac(key, movingFactor);
+		int offset = h[h.length - 1] & 0x0F;
+		int binary = ((h[offset] & 0x7F) << 24) | ((h[offset + 1] & 0xFF) << 16)
+				| ((h[offset + 2] & 0xFF) << 8) | (h[offset + 3] & 0xFF);
+		int modulo = 1;
+		for (int i = 0; i < digits; i++)
+			modulo *= 10;
+		String value = Integer.toString(binary % modulo);
+		byte[] out = new byte[digits];
+		Arrays.fill(out, (byte) '0');
+		for (int i = 0; i < value.length(); i++)
+			out[digits - value.length() + i] = (byte) value.charAt(i);
+		return out;
+	}
+
+	private static DaplugKeyset copyOf(DaplugKeyset k) {
+		try {
+			return new DaplugKeyset(k.getVersion(), k.getUsage(), k.getAccess(), k.getKey(0), k.getKey(1), k.getKey(2));
+		} catch (DaplugException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static int writeSW(byte[] response, int offset, int sw) {
+		response[offset] = (byte) (sw >> 8);
+		response[offset + 1] = (byte) sw;
+		return 2;
+	}
+
+	private static int writeReply(byte[] data, int sw, byte[] response, int offset) {
+		System.arraycopy(data, 0, response, offset, data.length);
+		return data.length + writeSW(response, offset + data.length, sw);
+	}
+
+	/* Response computed by a command handler */
+	private static final class Reply {
+		final byte[] data;
+		final int sw;
+		final boolean closeChannel;
+
+		Reply(byte[] data) {
+			this.data = data;
+			this.sw = SW_OK;
+			this.closeChannel = false;
+		}
+
+		Reply(int sw) {
+			this(sw, false);
+		}
+
+		Reply(int sw, boolean closeChannel) {
+			this.data = new byte[0];
+			this.sw = sw;
+			this.closeChannel = closeChannel;
+		}
+	}
+
+	/* A file or directory of the simulated file system */
+	private static final class SimFile {
+		final int id;
+		final SimFile parent;
+		final boolean isDir;
+		final byte[] content;
+		final Map<Integer, SimFile> children;
+		/* security attributes (tag 8C) as sent at creation : stored, not enforced */
+		byte[] access = new byte[0];
+
+		SimFile(int id, SimFile parent, boolean isDir, int size) {
+			this.id = id;
+			this.parent = parent;
+			this.isDir = isDir;
+			this.content = isDir ? null : new byte[size];
+			this.children = isDir ? new HashMap<Integer, SimFile>() : null;
+		}
+
+		SimFile getChild(int id) {
+			return this.children == null ? null : this.children.get(id);
+		}
+
+		SimFile addChild(SimFile f) {
+			this.children.put(f.id, f);
+			return f;
+		}
+	}
+}
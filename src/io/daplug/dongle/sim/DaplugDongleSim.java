@@ -0,0 +1,221 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.dongle.sim;
+
+import java.util.Arrays;
+
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.exception.DaplugCommunicationException;
+import io.daplug.exception.DaplugException;
+import io.daplug.metrics.DaplugDongleMetrics;
+import io.daplug.metrics.DaplugMetrics;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * A Daplug dongle simulated in software : the third transport next to HID and WINUSB.
+ * APDUs are processed by a DaplugCardSim, then the calling thread is blocked for the time
+ * given by the DaplugSimLatency model, as a real exchange would block it.
+ * It allows to run DaplugSession, benchmarks and examples without hardware.
+ *
+ */
+public class DaplugDongleSim implements IDaplugDongle {
+
+	/**
+	 * Path prefix of simulated dongles
+	 */
+	public static final String SIM_PATH = "sim";
+
+	private final DaplugCardSim card;
+	private final DaplugSimLatency latency;
+	private final String path;
+	private volatile boolean opened = true;
+	private volatile DaplugDongleMetrics metrics = null;
+
+	/**
+	 * Constructs a simulated dongle holding a new default card, without latency
+	 */
+	public DaplugDongleSim() {
+		this(new DaplugCardSim(), DaplugSimLatency.NONE);
+	}
+
+	/**
+	 * Constructs a simulated dongle
+	 * @param card DaplugCardSim card answering the apdus
+	 * @param latency DaplugSimLatency link latency model
+	 */
+	public DaplugDongleSim(DaplugCardSim card, DaplugSimLatency latency) {
+		this(SIM_PATH, card, latency);
+	}
+
+	/**
+	 * Constructs a simulated dongle
+	 * @param path String path reported for this dongle
+	 * @param card DaplugCardSim card answering the apdus
+	 * @param latency DaplugSimLatency link latency model
+	 */
+	public DaplugDongleSim(String path, DaplugCardSim card, DaplugSimLatency latency) {
+		if (card == null || latency == null)
+			throw new NullPointerException("DaplugDongleSim() - card and latency are required");
+		this.path = path;
+		this.card = card;
+		this.latency = latency;
+	}
+
+	/**
+	 * @return the simulated card
+	 */
+	public DaplugCardSim getCard() {
+		return this.card;
+	}
+
+	/**
+	 * @return the latency model
+	 */
+	public DaplugSimLatency getLatency() {
+		return this.latency;
+	}
+
+	/**
+	 * @return the path of the simulated dongle
+	 */
+	public String getPath() {
+		return this.path;
+	}
+
+	/**
+	 * Sets the metrics receiving the transfer latencies of the exchanges. The simulated link has no write phase :
+	 * the card processing and the latency of the model are recorded as the read.
+	 * @param metrics DaplugDongleMetrics, null to record nothing
+	 */
+	public void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * A simulated dongle is not an USB device
+	 * @return Object an empty list
+	 */
+	public Object ListAllDevices() {
+		return new Object[0];
+	}
+
+	/**
+	 * A simulated dongle is not an USB device
+	 * @param vid int vendor_id
+	 * @param pid int product_id
+	 * @return Object an empty list
+	 */
+	public Object ListAllDevices(int vid, int pid) {
+		return new Object[0];
+	}
+
+	/**
+	 * @return Object this simulated dongle as the only Daplug
+	 */
+	public Object ListAllDaplug() {
+		return new Object[] { this };
+	}
+
+	public Object openDevice() {
+		this.opened = true;
+		return this;
+	}
+
+	public Object openDevice(int vid, int pid) {
+		return openDevice();
+	}
+
+	public Object openDevice(String path) {
+		return openDevice();
+	}
+
+	/**
+	 * Closes the simulated dongle : next exchanges fail until it is opened again
+	 */
+	public void close() {
+		this.opened = false;
+	}
+
+	/**
+	 * exchange command with the simulated dongle. It return a String array which element is :
+	 * element 0 : the response data, element 1 : the status word
+	 * @param apdu byte []
+	 * @return String [] result, null if the exchange failed
+	 */
+	public String[] exchange(byte[] apdu) {
+		byte[] response = new byte[RESPONSE_MAX_LEN];
+		try {
+			int len = this.exchange(apdu, 0, apdu.length, response, 0);
+			return DaplugUtils.responseToHexStrings(response, 0, len);
+		} catch (DaplugException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * exchange command with the simulated dongle.
+	 * @param apdu String
+	 * @return String [] result, null if the exchange failed
+	 */
+	public String[] exchange(String apdu) {
+		return this.exchange(DaplugUtils.hexStringToByteArray(apdu));
+	}
+
+	/**
+	 * exchange command with the simulated dongle without hexadecimal conversion.
+	 * The response is written in the given buffer : data first, then the status word.
+	 * @param apdu byte[] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte[] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugException
+	 *
+	 */
+	public int exchange(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset)
+			throws DaplugException {
+		if (!this.opened)
+			throw new DaplugCommunicationException("exchange() - Simulated dongle " + this.path + " is closed !");
+		DaplugDongleMetrics metrics = this.metrics;
+		boolean timed = metrics != null && apduLength > 1 && DaplugMetrics.isEnabled();
+		long start = timed ? System.nanoTime() : 0;
+		int len = this.card.process(apdu, apduOffset, apduLength, response, responseOffset);
+		this.latency.pause(apduLength, len);
+		if (timed)
+			metrics.recordTransfer(apdu[apduOffset + 1], 0, System.nanoTime() - start);
+		return len;
+	}
+
+	/**
+	 * exchange command with the simulated dongle without hexadecimal conversion.
+	 * @param apdu byte[]
+	 * @return byte [] response : data followed by the status word
+	 * @throws DaplugException
+	 *
+	 */
+	public byte[] exchangeBytes(byte[] apdu) throws DaplugException {
+		byte[] response = new byte[RESPONSE_MAX_LEN];
+		int len = this.exchange(apdu, 0, apdu.length, response, 0);
+		return Arrays.copyOf(response, len);
+	}
+}
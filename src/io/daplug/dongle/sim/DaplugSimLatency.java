@@ -0,0 +1,139 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.dongle.sim;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An immutable latency model for the simulated Daplug dongle.
+ * The time spent by an APDU is a fixed part (card processing) plus a cost per transfer unit :
+ * a 64-bytes report in HID mode, a 512-bytes packet in WINUSB mode.
+ *
+ */
+public final class DaplugSimLatency {
+
+	/**
+	 * HID report size
+	 */
+	public static final int HID_BLOCK_SIZE = 64;
+
+	/**
+	 * WINUSB bulk packet size
+	 */
+	public static final int WINUSB_PACKET_SIZE = 512;
+
+	/**
+	 * No latency at all : the card answers as fast as it computes
+	 */
+	public static final DaplugSimLatency NONE = new DaplugSimLatency(0, 0, HID_BLOCK_SIZE, 0);
+
+	private final long perApduNanos;
+	private final long perUnitNanos;
+	private final int unitSize;
+	/* bytes added around the response by the transport framing (0x61 marker + length) */
+	private final int responseOverhead;
+
+	/**
+	 * Constructs a latency model
+	 * @param perApduNanos long fixed cost of an apdu (card processing time)
+	 * @param perUnitNanos long cost of one transfer unit (HID block or WINUSB packet)
+	 * @param unitSize int transfer unit size in bytes
+	 * @param responseOverhead int bytes added to the response by the transport framing
+	 */
+	public DaplugSimLatency(long perApduNanos, long perUnitNanos, int unitSize, int responseOverhead) {
+		if (unitSize <= 0)
+			throw new IllegalArgumentException("DaplugSimLatency() - Invalid unit size : " + unitSize);
+		this.perApduNanos = perApduNanos;
+		this.perUnitNanos = perUnitNanos;
+		this.unitSize = unitSize;
+		this.responseOverhead = responseOverhead;
+	}
+
+	/**
+	 * HID mode latency : each command and response is cut in 64-bytes reports
+	 * @param perApduNanos long fixed cost of an apdu
+	 * @param perBlockNanos long cost of one 64-bytes report
+	 * @return DaplugSimLatency
+	 */
+	public static DaplugSimLatency hid(long perApduNanos, long perBlockNanos) {
+		return new DaplugSimLatency(perApduNanos, perBlockNanos, HID_BLOCK_SIZE, 2);
+	}
+
+	/**
+	 * WINUSB mode latency : each command and response is cut in 512-bytes bulk packets
+	 * @param perApduNanos long fixed cost of an apdu
+	 * @param perPacketNanos long cost of one 512-bytes packet
+	 * @return DaplugSimLatency
+	 */
+	public static DaplugSimLatency winusb(long perApduNanos, long perPacketNanos) {
+		return new DaplugSimLatency(perApduNanos, perPacketNanos, WINUSB_PACKET_SIZE, 2);
+	}
+
+	/**
+	 * Computes the time spent on the link by an apdu exchange
+	 * @param commandLength int length of the command sent
+	 * @param responseLength int length of the response (data + status word)
+	 * @return long latency in nanoseconds
+	 */
+	public long latencyNanos(int commandLength, int responseLength) {
+		return this.perApduNanos + this.perUnitNanos * (units(commandLength) + units(responseLength + this.responseOverhead));
+	}
+
+	/**
+	 * Blocks the calling thread for the time spent on the link by an apdu exchange
+	 * @param commandLength int length of the command sent
+	 * @param responseLength int length of the response (data + status word)
+	 */
+	public void pause(int commandLength, int responseLength) {
+		long nanos = latencyNanos(commandLength, responseLength);
+		if (nanos <= 0)
+			return;
+		long deadline = System.nanoTime() + nanos;
+		while ((nanos = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(nanos);
+		}
+	}
+
+	private int units(int length) {
+		return (length + this.unitSize - 1) / this.unitSize;
+	}
+
+	/**
+	 * @return the fixed cost of an apdu in nanoseconds
+	 */
+	public long getPerApduNanos() {
+		return perApduNanos;
+	}
+
+	/**
+	 * @return the cost of one transfer unit in nanoseconds
+	 */
+	public long getPerUnitNanos() {
+		return perUnitNanos;
+	}
+
+	/**
+	 * @return the transfer unit size in bytes
+	 */
+	public int getUnitSize() {
+		return unitSize;
+	}
+}
@@ -20,26 +20,42 @@
 
 package io.daplug.dongle.winusb;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 import org.usb4java.*;
 
+import io.daplug.dongle.DaplugTimeoutPolicy;
 import io.daplug.dongle.IDaplugDongle;
+import io.daplug.exception.DaplugCommunicationException;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugTimeoutException;
+import io.daplug.metrics.DaplugDongleMetrics;
 import io.daplug.utils.DaplugUtils;
 
+/**
+ * A Daplug dongle in WINUSB mode. Each instance owns its device handle; the libusb context is
+ * shared by all the instances (DaplugUsbContext) and released by CloseContext().
+ * Sessions on different dongles exchange in parallel.
+ *
+ * The dongles are reached through the backend named by the daplug.winusb system property
+ * (see DaplugWinusbBackends) : usb4java by default.
+ *
+ */
 public class DaplugDongleWinusb implements IWinusb, IDaplugDongle {
 
-	private Context context = null;
-	private static Vector<Device> allDevices = new Vector<Device>();
-	private WinusbComm winusbcomm = null;
-	private Device device = null;
+	private final IWinusbBackend backend;
+	private volatile IWinusbComm winusbcomm = null;
+	private volatile DaplugDongleMetrics metrics = null;
+	private volatile DaplugTimeoutPolicy timeoutPolicy = null;
+	private volatile Device device = null;
+	private boolean released = false;
 
 	/**
-	 * Simple Constructor
+	 * Simple Constructor : no device is opened, the object can list the Daplug dongles
 	 */
 	public DaplugDongleWinusb() {
-		initContext();
-		this.ListAllDevices();
+		this.backend = DaplugWinusbBackends.create();
 	}
 
 	/**
@@ -49,55 +65,41 @@ public class DaplugDongleWinusb implements IWinusb, IDaplugDongle {
 	 *            Strimg
 	 */
 	public DaplugDongleWinusb(String path) {
-		initContext();
-		this.ListAllDevices();
-		this.device = (Device) this.openDevice(path);
-		this.winusbcomm = new WinusbComm(this.device);
-	}
-
-	/**
-	 * initialize the WinUSb Context. According to usb4java documentation, it
-	 * initialise the C++ WinUSB Struct
-	 * 
-	 */
-	private void initContext() {
-		this.context = new Context();
-		int result = LibUsb.init(context);
-		if (result != LibUsb.SUCCESS)
-			throw new LibUsbException("Unable to initialize libusb.", result);
+		this.backend = DaplugWinusbBackends.create();
+		try {
+			if (this.openDevice(path) == null)
+				throw new LibUsbException("Unable to find device " + path, LibUsb.ERROR_NOT_FOUND);
+		} catch (LibUsbException e) {
+			this.CloseContext();
+			throw e;
+		}
 	}
 
 	/**
-	 * free the Winusb C++ struct According to usb4java documentation
-	 * 
+	 * Closes the device handle (releasing its interface) and releases the backend (the shared libusb context is freed
+	 * with its last user)
 	 * 
 	 */
-	public void CloseContext() {
-		LibUsb.exit(this.context);
+	public synchronized void CloseContext() {
+		if (this.winusbcomm != null) {
+			this.winusbcomm.close();
+			this.winusbcomm = null;
+			this.device = null;
+		}
+		if (!this.released) {
+			this.released = true;
+			this.backend.release();
+		}
 	}
 
 	/**
 	 * List all devices on the computer.
 	 * 
-	 * @return Vector<Device>
+	 * @return Vector<String> paths of all the USB devices
 	 * 
 	 */
 	public Object ListAllDevices() {
-		DeviceList list = new DeviceList();
-		int result = LibUsb.getDeviceList(null, list);
-		if (result < 0)
-			throw new LibUsbException("Unable to get device list", result);
-		try {
-			for (Device device : list) {
-				allDevices.add(device);
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			// Ensure the allocated device list is freed
-			LibUsb.freeDeviceList(list, true);
-		}
-		return null;
+		return this.backend.listPaths();
 	}
 
 	/**
@@ -107,34 +109,18 @@ public class DaplugDongleWinusb implements IWinusb, IDaplugDongle {
 	 *            short
 	 * @param pid
 	 *            short
-	 * @return Vector<Device>
+	 * @return Vector<String> paths of the devices
 	 * 
 	 */
 	public Object ListAllDevices(int vid, int pid) {
-		Vector<Device> v_dev = new Vector<Device>();
-		try {
-			// Iterate over all devices and scan for the right one
-			for (Device device : allDevices) {
-				DeviceDescriptor descriptor = new DeviceDescriptor();
-				int result = LibUsb.getDeviceDescriptor(device, descriptor);
-				if (result != LibUsb.SUCCESS)
-					throw new LibUsbException(
-							"Unable to read device descriptor", result);
-				if (descriptor.idVendor() == (short) vid
-						&& descriptor.idProduct() == (short) pid)
-					v_dev.add(device); // return device;
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return v_dev;
+		return this.backend.listPaths(vid, pid);
 	}
 
 	/**
 	 * List all Devices on the Computer with the specific vid and pid value for
 	 * DaplugDongle
 	 * 
-	 * @return Vector<Device>
+	 * @return Vector<String> paths of the Daplug dongles
 	 * 
 	 */
 	public Object ListAllDaplug() {
@@ -181,56 +167,35 @@ public class DaplugDongleWinusb implements IWinusb, IDaplugDongle {
 	 */
 	public Vector<String> getPath() {
 		Vector<String> v_res = new Vector<String>();
-		for (Device device : allDevices) {
-			DeviceDescriptor des = new DeviceDescriptor();
-			LibUsb.getDeviceDescriptor(device, des);
-			int i = 0;
-			if (PRODUCT_ID == des.idProduct() && VENDOR_ID == des.idVendor()) {
-				StringBuilder sb = new StringBuilder();
-				sb.append(", WINUSB").append(",").append(device.getPointer())
-						.append(",").append("Plug-up");
-				v_res.addElement(sb.toString());
-				sb = null;
-				i++;
-			}
+		for (String path : this.backend.listPaths(VENDOR_ID, PRODUCT_ID)) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(", WINUSB").append(",").append(path)
+					.append(",").append("Plug-up");
+			v_res.addElement(sb.toString());
 		}
-		// [10/07/14] empty all Devices list to avoid multi-print
-		this.allDevices.clear();
 		return v_res;
 	}
 
 	/**
-	 * Open DaplugDongle with a specific vendor_id and product_id
+	 * List the Daplug Dongles with a specific vendor_id and product_id
 	 * 
 	 * @param vid
 	 *            int the product vendor_id
 	 * @param pid
 	 *            int the product product_id
-	 * @return Object open Daplug Dongle
+	 * @return Object Vector<String> paths of the devices
 	 * 
 	 */
 	@Override
 	public Object openDevice(int vid, int pid) {
-		Vector<Device> v_dev = new Vector<Device>();
-		for (Device device : allDevices) {
-			DeviceDescriptor descriptor = new DeviceDescriptor();
-			int result = LibUsb.getDeviceDescriptor(device, descriptor);
-			if (result != LibUsb.SUCCESS)
-				throw new LibUsbException("Unable to read device descriptor",
-						result);
-			if (descriptor.idVendor() == (short) vid
-					&& descriptor.idProduct() == (short) pid) {
-				v_dev.add(device);
-			}
-		}
-		return v_dev;
+		return this.backend.listPaths(vid, pid);
 	}
 
 	/**
-	 * Open a Daplug Dongle Winusb Interface with his specific vendor_id and
+	 * List the Daplug Dongles Winusb Interface with their specific vendor_id and
 	 * product_id
 	 * 
-	 * @return Device device
+	 * @return Object Vector<String> paths of the devices
 	 *
 	 */
 	public Object openDevice() {
@@ -238,25 +203,84 @@ public class DaplugDongleWinusb implements IWinusb, IDaplugDongle {
 	}
 
 	/**
-	 * Open a Specific Daplug Dongle with his path value. Please Notice that
-	 * this path is a only for use in this case
+	 * Open a Specific Daplug Dongle with his path value : this dongle exchanges with it
+	 * from now on. Please Notice that this path is a only for use in this case
 	 * 
 	 * @param path
 	 *            String
-	 * @return Object the open device
+	 * @return Object the open device (the usb4java Device, or the IWinusbComm of another backend),
+	 *         null if no Daplug dongle has this path or if the backend could not open it
 	 * 
 	 */
-	@SuppressWarnings("unchecked")
-	public Object openDevice(String path) {
-		int i = 0;
-		Vector<Device> v_dev = (Vector<Device>) this.openDevice();
-		for (Device device : v_dev) {
-			String pointer = String.valueOf(v_dev.elementAt(i).getPointer());
-			if (path.equals(pointer))
-				return device;
-			i++;
+	public synchronized Object openDevice(String path) {
+		if (this.winusbcomm != null) {
+			this.winusbcomm.close();
+			this.winusbcomm = null;
+			this.device = null;
+		}
+		IWinusbComm comm;
+		try {
+			comm = this.backend.open(path);
+		} catch (DaplugException e) {
+			System.err.println("openDevice(path) - " + e.getMessage());
+			return null;
 		}
-		return null;
+		if (comm == null)
+			return null;
+		comm.setMetrics(this.metrics);
+		comm.setTimeoutPolicy(this.timeoutPolicy);
+		this.winusbcomm = comm;
+		if (comm instanceof WinusbComm) {
+			this.device = ((WinusbComm) comm).getDevice();
+			return this.device;
+		}
+		if (comm instanceof WinusbAsyncComm) {
+			this.device = ((WinusbAsyncComm) comm).getDevice();
+			return this.device;
+		}
+		return comm;
+	}
+
+	/**
+	 * Sets the metrics receiving the write and read latencies of the exchanges
+	 * @param metrics DaplugDongleMetrics, null to record nothing
+	 */
+	public synchronized void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+		if (this.winusbcomm != null)
+			this.winusbcomm.setMetrics(metrics);
+	}
+
+	/**
+	 * Sets the policy giving the timeout of each exchange
+	 * @param timeoutPolicy DaplugTimeoutPolicy, null to apply IWinusb.TIMEOUT
+	 */
+	public synchronized void setTimeoutPolicy(DaplugTimeoutPolicy timeoutPolicy) {
+		this.timeoutPolicy = timeoutPolicy;
+		if (this.winusbcomm != null)
+			this.winusbcomm.setTimeoutPolicy(timeoutPolicy);
+	}
+
+	/**
+	 * @return IWinusbBackend the backend reaching this dongle
+	 */
+	public IWinusbBackend getBackend() {
+		return this.backend;
+	}
+
+	/**
+	 * @return IWinusbComm the exchanges with the open dongle (a WinusbAsyncComm with the "usb4java-async" backend,
+	 *         to submit exchanges without waiting) ; null if none
+	 */
+	public IWinusbComm getComm() {
+		return this.winusbcomm;
+	}
+
+	/**
+	 * @return the open device, null if none or if it is not opened by the usb4java backend
+	 */
+	public Device getDevice() {
+		return this.device;
 	}
 
 	/**
@@ -269,7 +293,7 @@ public class DaplugDongleWinusb implements IWinusb, IDaplugDongle {
 	 * 
 	 */
 	public String[] exchange(byte[] apdu) {
-		return this.winusbcomm.exchange(apdu);
+		return this.comm().exchange(apdu);
 	}
 
 	/**
@@ -282,7 +306,61 @@ public class DaplugDongleWinusb implements IWinusb, IDaplugDongle {
 	 * 
 	 */
 	public String[] exchange(String apdu) {
-		return this.winusbcomm.exchange(DaplugUtils.hexStringToByteArray(apdu));
+		return this.comm().exchange(DaplugUtils.hexStringToByteArray(apdu));
+	}
+
+	/**
+	 * make an exchange with a daplug dongle winusb without hexadecimal
+	 * conversion. The response is written in the given buffer : data first,
+	 * then the status word.
+	 * 
+	 * @param apdu
+	 *            byte [] buffer holding the apdu
+	 * @param apduOffset
+	 *            int offset of the apdu in the buffer
+	 * @param apduLength
+	 *            int length of the apdu
+	 * @param response
+	 *            byte [] buffer receiving the response
+	 * @param responseOffset
+	 *            int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugException
+	 * 
+	 */
+	public int exchange(byte[] apdu, int apduOffset, int apduLength,
+			byte[] response, int responseOffset) throws DaplugException {
+		try {
+			return this.comm().exchange(apdu, apduOffset, apduLength,
+					response, responseOffset);
+		} catch (LibUsbException e) {
+			if (e.getErrorCode() == LibUsb.ERROR_TIMEOUT)
+				throw new DaplugTimeoutException(e);
+			throw new DaplugCommunicationException(e);
+		}
+	}
+
+	/**
+	 * make an exchange with a daplug dongle winusb without hexadecimal
+	 * conversion.
+	 * 
+	 * @param apdu
+	 *            byte [] apdu to send to the dongle
+	 * @return byte [] response : data followed by the status word
+	 * @throws DaplugException
+	 * 
+	 */
+	public byte[] exchangeBytes(byte[] apdu) throws DaplugException {
+		byte[] response = new byte[PACKET_SIZE];
+		int len = this.exchange(apdu, 0, apdu.length, response, 0);
+		return Arrays.copyOf(response, len);
+	}
+
+	private IWinusbComm comm() {
+		IWinusbComm comm = this.winusbcomm;
+		if (comm == null)
+			throw new LibUsbException("No device opened", LibUsb.ERROR_NO_DEVICE);
+		return comm;
 	}
 
 }
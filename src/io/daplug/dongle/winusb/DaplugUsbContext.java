@@ -0,0 +1,249 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.dongle.winusb;
+
+import java.util.Vector;
+
+import org.usb4java.Context;
+import org.usb4java.Device;
+import org.usb4java.DeviceDescriptor;
+import org.usb4java.DeviceHandle;
+import org.usb4java.DeviceList;
+import org.usb4java.HotplugCallback;
+import org.usb4java.HotplugCallbackHandle;
+import org.usb4java.LibUsb;
+import org.usb4java.LibUsbException;
+
+/**
+ * The libusb context shared by all the WINUSB dongles of the process.
+ * The context is initialized by the first acquire() and freed by the last release() :
+ * each DaplugDongleWinusb acquires it once and releases it when closed.
+ * Enumeration and opening go through this context; a device is only referenced by the
+ * handle opened on it, so no Device object outlives a device list.
+ *
+ * All methods are thread-safe. Exchanges do not lock the context : each dongle owns its handle.
+ *
+ */
+public final class DaplugUsbContext implements IWinusb {
+
+	private static final DaplugUsbContext INSTANCE = new DaplugUsbContext();
+
+	private Context context = null;
+	private int references = 0;
+	private DaplugUsbEventLoop events = null;
+
+	private DaplugUsbContext() {
+	}
+
+	/**
+	 * Gets the shared context, initializing libusb on first use
+	 * @return DaplugUsbContext the shared context
+	 * @throws LibUsbException if libusb cannot be initialized
+	 */
+	public static DaplugUsbContext acquire() {
+		synchronized (INSTANCE) {
+			if (INSTANCE.references == 0) {
+				Context ctx = new Context();
+				int result = LibUsb.init(ctx);
+				if (result != LibUsb.SUCCESS)
+					throw new LibUsbException("Unable to initialize libusb.", result);
+				INSTANCE.context = ctx;
+			}
+			INSTANCE.references++;
+			return INSTANCE;
+		}
+	}
+
+	/**
+	 * Releases the shared context : libusb is freed when the last user releases it
+	 */
+	public void release() {
+		synchronized (INSTANCE) {
+			if (this.references == 0)
+				return;
+			if (--this.references == 0) {
+				LibUsb.exit(this.context);
+				this.context = null;
+			}
+		}
+	}
+
+	/**
+	 * @return Context the libusb context
+	 * @throws IllegalStateException if the context is not acquired
+	 */
+	public Context getContext() {
+		synchronized (INSTANCE) {
+			if (this.context == null)
+				throw new IllegalStateException("DaplugUsbContext - libusb context is not acquired");
+			return this.context;
+		}
+	}
+
+	/**
+	 * @return DaplugUsbEventLoop the thread running the asynchronous transfers of the context
+	 */
+	DaplugUsbEventLoop getEventLoop() {
+		synchronized (INSTANCE) {
+			if (this.events == null)
+				this.events = new DaplugUsbEventLoop(this);
+			return this.events;
+		}
+	}
+
+	/**
+	 * Lists the paths of all the USB devices.
+	 * The path of a device is its libusb pointer : it is only meaningful inside this process.
+	 * @return Vector<String> paths
+	 */
+	public Vector<String> listPaths() {
+		return listPaths(0, 0, false);
+	}
+
+	/**
+	 * Lists the paths of the devices with the given vendor_id and product_id.
+	 * @param vid int vendor_id
+	 * @param pid int product_id
+	 * @return Vector<String> paths
+	 */
+	public Vector<String> listPaths(int vid, int pid) {
+		return listPaths(vid, pid, true);
+	}
+
+	private Vector<String> listPaths(int vid, int pid, boolean filter) {
+		Vector<String> paths = new Vector<String>();
+		DeviceList list = new DeviceList();
+		int result = LibUsb.getDeviceList(getContext(), list);
+		if (result < 0)
+			throw new LibUsbException("Unable to get device list", result);
+		try {
+			for (Device device : list) {
+				if (!filter || matches(device, vid, pid))
+					paths.add(String.valueOf(device.getPointer()));
+			}
+		} finally {
+			LibUsb.freeDeviceList(list, true);
+		}
+		return paths;
+	}
+
+	/**
+	 * Opens a device by its path. The handle holds its own reference on the device.
+	 * @param path String device path, as given by listPaths()
+	 * @param handle DeviceHandle handle to open
+	 * @return Device the opened device, only valid while the handle is open; null if no device has this path
+	 * @throws LibUsbException if the device cannot be opened
+	 */
+	public Device open(String path, DeviceHandle handle) {
+		DeviceList list = new DeviceList();
+		int result = LibUsb.getDeviceList(getContext(), list);
+		if (result < 0)
+			throw new LibUsbException("Unable to get device list", result);
+		try {
+			for (Device device : list) {
+				if (matches(device, VENDOR_ID, PRODUCT_ID) && path.equals(String.valueOf(device.getPointer()))) {
+					result = LibUsb.open(device, handle);
+					if (result != LibUsb.SUCCESS)
+						throw new LibUsbException("Unable to open device " + path, result);
+					return device;
+				}
+			}
+		} finally {
+			LibUsb.freeDeviceList(list, true);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the serial number of a Daplug dongle : the device is opened and closed again.
+	 * @param path String device path, as given by listPaths()
+	 * @return String the serial number, null if the device has none or can not be opened
+	 */
+	public String readSerial(String path) {
+		DeviceHandle handle = new DeviceHandle();
+		try {
+			Device device = open(path, handle);
+			if (device == null)
+				return null;
+			try {
+				DeviceDescriptor descriptor = new DeviceDescriptor();
+				if (LibUsb.getDeviceDescriptor(device, descriptor) != LibUsb.SUCCESS || descriptor.iSerialNumber() == 0)
+					return null;
+				return LibUsb.getStringDescriptor(handle, descriptor.iSerialNumber());
+			} finally {
+				LibUsb.close(handle);
+			}
+		} catch (LibUsbException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return boolean true if libusb reports the arrival and removal of devices on this platform
+	 */
+	public boolean hasHotplug() {
+		return LibUsb.hasCapability(LibUsb.CAP_HAS_HOTPLUG);
+	}
+
+	/**
+	 * Registers a callback for the arrivals and removals of Daplug dongles in WINUSB mode.
+	 * The dongles already attached are reported as arrivals. Callbacks are run by handleEvents().
+	 * @param callback HotplugCallback
+	 * @return HotplugCallbackHandle handle to give to deregisterHotplug()
+	 * @throws LibUsbException if the callback can not be registered
+	 */
+	public HotplugCallbackHandle registerHotplug(HotplugCallback callback) {
+		HotplugCallbackHandle handle = new HotplugCallbackHandle();
+		int result = LibUsb.hotplugRegisterCallback(getContext(),
+				LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED | LibUsb.HOTPLUG_EVENT_DEVICE_LEFT, LibUsb.HOTPLUG_ENUMERATE,
+				VENDOR_ID, PRODUCT_ID, LibUsb.HOTPLUG_MATCH_ANY, callback, null, handle);
+		if (result != LibUsb.SUCCESS)
+			throw new LibUsbException("Unable to register hotplug callback", result);
+		return handle;
+	}
+
+	/**
+	 * Deregisters a hotplug callback
+	 * @param handle HotplugCallbackHandle
+	 */
+	public void deregisterHotplug(HotplugCallbackHandle handle) {
+		LibUsb.hotplugDeregisterCallback(getContext(), handle);
+	}
+
+	/**
+	 * Handles the pending libusb events (hotplug and transfer callbacks), waiting for them at most the given time
+	 * @param timeoutMicros long maximum wait in microseconds
+	 * @throws LibUsbException if event handling fails
+	 */
+	public void handleEvents(long timeoutMicros) {
+		int result = LibUsb.handleEventsTimeout(getContext(), timeoutMicros);
+		if (result != LibUsb.SUCCESS && result != LibUsb.ERROR_INTERRUPTED)
+			throw new LibUsbException("Unable to handle events", result);
+	}
+
+	private static boolean matches(Device device, int vid, int pid) {
+		DeviceDescriptor descriptor = new DeviceDescriptor();
+		int result = LibUsb.getDeviceDescriptor(device, descriptor);
+		if (result != LibUsb.SUCCESS)
+			throw new LibUsbException("Unable to read device descriptor", result);
+		return descriptor.idVendor() == (short) vid && descriptor.idProduct() == (short) pid;
+	}
+}
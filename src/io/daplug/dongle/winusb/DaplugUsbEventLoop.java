@@ -0,0 +1,106 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.usb4java.LibUsbException;
+
+/**
+ * The thread handling the libusb events of the shared context for all the asynchronous WINUSB dongles :
+ * the transfer callbacks of every WinusbAsyncComm run on it. It is started by the first registered dongle
+ * and stopped when the last one is closed, so the number of threads does not grow with the dongles.
+ *
+ * Between two event waits, the registered dongles expire the exchanges which got no response in time.
+ *
+ */
+final class DaplugUsbEventLoop implements Runnable {
+
+	/**
+	 * Maximum wait for events, in microseconds : the resolution of the exchange timeouts
+	 */
+	static final long TICK_MICROS = 100000L;
+
+	private final DaplugUsbContext usb;
+	private final List<WinusbAsyncComm> comms = new CopyOnWriteArrayList<WinusbAsyncComm>();
+	private volatile Thread thread = null;
+
+	DaplugUsbEventLoop(DaplugUsbContext usb) {
+		this.usb = usb;
+	}
+
+	/**
+	 * Registers a dongle, starting the event thread if needed
+	 * @param comm WinusbAsyncComm
+	 */
+	synchronized void register(WinusbAsyncComm comm) {
+		this.comms.add(comm);
+		if (this.thread == null) {
+			Thread t = new Thread(this, "daplug-usb-events");
+			t.setDaemon(true);
+			this.thread = t;
+			t.start();
+		}
+	}
+
+	/**
+	 * Unregisters a dongle. The event thread is stopped with the last one, and joined unless it is the caller.
+	 * @param comm WinusbAsyncComm
+	 */
+	void unregister(WinusbAsyncComm comm) {
+		Thread t;
+		synchronized (this) {
+			this.comms.remove(comm);
+			if (!this.comms.isEmpty() || this.thread == null)
+				return;
+			t = this.thread;
+			this.thread = null;
+		}
+		if (t == Thread.currentThread())
+			return;
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return boolean true if the caller is the event thread (a transfer callback)
+	 */
+	boolean isEventThread() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	public void run() {
+		// a new thread may be started while this one is stopping : each one runs while it is the current one
+		while (this.thread == Thread.currentThread()) {
+			try {
+				this.usb.handleEvents(TICK_MICROS);
+			} catch (LibUsbException e) {
+				System.err.println("DaplugUsbEventLoop - " + e.getMessage());
+			}
+			long now = System.nanoTime();
+			for (WinusbAsyncComm comm : this.comms)
+				comm.expire(now);
+		}
+	}
+}
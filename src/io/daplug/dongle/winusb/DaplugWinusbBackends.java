@@ -0,0 +1,89 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Selects the backend of the WINUSB dongles. The daplug.winusb system property names it : "usb4java" (the default),
+ * "usb4java-async" (asynchronous transfers run by one event thread for all the dongles, see WinusbAsyncComm)
+ * or the name of a backend registered in META-INF/services/io.daplug.dongle.winusb.IWinusbBackend, such as "ffm"
+ * for the daplug-libusb-ffm module. An unknown or unavailable backend falls back to usb4java.
+ *
+ */
+public final class DaplugWinusbBackends {
+
+	/**
+	 * System property naming the WINUSB backend
+	 */
+	public static final String BACKEND_PROPERTY = "daplug.winusb";
+
+	/**
+	 * Name of the built in backend
+	 */
+	public static final String USB4JAVA = Usb4javaWinusbBackend.NAME;
+
+	/**
+	 * Name of the built in backend with asynchronous transfers
+	 */
+	public static final String USB4JAVA_ASYNC = Usb4javaWinusbBackend.ASYNC_NAME;
+
+	private DaplugWinusbBackends() {
+	}
+
+	/**
+	 * Creates the backend named by the daplug.winusb system property
+	 * @return IWinusbBackend a new backend, to release when no longer used
+	 */
+	public static IWinusbBackend create() {
+		return create(System.getProperty(BACKEND_PROPERTY, USB4JAVA));
+	}
+
+	/**
+	 * Creates a backend by its name
+	 * @param name String "usb4java", "usb4java-async" or the name of a registered backend
+	 * @return IWinusbBackend a new backend, to release when no longer used
+	 */
+	public static IWinusbBackend create(String name) {
+		if (USB4JAVA_ASYNC.equalsIgnoreCase(name))
+			return new Usb4javaWinusbBackend(true);
+		if (name != null && !USB4JAVA.equalsIgnoreCase(name)) {
+			// the service loader creates new instances on each lookup
+			Iterator<IWinusbBackend> backends = ServiceLoader.load(IWinusbBackend.class).iterator();
+			try {
+				while (backends.hasNext()) {
+					IWinusbBackend backend = backends.next();
+					if (name.equalsIgnoreCase(backend.getName()))
+						return backend;
+				}
+				System.err.println("DaplugWinusbBackends - WINUSB backend " + name + " not found, using " + USB4JAVA);
+			} catch (ServiceConfigurationError e) {
+				System.err.println("DaplugWinusbBackends - WINUSB backend " + name + " not available, using " + USB4JAVA
+						+ " : " + e.getMessage());
+			} catch (LinkageError e) {
+				System.err.println("DaplugWinusbBackends - WINUSB backend " + name + " not available, using " + USB4JAVA
+						+ " : " + e.getMessage());
+			}
+		}
+		return new Usb4javaWinusbBackend(false);
+	}
+}
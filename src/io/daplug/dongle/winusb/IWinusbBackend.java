@@ -0,0 +1,68 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb;
+
+import java.util.Vector;
+
+import io.daplug.exception.DaplugException;
+
+/**
+ * A library reaching the WINUSB dongles : usb4java, built in, or another backend found with java.util.ServiceLoader
+ * (such as the daplug-libusb-ffm module, which binds libusb through java.lang.foreign).
+ * DaplugWinusbBackends creates one backend per DaplugDongleWinusb ; release() frees what it holds.
+ *
+ * A backend lists the dongles by path : the address of the libusb device, only meaningful inside this process
+ * and for the backend which listed it.
+ *
+ */
+public interface IWinusbBackend {
+
+	/**
+	 * @return String name of the backend, as given to the daplug.winusb system property
+	 */
+	public String getName();
+
+	/**
+	 * Lists the paths of all the USB devices
+	 * @return Vector<String> paths
+	 */
+	public Vector<String> listPaths();
+
+	/**
+	 * Lists the paths of the devices with the given vendor_id and product_id
+	 * @param vid int vendor_id
+	 * @param pid int product_id
+	 * @return Vector<String> paths
+	 */
+	public Vector<String> listPaths(int vid, int pid);
+
+	/**
+	 * Opens a Daplug dongle by its path
+	 * @param path String device path, as given by listPaths()
+	 * @return IWinusbComm the exchanges with the opened dongle, owned by the caller ; null if no dongle has this path
+	 * @throws DaplugException if the dongle can not be opened
+	 */
+	public IWinusbComm open(String path) throws DaplugException;
+
+	/**
+	 * Releases the library resources held by this backend. The opened dongles must be closed first.
+	 */
+	public void release();
+}
@@ -1,5 +1,9 @@
 package io.daplug.dongle.winusb;
 
+import io.daplug.dongle.DaplugTimeoutPolicy;
+import io.daplug.exception.DaplugException;
+import io.daplug.metrics.DaplugDongleMetrics;
+
 public interface IWinusbComm {
 	
 	/**
@@ -12,4 +16,35 @@ public interface IWinusbComm {
 	 * 
 	 */
 	public String[] exchange(byte[] apdu);
+	
+	/**
+	 * make an exchange with a daplug dongle winusb without hexadecimal conversion.
+	 * The response is written in the given buffer : data first, then the status word.
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugException if the backend reports the transfer errors as exceptions of the API
+	 * 
+	 */
+	public int exchange(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset) throws DaplugException;
+	
+	/**
+	 * Sets the metrics receiving the write and read latencies of the exchanges
+	 * @param metrics DaplugDongleMetrics, null to record nothing
+	 */
+	public void setMetrics(DaplugDongleMetrics metrics);
+	
+	/**
+	 * Sets the policy giving the timeout of each exchange, IWinusb.TIMEOUT at most
+	 * @param timeoutPolicy DaplugTimeoutPolicy, null to apply IWinusb.TIMEOUT
+	 */
+	public void setTimeoutPolicy(DaplugTimeoutPolicy timeoutPolicy);
+	
+	/**
+	 * Closes the device handle. Next exchanges fail.
+	 */
+	public void close();
 }
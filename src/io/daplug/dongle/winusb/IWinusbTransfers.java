@@ -0,0 +1,65 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The two bulk transfers of a WinusbAsyncComm : the OUT transfer writing the commands and the IN transfer
+ * reading the responses. The libusb transfers complete by calling WinusbAsyncComm.written() and received()
+ * on the event thread ; a stand-in lets the tests drive the exchanges without a USB bus.
+ * The results and the statuses are those of LibUsb.
+ *
+ */
+interface IWinusbTransfers {
+
+	/**
+	 * Submits the OUT transfer
+	 * @param length int length of the command, at the start of the OUT buffer
+	 * @param timeout int timeout of the write in ms
+	 * @return int LibUsb.SUCCESS or the libusb error
+	 */
+	int submitOut(int length, int timeout);
+
+	/**
+	 * Submits the IN transfer
+	 * @param buffer ByteBuffer view of the IN buffer receiving the read, read up to its capacity
+	 * @param timeout int timeout of the read in ms, 0 to wait for a response without timeout
+	 * @return int LibUsb.SUCCESS or the libusb error
+	 */
+	int submitIn(ByteBuffer buffer, int timeout);
+
+	/**
+	 * Cancels the submitted IN transfer : it completes with LibUsb.TRANSFER_CANCELLED
+	 * @return int LibUsb.SUCCESS, or the libusb error if it is no longer submitted
+	 */
+	int cancelIn();
+
+	/**
+	 * Cancels the submitted OUT transfer : it completes with LibUsb.TRANSFER_CANCELLED
+	 * @return int LibUsb.SUCCESS, or the libusb error if it is no longer submitted
+	 */
+	int cancelOut();
+
+	/**
+	 * Frees the transfers, no longer submitted
+	 */
+	void free();
+}
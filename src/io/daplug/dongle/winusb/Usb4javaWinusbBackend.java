@@ -0,0 +1,92 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb;
+
+import java.util.Vector;
+
+import org.usb4java.Device;
+import org.usb4java.DeviceHandle;
+
+/**
+ * The usb4java backend : the libusb context shared by the process (DaplugUsbContext) and WinusbComm,
+ * or WinusbAsyncComm for the "usb4java-async" backend.
+ *
+ */
+final class Usb4javaWinusbBackend implements IWinusbBackend {
+
+	/**
+	 * Name of this backend
+	 */
+	static final String NAME = "usb4java";
+
+	/**
+	 * Name of this backend with asynchronous transfers
+	 */
+	static final String ASYNC_NAME = "usb4java-async";
+
+	private final DaplugUsbContext usb;
+	private final boolean async;
+	private boolean released = false;
+
+	/**
+	 * Acquires the shared libusb context
+	 * @param async boolean true to exchange through asynchronous transfers (WinusbAsyncComm)
+	 * @throws org.usb4java.LibUsbException if libusb cannot be initialized
+	 */
+	Usb4javaWinusbBackend(boolean async) {
+		this.usb = DaplugUsbContext.acquire();
+		this.async = async;
+	}
+
+	public String getName() {
+		return this.async ? ASYNC_NAME : NAME;
+	}
+
+	public Vector<String> listPaths() {
+		return this.usb.listPaths();
+	}
+
+	public Vector<String> listPaths(int vid, int pid) {
+		return this.usb.listPaths(vid, pid);
+	}
+
+	/**
+	 * Opens a Daplug dongle by its path
+	 * @param path String device path, as given by listPaths()
+	 * @return IWinusbComm the exchanges with the opened dongle (WinusbComm or WinusbAsyncComm),
+	 *         null if no dongle has this path
+	 * @throws org.usb4java.LibUsbException if the dongle can not be opened
+	 */
+	public IWinusbComm open(String path) {
+		DeviceHandle handle = new DeviceHandle();
+		Device device = this.usb.open(path, handle);
+		if (device == null)
+			return null;
+		WinusbComm comm = new WinusbComm(device, handle);
+		return this.async ? new WinusbAsyncComm(this.usb, comm) : comm;
+	}
+
+	public synchronized void release() {
+		if (!this.released) {
+			this.released = true;
+			this.usb.release();
+		}
+	}
+}
@@ -0,0 +1,599 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.usb4java.BufferUtils;
+import org.usb4java.Device;
+import org.usb4java.LibUsb;
+import org.usb4java.LibUsbException;
+import org.usb4java.Transfer;
+import org.usb4java.TransferCallback;
+
+import io.daplug.dongle.DaplugExchangeFuture;
+import io.daplug.dongle.DaplugTimeoutPolicy;
+import io.daplug.exception.DaplugCommunicationException;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugTimeoutException;
+import io.daplug.jfr.DaplugFlightRecorder;
+import io.daplug.metrics.DaplugDongleMetrics;
+import io.daplug.metrics.DaplugMetrics;
+import io.daplug.session.DaplugCallback;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Exchanges with one WINUSB dongle through libusb asynchronous transfers. No thread waits for the dongle :
+ * the transfers of all the dongles complete on the event thread of the shared context (DaplugUsbEventLoop),
+ * which completes the DaplugExchangeFuture of each exchange.
+ *
+ * Each dongle owns two transfers allocated once : the OUT transfer, submitted with each command, and the IN
+ * transfer, submitted when the dongle is opened and again after each response, so a response never waits
+ * for a read to be submitted. It reads one packet, then the rest of the frame its header declares
+ * (see WinusbFraming). Exchanges on the same dongle are queued and sent one at a time.
+ *
+ * An exchange timed out by expire() may still be answered : before the next command is sent, the IN transfer
+ * reads with a short timeout and drops what it reads, until a read times out.
+ *
+ * The handle and its claimed interface are those of the WinusbComm given to the constructor.
+ *
+ */
+public class WinusbAsyncComm implements IWinusb, IWinusbComm {
+
+	/* an exchange, queued then in flight */
+	private static final class Pending {
+		final byte[] apdu, response;
+		final int apduOffset, apduLength, responseOffset;
+		final DaplugExchangeFuture future = new DaplugExchangeFuture();
+		long deadline, sending, written;
+		int timeout = TIMEOUT;
+		boolean sent = false, timedOut = false;
+		Object event = null;
+		/* outcome, set with the lock held, reported once the lock is released */
+		int received = 0, length = 0;
+		DaplugException failure = null;
+
+		Pending(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset) {
+			this.apdu = apdu;
+			this.apduOffset = apduOffset;
+			this.apduLength = apduLength;
+			this.response = response;
+			this.responseOffset = responseOffset;
+		}
+	}
+
+	// the period of the reads dropping a late response, as WinusbComm does
+	private static final int DRAIN_TIMEOUT = 1;
+
+	// comm and loop are null with the transfers of a test : it runs the callbacks and expire() itself
+	private final WinusbComm comm;
+	private final DaplugUsbEventLoop loop;
+	private final IWinusbTransfers transfers;
+	private final ByteBuffer outBuffer, inBuffer;
+	// reads[0] : the first packet of a frame, reads[k] : k packets following the first one (see WinusbComm)
+	private final ByteBuffer[] reads;
+	private final int packetSize;
+	private int reading = 0;
+	private final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+	private Pending current = null;
+	private boolean outSubmitted = false, inSubmitted = false, cancelling = false;
+	private boolean closed = false, lost = false;
+	// an expired exchange may still be answered : the IN transfer drains its response before the next command
+	private boolean stale = false;
+	private volatile DaplugDongleMetrics metrics = null;
+	private volatile DaplugTimeoutPolicy timeoutPolicy = null;
+
+	/**
+	 * Makes the exchanges of an opened dongle asynchronous : the IN transfer is submitted
+	 * @param usb DaplugUsbContext the shared context, whose event thread runs the transfers
+	 * @param comm WinusbComm the opened dongle, owned by this object from now on
+	 * @throws LibUsbException if the transfers can not be submitted (the dongle is closed)
+	 */
+	public WinusbAsyncComm(DaplugUsbContext usb, WinusbComm comm) {
+		this.comm = comm;
+		this.loop = usb.getEventLoop();
+		this.packetSize = comm.getPacketSize();
+		this.outBuffer = BufferUtils.allocateByteBuffer(PACKET_SIZE);
+		this.inBuffer = BufferUtils.allocateByteBuffer(WinusbFraming.bufferSize(this.packetSize));
+		this.reads = reads(this.inBuffer, this.packetSize);
+		this.transfers = new LibusbTransfers(this, comm, this.outBuffer, this.reads[0]);
+		this.loop.register(this);
+		this.start();
+	}
+
+	/**
+	 * Exchanges through the given transfers, without event thread : the caller completes the transfers
+	 * with written() and received(), and calls expire()
+	 * @param transfers IWinusbTransfers the transfers
+	 * @param packetSize int size of the packets read from the IN endpoint
+	 * @param outBuffer ByteBuffer OUT buffer, PACKET_SIZE bytes, where the commands are written
+	 * @param inBuffer ByteBuffer IN buffer, WinusbFraming.bufferSize(packetSize) bytes
+	 */
+	WinusbAsyncComm(IWinusbTransfers transfers, int packetSize, ByteBuffer outBuffer, ByteBuffer inBuffer) {
+		this.comm = null;
+		this.loop = null;
+		this.packetSize = packetSize;
+		this.outBuffer = outBuffer;
+		this.inBuffer = inBuffer;
+		this.reads = reads(inBuffer, packetSize);
+		this.transfers = transfers;
+		this.start();
+	}
+
+	/* reads[0] : the first packet, reads[k] : k packets following it */
+	private static ByteBuffer[] reads(ByteBuffer inBuffer, int packetSize) {
+		ByteBuffer[] reads = new ByteBuffer[inBuffer.capacity() / packetSize];
+		reads[0] = WinusbComm.slice(inBuffer, 0, packetSize);
+		for (int k = 1; k < reads.length; k++)
+			reads[k] = WinusbComm.slice(inBuffer, packetSize, k * packetSize);
+		return reads;
+	}
+
+	/* submits the IN transfer, the first read of the responses */
+	private void start() {
+		int result;
+		synchronized (this) {
+			result = this.submitIn();
+		}
+		if (result != LibUsb.SUCCESS) {
+			this.release();
+			throw new LibUsbException("Unable to submit the IN transfer", result);
+		}
+	}
+
+	/**
+	 * Sets the metrics receiving the write and read latencies of the exchanges
+	 * @param metrics DaplugDongleMetrics, null to record nothing
+	 */
+	public void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void setTimeoutPolicy(DaplugTimeoutPolicy timeoutPolicy) {
+		this.timeoutPolicy = timeoutPolicy;
+	}
+
+	/**
+	 * @return Device the device of the handle
+	 */
+	public Device getDevice() {
+		return (this.comm == null) ? null : this.comm.getDevice();
+	}
+
+	/**
+	 * Queues an exchange. The apdu and response buffers belong to the exchange until it is done.
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response : data first, then the status word
+	 * @param responseOffset int offset where the response is written
+	 * @return DaplugExchangeFuture the response length (data length + 2), completed on the event thread
+	 */
+	public DaplugExchangeFuture submit(byte[] apdu, int apduOffset, int apduLength, byte[] response,
+			int responseOffset) {
+		Pending p = new Pending(apdu, apduOffset, apduLength, response, responseOffset);
+		List<Pending> done = null;
+		synchronized (this) {
+			if (this.closed || this.lost) {
+				p.failure = new DaplugCommunicationException("exchange() - Device is " + (this.closed ? "closed" : "gone"));
+				done = report(null, p);
+			} else if (apduLength > PACKET_SIZE) {
+				p.failure = new DaplugCommunicationException("exchange() - apdu too long : " + apduLength);
+				done = report(null, p);
+			} else {
+				this.queue.add(p);
+				done = this.startNext(null);
+			}
+		}
+		finish(done);
+		return p.future;
+	}
+
+	/**
+	 * Queues an exchange and registers a callback, run on the event thread once it is done
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response : data first, then the status word
+	 * @param responseOffset int offset where the response is written
+	 * @param callback DaplugCallback<Integer> receiving the response length or the DaplugException of the failure
+	 */
+	public void submit(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset,
+			DaplugCallback<? super Integer> callback) {
+		this.submit(apdu, apduOffset, apduLength, response, responseOffset).addCallback(callback);
+	}
+
+	/**
+	 * make an exchange with a daplug dongle winusb without hexadecimal conversion : the calling thread waits
+	 * for the future of the exchange. The response is written in the given buffer : data first, then the status word.
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * @throws DaplugTimeoutException if the dongle did not answer in time
+	 * @throws DaplugException if the exchange failed
+	 */
+	public int exchange(byte[] apdu, int apduOffset, int apduLength, byte[] response, int responseOffset)
+			throws DaplugException {
+		if (this.loop != null && this.loop.isEventThread())
+			throw new IllegalStateException("exchange() - blocking exchange on the libusb event thread");
+		DaplugExchangeFuture future = this.submit(apdu, apduOffset, apduLength, response, responseOffset);
+		try {
+			// expire() fails the exchange after its timeout, TIMEOUT at most : the margin covers the queued exchanges
+			return future.await(TIMEOUT * 2L, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DaplugCommunicationException("exchange() - Interrupted");
+		}
+	}
+
+	/**
+	 * make an exchange with a daplug dongle winusb.
+	 * return value is a String [] with 2 values :
+	 * first the data received if exist
+	 * second the status word
+	 * @param apdu byte [] apdu to send to the dongle
+	 * @return String[2] result, null if the exchange failed
+	 */
+	public String[] exchange(byte[] apdu) {
+		byte[] response = new byte[PACKET_SIZE];
+		try {
+			int len = this.exchange(apdu, 0, apdu.length, response, 0);
+			return DaplugUtils.responseToHexStrings(response, 0, len);
+		} catch (DaplugException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Fails the pending exchanges, cancels the transfers, then releases the interface and closes the handle.
+	 * It must not be called from a completion callback.
+	 */
+	public void close() {
+		if (this.loop != null && this.loop.isEventThread())
+			throw new IllegalStateException("close() - a dongle can not be closed from a transfer callback");
+		List<Pending> done;
+		synchronized (this) {
+			if (this.closed)
+				return;
+			this.closed = true;
+			done = this.failAll(new DaplugCommunicationException("exchange() - Device is closed"));
+			if (this.inSubmitted)
+				this.transfers.cancelIn();
+			if (this.outSubmitted)
+				this.transfers.cancelOut();
+			// the cancelled transfers complete on the event thread
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+			try {
+				while (this.inSubmitted || this.outSubmitted) {
+					long left = deadline - System.nanoTime();
+					if (left <= 0)
+						break;
+					TimeUnit.NANOSECONDS.timedWait(this, left);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		finish(done);
+		this.release();
+	}
+
+	/* frees the transfers once they are no longer submitted, then closes the handle */
+	private void release() {
+		boolean free;
+		synchronized (this) {
+			free = !this.inSubmitted && !this.outSubmitted;
+		}
+		if (this.loop != null)
+			this.loop.unregister(this);
+		if (free)
+			this.transfers.free();
+		else
+			System.err.println("close() - transfers still submitted, not freed");
+		if (this.comm != null)
+			this.comm.close();
+	}
+
+	/**
+	 * Event thread : the command is written
+	 * @param status int status of the OUT transfer
+	 */
+	void written(int status) {
+		List<Pending> done = null;
+		synchronized (this) {
+			this.outSubmitted = false;
+			Pending p = this.current;
+			if (this.closed) {
+				notifyAll();
+				return;
+			}
+			if (p == null) {
+				// already answered : the response completed first
+				done = this.startNext(null);
+			} else if (status == LibUsb.TRANSFER_COMPLETED) {
+				p.sent = true;
+				if (p.sending != 0)
+					p.written = System.nanoTime();
+			} else {
+				this.current = null;
+				p.timedOut = (status == LibUsb.TRANSFER_TIMED_OUT);
+				p.failure = failure("Unable to send data", status);
+				done = report(null, p);
+				if (status == LibUsb.TRANSFER_NO_DEVICE)
+					done = this.lose(done);
+				else
+					done = this.startNext(done);
+			}
+		}
+		finish(done);
+	}
+
+	/**
+	 * Event thread : a response is read, or the IN transfer is cancelled or timed out
+	 * @param status int status of the IN transfer
+	 * @param actualLength int bytes read
+	 */
+	void received(int status, int actualLength) {
+		List<Pending> done = null;
+		synchronized (this) {
+			this.inSubmitted = false;
+			if (this.closed) {
+				notifyAll();
+				return;
+			}
+			Pending p = this.current;
+			if (status == LibUsb.TRANSFER_NO_DEVICE) {
+				done = this.lose(null);
+			} else {
+				boolean more = false;
+				if (status == LibUsb.TRANSFER_CANCELLED) {
+					// expired exchange, already failed
+					this.cancelling = false;
+				} else if (status == LibUsb.TRANSFER_TIMED_OUT && p == null) {
+					// a drain read : no late response is left, the next command may be sent
+					this.stale = false;
+				} else if (p != null) {
+					// the OUT transfer may complete after the response : p.sent is not required
+					if (status == LibUsb.TRANSFER_COMPLETED) {
+						more = this.frame(p, actualLength);
+					} else {
+						p.failure = failure("Unable to read data", status);
+					}
+					if (!more) {
+						this.current = null;
+						done = report(null, p);
+					}
+				}
+				// else : a late response of an expired exchange, dropped
+				if (!more)
+					this.reading = 0;
+				int result = this.submitIn();
+				if (result != LibUsb.SUCCESS) {
+					System.err.println("received() - Unable to submit the IN transfer : " + LibUsb.strError(result));
+					done = this.lose(done);
+				} else {
+					done = this.startNext(done);
+				}
+			}
+		}
+		finish(done);
+	}
+
+	/**
+	 * With the lock held : adds a read to the frame of the exchange in flight, copies its response once complete
+	 * @param p Pending exchange in flight
+	 * @param received int bytes received by the completed read
+	 * @return boolean true if the rest of the frame is to be read
+	 */
+	private boolean frame(Pending p, int received) {
+		boolean first = (this.reading == 0);
+		p.received += received;
+		int frameLength = WinusbFraming.frameLength(this.inBuffer, p.received);
+		if (frameLength < 0) {
+			p.failure = new DaplugCommunicationException("exchange() - Invalid response of " + p.received + " bytes");
+			return false;
+		}
+		if (p.received < frameLength) {
+			if (!first || received != this.packetSize) {
+				p.failure = new DaplugCommunicationException("exchange() - Truncated response : " + p.received
+						+ " of " + frameLength + " bytes");
+				return false;
+			}
+			// then the rest of the frame, by whole packets
+			this.reading = WinusbFraming.readLength(frameLength - received, this.packetSize) / this.packetSize;
+			return true;
+		}
+		p.length = WinusbFraming.copyResponse(this.inBuffer, frameLength, p.response, p.responseOffset);
+		return false;
+	}
+
+	/**
+	 * Event thread : fails the exchange in flight if its response is late, and cancels the read.
+	 * The late response is drained before the next command, so that it is not taken for the next response.
+	 * @param now long System.nanoTime()
+	 */
+	void expire(long now) {
+		List<Pending> done = null;
+		synchronized (this) {
+			Pending p = this.current;
+			if (p == null || !p.sent || now - p.deadline < 0)
+				return;
+			this.current = null;
+			p.timedOut = true;
+			p.failure = new DaplugTimeoutException("exchange() - No response from the dongle after "
+					+ p.timeout + " ms");
+			done = report(null, p);
+			this.stale = true;
+			if (this.inSubmitted && this.transfers.cancelIn() == LibUsb.SUCCESS)
+				this.cancelling = true;
+		}
+		finish(done);
+	}
+
+	/* with the lock held : sends the next queued command if the dongle is idle */
+	private List<Pending> startNext(List<Pending> done) {
+		while (this.current == null && !this.cancelling && !this.stale && !this.outSubmitted && !this.queue.isEmpty()) {
+			Pending p = this.queue.poll();
+			DaplugDongleMetrics metrics = this.metrics;
+			boolean timed = metrics != null && p.apduLength > 1 && DaplugMetrics.isEnabled();
+			p.sending = timed ? System.nanoTime() : 0;
+			p.event = DaplugFlightRecorder.beginTransfer();
+			if (p.apduLength > 1)
+				p.timeout = DaplugTimeoutPolicy.timeoutMillis(this.timeoutPolicy, p.apdu[p.apduOffset + 1], TIMEOUT);
+			p.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(p.timeout);
+			this.outBuffer.clear();
+			this.outBuffer.put(p.apdu, p.apduOffset, p.apduLength);
+			int result = this.transfers.submitOut(p.apduLength, p.timeout);
+			if (result == LibUsb.SUCCESS) {
+				this.outSubmitted = true;
+				this.current = p;
+			} else {
+				p.failure = new DaplugCommunicationException("exchange() - Unable to send data : "
+						+ LibUsb.strError(result));
+				done = report(done, p);
+			}
+		}
+		return done;
+	}
+
+	/* with the lock held : the device is gone, every exchange fails */
+	private List<Pending> lose(List<Pending> done) {
+		this.lost = true;
+		List<Pending> failed = this.failAll(new DaplugCommunicationException("exchange() - Device is gone"));
+		if (done == null)
+			return failed;
+		done.addAll(failed);
+		return done;
+	}
+
+	/* with the lock held */
+	private List<Pending> failAll(DaplugException failure) {
+		List<Pending> done = null;
+		if (this.current != null) {
+			this.current.failure = failure;
+			done = report(done, this.current);
+			this.current = null;
+		}
+		Pending p;
+		while ((p = this.queue.poll()) != null) {
+			p.failure = failure;
+			done = report(done, p);
+		}
+		return done;
+	}
+
+	/* with the lock held : reads reads[reading], with the short timeout of the drain while a late response may come */
+	private int submitIn() {
+		int result = this.transfers.submitIn(this.reads[this.reading], this.stale ? DRAIN_TIMEOUT : 0);
+		this.inSubmitted = (result == LibUsb.SUCCESS);
+		return result;
+	}
+
+	private static List<Pending> report(List<Pending> done, Pending p) {
+		if (done == null)
+			done = new ArrayList<Pending>(2);
+		done.add(p);
+		return done;
+	}
+
+	/* without the lock : records and completes the finished exchanges, callbacks may queue new ones */
+	private void finish(List<Pending> done) {
+		if (done == null)
+			return;
+		DaplugDongleMetrics metrics = this.metrics;
+		for (Pending p : done) {
+			boolean ok = p.failure == null;
+			if (p.event != null)
+				DaplugFlightRecorder.endTransfer(p.event, "WINUSB-ASYNC", p.sent ? 1 : 0, ok ? 1 : 0,
+						p.sent ? p.apduLength : 0, p.received, p.timedOut);
+			if (ok && p.sending != 0 && p.written != 0 && metrics != null)
+				metrics.recordTransfer(p.apdu[p.apduOffset + 1], p.written - p.sending, System.nanoTime() - p.written);
+			p.future.finish(p.length, p.failure);
+		}
+	}
+
+	private static DaplugCommunicationException failure(String message, int status) {
+		if (status == LibUsb.TRANSFER_TIMED_OUT)
+			return new DaplugTimeoutException("exchange() - " + message + " : transfer timed out");
+		return new DaplugCommunicationException("exchange() - " + message + " : transfer status " + status);
+	}
+
+	/* the libusb transfers of an opened dongle, completed on the event thread */
+	private static final class LibusbTransfers implements IWinusbTransfers {
+		private final Transfer out, in;
+		private ByteBuffer reading;
+
+		LibusbTransfers(final WinusbAsyncComm async, WinusbComm comm, ByteBuffer outBuffer, ByteBuffer inBuffer) {
+			this.out = LibUsb.allocTransfer();
+			this.in = LibUsb.allocTransfer();
+			this.reading = inBuffer;
+			LibUsb.fillBulkTransfer(this.out, comm.getHandle(), (byte) comm.getOutputEndpoint(), outBuffer,
+					new TransferCallback() {
+						public void processTransfer(Transfer transfer) {
+							async.written(transfer.status());
+						}
+					}, null, TIMEOUT);
+			// the IN transfer waits for the responses without timeout : expire() times the exchanges out
+			LibUsb.fillBulkTransfer(this.in, comm.getHandle(), (byte) comm.getInputEndpoint(), inBuffer,
+					new TransferCallback() {
+						public void processTransfer(Transfer transfer) {
+							async.received(transfer.status(), transfer.actualLength());
+						}
+					}, null, 0);
+		}
+
+		public int submitOut(int length, int timeout) {
+			this.out.setLength(length);
+			this.out.setTimeout(timeout);
+			return LibUsb.submitTransfer(this.out);
+		}
+
+		public int submitIn(ByteBuffer buffer, int timeout) {
+			if (this.reading != buffer) {
+				this.in.setBuffer(buffer);
+				this.in.setLength(buffer.capacity());
+				this.reading = buffer;
+			}
+			this.in.setTimeout(timeout);
+			return LibUsb.submitTransfer(this.in);
+		}
+
+		public int cancelIn() {
+			return LibUsb.cancelTransfer(this.in);
+		}
+
+		public int cancelOut() {
+			return LibUsb.cancelTransfer(this.out);
+		}
+
+		public void free() {
+			LibUsb.freeTransfer(this.out);
+			LibUsb.freeTransfer(this.in);
+		}
+	}
+}
@@ -24,9 +24,24 @@ import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 
 import org.usb4java.*;
+
+import io.daplug.dongle.DaplugTimeoutPolicy;
+import io.daplug.jfr.DaplugFlightRecorder;
+import io.daplug.metrics.DaplugDongleMetrics;
+import io.daplug.metrics.DaplugMetrics;
 import io.daplug.utils.DaplugUtils;
 
-public class WinusbComm implements IWinusb {
+/**
+ * Exchanges with one WINUSB dongle through its own device handle.
+ * Exchanges on the same dongle are serialized; different dongles exchange in parallel.
+ *
+ * The vendor interface is claimed once, when the handle is given to this object : the kernel driver is
+ * detached then if needed, and re-attached by close() with the release of the interface. An exchange is
+ * only the bulk write and the bulk read. If the device is unplugged, the handle is closed by the failing
+ * exchange and the next exchanges fail until the dongle is opened again.
+ *
+ */
+public class WinusbComm implements IWinusb, IWinusbComm {
 
 	private Device device = null;
 
@@ -36,18 +51,181 @@ public class WinusbComm implements IWinusb {
 	// device interface number
 	private int deviceInterface;
 
+	// interface claimed, kernel driver detached by this object
+	private boolean claimed = false;
+	private boolean detached = false;
+
 	// EndpointIn formation
 	private int output_endpoint;
 	private int input_endpoint;
 	
-	@SuppressWarnings("unused")
 	private int input_ep_max_packet_size;
 
+	// transfer buffers, allocated once the endpoints are known : an exchange does not allocate
+	private int packetSize;
+	private ByteBuffer frame;
+	// reads[0] : the first packet of the frame, reads[k] : k packets following the first one
+	private ByteBuffer[] reads;
+	private ByteBuffer command;
+	// views of command by apdu length, created on first use
+	private final ByteBuffer[] writes = new ByteBuffer[PACKET_SIZE + 1];
+	private final IntBuffer transferred = BufferUtils.allocateIntBuffer();
+
+	private volatile DaplugDongleMetrics metrics = null;
+	private volatile DaplugTimeoutPolicy timeoutPolicy = null;
+	// a timed out response may still come : it is dropped before the next exchange
+	private boolean stale = false;
+
 	
+	/**
+	 * Opens a handle on the device
+	 * @param device Device
+	 */
 	public WinusbComm(Device device) {
 		this.device = device;
 		this.dhandle = new DeviceHandle();
-		this.initComm();
+		int result = LibUsb.open(this.device, this.dhandle);
+		if (result != LibUsb.SUCCESS)
+			throw new LibUsbException(
+					"Unable to initialize Device. It may be null or do not exist",
+					result);
+		this.openComm();
+	}
+
+	/**
+	 * Uses a handle already opened on the device (see DaplugUsbContext.open())
+	 * @param device Device
+	 * @param dhandle DeviceHandle open handle, owned by this object from now on
+	 */
+	public WinusbComm(Device device, DeviceHandle dhandle) {
+		this.device = device;
+		this.dhandle = dhandle;
+		this.openComm();
+	}
+
+	/* finds the endpoints and claims the interface ; the handle is closed on failure */
+	private void openComm() {
+		try {
+			this.initComm();
+		} catch (LibUsbException e) {
+			this.close();
+			throw e;
+		}
+		this.packetSize = WinusbFraming.packetSize(this.input_ep_max_packet_size);
+		this.frame = BufferUtils.allocateByteBuffer(WinusbFraming.bufferSize(this.packetSize));
+		this.reads = new ByteBuffer[this.frame.capacity() / this.packetSize];
+		this.reads[0] = slice(this.frame, 0, this.packetSize);
+		for (int k = 1; k < this.reads.length; k++)
+			this.reads[k] = slice(this.frame, this.packetSize, k * this.packetSize);
+		this.command = BufferUtils.allocateByteBuffer(PACKET_SIZE);
+	}
+
+	/* libusb transfers the whole capacity of a buffer : a transfer of another length goes through a view */
+	static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.limit(offset + length).position(offset);
+		return view.slice();
+	}
+
+	/**
+	 * @return int size of the packets read from the IN endpoint (its wMaxPacketSize)
+	 */
+	public int getPacketSize() {
+		return this.packetSize;
+	}
+
+	/**
+	 * @return boolean true while the handle is open : false after close() or once the device is gone
+	 */
+	public synchronized boolean isOpen() {
+		return this.dhandle != null;
+	}
+
+	/**
+	 * Sets the metrics receiving the write and read latencies of the exchanges
+	 * @param metrics DaplugDongleMetrics, null to record nothing
+	 */
+	public void setMetrics(DaplugDongleMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the policy giving the timeout of each exchange, TIMEOUT at most
+	 * @param timeoutPolicy DaplugTimeoutPolicy, null to apply TIMEOUT
+	 */
+	public void setTimeoutPolicy(DaplugTimeoutPolicy timeoutPolicy) {
+		this.timeoutPolicy = timeoutPolicy;
+	}
+
+	/**
+	 * @return Device the device of the handle
+	 */
+	public Device getDevice() {
+		return this.device;
+	}
+
+	/**
+	 * @return DeviceHandle the open handle, its interface claimed ; null once closed
+	 */
+	synchronized DeviceHandle getHandle() {
+		return this.dhandle;
+	}
+
+	/**
+	 * @return int address of the bulk OUT endpoint
+	 */
+	int getOutputEndpoint() {
+		return this.output_endpoint;
+	}
+
+	/**
+	 * @return int address of the bulk IN endpoint
+	 */
+	int getInputEndpoint() {
+		return this.input_endpoint;
+	}
+
+	/**
+	 * Releases the interface, re-attaches the kernel driver and closes the device handle. Next exchanges fail.
+	 */
+	public synchronized void close() {
+		if (this.dhandle == null)
+			return;
+		try {
+			if (this.claimed) {
+				int result = LibUsb.releaseInterface(this.dhandle, this.deviceInterface);
+				if (result != LibUsb.SUCCESS && result != LibUsb.ERROR_NO_DEVICE)
+					System.err.println("close() - Unable to release interface : " + LibUsb.strError(result));
+			}
+			if (this.detached) {
+				int result = LibUsb.attachKernelDriver(this.dhandle, this.deviceInterface);
+				if (result != LibUsb.SUCCESS && result != LibUsb.ERROR_NO_DEVICE)
+					System.err.println("close() - Unable to re-attach kernel driver : " + LibUsb.strError(result));
+			}
+		} finally {
+			this.claimed = false;
+			this.detached = false;
+			LibUsb.close(this.dhandle);
+			this.dhandle = null;
+		}
+	}
+
+	/**
+	 * Claims the vendor interface for the life of the handle, detaching the kernel driver first if one is bound
+	 * (Linux).
+	 */
+	private void claimInterface() {
+		if (LibUsb.hasCapability(LibUsb.CAP_SUPPORTS_DETACH_KERNEL_DRIVER)
+				&& LibUsb.kernelDriverActive(this.dhandle, this.deviceInterface) == 1) {
+			int result = LibUsb.detachKernelDriver(this.dhandle, this.deviceInterface);
+			if (result != LibUsb.SUCCESS)
+				throw new LibUsbException("Unable to detach kernel driver", result);
+			this.detached = true;
+		}
+		int result = LibUsb.claimInterface(this.dhandle, this.deviceInterface);
+		if (result != LibUsb.SUCCESS)
+			throw new LibUsbException("Unable to claim interface " + this.deviceInterface, result);
+		this.claimed = true;
 	}
 
 	/**
@@ -62,13 +240,7 @@ public class WinusbComm implements IWinusb {
 		InterfaceDescriptor interf_desc = null;
 		EndpointDescriptor ep_desc = null;
 
-		// initilaize DeviceHandle and attach Device to his handler
-		int result = LibUsb.open(this.device, this.dhandle);
-		if (result != LibUsb.SUCCESS)
-			throw new LibUsbException(
-					"Unable to initialize Device. It may be null or do not exist",
-					result);
-
+		int result;
 		// initialize DeviceDescriptor and attach Device to his descriptor
 		if ((result = LibUsb.getDeviceDescriptor(this.device, dev_desc)) != LibUsb.SUCCESS)
 			throw new LibUsbException(
@@ -124,70 +296,143 @@ public class WinusbComm implements IWinusb {
 				break;
 		}
 		LibUsb.freeConfigDescriptor(config_desc);
+		this.claimInterface();
 	}
 
 	/**
-	 * Proceed exchange data to WinUsb Dongle
+	 * Proceed exchange data to WinUsb Dongle. The response (data followed by the
+	 * status word) is written in the given buffer. The response frame is read by packets
+	 * of the IN endpoint size, as long as its header declares (see WinusbFraming).
 	 * 
 	 * @param apdu
-	 *            byte []
-	 * @return byte [] response
+	 *            byte [] buffer holding the apdu
+	 * @param apduOffset
+	 *            int offset of the apdu in the buffer
+	 * @param apduLength
+	 *            int length of the apdu
+	 * @param response
+	 *            byte [] buffer receiving the response
+	 * @param responseOffset
+	 *            int offset where the response is written
+	 * @return int response length
 	 * 
 	 */
-	private String p_exchange(byte[] w_block) {
+	private synchronized int p_exchange(byte[] apdu, int apduOffset, int apduLength,
+			byte[] response, int responseOffset) {
 
-		// Claim interfaces to proceed to do write and read on winusb device
-		// Check if kernel driver must be detached
-		boolean detach = LibUsb
-				.hasCapability(LibUsb.CAP_SUPPORTS_DETACH_KERNEL_DRIVER)
-				&& (LibUsb.kernelDriverActive(this.dhandle,
-						this.deviceInterface) != 0 ? true : false);
+		if (this.dhandle == null)
+			throw new LibUsbException("Device is closed", LibUsb.ERROR_NO_DEVICE);
+
+		if (apduLength > PACKET_SIZE)
+			throw new LibUsbException("apdu too long : " + apduLength, LibUsb.ERROR_INVALID_PARAM);
 
-		// Detach the kernel driver
-		if (detach) {
-			int result = LibUsb.detachKernelDriver(this.dhandle,
-					this.deviceInterface);
-			if (result != LibUsb.SUCCESS)
-				throw new LibUsbException("Unable to detach kernel driver",
-						result);
-		}
 		// start communication with the device
+		DaplugDongleMetrics metrics = this.metrics;
+		boolean timed = metrics != null && apduLength > 1 && DaplugMetrics.isEnabled();
+		long sending = timed ? System.nanoTime() : 0;
 		
-		// send data to the device in bulk mode : use LibUsb.BulkTransfer to no deal with 
-		// synchronus or asynchronus callback
-		ByteBuffer w_buffer = BufferUtils.allocateByteBuffer(w_block.length);
-		w_buffer.put(w_block);
-		IntBuffer w_transferred = BufferUtils.allocateIntBuffer();
-		int result_bulk = LibUsb.bulkTransfer(this.dhandle,
-				(byte) this.output_endpoint, w_buffer, w_transferred, TIMEOUT);
-		if (result_bulk != LibUsb.SUCCESS) {
-			throw new LibUsbException(
-					"Unable to send data : Control transfer failed",
-					result_bulk);
-		}
+		Object event = DaplugFlightRecorder.beginTransfer();
+		int blocksWritten = 0, blocksRead = 0, received = 0, frameLength = 0;
+		boolean timedOut = false;
+		long written = 0;
+		int timeout = (apduLength < 2) ? TIMEOUT
+				: DaplugTimeoutPolicy.timeoutMillis(this.timeoutPolicy, apdu[apduOffset + 1], TIMEOUT);
+		try {
+			if (this.stale) {
+				while (LibUsb.bulkTransfer(this.dhandle, (byte) this.input_endpoint, this.reads[0],
+						this.transferred, 1) == LibUsb.SUCCESS)
+					;
+				this.stale = false;
+			}
+			// send data to the device in bulk mode : use LibUsb.BulkTransfer to no deal with 
+			// synchronus or asynchronus callback
+			ByteBuffer w_buffer = this.writes[apduLength];
+			if (w_buffer == null) {
+				w_buffer = slice(this.command, 0, apduLength);
+				this.writes[apduLength] = w_buffer;
+			}
+			w_buffer.clear();
+			w_buffer.put(apdu, apduOffset, apduLength);
+			int result_bulk = LibUsb.bulkTransfer(this.dhandle,
+					(byte) this.output_endpoint, w_buffer, this.transferred, timeout);
+			if (result_bulk != LibUsb.SUCCESS) {
+				timedOut = (result_bulk == LibUsb.ERROR_TIMEOUT);
+				this.checkDevice(result_bulk);
+				throw new LibUsbException(
+						"Unable to send data : Control transfer failed",
+						result_bulk);
+			}
+			blocksWritten = 1;
 
-		// read from the device
-		ByteBuffer r_buffer = BufferUtils.allocateByteBuffer(PACKET_SIZE);
-		IntBuffer r_transferred = BufferUtils.allocateIntBuffer();
-		int result_read = LibUsb.bulkTransfer(this.dhandle,
-				(byte) this.input_endpoint, r_buffer, r_transferred, TIMEOUT);
-		if (result_read != LibUsb.SUCCESS)
-			throw new LibUsbException("Unable to read data", result_read);
-		int value_received = r_transferred.get();
-
-		// Attach the kernel driver again
-		if (detach) {
-			int result = LibUsb.attachKernelDriver(this.dhandle,
-					this.deviceInterface);
-			if (result != LibUsb.SUCCESS)
-				throw new LibUsbException("Unable to re-attach kernel driver",
-						result);
+			written = timed ? System.nanoTime() : 0;
+
+			// read the first packet : its header gives the frame length
+			int result_read = LibUsb.bulkTransfer(this.dhandle,
+					(byte) this.input_endpoint, this.reads[0], this.transferred, timeout);
+			if (result_read == LibUsb.SUCCESS) {
+				blocksRead = 1;
+				received = this.transferred.get(0);
+				frameLength = WinusbFraming.frameLength(this.frame, received);
+				if (frameLength < 0)
+					throw new LibUsbException("Invalid response of " + received + " bytes", LibUsb.ERROR_IO);
+			}
+			// then the rest of the frame, by whole packets, when the first one is full
+			if (result_read == LibUsb.SUCCESS && received < frameLength) {
+				if (received != this.packetSize)
+					throw new LibUsbException("Truncated response : " + received + " of " + frameLength + " bytes",
+							LibUsb.ERROR_IO);
+				ByteBuffer rest = this.reads[WinusbFraming.readLength(frameLength - received, this.packetSize)
+						/ this.packetSize];
+				result_read = LibUsb.bulkTransfer(this.dhandle,
+						(byte) this.input_endpoint, rest, this.transferred, timeout);
+				if (result_read == LibUsb.SUCCESS) {
+					blocksRead = 2;
+					received += this.transferred.get(0);
+					if (received < frameLength)
+						throw new LibUsbException("Truncated response : " + received + " of " + frameLength
+								+ " bytes", LibUsb.ERROR_IO);
+				}
+			}
+			if (result_read != LibUsb.SUCCESS) {
+				timedOut = (result_read == LibUsb.ERROR_TIMEOUT);
+				this.stale = timedOut;
+				this.checkDevice(result_read);
+				throw new LibUsbException("Unable to read data", result_read);
+			}
+		} finally {
+			if (event != null)
+				DaplugFlightRecorder.endTransfer(event, "WINUSB", blocksWritten, blocksRead,
+						blocksWritten * apduLength, received, timedOut);
 		}
-		//get 
-		byte [] f_result = new byte[r_buffer.capacity()];
-		r_buffer.get(f_result, 0, f_result.length);
-		String s_result = DaplugUtils.bytesToHex(f_result).substring(0, 2 * value_received);	
-		return s_result;
+		if (timed)
+			metrics.recordTransfer(apdu[apduOffset + 1], written - sending, System.nanoTime() - written);
+
+		return WinusbFraming.copyResponse(this.frame, frameLength, response, responseOffset);
+	}
+	
+	/**
+	 * Closes the handle when the device is gone (unplugged during the session) : the claim dies with the device.
+	 * @param result int libusb result of the failed transfer
+	 */
+	private void checkDevice(int result) {
+		if (result == LibUsb.ERROR_NO_DEVICE)
+			this.close();
+	}
+	
+	/**
+	 * make an exchange with a daplug dongle winusb without hexadecimal conversion.
+	 * The response is written in the given buffer : data first, then the status word.
+	 * @param apdu byte [] buffer holding the apdu
+	 * @param apduOffset int offset of the apdu in the buffer
+	 * @param apduLength int length of the apdu
+	 * @param response byte [] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 * 
+	 */
+	public int exchange(byte[] apdu, int apduOffset, int apduLength,
+			byte[] response, int responseOffset) {
+		return this.p_exchange(apdu, apduOffset, apduLength, response, responseOffset);
 	}
 	
 	/**
@@ -200,21 +445,9 @@ public class WinusbComm implements IWinusb {
 	 * 
 	 */
 	public String[] exchange(byte[] apdu) {
-		String apdu_result = this.p_exchange(apdu);
-		if (apdu_result.length() > 4) { // the result is compose of data + sw
-			String[] result = new String[2];
-			String status_word = apdu_result.substring(
-					apdu_result.length() - 4, apdu_result.length());
-			String tmp = apdu_result.substring(0, apdu_result.length() - 4);
-			result[0] = tmp.substring(4, tmp.length());
-			result[1] = status_word;
-			return result;
-		} else {
-			String[] result = new String[2];
-			result[0] = "";
-			result[1] = apdu_result;
-			return result;
-		}
+		byte[] response = new byte[PACKET_SIZE];
+		int len = this.p_exchange(apdu, 0, apdu.length, response, 0);
+		return DaplugUtils.responseToHexStrings(response, 0, len);
 	}
 	
 }
@@ -0,0 +1,129 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary framing of the WINUSB responses. A response without data is the status word alone; a response with
+ * data is a 0x61 header byte, the data length (0 for 256 bytes), the data and the status word :
+ * 61 Lr [data] SW1 SW2. The dongle sends a frame in packets of the IN endpoint wMaxPacketSize bytes.
+ *
+ * The first read asks for one packet : the header gives the frame length, and the rest of the frame is read
+ * by whole packets, so a frame filling its last packet does not wait for a zero length packet.
+ *
+ */
+public final class WinusbFraming {
+
+	/**
+	 * First byte of a response with data
+	 */
+	public static final int DATA_HEADER = 0x61;
+
+	/**
+	 * Length of the header of a response with data
+	 */
+	public static final int HEADER_LENGTH = 2;
+
+	/**
+	 * Length of the longest frame : header, 256 bytes of data and the status word
+	 */
+	public static final int MAX_FRAME_LENGTH = HEADER_LENGTH + 256 + 2;
+
+	private WinusbFraming() {
+	}
+
+	/**
+	 * @param maxPacketSize int wMaxPacketSize of the IN endpoint
+	 * @return int the packet size to read by : wMaxPacketSize, or IWinusb.PACKET_SIZE if it is unknown
+	 */
+	public static int packetSize(int maxPacketSize) {
+		return (maxPacketSize > 0) ? maxPacketSize : IWinusb.PACKET_SIZE;
+	}
+
+	/**
+	 * @param length int number of bytes to read
+	 * @param packetSize int IN packet size
+	 * @return int the length rounded up to whole packets
+	 */
+	public static int readLength(int length, int packetSize) {
+		return (length + packetSize - 1) / packetSize * packetSize;
+	}
+
+	/**
+	 * @param packetSize int IN packet size
+	 * @return int size of a read buffer holding the longest frame
+	 */
+	public static int bufferSize(int packetSize) {
+		return readLength(MAX_FRAME_LENGTH, packetSize);
+	}
+
+	/**
+	 * Gets the frame length declared by the first bytes of a response
+	 * @param first int first byte of the frame
+	 * @param second int second byte of the frame
+	 * @return int total frame length : header, data and status word
+	 */
+	public static int frameLength(int first, int second) {
+		if ((first & 0xFF) != DATA_HEADER)
+			return 2;
+		int dataLength = second & 0xFF;
+		if (dataLength == 0)
+			dataLength = 0x100; // T=0 compliance
+		return HEADER_LENGTH + dataLength + 2;
+	}
+
+	/**
+	 * Gets the frame length declared by the first bytes of a response read in a buffer
+	 * @param frame ByteBuffer buffer holding the frame from index 0
+	 * @param received int number of bytes received so far
+	 * @return int total frame length, -1 if less than 2 bytes are received
+	 */
+	public static int frameLength(ByteBuffer frame, int received) {
+		if (received < 2)
+			return -1;
+		return frameLength(frame.get(0), frame.get(1));
+	}
+
+	/**
+	 * @param first int first byte of the frame
+	 * @return int offset of the response (data and status word) in the frame
+	 */
+	public static int responseOffset(int first) {
+		return ((first & 0xFF) == DATA_HEADER) ? HEADER_LENGTH : 0;
+	}
+
+	/**
+	 * Copies the response of a complete frame : data first, then the status word. The buffer is cleared.
+	 * @param frame ByteBuffer buffer holding the frame from index 0
+	 * @param frameLength int frame length, as given by frameLength()
+	 * @param response byte [] buffer receiving the response
+	 * @param responseOffset int offset where the response is written
+	 * @return int response length (data length + 2)
+	 */
+	public static int copyResponse(ByteBuffer frame, int frameLength, byte[] response, int responseOffset) {
+		int start = responseOffset(frame.get(0));
+		frame.clear();
+		frame.position(start);
+		frame.get(response, responseOffset, frameLength - start);
+		frame.clear();
+		return frameLength - start;
+	}
+}
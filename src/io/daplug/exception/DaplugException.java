@@ -53,4 +53,14 @@ package io.daplug.exception;
 			super(reason, cause);
 		}
 		
+		/**
+		 * Exception with a reason string, without cause nor suppressed exceptions.
+		 * Without stack trace, it is cheap to create and may be shared : it is thrown as is.
+		 * @param reason reason string
+		 * @param writableStackTrace false for an exception without stack trace
+		 */
+		protected DaplugException(String reason, boolean writableStackTrace) {
+			super(reason, null, false, writableStackTrace);
+		}
+		
 }
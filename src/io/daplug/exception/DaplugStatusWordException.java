@@ -24,6 +24,8 @@
 
 package io.daplug.exception;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import io.daplug.exception.DaplugException;
 
 /**
@@ -38,11 +40,23 @@ public class DaplugStatusWordException extends DaplugException {
 	 */
 	private static final long serialVersionUID = -7764107503034324993L;
 	
+	/**
+	 * Status word of an exception notifying a missing Status Word
+	 */
+	public static final int NO_SW = -1;
+	
+	/* Shared stackless exceptions of the 6Xxx and 9Xxx status words, created on first use */
+	private static final AtomicReferenceArray<DaplugStatusWordException> SHARED =
+			new AtomicReferenceArray<DaplugStatusWordException>(2 * 0x1000);
+	
+	private final int sw;
+	
 	/**
 	 * Generic exception when a Status Word is missing
 	 */
 	public DaplugStatusWordException() {
 		super("Missing Status Word");
+		this.sw = NO_SW;
 	}
 	
 	/**
@@ -51,6 +65,39 @@ public class DaplugStatusWordException extends DaplugException {
 	 */
 	public DaplugStatusWordException(int sw) {
 		super("Invalid status " + Integer.toHexString(sw));
+		this.sw = sw;
+	}
+	
+	private DaplugStatusWordException(int sw, boolean writableStackTrace) {
+		super("Invalid status " + Integer.toHexString(sw), writableStackTrace);
+		this.sw = sw;
+	}
+	
+	/**
+	 * Gets an exception notifying an invalid Status Word without stack trace, for the callers
+	 * which refusals of the card are frequent. The exceptions of the 6Xxx and 9Xxx status words
+	 * are created once and shared : the returned exception must be thrown as is.
+	 * @param sw Status Word
+	 * @return DaplugStatusWordException without stack trace
+	 */
+	public static DaplugStatusWordException valueOf(int sw) {
+		int family = (sw >>> 8) & 0xF0;
+		if ((family != 0x60 && family != 0x90) || (sw & ~0xFFFF) != 0)
+			return new DaplugStatusWordException(sw, false);
+		int index = (family == 0x90 ? 0x1000 : 0) | (sw & 0x0FFF);
+		DaplugStatusWordException e = SHARED.get(index);
+		if (e == null) {
+			SHARED.compareAndSet(index, null, new DaplugStatusWordException(sw, false));
+			e = SHARED.get(index);
+		}
+		return e;
+	}
+	
+	/**
+	 * @return int the Status Word, NO_SW if it is missing
+	 */
+	public int getSW() {
+		return this.sw;
 	}
 		
 }
@@ -0,0 +1,54 @@
+/******************************************************************************
+ file           : $Id$
+ project        : Plug-up v2 API
+ author         : $Author$
+ ------------------------------------------------------------------------------
+ changed on     : $Revision$
+ ------------------------------------------------------------------------------
+ description    : Plug-up v2 API
+ ------------------------------------------------------------------------------
+ Copyright (c) 2012 Ubinity SAS. All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ ******************************************************************************/
+
+package io.daplug.exception;
+
+/**
+ * No response from a Plug-up dongle in time : the exchange may have been executed by the dongle
+ *
+ */
+public class DaplugTimeoutException extends DaplugCommunicationException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4127063589120644733L;
+
+	/**
+	 * Timeout exception with a reason
+	 * @param reason reason
+	 */
+	public DaplugTimeoutException(String reason) {
+		super(reason);
+	}
+
+	/**
+	 * Timeout exception with a cause
+	 * @param cause parent exception
+	 */
+	public DaplugTimeoutException(Throwable cause) {
+		super(cause);
+	}
+
+}
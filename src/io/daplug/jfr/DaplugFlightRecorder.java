@@ -0,0 +1,189 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.jfr;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Emits the Daplug events of the Java Flight Recorder : io.daplug.Exchange (DaplugSession exchanges),
+ * io.daplug.SecureChannel (authenticate / deAuthenticate), io.daplug.Transfer (HID and WINUSB transfers)
+ * and io.daplug.Enumeration (DaplugEnumerator scans). The events carry no stack trace ; their thresholds
+ * are set by the recording settings, such as the bundled daplug.jfc :
+ * java -XX:StartFlightRecording:settings=default,settings=daplug.jfc ...
+ *
+ * The events are defined by the daplug-jfr module, built for Java 11 and found with java.util.ServiceLoader
+ * (IDaplugRecorder) once jdk.jfr is found : without it on the class path, on JVMs without the flight recorder
+ * or with the daplug.jfr system property set to "false", the begin methods return null and nothing is recorded.
+ *
+ * Each begin method returns the event being timed, or null if the flight recorder is not available or the event
+ * is not enabled in a running recording ; the matching end method, called with a non null event, commits it.
+ *
+ */
+public final class DaplugFlightRecorder {
+
+	/**
+	 * Event names
+	 */
+	public static final String EXCHANGE_EVENT = "io.daplug.Exchange",
+			SECURE_CHANNEL_EVENT = "io.daplug.SecureChannel",
+			TRANSFER_EVENT = "io.daplug.Transfer",
+			ENUMERATION_EVENT = "io.daplug.Enumeration";
+
+	/**
+	 * System property disabling the events when set to "false"
+	 */
+	public static final String JFR_PROPERTY = "daplug.jfr";
+
+	/**
+	 * Class path resource of the recording settings enabling the Daplug events, bundled in daplug-jfr
+	 */
+	public static final String SETTINGS_RESOURCE = "/io/daplug/jfr/daplug.jfc";
+
+	/* null if the events are not recorded */
+	private static final IDaplugRecorder RECORDER = load();
+
+	private DaplugFlightRecorder() {
+	}
+
+	private static IDaplugRecorder load() {
+		if ("false".equalsIgnoreCase(System.getProperty(JFR_PROPERTY)))
+			return null;
+		try {
+			Class.forName("jdk.jfr.Event");
+			Iterator<IDaplugRecorder> recorders = ServiceLoader.load(IDaplugRecorder.class).iterator();
+			return recorders.hasNext() ? recorders.next() : null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (ServiceConfigurationError e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return boolean true if the events are emitted to the flight recorder
+	 */
+	public static boolean isAvailable() {
+		return RECORDER != null;
+	}
+
+	/**
+	 * @return InputStream the recording settings bundled in daplug-jfr (daplug.jfc), null if daplug-jfr is not on the class path
+	 */
+	public static InputStream openSettings() {
+		return DaplugFlightRecorder.class.getResourceAsStream(SETTINGS_RESOURCE);
+	}
+
+	/**
+	 * Starts timing an exchange
+	 * @return Object the event, null if not recorded
+	 */
+	public static Object beginExchange() {
+		return RECORDER != null ? RECORDER.beginExchange() : null;
+	}
+
+	/**
+	 * Ends and commits an exchange
+	 * @param event Object returned by beginExchange()
+	 * @param dongle String dongle name
+	 * @param ins int instruction byte
+	 * @param lc int length of the command data before wrapping
+	 * @param le int expected response length, for commands without data
+	 * @param sw int status word
+	 * @param securityLevel int security level of the secure channel
+	 * @param bytesSent int length of the wrapped command
+	 * @param bytesReceived int length of the response before unwrapping
+	 */
+	public static void endExchange(Object event, String dongle, int ins, int lc, int le, int sw, int securityLevel,
+			int bytesSent, int bytesReceived) {
+		if (event != null)
+			RECORDER.endExchange(event, dongle, ins, lc, le, sw, securityLevel, bytesSent, bytesReceived);
+	}
+
+	/**
+	 * Starts timing a secure channel operation
+	 * @return Object the event, null if not recorded
+	 */
+	public static Object beginSecureChannel() {
+		return RECORDER != null ? RECORDER.beginSecureChannel() : null;
+	}
+
+	/**
+	 * Ends and commits a secure channel operation
+	 * @param event Object returned by beginSecureChannel()
+	 * @param dongle String dongle name
+	 * @param operation String "authenticate" or "deAuthenticate"
+	 * @param keysetVersion int version of the keyset
+	 * @param securityLevel int security level of the secure channel
+	 * @param succeeded boolean
+	 */
+	public static void endSecureChannel(Object event, String dongle, String operation, int keysetVersion,
+			int securityLevel, boolean succeeded) {
+		if (event != null)
+			RECORDER.endSecureChannel(event, dongle, operation, keysetVersion, securityLevel, succeeded);
+	}
+
+	/**
+	 * Starts timing the USB transfers of an exchange
+	 * @return Object the event, null if not recorded
+	 */
+	public static Object beginTransfer() {
+		return RECORDER != null ? RECORDER.beginTransfer() : null;
+	}
+
+	/**
+	 * Ends and commits the USB transfers of an exchange
+	 * @param event Object returned by beginTransfer()
+	 * @param transport String "HID" or "WINUSB"
+	 * @param blocksWritten int number of reports or packets written
+	 * @param blocksRead int number of reports or packets read
+	 * @param bytesWritten int
+	 * @param bytesRead int
+	 * @param timedOut boolean true if a read timed out
+	 */
+	public static void endTransfer(Object event, String transport, int blocksWritten, int blocksRead,
+			int bytesWritten, int bytesRead, boolean timedOut) {
+		if (event != null)
+			RECORDER.endTransfer(event, transport, blocksWritten, blocksRead, bytesWritten, bytesRead, timedOut);
+	}
+
+	/**
+	 * Starts timing a scan of the dongles
+	 * @return Object the event, null if not recorded
+	 */
+	public static Object beginEnumeration() {
+		return RECORDER != null ? RECORDER.beginEnumeration() : null;
+	}
+
+	/**
+	 * Ends and commits a scan of the dongles
+	 * @param event Object returned by beginEnumeration()
+	 * @param hidDongles int number of HID dongles found
+	 * @param winusbDongles int number of WINUSB dongles found
+	 */
+	public static void endEnumeration(Object event, int hidDongles, int winusbDongles) {
+		if (event != null)
+			RECORDER.endEnumeration(event, hidDongles, winusbDongles);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.jfr;
+
+/**
+ * Creates and commits the flight recorder events. The implementation refers to jdk.jfr : it lives in the
+ * daplug-jfr module, built for Java 11, and DaplugFlightRecorder finds it with java.util.ServiceLoader
+ * (META-INF/services/io.daplug.jfr.IDaplugRecorder).
+ *
+ * Each begin method returns the event being timed, or null if the event is not enabled in a running recording ;
+ * the matching end method is only called with a non null event.
+ *
+ */
+public interface IDaplugRecorder {
+
+	/**
+	 * Starts timing an exchange
+	 * @return Object the event, null if not recorded
+	 */
+	public Object beginExchange();
+
+	/**
+	 * Ends and commits an exchange
+	 * @param event Object returned by beginExchange()
+	 * @param dongle String dongle name
+	 * @param ins int instruction byte
+	 * @param lc int length of the command data before wrapping
+	 * @param le int expected response length, for commands without data
+	 * @param sw int status word
+	 * @param securityLevel int security level of the secure channel
+	 * @param bytesSent int length of the wrapped command
+	 * @param bytesReceived int length of the response before unwrapping
+	 */
+	public void endExchange(Object event, String dongle, int ins, int lc, int le, int sw, int securityLevel,
+			int bytesSent, int bytesReceived);
+
+	/**
+	 * Starts timing a secure channel operation
+	 * @return Object the event, null if not recorded
+	 */
+	public Object beginSecureChannel();
+
+	/**
+	 * Ends and commits a secure channel operation
+	 * @param event Object returned by beginSecureChannel()
+	 * @param dongle String dongle name
+	 * @param operation String "authenticate" or "deAuthenticate"
+	 * @param keysetVersion int version of the keyset
+	 * @param securityLevel int security level of the secure channel
+	 * @param succeeded boolean
+	 */
+	public void endSecureChannel(Object event, String dongle, String operation, int keysetVersion,
+			int securityLevel, boolean succeeded);
+
+	/**
+	 * Starts timing the USB transfers of an exchange
+	 * @return Object the event, null if not recorded
+	 */
+	public Object beginTransfer();
+
+	/**
+	 * Ends and commits the USB transfers of an exchange
+	 * @param event Object returned by beginTransfer()
+	 * @param transport String "HID" or "WINUSB"
+	 * @param blocksWritten int number of reports or packets written
+	 * @param blocksRead int number of reports or packets read
+	 * @param bytesWritten int
+	 * @param bytesRead int
+	 * @param timedOut boolean true if a read timed out
+	 */
+	public void endTransfer(Object event, String transport, int blocksWritten, int blocksRead,
+			int bytesWritten, int bytesRead, boolean timedOut);
+
+	/**
+	 * Starts timing a scan of the dongles
+	 * @return Object the event, null if not recorded
+	 */
+	public Object beginEnumeration();
+
+	/**
+	 * Ends and commits a scan of the dongles
+	 * @param event Object returned by beginEnumeration()
+	 * @param hidDongles int number of HID dongles found
+	 * @param winusbDongles int number of WINUSB dongles found
+	 */
+	public void endEnumeration(Object event, int hidDongles, int winusbDongles);
+}
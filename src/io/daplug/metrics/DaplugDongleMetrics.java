@@ -0,0 +1,181 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The metrics of one dongle : DaplugInstructionMetrics by INS byte, created on first use,
+ * and the secure channel counters.
+ *
+ * Sessions record the exchanges (wrap, unwrap and whole exchange latencies, bytes, status words),
+ * transports record the USB write and read latencies. Callers check DaplugMetrics.isEnabled() first.
+ *
+ */
+public final class DaplugDongleMetrics implements DaplugDongleMetricsMXBean {
+
+	private final String name;
+	private final AtomicReferenceArray<DaplugInstructionMetrics> instructions = new AtomicReferenceArray<DaplugInstructionMetrics>(256);
+	private final AtomicLong rmacFailures = new AtomicLong(), authentications = new AtomicLong(),
+			reauthentications = new AtomicLong();
+
+	DaplugDongleMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param ins int INS byte
+	 * @return DaplugInstructionMetrics metrics of the instruction, null if it was never exchanged
+	 */
+	public DaplugInstructionMetrics getInstruction(int ins) {
+		return this.instructions.get(ins & 0xFF);
+	}
+
+	/**
+	 * @return List metrics of the instructions exchanged so far, by INS byte
+	 */
+	public List<DaplugInstructionMetrics> getInstructionMetrics() {
+		List<DaplugInstructionMetrics> list = new ArrayList<DaplugInstructionMetrics>();
+		for (int i = 0; i < 256; i++) {
+			DaplugInstructionMetrics m = this.instructions.get(i);
+			if (m != null)
+				list.add(m);
+		}
+		return list;
+	}
+
+	private DaplugInstructionMetrics instruction(int ins) {
+		ins &= 0xFF;
+		DaplugInstructionMetrics m = this.instructions.get(ins);
+		if (m == null) {
+			DaplugInstructionMetrics created = new DaplugInstructionMetrics(this.name, ins);
+			if (this.instructions.compareAndSet(ins, null, created)) {
+				DaplugMetrics.register(created);
+				return created;
+			}
+			m = this.instructions.get(ins);
+		}
+		return m;
+	}
+
+	/**
+	 * Records an exchange completed by a session
+	 * @param ins int INS byte
+	 * @param wrapNanos long time spent wrapping the command
+	 * @param unwrapNanos long time spent unwrapping the response
+	 * @param exchangeNanos long time of the whole exchange
+	 * @param sent int number of bytes sent
+	 * @param received int number of bytes received
+	 * @param sw1 int first status word byte
+	 */
+	public void recordExchange(int ins, long wrapNanos, long unwrapNanos, long exchangeNanos, int sent, int received, int sw1) {
+		instruction(ins).recordExchange(wrapNanos, unwrapNanos, exchangeNanos, sent, received, sw1);
+	}
+
+	/**
+	 * Records the USB transfers of an exchange
+	 * @param ins int INS byte
+	 * @param writeNanos long time spent writing the command
+	 * @param readNanos long time spent reading the response
+	 */
+	public void recordTransfer(int ins, long writeNanos, long readNanos) {
+		instruction(ins).recordTransfer(writeNanos, readNanos);
+	}
+
+	/**
+	 * Records an exchange failed by the transport
+	 * @param ins int INS byte
+	 */
+	public void recordError(int ins) {
+		instruction(ins).recordError();
+	}
+
+	/**
+	 * Records a response rejected by the R-MAC check
+	 */
+	public void recordRmacFailure() {
+		this.rmacFailures.incrementAndGet();
+	}
+
+	/**
+	 * Records a secure channel opening
+	 * @param again boolean true if the session had already opened a secure channel
+	 */
+	public void recordAuthentication(boolean again) {
+		this.authentications.incrementAndGet();
+		if (again)
+			this.reauthentications.incrementAndGet();
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public String[] getInstructions() {
+		List<DaplugInstructionMetrics> list = getInstructionMetrics();
+		String[] codes = new String[list.size()];
+		for (int i = 0; i < codes.length; i++)
+			codes[i] = list.get(i).getInstruction();
+		return codes;
+	}
+
+	public long getExchanges() {
+		long total = 0;
+		for (DaplugInstructionMetrics m : getInstructionMetrics())
+			total += m.getExchanges();
+		return total;
+	}
+
+	public long getErrors() {
+		long total = 0;
+		for (DaplugInstructionMetrics m : getInstructionMetrics())
+			total += m.getErrors();
+		return total;
+	}
+
+	public long getBytesSent() {
+		long total = 0;
+		for (DaplugInstructionMetrics m : getInstructionMetrics())
+			total += m.getBytesSent();
+		return total;
+	}
+
+	public long getBytesReceived() {
+		long total = 0;
+		for (DaplugInstructionMetrics m : getInstructionMetrics())
+			total += m.getBytesReceived();
+		return total;
+	}
+
+	public long getRmacFailures() {
+		return this.rmacFailures.get();
+	}
+
+	public long getAuthentications() {
+		return this.authentications.get();
+	}
+
+	public long getReauthentications() {
+		return this.reauthentications.get();
+	}
+}
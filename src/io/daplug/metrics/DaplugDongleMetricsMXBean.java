@@ -0,0 +1,73 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.metrics;
+
+/**
+ * JMX view of the metrics of one dongle. The metrics of each instruction are registered
+ * as DaplugInstructionMetricsMXBean.
+ *
+ */
+public interface DaplugDongleMetricsMXBean {
+
+	/**
+	 * @return String the dongle name : type and path
+	 */
+	String getName();
+
+	/**
+	 * @return String [] the INS bytes exchanged so far, in hexadecimal
+	 */
+	String[] getInstructions();
+
+	/**
+	 * @return long number of exchanges completed by sessions, all instructions
+	 */
+	long getExchanges();
+
+	/**
+	 * @return long number of exchanges failed by the transport, all instructions
+	 */
+	long getErrors();
+
+	/**
+	 * @return long number of bytes sent, all instructions
+	 */
+	long getBytesSent();
+
+	/**
+	 * @return long number of bytes received, all instructions
+	 */
+	long getBytesReceived();
+
+	/**
+	 * @return long number of responses rejected by the R-MAC check
+	 */
+	long getRmacFailures();
+
+	/**
+	 * @return long number of secure channels opened
+	 */
+	long getAuthentications();
+
+	/**
+	 * @return long number of secure channels opened by sessions which had already opened one
+	 */
+	long getReauthentications();
+}
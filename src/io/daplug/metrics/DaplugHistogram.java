@@ -0,0 +1,179 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with fixed log-linear buckets, as HdrHistogram lays them out : each power of 2
+ * is split into 8 buckets, so a recorded value is known within 12.5 %, from 1 nanosecond up to Long.MAX_VALUE.
+ *
+ * Recording a value costs two uncontended atomic additions (its bucket and the sum) and no allocation.
+ * Readers take the counts bucket by bucket, while values keep being recorded : a reading is not an
+ * atomic snapshot, but no recorded value is lost.
+ *
+ */
+public final class DaplugHistogram {
+
+	/**
+	 * Number of bits of the value kept after its leading bit
+	 */
+	public static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Number of buckets
+	 */
+	public static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * Records a value
+	 * @param value long value, negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		this.counts.incrementAndGet(index(value));
+		this.sum.addAndGet(value);
+	}
+
+	/**
+	 * @param value long positive value
+	 * @return int index of the bucket holding the value
+	 */
+	public static int index(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @param index int bucket index
+	 * @return long lowest value of the bucket
+	 */
+	public static long lowestValue(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * @param index int bucket index
+	 * @return long highest value of the bucket
+	 */
+	public static long highestValue(int index) {
+		return (index == BUCKETS - 1) ? Long.MAX_VALUE : lowestValue(index + 1) - 1;
+	}
+
+	/**
+	 * @return long[] a copy of the bucket counts
+	 */
+	public long[] getCounts() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			copy[i] = this.counts.get(i);
+		return copy;
+	}
+
+	/**
+	 * @return long number of recorded values
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			count += this.counts.get(i);
+		return count;
+	}
+
+	/**
+	 * @return long sum of the recorded values
+	 */
+	public long getSum() {
+		return this.sum.get();
+	}
+
+	/**
+	 * @return double mean of the recorded values, 0 if none
+	 */
+	public double getMean() {
+		long count = getCount();
+		return (count == 0) ? 0 : (double) getSum() / count;
+	}
+
+	/**
+	 * @param quantile double between 0 and 1
+	 * @return long highest value of the bucket holding the quantile, 0 if no value was recorded
+	 */
+	public long getValueAtQuantile(double quantile) {
+		long total = getCount();
+		if (total == 0)
+			return 0;
+		// counts read in place, without a copy : as with getCounts(), values recorded meanwhile may be taken or not
+		long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(quantile, 0), 1) * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if (seen >= rank)
+				return highestValue(i);
+		}
+		return highestValue(BUCKETS - 1);
+	}
+
+	/**
+	 * @return long highest value of the highest non-empty bucket, 0 if no value was recorded
+	 */
+	public long getMax() {
+		for (int i = BUCKETS - 1; i >= 0; i--) {
+			if (this.counts.get(i) != 0)
+				return highestValue(i);
+		}
+		return 0;
+	}
+
+	/**
+	 * @param counts long[] bucket counts (see getCounts())
+	 * @param quantile double between 0 and 1
+	 * @return long highest value of the bucket holding the quantile, 0 if the counts are empty
+	 */
+	public static long valueAtQuantile(long[] counts, double quantile) {
+		long total = 0;
+		for (long c : counts)
+			total += c;
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(quantile, 0), 1) * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return highestValue(i);
+		}
+		return highestValue(counts.length - 1);
+	}
+}
@@ -0,0 +1,160 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The metrics of one instruction (INS byte) on one dongle : a latency histogram by phase of the exchange,
+ * byte counters, transport errors and the status words of the responses.
+ *
+ */
+public final class DaplugInstructionMetrics implements DaplugInstructionMetricsMXBean {
+
+	/**
+	 * Phases of an exchange : the whole exchange by the session, command wrapping, USB write, USB read, response unwrapping
+	 */
+	public static final int EXCHANGE = 0, WRAP = 1, WRITE = 2, READ = 3, UNWRAP = 4;
+
+	/**
+	 * Phase names, by phase
+	 */
+	public static final String[] PHASES = { "exchange", "wrap", "write", "read", "unwrap" };
+
+	private final String dongle;
+	private final int instruction;
+	private final DaplugHistogram[] latencies = new DaplugHistogram[PHASES.length];
+	private final AtomicLong bytesSent = new AtomicLong(), bytesReceived = new AtomicLong(), errors = new AtomicLong();
+	private final AtomicLongArray statusWords = new AtomicLongArray(256);
+
+	DaplugInstructionMetrics(String dongle, int instruction) {
+		this.dongle = dongle;
+		this.instruction = instruction & 0xFF;
+		for (int i = 0; i < this.latencies.length; i++)
+			this.latencies[i] = new DaplugHistogram();
+	}
+
+	void recordExchange(long wrapNanos, long unwrapNanos, long exchangeNanos, int sent, int received, int sw1) {
+		this.latencies[WRAP].record(wrapNanos);
+		this.latencies[UNWRAP].record(unwrapNanos);
+		this.latencies[EXCHANGE].record(exchangeNanos);
+		this.bytesSent.addAndGet(sent);
+		this.bytesReceived.addAndGet(received);
+		this.statusWords.incrementAndGet(sw1 & 0xFF);
+	}
+
+	void recordTransfer(long writeNanos, long readNanos) {
+		this.latencies[WRITE].record(writeNanos);
+		this.latencies[READ].record(readNanos);
+	}
+
+	void recordError() {
+		this.errors.incrementAndGet();
+	}
+
+	/**
+	 * @param phase int EXCHANGE, WRAP, WRITE, READ or UNWRAP
+	 * @return DaplugHistogram latencies of the phase, in nanoseconds
+	 */
+	public DaplugHistogram getLatency(int phase) {
+		return this.latencies[phase];
+	}
+
+	/**
+	 * @return int the INS byte
+	 */
+	public int getIns() {
+		return this.instruction;
+	}
+
+	/**
+	 * @param sw1 int first status word byte
+	 * @return long number of responses with this first status word byte
+	 */
+	public long getStatusWordCount(int sw1) {
+		return this.statusWords.get(sw1 & 0xFF);
+	}
+
+	public String getDongle() {
+		return this.dongle;
+	}
+
+	public String getInstruction() {
+		return String.format("%02X", this.instruction);
+	}
+
+	public long getExchanges() {
+		return this.latencies[EXCHANGE].getCount();
+	}
+
+	public long getErrors() {
+		return this.errors.get();
+	}
+
+	public long getBytesSent() {
+		return this.bytesSent.get();
+	}
+
+	public long getBytesReceived() {
+		return this.bytesReceived.get();
+	}
+
+	public Map<String, Long> getStatusWords() {
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < 256; i++) {
+			long count = this.statusWords.get(i);
+			if (count != 0)
+				map.put(String.format("%02X", i), count);
+		}
+		return map;
+	}
+
+	public Map<String, Double> getMeanMicros() {
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (int i = 0; i < PHASES.length; i++)
+			map.put(PHASES[i], this.latencies[i].getMean() / 1000);
+		return map;
+	}
+
+	public Map<String, Double> getP50Micros() {
+		return quantileMicros(0.5);
+	}
+
+	public Map<String, Double> getP99Micros() {
+		return quantileMicros(0.99);
+	}
+
+	public Map<String, Double> getMaxMicros() {
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (int i = 0; i < PHASES.length; i++)
+			map.put(PHASES[i], this.latencies[i].getMax() / 1000.0);
+		return map;
+	}
+
+	private Map<String, Double> quantileMicros(double quantile) {
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (int i = 0; i < PHASES.length; i++)
+			map.put(PHASES[i], this.latencies[i].getValueAtQuantile(quantile) / 1000.0);
+		return map;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of one instruction (INS byte) on one dongle. Latencies are in microseconds
+ * and keyed by phase : "exchange" (whole exchange by the session), "wrap", "write", "read" and "unwrap".
+ *
+ */
+public interface DaplugInstructionMetricsMXBean {
+
+	/**
+	 * @return String the dongle name
+	 */
+	String getDongle();
+
+	/**
+	 * @return String the INS byte in hexadecimal
+	 */
+	String getInstruction();
+
+	/**
+	 * @return long number of exchanges completed by the session
+	 */
+	long getExchanges();
+
+	/**
+	 * @return long number of exchanges failed by the transport
+	 */
+	long getErrors();
+
+	/**
+	 * @return long number of bytes sent (wrapped commands)
+	 */
+	long getBytesSent();
+
+	/**
+	 * @return long number of bytes received (responses before unwrapping)
+	 */
+	long getBytesReceived();
+
+	/**
+	 * @return Map number of responses by first status word byte, in hexadecimal ("90", "6A" ..)
+	 */
+	Map<String, Long> getStatusWords();
+
+	/**
+	 * @return Map mean latency by phase
+	 */
+	Map<String, Double> getMeanMicros();
+
+	/**
+	 * @return Map median latency by phase
+	 */
+	Map<String, Double> getP50Micros();
+
+	/**
+	 * @return Map 99th percentile latency by phase
+	 */
+	Map<String, Double> getP99Micros();
+
+	/**
+	 * @return Map maximum latency by phase
+	 */
+	Map<String, Double> getMaxMicros();
+}
@@ -0,0 +1,206 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Holds the metrics of the dongles used by the process, by dongle name, and publishes them as JMX MXBeans :
+ * io.daplug:type=DaplugDongle,name="..." and io.daplug:type=DaplugInstruction,dongle="...",ins=XX.
+ *
+ * Metrics are recorded unless the daplug.metrics system property is "false" or setEnabled(false) is called.
+ * They are published to JMX once registerMBeans() is called ; see also DaplugPrometheus and DaplugMetricsServer.
+ *
+ */
+public final class DaplugMetrics {
+
+	/**
+	 * JMX domain of the MXBeans
+	 */
+	public static final String DOMAIN = "io.daplug";
+
+	/**
+	 * System property disabling the metrics when set to "false"
+	 */
+	public static final String METRICS_PROPERTY = "daplug.metrics";
+
+	private static final ConcurrentMap<String, DaplugDongleMetrics> DONGLES = new ConcurrentHashMap<String, DaplugDongleMetrics>();
+	private static volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty(METRICS_PROPERTY));
+	private static MBeanServer server = null;
+
+	private DaplugMetrics() {
+	}
+
+	/**
+	 * @return boolean true if the metrics are recorded
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts or stops recording the metrics. The metrics recorded so far are kept.
+	 * @param enable boolean
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * Gets the metrics of a dongle, created on first use
+	 * @param name String dongle name : type and path
+	 * @return DaplugDongleMetrics
+	 */
+	public static DaplugDongleMetrics forDongle(String name) {
+		DaplugDongleMetrics m = DONGLES.get(name);
+		if (m == null) {
+			DaplugDongleMetrics created = new DaplugDongleMetrics(name);
+			m = DONGLES.putIfAbsent(name, created);
+			if (m == null) {
+				register(created);
+				m = created;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * @return List metrics of all the dongles, by name
+	 */
+	public static List<DaplugDongleMetrics> getDongles() {
+		List<DaplugDongleMetrics> list = new ArrayList<DaplugDongleMetrics>(DONGLES.values());
+		Collections.sort(list, new Comparator<DaplugDongleMetrics>() {
+			public int compare(DaplugDongleMetrics a, DaplugDongleMetrics b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Publishes the metrics in the platform MBean server
+	 * @throws JMException if an MXBean can not be registered
+	 */
+	public static void registerMBeans() throws JMException {
+		registerMBeans(ManagementFactory.getPlatformMBeanServer());
+	}
+
+	/**
+	 * Publishes the metrics in an MBean server : the metrics of the dongles and instructions used later are published too.
+	 * @param mbeanServer MBeanServer
+	 * @throws JMException if an MXBean can not be registered
+	 */
+	public static synchronized void registerMBeans(MBeanServer mbeanServer) throws JMException {
+		unregisterMBeans();
+		server = mbeanServer;
+		for (DaplugDongleMetrics dongle : DONGLES.values()) {
+			registerMBean(objectName(dongle), dongle);
+			for (DaplugInstructionMetrics instruction : dongle.getInstructionMetrics())
+				registerMBean(objectName(instruction), instruction);
+		}
+	}
+
+	/**
+	 * Removes the MXBeans published by registerMBeans()
+	 */
+	public static synchronized void unregisterMBeans() {
+		if (server == null)
+			return;
+		for (DaplugDongleMetrics dongle : DONGLES.values()) {
+			unregisterMBean(objectName(dongle));
+			for (DaplugInstructionMetrics instruction : dongle.getInstructionMetrics())
+				unregisterMBean(objectName(instruction));
+		}
+		server = null;
+	}
+
+	/**
+	 * @param dongle DaplugDongleMetrics
+	 * @return ObjectName name of its MXBean
+	 */
+	public static ObjectName objectName(DaplugDongleMetrics dongle) {
+		return newObjectName(DOMAIN + ":type=DaplugDongle,name=" + ObjectName.quote(dongle.getName()));
+	}
+
+	/**
+	 * @param instruction DaplugInstructionMetrics
+	 * @return ObjectName name of its MXBean
+	 */
+	public static ObjectName objectName(DaplugInstructionMetrics instruction) {
+		return newObjectName(DOMAIN + ":type=DaplugInstruction,dongle=" + ObjectName.quote(instruction.getDongle())
+				+ ",ins=" + instruction.getInstruction());
+	}
+
+	static synchronized void register(DaplugDongleMetrics dongle) {
+		if (server != null)
+			registerQuietly(objectName(dongle), dongle);
+	}
+
+	static synchronized void register(DaplugInstructionMetrics instruction) {
+		if (server != null)
+			registerQuietly(objectName(instruction), instruction);
+	}
+
+	private static void registerMBean(ObjectName name, Object mbean) throws JMException {
+		try {
+			server.registerMBean(mbean, name);
+		} catch (InstanceAlreadyExistsException e) {
+			// registered by another class loader or a previous call
+		}
+	}
+
+	private static void registerQuietly(ObjectName name, Object mbean) {
+		try {
+			registerMBean(name, mbean);
+		} catch (JMException e) {
+			System.err.println("DaplugMetrics - Cannot register " + name + " : " + e.getMessage());
+		}
+	}
+
+	private static void unregisterMBean(ObjectName name) {
+		try {
+			server.unregisterMBean(name);
+		} catch (InstanceNotFoundException e) {
+			// not registered
+		} catch (JMException e) {
+			System.err.println("DaplugMetrics - Cannot unregister " + name + " : " + e.getMessage());
+		}
+	}
+
+	private static ObjectName newObjectName(String name) {
+		try {
+			return new ObjectName(name);
+		} catch (JMException e) {
+			throw new IllegalArgumentException("DaplugMetrics - Invalid object name : " + name, e);
+		}
+	}
+}
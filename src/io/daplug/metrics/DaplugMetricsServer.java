@@ -0,0 +1,86 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP endpoint serving the Prometheus snapshot of the metrics (see DaplugPrometheus) on /metrics.
+ * It listens on the loopback address only : the metrics name the dongles of the host.
+ *
+ */
+public class DaplugMetricsServer {
+
+	/**
+	 * Path of the metrics
+	 */
+	public static final String METRICS_PATH = "/metrics";
+
+	private final HttpServer server;
+
+	/**
+	 * Starts serving the metrics
+	 * @param port int loopback port, 0 for any free port
+	 * @throws IOException if the port can not be bound
+	 */
+	public DaplugMetricsServer(int port) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.createContext(METRICS_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					if (!"GET".equals(exchange.getRequestMethod())) {
+						exchange.sendResponseHeaders(405, -1);
+						return;
+					}
+					byte[] body = DaplugPrometheus.snapshot().getBytes("UTF-8");
+					exchange.getResponseHeaders().set("Content-Type", DaplugPrometheus.CONTENT_TYPE);
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.server.start();
+	}
+
+	/**
+	 * @return int the port the server listens on
+	 */
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops serving the metrics
+	 */
+	public void stop() {
+		this.server.stop(0);
+	}
+}
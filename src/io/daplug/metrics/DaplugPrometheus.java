@@ -0,0 +1,155 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.metrics;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the metrics of DaplugMetrics in the Prometheus text exposition format (version 0.0.4).
+ *
+ * Latencies are exported as the histogram daplug_exchange_seconds, labelled by dongle, instruction and phase,
+ * with one bucket per power of 2 from 1 microsecond to 17 seconds ; counters are labelled by dongle and instruction.
+ *
+ */
+public final class DaplugPrometheus {
+
+	/**
+	 * Content type of the exposition format
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/* bucket bounds : 2^10 .. 2^34 nanoseconds, each one the lowest value of a DaplugHistogram bucket */
+	private static final int FIRST_BOUND = 10, LAST_BOUND = 34;
+
+	private DaplugPrometheus() {
+	}
+
+	/**
+	 * @return String the metrics of all the dongles
+	 */
+	public static String snapshot() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			write(sb);
+		} catch (IOException e) {
+			// a StringBuilder does not fail
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the metrics of all the dongles
+	 * @param out Appendable
+	 * @throws IOException if out fails
+	 */
+	public static void write(Appendable out) throws IOException {
+		List<DaplugDongleMetrics> dongles = DaplugMetrics.getDongles();
+
+		header(out, "daplug_exchange_seconds", "histogram", "APDU latency by dongle, instruction and phase");
+		for (DaplugDongleMetrics dongle : dongles) {
+			for (DaplugInstructionMetrics instruction : dongle.getInstructionMetrics()) {
+				for (int phase = 0; phase < DaplugInstructionMetrics.PHASES.length; phase++) {
+					String labels = labels(dongle, instruction) + ",phase=\"" + DaplugInstructionMetrics.PHASES[phase] + "\"";
+					histogram(out, "daplug_exchange_seconds", labels, instruction.getLatency(phase));
+				}
+			}
+		}
+
+		header(out, "daplug_bytes_sent_total", "counter", "Bytes of the wrapped commands");
+		for (DaplugDongleMetrics dongle : dongles) {
+			for (DaplugInstructionMetrics instruction : dongle.getInstructionMetrics())
+				sample(out, "daplug_bytes_sent_total", labels(dongle, instruction), instruction.getBytesSent());
+		}
+		header(out, "daplug_bytes_received_total", "counter", "Bytes of the responses before unwrapping");
+		for (DaplugDongleMetrics dongle : dongles) {
+			for (DaplugInstructionMetrics instruction : dongle.getInstructionMetrics())
+				sample(out, "daplug_bytes_received_total", labels(dongle, instruction), instruction.getBytesReceived());
+		}
+		header(out, "daplug_errors_total", "counter", "Exchanges failed by the transport");
+		for (DaplugDongleMetrics dongle : dongles) {
+			for (DaplugInstructionMetrics instruction : dongle.getInstructionMetrics())
+				sample(out, "daplug_errors_total", labels(dongle, instruction), instruction.getErrors());
+		}
+		header(out, "daplug_status_words_total", "counter", "Responses by first status word byte");
+		for (DaplugDongleMetrics dongle : dongles) {
+			for (DaplugInstructionMetrics instruction : dongle.getInstructionMetrics()) {
+				for (int sw1 = 0; sw1 < 256; sw1++) {
+					long count = instruction.getStatusWordCount(sw1);
+					if (count != 0)
+						sample(out, "daplug_status_words_total",
+								labels(dongle, instruction) + ",sw1=\"" + String.format("%02X", sw1) + "\"", count);
+				}
+			}
+		}
+
+		header(out, "daplug_rmac_failures_total", "counter", "Responses rejected by the R-MAC check");
+		for (DaplugDongleMetrics dongle : dongles)
+			sample(out, "daplug_rmac_failures_total", labels(dongle), dongle.getRmacFailures());
+		header(out, "daplug_authentications_total", "counter", "Secure channels opened");
+		for (DaplugDongleMetrics dongle : dongles)
+			sample(out, "daplug_authentications_total", labels(dongle), dongle.getAuthentications());
+		header(out, "daplug_reauthentications_total", "counter", "Secure channels opened again by the same session");
+		for (DaplugDongleMetrics dongle : dongles)
+			sample(out, "daplug_reauthentications_total", labels(dongle), dongle.getReauthentications());
+	}
+
+	private static void histogram(Appendable out, String name, String labels, DaplugHistogram histogram) throws IOException {
+		long[] counts = histogram.getCounts();
+		long cumulated = 0;
+		int index = 0;
+		for (int bound = FIRST_BOUND; bound <= LAST_BOUND; bound++) {
+			int end = DaplugHistogram.index(1L << bound);
+			for (; index < end; index++)
+				cumulated += counts[index];
+			sample(out, name + "_bucket", labels + ",le=\"" + seconds(1L << bound) + "\"", cumulated);
+		}
+		for (; index < counts.length; index++)
+			cumulated += counts[index];
+		sample(out, name + "_bucket", labels + ",le=\"+Inf\"", cumulated);
+		out.append(name).append("_sum{").append(labels).append("} ").append(seconds(histogram.getSum())).append('\n');
+		sample(out, name + "_count", labels, cumulated);
+	}
+
+	private static void header(Appendable out, String name, String type, String help) throws IOException {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(Appendable out, String name, String labels, long value) throws IOException {
+		out.append(name).append('{').append(labels).append("} ").append(Long.toString(value)).append('\n');
+	}
+
+	private static String labels(DaplugDongleMetrics dongle) {
+		return "dongle=\"" + escape(dongle.getName()) + "\"";
+	}
+
+	private static String labels(DaplugDongleMetrics dongle, DaplugInstructionMetrics instruction) {
+		return labels(dongle) + ",ins=\"" + instruction.getInstruction() + "\"";
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,407 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.pool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.daplug.dongle.Daplug;
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugSessionException;
+import io.daplug.keyset.DaplugKeyset;
+import io.daplug.session.DaplugSession;
+
+/**
+ * A pool of Daplug dongles serving HMAC, OTP, encryption and random requests.
+ * A session is opened and authenticated on each dongle, then served by its own worker thread :
+ * a dongle does one APDU at a time, so the throughput grows with the number of dongles.
+ *
+ * A request is queued on the dongle expected to complete it first, given its queue depth and the
+ * average (EWMA) of its exchange times. An idle worker steals the newest request of the most
+ * loaded worker, so that a slow or busy dongle does not hold requests others could serve.
+ * The idle workers wait for any request : while some are idle, the first one to wake up runs the
+ * request, whichever queue it was put in. The routing only matters under load, once requests queue up.
+ *
+ * All methods are thread-safe. Results are returned as Futures; a failed request completes
+ * its Future with an ExecutionException holding the DaplugException.
+ *
+ */
+public class DaplugPool implements IDaplugPool {
+
+	private final List<DaplugPoolWorker> workers;
+
+	/* one permit per queued job not yet claimed by a worker */
+	private final Semaphore pending = new Semaphore(0);
+	private volatile boolean closed = false;
+
+	private final long startNanos = System.nanoTime();
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicInteger queued = new AtomicInteger(), peakQueued = new AtomicInteger();
+	private final AtomicInteger nextWorker = new AtomicInteger();
+
+	/**
+	 * Opens a pool on all the Daplug dongles attached to the computer (HID and WINUSB)
+	 * @param keyset DaplugKeyset keyset used to authenticate every session
+	 * @param securityLevel int secure channel security level, 0 for sessions without secure channel
+	 * @return DaplugPool
+	 * @throws DaplugException if no dongle is found or if a dongle can not be authenticated
+	 */
+	public static DaplugPool openAll(DaplugKeyset keyset, int securityLevel) throws DaplugException {
+		Vector<String> paths = Daplug.listAllDevices();
+		List<DaplugDongle> dongles = new ArrayList<DaplugDongle>();
+		for (String path : paths) {
+			dongles.add(new DaplugDongle(path));
+		}
+		return new DaplugPool(dongles, keyset, securityLevel);
+	}
+
+	/**
+	 * Opens a pool on the given dongles : a session is opened and authenticated on each one.
+	 * The pool owns the dongles and closes them with close().
+	 * @param dongles List<DaplugDongle> dongles
+	 * @param keyset DaplugKeyset keyset used to authenticate every session
+	 * @param securityLevel int secure channel security level, 0 for sessions without secure channel
+	 * @throws DaplugException if the list is empty or if a dongle can not be authenticated
+	 */
+	public DaplugPool(List<DaplugDongle> dongles, DaplugKeyset keyset, int securityLevel) throws DaplugException {
+		if (dongles == null || dongles.isEmpty())
+			throw new DaplugSessionException("DaplugPool() - No Daplug dongle available !");
+		List<DaplugPoolWorker> list = new ArrayList<DaplugPoolWorker>();
+		try {
+			for (DaplugDongle dongle : dongles) {
+				DaplugSession session = new DaplugSession(dongle);
+				list.add(new DaplugPoolWorker(this, list.size(), dongle, session));
+				if (securityLevel != 0)
+					session.authenticate(keyset, securityLevel);
+			}
+		} catch (DaplugException e) {
+			for (DaplugPoolWorker w : list) {
+				closeWorker(w);
+			}
+			throw e;
+		}
+		this.workers = Collections.unmodifiableList(list);
+		for (DaplugPoolWorker w : this.workers) {
+			w.start();
+		}
+	}
+
+	/**
+	 * Submits a task : it will run on the session of one of the dongles
+	 * @param task DaplugPoolTask<T>
+	 * @return Future<T> result of the task
+	 * @throws DaplugSessionException if the pool is closed
+	 */
+	public <T> Future<T> submit(DaplugPoolTask<T> task) throws DaplugSessionException {
+		if (task == null)
+			throw new NullPointerException("DaplugPool.submit() - task is null");
+		if (this.closed)
+			throw new DaplugSessionException("DaplugPool.submit() - The pool is closed !");
+		DaplugPoolJob<T> job = new DaplugPoolJob<T>(task);
+		DaplugPoolWorker worker = route();
+		worker.getQueue().offerLast(job);
+		int depth = this.queued.incrementAndGet();
+		int peak;
+		while (depth > (peak = this.peakQueued.get()) && !this.peakQueued.compareAndSet(peak, depth)) {
+		}
+		this.submitted.incrementAndGet();
+		this.pending.release();
+		// closed meanwhile : the queues may already be drained. The permit of the job is taken back,
+		// unless a worker got it : that worker sees the pool closed and ends.
+		if (this.closed && worker.getQueue().remove(job)) {
+			this.pending.tryAcquire();
+			this.queued.decrementAndGet();
+			job.fail(new DaplugSessionException("DaplugPool.submit() - The pool is closed !"));
+		}
+		return job;
+	}
+
+	/**
+	 * Computes a HMAC-SHA1 on one of the dongles (see DaplugSession.hmac())
+	 * @param keysetVersion int HMAC keyset version
+	 * @param options int diversification options
+	 * @param div1 byte [] first diversifier (optional)
+	 * @param div2 byte [] second diversifier (optional)
+	 * @param inData byte [] data to sign
+	 * @return Future<byte[]> signature
+	 * @throws DaplugSessionException if the pool is closed
+	 */
+	public Future<byte[]> hmac(final int keysetVersion, final int options, final byte[] div1, final byte[] div2,
+			final byte[] inData) throws DaplugSessionException {
+		return submit(new DaplugPoolTask<byte[]>() {
+			public byte[] execute(DaplugSession session) throws DaplugException {
+				return session.hmac(keysetVersion, options, div1, div2, inData);
+			}
+		});
+	}
+
+	/**
+	 * Computes a HOTP on one of the dongles (see DaplugSession.hotp()).
+	 * The counter is the one of the chosen dongle : use it with dongles sharing the same key and counter policy.
+	 * @param keysetVersion int HOTP keyset version
+	 * @param options int diversification and output options
+	 * @param div1 byte [] first diversifier (optional)
+	 * @param div2 byte [] second diversifier (optional)
+	 * @param inData byte [] counter file id or counter value, depending on the options
+	 * @return Future<byte[]> OTP
+	 * @throws DaplugSessionException if the pool is closed
+	 */
+	public Future<byte[]> hotp(final int keysetVersion, final int options, final byte[] div1, final byte[] div2,
+			final byte[] inData) throws DaplugSessionException {
+		return submit(new DaplugPoolTask<byte[]>() {
+			public byte[] execute(DaplugSession session) throws DaplugException {
+				return session.hotp(keysetVersion, options, div1, div2, inData);
+			}
+		});
+	}
+
+	/**
+	 * Computes a TOTP on one of the dongles (see DaplugSession.totp())
+	 * @param keysetVersion int TOTP keyset version
+	 * @param options int diversification and output options
+	 * @param div1 byte [] first diversifier (optional)
+	 * @param div2 byte [] second diversifier (optional)
+	 * @param inData byte [] time data, depending on the options
+	 * @return Future<byte[]> OTP
+	 * @throws DaplugSessionException if the pool is closed
+	 */
+	public Future<byte[]> totp(final int keysetVersion, final int options, final byte[] div1, final byte[] div2,
+			final byte[] inData) throws DaplugSessionException {
+		return submit(new DaplugPoolTask<byte[]>() {
+			public byte[] execute(DaplugSession session) throws DaplugException {
+				return session.totp(keysetVersion, options, div1, div2, inData);
+			}
+		});
+	}
+
+	/**
+	 * Encrypts data on one of the dongles (see DaplugSession.encrypt())
+	 * @param keyVersion int encryption keyset version
+	 * @param keyId int index of the key (1, 2 or 3)
+	 * @param mode int block cipher mode and diversification
+	 * @param iv byte [] initialization vector (optional)
+	 * @param div1 byte [] first diversifier (optional)
+	 * @param div2 byte [] second diversifier (optional)
+	 * @param clearData byte [] data to encrypt
+	 * @return Future<byte[]> encrypted data
+	 * @throws DaplugSessionException if the pool is closed
+	 */
+	public Future<byte[]> encrypt(final int keyVersion, final int keyId, final int mode, final byte[] iv,
+			final byte[] div1, final byte[] div2, final byte[] clearData) throws DaplugSessionException {
+		return submit(new DaplugPoolTask<byte[]>() {
+			public byte[] execute(DaplugSession session) throws DaplugException {
+				return session.encrypt(keyVersion, keyId, mode, iv, div1, div2, clearData);
+			}
+		});
+	}
+
+	/**
+	 * Decrypts data on one of the dongles (see DaplugSession.decrypt())
+	 * @param keyVersion int encryption keyset version
+	 * @param keyId int index of the key (1, 2 or 3)
+	 * @param mode int block cipher mode and diversification
+	 * @param iv byte [] initialization vector (optional)
+	 * @param div1 byte [] first diversifier (optional)
+	 * @param div2 byte [] second diversifier (optional)
+	 * @param encryptedData byte [] data to decrypt
+	 * @return Future<byte[]> clear data
+	 * @throws DaplugSessionException if the pool is closed
+	 */
+	public Future<byte[]> decrypt(final int keyVersion, final int keyId, final int mode, final byte[] iv,
+			final byte[] div1, final byte[] div2, final byte[] encryptedData) throws DaplugSessionException {
+		return submit(new DaplugPoolTask<byte[]>() {
+			public byte[] execute(DaplugSession session) throws DaplugException {
+				return session.decrypt(keyVersion, keyId, mode, iv, div1, div2, encryptedData);
+			}
+		});
+	}
+
+	/**
+	 * Gets random bytes from one of the dongles (see DaplugSession.getRandom())
+	 * @param length int number of bytes (1 to 239)
+	 * @return Future<byte[]> random bytes
+	 * @throws DaplugSessionException if the pool is closed
+	 */
+	public Future<byte[]> getRandom(final int length) throws DaplugSessionException {
+		return submit(new DaplugPoolTask<byte[]>() {
+			public byte[] execute(DaplugSession session) throws DaplugException {
+				return session.getRandom(length);
+			}
+		});
+	}
+
+	/**
+	 * @return int number of dongles in the pool
+	 */
+	public int size() {
+		return this.workers.size();
+	}
+
+	/**
+	 * @return boolean true once close() has been called
+	 */
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * @return DaplugPoolStatistics a snapshot of the pool counters
+	 */
+	public DaplugPoolStatistics getStatistics() {
+		int n = this.workers.size();
+		int[] depths = new int[n];
+		double[] ewmas = new double[n];
+		long[] completed = new long[n], failed = new long[n], stolen = new long[n];
+		for (int i = 0; i < n; i++) {
+			DaplugPoolWorker w = this.workers.get(i);
+			depths[i] = w.getQueue().size();
+			ewmas[i] = w.getEwmaNanos();
+			completed[i] = w.getCompleted();
+			failed[i] = w.getFailed();
+			stolen[i] = w.getStolen();
+		}
+		return new DaplugPoolStatistics(System.nanoTime() - this.startNanos, this.submitted.get(),
+				this.queued.get(), this.peakQueued.get(), depths, ewmas, completed, failed, stolen);
+	}
+
+	/**
+	 * Closes the pool : the requests not started yet fail, the workers end their current request,
+	 * then each worker de-authenticates its session and closes its dongle. A worker still running
+	 * its request after CLOSE_TIMEOUT closes them once the request is done.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (this.closed)
+				return;
+			this.closed = true;
+		}
+		// wake every worker up : a worker seeing the pool closed ends
+		this.pending.release(this.workers.size());
+		for (DaplugPoolWorker w : this.workers) {
+			try {
+				w.waitEnd(CLOSE_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		DaplugSessionException cause = new DaplugSessionException("DaplugPool - The pool is closed !");
+		for (DaplugPoolWorker w : this.workers) {
+			DaplugPoolJob<?> job;
+			while ((job = w.getQueue().pollFirst()) != null) {
+				this.queued.decrementAndGet();
+				job.fail(cause);
+			}
+		}
+	}
+
+	/* de-authenticates the session of a worker whose thread is not running, and closes its dongle */
+	static void closeWorker(DaplugPoolWorker w) {
+		w.getSession().deAuthenticate();
+		w.getDongle().close();
+	}
+
+	/* the worker expected to complete a new job first; ties are spread round-robin */
+	private DaplugPoolWorker route() {
+		int n = this.workers.size();
+		double known = 0;
+		int count = 0;
+		for (DaplugPoolWorker w : this.workers) {
+			if (w.getEwmaNanos() != 0) {
+				known += w.getEwmaNanos();
+				count++;
+			}
+		}
+		double defaultNanos = (count == 0) ? 1 : known / count;
+		int first = (this.nextWorker.getAndIncrement() & Integer.MAX_VALUE) % n;
+		DaplugPoolWorker best = null;
+		double bestWait = Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			DaplugPoolWorker w = this.workers.get((first + i) % n);
+			double wait = w.expectedWait(defaultNanos);
+			if (wait < bestWait) {
+				bestWait = wait;
+				best = w;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Gives the next job to a worker, blocking while there is none : its own oldest job, else the newest
+	 * job of the most loaded other worker.
+	 * @param worker DaplugPoolWorker
+	 * @return DaplugPoolJob<?> the job, null when the pool is closed
+	 */
+	DaplugPoolJob<?> take(DaplugPoolWorker worker) {
+		try {
+			this.pending.acquire();
+		} catch (InterruptedException e) {
+			return null;
+		}
+		// the permit guarantees that one job is queued somewhere for this worker, until the pool is
+		// closed : submit() may then remove the job again
+		while (!this.closed) {
+			DaplugPoolJob<?> job = worker.getQueue().pollFirst();
+			if (job == null) {
+				job = steal(worker);
+				if (job != null)
+					worker.countStolen();
+			}
+			if (job != null) {
+				this.queued.decrementAndGet();
+				return job;
+			}
+			Thread.yield();
+		}
+		return null;
+	}
+
+	private DaplugPoolJob<?> steal(DaplugPoolWorker thief) {
+		DaplugPoolWorker victim = null;
+		int depth = 0;
+		for (DaplugPoolWorker w : this.workers) {
+			int size = w.getQueue().size();
+			if (w != thief && size > depth) {
+				depth = size;
+				victim = w;
+			}
+		}
+		if (victim != null) {
+			DaplugPoolJob<?> job = victim.getQueue().pollLast();
+			if (job != null)
+				return job;
+		}
+		// the most loaded queue was emptied meanwhile : any job will do
+		for (DaplugPoolWorker w : this.workers) {
+			DaplugPoolJob<?> job = w.getQueue().pollLast();
+			if (job != null)
+				return job;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.pool;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import io.daplug.session.DaplugSession;
+
+/**
+ * A task submitted to the pool, with its future result. The session is given by the worker which runs it.
+ *
+ * @param <T> result type
+ */
+final class DaplugPoolJob<T> extends FutureTask<T> {
+
+	private final SessionCall<T> call;
+
+	DaplugPoolJob(DaplugPoolTask<T> task) {
+		this(new SessionCall<T>(task));
+	}
+
+	private DaplugPoolJob(SessionCall<T> call) {
+		super(call);
+		this.call = call;
+	}
+
+	/**
+	 * Runs the task on the given session, in the calling (worker) thread
+	 * @param session DaplugSession
+	 */
+	void runOn(DaplugSession session) {
+		this.call.session = session;
+		run();
+	}
+
+	/**
+	 * Completes the job with an error, without running it
+	 * @param cause Throwable
+	 */
+	void fail(Throwable cause) {
+		setException(cause);
+	}
+
+	private static final class SessionCall<T> implements Callable<T> {
+
+		private final DaplugPoolTask<T> task;
+		private DaplugSession session = null;
+
+		SessionCall(DaplugPoolTask<T> task) {
+			this.task = task;
+		}
+
+		public T call() throws Exception {
+			return this.task.execute(this.session);
+		}
+	}
+}
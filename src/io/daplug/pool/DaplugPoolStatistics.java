@@ -0,0 +1,174 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.pool;
+
+/**
+ * An immutable snapshot of the counters of a DaplugPool.
+ * Per-dongle values are indexed as the dongles given to the pool.
+ *
+ */
+public final class DaplugPoolStatistics {
+
+	private final long uptimeNanos;
+	private final long submitted;
+	private final int queueDepth, peakQueueDepth;
+	private final int[] dongleQueueDepths;
+	private final double[] dongleEwmaNanos;
+	private final long[] dongleCompleted, dongleFailed, dongleStolen;
+
+	DaplugPoolStatistics(long uptimeNanos, long submitted, int queueDepth, int peakQueueDepth,
+			int[] dongleQueueDepths, double[] dongleEwmaNanos, long[] dongleCompleted, long[] dongleFailed,
+			long[] dongleStolen) {
+		this.uptimeNanos = uptimeNanos;
+		this.submitted = submitted;
+		this.queueDepth = queueDepth;
+		this.peakQueueDepth = peakQueueDepth;
+		this.dongleQueueDepths = dongleQueueDepths;
+		this.dongleEwmaNanos = dongleEwmaNanos;
+		this.dongleCompleted = dongleCompleted;
+		this.dongleFailed = dongleFailed;
+		this.dongleStolen = dongleStolen;
+	}
+
+	/**
+	 * @return long time since the pool was opened, in nanoseconds
+	 */
+	public long getUptimeNanos() {
+		return this.uptimeNanos;
+	}
+
+	/**
+	 * @return long number of requests submitted
+	 */
+	public long getSubmitted() {
+		return this.submitted;
+	}
+
+	/**
+	 * @return long number of requests completed successfully
+	 */
+	public long getCompleted() {
+		return sum(this.dongleCompleted);
+	}
+
+	/**
+	 * @return long number of requests completed with an error
+	 */
+	public long getFailed() {
+		return sum(this.dongleFailed);
+	}
+
+	/**
+	 * @return long number of requests run by another dongle than the one they were queued on
+	 */
+	public long getStolen() {
+		return sum(this.dongleStolen);
+	}
+
+	/**
+	 * @return int number of requests waiting in the queues
+	 */
+	public int getQueueDepth() {
+		return this.queueDepth;
+	}
+
+	/**
+	 * @return int highest number of requests waiting in the queues since the pool was opened
+	 */
+	public int getPeakQueueDepth() {
+		return this.peakQueueDepth;
+	}
+
+	/**
+	 * @return double requests completed (successfully or not) per second since the pool was opened
+	 */
+	public double getThroughput() {
+		if (this.uptimeNanos <= 0)
+			return 0;
+		return (getCompleted() + getFailed()) * 1e9 / this.uptimeNanos;
+	}
+
+	/**
+	 * @return int number of dongles
+	 */
+	public int getDongleCount() {
+		return this.dongleQueueDepths.length;
+	}
+
+	/**
+	 * @param dongle int dongle index
+	 * @return int number of requests waiting in the queue of the dongle
+	 */
+	public int getQueueDepth(int dongle) {
+		return this.dongleQueueDepths[dongle];
+	}
+
+	/**
+	 * @param dongle int dongle index
+	 * @return double average exchange time of the dongle (EWMA) in nanoseconds, 0 if it has not run a request yet
+	 */
+	public double getEwmaNanos(int dongle) {
+		return this.dongleEwmaNanos[dongle];
+	}
+
+	/**
+	 * @param dongle int dongle index
+	 * @return long number of requests completed successfully by the dongle
+	 */
+	public long getCompleted(int dongle) {
+		return this.dongleCompleted[dongle];
+	}
+
+	/**
+	 * @param dongle int dongle index
+	 * @return long number of requests completed with an error by the dongle
+	 */
+	public long getFailed(int dongle) {
+		return this.dongleFailed[dongle];
+	}
+
+	/**
+	 * @param dongle int dongle index
+	 * @return long number of requests the dongle took from the queue of another one
+	 */
+	public long getStolen(int dongle) {
+		return this.dongleStolen[dongle];
+	}
+
+	private static long sum(long[] values) {
+		long s = 0;
+		for (long v : values)
+			s += v;
+		return s;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("DaplugPool : %d submitted, %d completed, %d failed, %d stolen, %.1f req/s, queue %d (peak %d)",
+				getSubmitted(), getCompleted(), getFailed(), getStolen(), getThroughput(), getQueueDepth(), getPeakQueueDepth()));
+		for (int i = 0; i < getDongleCount(); i++) {
+			sb.append(String.format("%n  dongle %d : %d completed, %d failed, %d stolen, queue %d, ewma %.1f us",
+					i, getCompleted(i), getFailed(i), getStolen(i), getQueueDepth(i), getEwmaNanos(i) / 1000));
+		}
+		return sb.toString();
+	}
+}
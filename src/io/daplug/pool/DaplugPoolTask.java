@@ -0,0 +1,32 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.pool;
+
+import io.daplug.session.DaplugSessionTask;
+
+/**
+ * A unit of work run by a DaplugPool on one of its sessions.
+ * The session is authenticated and used by one task at a time; a task must not keep it.
+ *
+ * @param <T> result type
+ */
+public interface DaplugPoolTask<T> extends DaplugSessionTask<T> {
+}
@@ -0,0 +1,143 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.pool;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.session.DaplugSession;
+
+/**
+ * The worker thread of one dongle : it runs the jobs of its own queue (oldest first) and,
+ * when the queue is empty, steals the newest job of the most loaded worker.
+ * It keeps the exchange time average (EWMA) used by the pool to route the jobs.
+ * Once the pool is closed, it de-authenticates its session and closes its dongle : no job uses them anymore.
+ *
+ */
+final class DaplugPoolWorker implements Runnable, IDaplugPool {
+
+	private final DaplugPool pool;
+	private final int index;
+	private final DaplugDongle dongle;
+	private final DaplugSession session;
+	private final LinkedBlockingDeque<DaplugPoolJob<?>> queue = new LinkedBlockingDeque<DaplugPoolJob<?>>();
+	private final Thread thread;
+
+	private volatile boolean busy = false;
+	/* exchange time average in nanoseconds, 0 while no job has run */
+	private volatile double ewmaNanos = 0;
+	private final AtomicLong completed = new AtomicLong(), failed = new AtomicLong(), stolen = new AtomicLong();
+
+	DaplugPoolWorker(DaplugPool pool, int index, DaplugDongle dongle, DaplugSession session) {
+		this.pool = pool;
+		this.index = index;
+		this.dongle = dongle;
+		this.session = session;
+		this.thread = new Thread(this, WORKER_NAME + index);
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		this.thread.start();
+	}
+
+	public void run() {
+		while (true) {
+			DaplugPoolJob<?> job = this.pool.take(this);
+			if (job == null) {
+				// pool closed
+				DaplugPool.closeWorker(this);
+				return;
+			}
+			this.busy = true;
+			long start = System.nanoTime();
+			job.runOn(this.session);
+			long elapsed = System.nanoTime() - start;
+			this.busy = false;
+			double ewma = this.ewmaNanos;
+			this.ewmaNanos = (ewma == 0) ? elapsed : ewma + EWMA_ALPHA * (elapsed - ewma);
+			if (isFailed(job))
+				this.failed.incrementAndGet();
+			else
+				this.completed.incrementAndGet();
+		}
+	}
+
+	private static boolean isFailed(DaplugPoolJob<?> job) {
+		try {
+			job.get();
+			return false;
+		} catch (Exception e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Expected time before a new job given to this worker completes
+	 * @param defaultNanos double exchange time assumed while this worker has no average yet
+	 * @return double nanoseconds
+	 */
+	double expectedWait(double defaultNanos) {
+		double ewma = (this.ewmaNanos == 0) ? defaultNanos : this.ewmaNanos;
+		return (this.queue.size() + (this.busy ? 1 : 0) + 1) * ewma;
+	}
+
+	void waitEnd(long millis) throws InterruptedException {
+		this.thread.join(millis);
+	}
+
+	void countStolen() {
+		this.stolen.incrementAndGet();
+	}
+
+	int getIndex() {
+		return this.index;
+	}
+
+	DaplugDongle getDongle() {
+		return this.dongle;
+	}
+
+	DaplugSession getSession() {
+		return this.session;
+	}
+
+	LinkedBlockingDeque<DaplugPoolJob<?>> getQueue() {
+		return this.queue;
+	}
+
+	double getEwmaNanos() {
+		return this.ewmaNanos;
+	}
+
+	long getCompleted() {
+		return this.completed.get();
+	}
+
+	long getFailed() {
+		return this.failed.get();
+	}
+
+	long getStolen() {
+		return this.stolen.get();
+	}
+}
@@ -0,0 +1,39 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.pool;
+
+public interface IDaplugPool {
+
+	/**
+	 * Weight of the last task duration in the per-dongle exchange time average (EWMA)
+	 */
+	static final double EWMA_ALPHA = 0.2;
+
+	/**
+	 * Name prefix of the pool worker threads, followed by the dongle index
+	 */
+	static final String WORKER_NAME = "daplug-pool-";
+
+	/**
+	 * Time given to the workers to finish their current task when the pool is closed (ms)
+	 */
+	static final long CLOSE_TIMEOUT = 5000;
+}
@@ -0,0 +1,312 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.session;
+
+import java.util.concurrent.TimeUnit;
+
+import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.apdu.DaplugApduResponse;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugSessionException;
+import io.daplug.exception.DaplugStatusWordException;
+import io.daplug.keyset.DaplugKeyset;
+
+/**
+ * Asynchronous facade of a DaplugSession : each method queues the operation on the I/O thread owning the session
+ * (a DaplugSessionExecutor, one per dongle) and returns at once a DaplugFuture.
+ * A status word failure completes the future exceptionally with the DaplugException thrown by the session
+ * (a DaplugStatusWordException for exchange()).
+ *
+ * Operations run in submission order. Dependent operations can be chained without blocking :
+ * <pre>
+ * async.authenticate(keyset, level).then(new DaplugSessionFunction&lt;Void, byte[]&gt;() {
+ *     public byte[] apply(DaplugSession s, Void v) throws DaplugException {
+ *         return s.hmac(0x31, 0, null, null, data);
+ *     }
+ * }).addCallback(callback);
+ * </pre>
+ *
+ */
+public class DaplugAsyncSession {
+
+	private final DaplugSessionExecutor executor;
+	private final boolean ownExecutor;
+	private volatile long timeoutMillis = 0;
+
+	/**
+	 * Constructs an asynchronous session with its own I/O thread
+	 * @param session DaplugSession session owned by the I/O thread from now on
+	 */
+	public DaplugAsyncSession(DaplugSession session) {
+		this.executor = new DaplugSessionExecutor(session);
+		this.ownExecutor = true;
+	}
+
+	/**
+	 * Constructs an asynchronous session over an existing executor
+	 * @param executor DaplugSessionExecutor executor owning the session; close() does not close it
+	 */
+	public DaplugAsyncSession(DaplugSessionExecutor executor) {
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+
+	/**
+	 * Sets the timeout applied to each operation submitted from now on
+	 * @param timeout long 0 for no timeout
+	 * @param unit TimeUnit
+	 */
+	public void setTimeout(long timeout, TimeUnit unit) {
+		this.timeoutMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * @return long timeout applied to each operation in ms, 0 if none
+	 */
+	public long getTimeout() {
+		return this.timeoutMillis;
+	}
+
+	/**
+	 * @return DaplugSessionExecutor the executor owning the session
+	 */
+	public DaplugSessionExecutor getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * Runs any task on the session
+	 * @param task DaplugSessionTask<T>
+	 * @return DaplugFuture<T> result of the task
+	 */
+	public <T> DaplugFuture<T> submit(DaplugSessionTask<T> task) {
+		return DaplugFuture.<T> submit(this.executor, task).withTimeout(this.timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * See DaplugSession.exchange(). A status word other than 9000 fails the future with a DaplugStatusWordException.
+	 * @param apdu DaplugApduCommand
+	 * @return DaplugFuture<DaplugApduResponse> response
+	 */
+	public DaplugFuture<DaplugApduResponse> exchange(final DaplugApduCommand apdu) {
+		return submit(new DaplugSessionTask<DaplugApduResponse>() {
+			public DaplugApduResponse execute(DaplugSession s) throws DaplugException {
+				DaplugApduResponse r = s.exchange(apdu);
+				if (r == null)
+					throw new DaplugSessionException("exchange() - Invalid response !");
+				if (!r.normalEnding())
+					throw DaplugStatusWordException.valueOf(((r.getSW1() & 0xFF) << 8) | (r.getSW2() & 0xFF));
+				return r;
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.authenticate()
+	 * @param keys DaplugKeyset
+	 * @param mode int security level
+	 * @return DaplugFuture<Void>
+	 */
+	public DaplugFuture<Void> authenticate(final DaplugKeyset keys, final int mode) {
+		return submit(new DaplugSessionTask<Void>() {
+			public Void execute(DaplugSession s) throws DaplugException {
+				s.authenticate(keys, mode);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.authenticate()
+	 * @param keys DaplugKeyset
+	 * @param mode int security level
+	 * @param diversifier byte [] may be null
+	 * @param challenge byte [] may be null
+	 * @return DaplugFuture<Void>
+	 */
+	public DaplugFuture<Void> authenticate(final DaplugKeyset keys, final int mode, final byte[] diversifier,
+			final byte[] challenge) {
+		return submit(new DaplugSessionTask<Void>() {
+			public Void execute(DaplugSession s) throws DaplugException {
+				s.authenticate(keys, mode, diversifier, challenge);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.deAuthenticate()
+	 * @return DaplugFuture<Void>
+	 */
+	public DaplugFuture<Void> deAuthenticate() {
+		return submit(new DaplugSessionTask<Void>() {
+			public Void execute(DaplugSession s) {
+				s.deAuthenticate();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.selectPath()
+	 * @param path String
+	 * @return DaplugFuture<Void>
+	 */
+	public DaplugFuture<Void> selectPath(final String path) {
+		return submit(new DaplugSessionTask<Void>() {
+			public Void execute(DaplugSession s) throws DaplugException {
+				s.selectPath(path);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.selectFile()
+	 * @param id int file id
+	 * @return DaplugFuture<Void>
+	 */
+	public DaplugFuture<Void> selectFile(final int id) {
+		return submit(new DaplugSessionTask<Void>() {
+			public Void execute(DaplugSession s) throws DaplugException {
+				s.selectFile(id);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.readData()
+	 * @param offset int
+	 * @param length int
+	 * @return DaplugFuture<byte[]> data read
+	 */
+	public DaplugFuture<byte[]> readData(final int offset, final int length) {
+		return submit(new DaplugSessionTask<byte[]>() {
+			public byte[] execute(DaplugSession s) throws DaplugException {
+				return s.readData(offset, length);
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.writeData()
+	 * @param offset int
+	 * @param data byte []
+	 * @return DaplugFuture<Void>
+	 */
+	public DaplugFuture<Void> writeData(final int offset, final byte[] data) {
+		return submit(new DaplugSessionTask<Void>() {
+			public Void execute(DaplugSession s) throws DaplugException {
+				s.writeData(offset, data);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.encrypt()
+	 * @return DaplugFuture<byte[]> encrypted data
+	 */
+	public DaplugFuture<byte[]> encrypt(final int keyVersion, final int keyId, final int mode, final byte[] iv,
+			final byte[] div1, final byte[] div2, final byte[] clearData) {
+		return submit(new DaplugSessionTask<byte[]>() {
+			public byte[] execute(DaplugSession s) throws DaplugException {
+				return s.encrypt(keyVersion, keyId, mode, iv, div1, div2, clearData);
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.decrypt()
+	 * @return DaplugFuture<byte[]> clear data
+	 */
+	public DaplugFuture<byte[]> decrypt(final int keyVersion, final int keyId, final int mode, final byte[] iv,
+			final byte[] div1, final byte[] div2, final byte[] encryptedData) {
+		return submit(new DaplugSessionTask<byte[]>() {
+			public byte[] execute(DaplugSession s) throws DaplugException {
+				return s.decrypt(keyVersion, keyId, mode, iv, div1, div2, encryptedData);
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.getRandom()
+	 * @param length int
+	 * @return DaplugFuture<byte[]> random bytes
+	 */
+	public DaplugFuture<byte[]> getRandom(final int length) {
+		return submit(new DaplugSessionTask<byte[]>() {
+			public byte[] execute(DaplugSession s) throws DaplugException {
+				return s.getRandom(length);
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.hmac()
+	 * @return DaplugFuture<byte[]> signature
+	 */
+	public DaplugFuture<byte[]> hmac(final int keysetVersion, final int options, final byte[] div1,
+			final byte[] div2, final byte[] inData) {
+		return submit(new DaplugSessionTask<byte[]>() {
+			public byte[] execute(DaplugSession s) throws DaplugException {
+				return s.hmac(keysetVersion, options, div1, div2, inData);
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.hotp()
+	 * @return DaplugFuture<byte[]> one time password
+	 */
+	public DaplugFuture<byte[]> hotp(final int keysetVersion, final int options, final byte[] div1,
+			final byte[] div2, final byte[] inData) {
+		return submit(new DaplugSessionTask<byte[]>() {
+			public byte[] execute(DaplugSession s) throws DaplugException {
+				return s.hotp(keysetVersion, options, div1, div2, inData);
+			}
+		});
+	}
+
+	/**
+	 * See DaplugSession.totp()
+	 * @return DaplugFuture<byte[]> one time password
+	 */
+	public DaplugFuture<byte[]> totp(final int keysetVersion, final int options, final byte[] div1,
+			final byte[] div2, final byte[] inData) {
+		return submit(new DaplugSessionTask<byte[]>() {
+			public byte[] execute(DaplugSession s) throws DaplugException {
+				return s.totp(keysetVersion, options, div1, div2, inData);
+			}
+		});
+	}
+
+	/**
+	 * Stops the I/O thread once the queued operations are done, if this object created it
+	 * @param waitMillis long maximum time to wait for the queued operations (ms)
+	 * @throws InterruptedException
+	 */
+	public void close(long waitMillis) throws InterruptedException {
+		if (this.ownExecutor)
+			this.executor.close(waitMillis);
+	}
+}
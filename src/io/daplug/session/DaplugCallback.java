@@ -0,0 +1,42 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.session;
+
+/**
+ * Receives the outcome of a DaplugFuture
+ *
+ * @param <T> result type
+ */
+public interface DaplugCallback<T> {
+
+	/**
+	 * Called when the operation succeeded
+	 * @param result T
+	 */
+	void onSuccess(T result);
+
+	/**
+	 * Called when the operation failed, timed out or was cancelled
+	 * @param cause Throwable DaplugException (a DaplugStatusWordException for a status word failure),
+	 * TimeoutException or CancellationException
+	 */
+	void onFailure(Throwable cause);
+}
@@ -0,0 +1,318 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugSessionException;
+
+/**
+ * The pending result of an operation run by a DaplugSessionExecutor.
+ * Besides the blocking Future methods, callbacks can be registered and dependent operations chained
+ * with then(), so that a sequence such as authenticate-then-hmac does not block any thread.
+ *
+ * Callbacks run on the thread completing the future : usually the executor thread, which must not be blocked
+ * (no get() on another operation of the same session in a callback). A callback registered on a completed
+ * future runs on the registering thread.
+ *
+ * Cancelling or timing out an operation which has not started yet removes it : it is never sent to the dongle.
+ * An operation already sent runs to the end, as an USB exchange can not be interrupted; its result is dropped.
+ *
+ * @param <T> result type
+ */
+public class DaplugFuture<T> implements Future<T> {
+
+	private static final int PENDING = 0, SUCCEEDED = 1, FAILED = 2, CANCELLED = 3;
+
+	/* fires the timeouts of all futures */
+	private static ScheduledThreadPoolExecutor timer = null;
+
+	private final DaplugSessionExecutor executor;
+	private int state = PENDING;
+	private T result = null;
+	private Throwable cause = null;
+	private List<DaplugCallback<? super T>> callbacks = null;
+
+	DaplugFuture(DaplugSessionExecutor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Runs a task on the session owned by an executor
+	 * @param executor DaplugSessionExecutor
+	 * @param task DaplugSessionTask<T>
+	 * @return DaplugFuture<T> result of the task
+	 */
+	static <T> DaplugFuture<T> submit(DaplugSessionExecutor executor, final DaplugSessionTask<? extends T> task) {
+		final DaplugFuture<T> future = new DaplugFuture<T>(executor);
+		if (executor.isExecutorThread()) {
+			// called from a callback : run now rather than queue behind ourselves
+			future.runOn(executor.getSession(), task);
+			return future;
+		}
+		try {
+			executor.submit(new DaplugSessionTask<Void>() {
+				public Void execute(DaplugSession session) {
+					future.runOn(session, task);
+					return null;
+				}
+			}, future);
+		} catch (DaplugSessionException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+
+	private void runOn(DaplugSession session, DaplugSessionTask<? extends T> task) {
+		if (isDone())
+			return;
+		try {
+			complete(task.execute(session));
+		} catch (Throwable t) {
+			fail(t);
+		}
+	}
+
+	/**
+	 * Chains an operation run on the same session once this one succeeded.
+	 * If this operation fails, the returned future fails with the same cause.
+	 * Cancelling the returned future, or its timing out, stops the chain : the chained operation is not sent
+	 * to the dongle if it has not started yet.
+	 * @param function DaplugSessionFunction<T, U>
+	 * @return DaplugFuture<U> result of the chained operation
+	 */
+	public <U> DaplugFuture<U> then(final DaplugSessionFunction<? super T, U> function) {
+		final DaplugFuture<U> next = new DaplugFuture<U>(this.executor);
+		addCallback(new DaplugCallback<T>() {
+			public void onSuccess(final T previous) {
+				// cancelled or timed out while this operation ran
+				if (next.isDone())
+					return;
+				final DaplugFuture<U> f = submit(executor, new DaplugSessionTask<U>() {
+					public U execute(DaplugSession session) throws DaplugException {
+						return function.apply(session, previous);
+					}
+				});
+				f.addCallback(new DaplugCallback<U>() {
+					public void onSuccess(U result) {
+						next.complete(result);
+					}
+
+					public void onFailure(Throwable cause) {
+						next.fail(cause);
+					}
+				});
+				// next done first (cancelled, timed out) : the chained operation is dropped if it has not started
+				next.addCallback(new DaplugCallback<U>() {
+					public void onSuccess(U result) {
+					}
+
+					public void onFailure(Throwable cause) {
+						f.cancel(false);
+					}
+				});
+			}
+
+			public void onFailure(Throwable cause) {
+				next.fail(cause);
+			}
+		});
+		return next;
+	}
+
+	/**
+	 * Fails this future with a TimeoutException if it is not done within the given time
+	 * @param timeout long
+	 * @param unit TimeUnit
+	 * @return DaplugFuture<T> this future
+	 */
+	public DaplugFuture<T> withTimeout(final long timeout, final TimeUnit unit) {
+		if (timeout <= 0 || isDone())
+			return this;
+		final ScheduledFuture<?> expiry = timer().schedule(new Runnable() {
+			public void run() {
+				if (!isDone())
+					fail(new TimeoutException("Daplug operation timed out after " + unit.toMillis(timeout) + " ms"));
+			}
+		}, timeout, unit);
+		addCallback(new DaplugCallback<T>() {
+			public void onSuccess(T result) {
+				expiry.cancel(false);
+			}
+
+			public void onFailure(Throwable cause) {
+				expiry.cancel(false);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Registers a callback, run once the future is done
+	 * @param callback DaplugCallback<T>
+	 */
+	public void addCallback(DaplugCallback<? super T> callback) {
+		synchronized (this) {
+			if (this.state == PENDING) {
+				if (this.callbacks == null)
+					this.callbacks = new ArrayList<DaplugCallback<? super T>>(2);
+				this.callbacks.add(callback);
+				return;
+			}
+		}
+		call(callback);
+	}
+
+	/**
+	 * Completes the future with a result
+	 * @param value T
+	 * @return boolean false if the future was already done
+	 */
+	boolean complete(T value) {
+		List<DaplugCallback<? super T>> l;
+		synchronized (this) {
+			if (this.state != PENDING)
+				return false;
+			this.result = value;
+			this.state = SUCCEEDED;
+			l = done();
+		}
+		fire(l);
+		return true;
+	}
+
+	/**
+	 * Completes the future with a failure
+	 * @param failure Throwable
+	 * @return boolean false if the future was already done
+	 */
+	boolean fail(Throwable failure) {
+		return finish(failure, FAILED);
+	}
+
+	/**
+	 * Cancels the operation if it is not done. An operation not started yet is never sent to the dongle.
+	 * @param mayInterruptIfRunning boolean ignored : a running exchange is never interrupted
+	 * @return boolean false if the future was already done
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(new CancellationException("Daplug operation cancelled"), CANCELLED);
+	}
+
+	private boolean finish(Throwable failure, int finalState) {
+		List<DaplugCallback<? super T>> l;
+		synchronized (this) {
+			if (this.state != PENDING)
+				return false;
+			this.cause = failure;
+			this.state = finalState;
+			l = done();
+		}
+		fire(l);
+		return true;
+	}
+
+	/* called with the lock held */
+	private List<DaplugCallback<? super T>> done() {
+		List<DaplugCallback<? super T>> l = this.callbacks;
+		this.callbacks = null;
+		notifyAll();
+		return l;
+	}
+
+	private void fire(List<DaplugCallback<? super T>> l) {
+		if (l != null) {
+			for (DaplugCallback<? super T> c : l)
+				call(c);
+		}
+	}
+
+	private void call(DaplugCallback<? super T> callback) {
+		try {
+			if (this.state == SUCCEEDED)
+				callback.onSuccess(this.result);
+			else
+				callback.onFailure(this.cause);
+		} catch (RuntimeException e) {
+			// a failing callback must not break the executor thread nor the other callbacks
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized boolean isCancelled() {
+		return this.state == CANCELLED;
+	}
+
+	public synchronized boolean isDone() {
+		return this.state != PENDING;
+	}
+
+	public synchronized T get() throws InterruptedException, ExecutionException {
+		while (this.state == PENDING)
+			wait();
+		return report();
+	}
+
+	public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (this.state == PENDING) {
+			long left = deadline - System.nanoTime();
+			if (left <= 0)
+				throw new TimeoutException("DaplugFuture.get() - timed out");
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return report();
+	}
+
+	/* called with the lock held, once done */
+	private T report() throws ExecutionException {
+		if (this.state == SUCCEEDED)
+			return this.result;
+		if (this.state == CANCELLED)
+			throw (CancellationException) this.cause;
+		throw new ExecutionException(this.cause);
+	}
+
+	private static synchronized ScheduledThreadPoolExecutor timer() {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "daplug-future-timer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			timer.setRemoveOnCancelPolicy(true);
+		}
+		return timer;
+	}
+}
@@ -0,0 +1,269 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.session;
+
+import java.util.Arrays;
+
+import io.daplug.apdu.DaplugApduResponseView;
+import io.daplug.exception.DaplugStatusWordException;
+import io.daplug.utils.DaplugHexCodec;
+
+/**
+ * The result of a DaplugSession operation which does not throw on the status words of the card :
+ * the status word, the typed outcome and the response data. A refusal of the card is an expected result
+ * (an invalid OTP, a missing file...), read with getOutcome() instead of catching an exception.
+ * Invalid parameters, transport failures and secure channel failures are still thrown.
+ *
+ * A result is filled again by each operation it is given to, so that a caller looping on an operation
+ * allocates nothing : its data buffer only grows when a response does not fit.
+ * A result is not thread-safe : it is confined to the thread using it.
+ *
+ */
+public final class DaplugResult {
+
+	/**
+	 * Outcome : status word 9000
+	 */
+	public static final int OK = 0;
+
+	/**
+	 * Outcome : status word 67xx, wrong length
+	 */
+	public static final int WRONG_LENGTH = 1;
+
+	/**
+	 * Outcome : status word 6982, security status not satisfied (key access, secure channel level...)
+	 */
+	public static final int SECURITY_NOT_SATISFIED = 2;
+
+	/**
+	 * Outcome : status word 6985, conditions of use not satisfied
+	 */
+	public static final int CONDITIONS_NOT_SATISFIED = 3;
+
+	/**
+	 * Outcome : status word 6A80, incorrect data (a refused OTP...)
+	 */
+	public static final int WRONG_DATA = 4;
+
+	/**
+	 * Outcome : status word 6A82 or 6A88, file or key not found
+	 */
+	public static final int NOT_FOUND = 5;
+
+	/**
+	 * Outcome : the file ends before the requested length (status word 6282, as ISO 7816-4 gives it)
+	 */
+	public static final int END_OF_FILE = 6;
+
+	/**
+	 * Outcome : any other status word
+	 */
+	public static final int FAILED = 7;
+
+	/**
+	 * Status word of an END_OF_FILE outcome
+	 */
+	public static final int SW_END_OF_FILE = 0x6282;
+
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private byte[] data;
+	private int dataLength = 0, sw = 0, outcome = FAILED;
+
+	/**
+	 * Constructs a result holding up to 256 bytes of data before growing
+	 */
+	public DaplugResult() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a result
+	 * @param capacity int initial capacity of the data buffer
+	 */
+	public DaplugResult(int capacity) {
+		this.data = new byte[capacity];
+	}
+
+	/**
+	 * Gets the outcome of a status word
+	 * @param sw int status word
+	 * @return int outcome : OK, WRONG_LENGTH, SECURITY_NOT_SATISFIED, CONDITIONS_NOT_SATISFIED, WRONG_DATA, NOT_FOUND,
+	 * END_OF_FILE or FAILED
+	 */
+	public static int outcomeOf(int sw) {
+		switch (sw) {
+		case 0x9000:
+			return OK;
+		case 0x6982:
+			return SECURITY_NOT_SATISFIED;
+		case 0x6985:
+			return CONDITIONS_NOT_SATISFIED;
+		case 0x6A80:
+			return WRONG_DATA;
+		case 0x6A82:
+		case 0x6A88:
+			return NOT_FOUND;
+		case SW_END_OF_FILE:
+			return END_OF_FILE;
+		default:
+			return (sw >>> 8) == 0x67 ? WRONG_LENGTH : FAILED;
+		}
+	}
+
+	/**
+	 * @return int outcome of the operation
+	 */
+	public int getOutcome() {
+		return this.outcome;
+	}
+
+	/**
+	 * @return boolean true if the operation succeeded (status word 9000)
+	 */
+	public boolean isOk() {
+		return this.outcome == OK;
+	}
+
+	/**
+	 * @return int status word of the operation (of its last command, for an operation sending several)
+	 */
+	public int getSW() {
+		return this.sw;
+	}
+
+	/**
+	 * @return int first byte of the status word
+	 */
+	public int getSW1() {
+		return this.sw >>> 8;
+	}
+
+	/**
+	 * @return int second byte of the status word
+	 */
+	public int getSW2() {
+		return this.sw & 0xFF;
+	}
+
+	/**
+	 * @return int length of the response data
+	 */
+	public int getDataLength() {
+		return this.dataLength;
+	}
+
+	/**
+	 * @return byte [] buffer holding the response data from offset 0, valid until this result is filled again
+	 */
+	public byte[] getBuffer() {
+		return this.data;
+	}
+
+	/**
+	 * @return byte [] copy of the response data
+	 */
+	public byte[] getData() {
+		return Arrays.copyOf(this.data, this.dataLength);
+	}
+
+	/**
+	 * Copies the response data into a buffer
+	 * @param dst byte [] buffer
+	 * @param offset int offset where the data is written
+	 * @return int data length
+	 */
+	public int copyData(byte[] dst, int offset) {
+		System.arraycopy(this.data, 0, dst, offset, this.dataLength);
+		return this.dataLength;
+	}
+
+	/**
+	 * Throws if the operation did not succeed : the thrown exception has no stack trace and is shared
+	 * by all the results of the same status word.
+	 * @return DaplugResult this result
+	 * @throws DaplugStatusWordException if the outcome is not OK
+	 */
+	public DaplugResult check() throws DaplugStatusWordException {
+		if (this.outcome != OK)
+			throw DaplugStatusWordException.valueOf(this.sw);
+		return this;
+	}
+
+	/**
+	 * Empties the result before an operation
+	 * @return DaplugResult this result
+	 */
+	DaplugResult reset() {
+		this.dataLength = 0;
+		this.sw = 0;
+		this.outcome = FAILED;
+		return this;
+	}
+
+	/**
+	 * Sets the status word, and its outcome
+	 * @param sw int status word
+	 * @return DaplugResult this result
+	 */
+	DaplugResult status(int sw) {
+		this.sw = sw;
+		this.outcome = outcomeOf(sw);
+		return this;
+	}
+
+	/**
+	 * Appends a part of the data of a response
+	 * @param response DaplugApduResponseView
+	 * @param length int number of bytes, at most the response data length
+	 * @return DaplugResult this result
+	 */
+	DaplugResult append(DaplugApduResponseView response, int length) {
+		int needed = this.dataLength + length;
+		if (needed > this.data.length)
+			this.data = Arrays.copyOf(this.data, Math.max(needed, 2 * this.data.length));
+		System.arraycopy(response.getBuffer(), response.getOffset(), this.data, this.dataLength, length);
+		this.dataLength = needed;
+		return this;
+	}
+
+	/**
+	 * Fills the result with a whole response : its data and its status word
+	 * @param response DaplugApduResponseView
+	 * @return DaplugResult this result
+	 */
+	DaplugResult set(DaplugApduResponseView response) {
+		this.dataLength = 0;
+		return append(response, response.getDataLen()).status(response.getStatusWord());
+	}
+
+	/**
+	 * @return String outcome, status word and data in hexadecimal
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder(32 + 2 * this.dataLength);
+		sb.append("DaplugResult[outcome=").append(this.outcome).append(", sw=").append(Integer.toHexString(this.sw));
+		sb.append(", data=");
+		DaplugHexCodec.append(this.data, 0, this.dataLength, sb);
+		return sb.append(']').toString();
+	}
+}
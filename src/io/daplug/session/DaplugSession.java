@@ -21,25 +21,35 @@
 
 package io.daplug.session;
 
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Scanner;
 import java.util.Vector;
 
+import io.daplug.apdu.DaplugApduBuilder;
 import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.apdu.DaplugApduCommandView;
+import io.daplug.apdu.DaplugInstruction;
 import io.daplug.apdu.DaplugApduResponse;
+import io.daplug.apdu.DaplugApduResponseView;
 import io.daplug.crypto.DaplugCrypto;
+import io.daplug.crypto.DaplugCryptoContext;
+import io.daplug.crypto.DaplugRetailMac;
 import io.daplug.dongle.DaplugDongle;
 import io.daplug.dongle.DaplugEnumerator;
+import io.daplug.dongle.IDaplugDongle;
 import io.daplug.exception.DaplugApduException;
-import io.daplug.exception.DaplugCommunicationException;
 import io.daplug.exception.DaplugCryptoException;
 import io.daplug.exception.DaplugException;
 import io.daplug.exception.DaplugSamException;
 import io.daplug.exception.DaplugSessionException;
-import io.daplug.exception.DaplugStatusWordException;
+import io.daplug.exception.DaplugTimeoutException;
 import io.daplug.keyset.DaplugKeyset;
+import io.daplug.jfr.DaplugFlightRecorder;
+import io.daplug.metrics.DaplugDongleMetrics;
+import io.daplug.metrics.DaplugMetrics;
+import io.daplug.trace.DaplugTrace;
+import io.daplug.trace.DaplugTraceSink;
 import io.daplug.utils.DaplugUtils;
 
 /**
@@ -62,9 +72,26 @@ public final class DaplugSession implements SessionConstante{
 			        cMacKey, /* Session command integrity key (used for integrity) */
 			        rMacKey, /* Session response integrity key (used for integrity) */
 			        sDekKey; /* Session DEK key (used for command data confidentiality in specific cases such as PUT KEY command) */
+	
+	private DaplugCryptoContext crypto = null; /* Session keys ciphers, created by each authentication */
+	
+	/* Exchange buffers : a command is wrapped and its response unwrapped in place */
+	private final byte[] commandBuffer = new byte[DaplugApduCommand.APDU_COMMAND_MAX_LEN + 2 * MAC_LEN],
+					responseBuffer = new byte[IDaplugDongle.RESPONSE_MAX_LEN],
+					hostRMac = new byte[MAC_LEN];
+	private final DaplugApduResponseView responseView = new DaplugApduResponseView();
+	private final DaplugApduBuilder builder = new DaplugApduBuilder(); /* Forms the commands of the session methods */
+	private DaplugTraceSink trace = DaplugTrace.getSink(); /* Receives the exchanged apdus and the messages of the session */
+	
+	/* Constant parts of the commands data */
+	private static final byte[] GP_KEY_TYPE = {(byte) 0xFF, (byte) 0x80, 0x10}, /* PUT KEY : key type and length */
+					FILE_FCP = {0x62, 0x14, (byte) 0x82, 0x02, 0x01, 0x21, (byte) 0x83, 0x02}, /* CREATE FILE : file descriptor, then file id */
+					DIR_FCP = {0x62, 0x0E, (byte) 0x82, 0x02, 0x32, 0x21, (byte) 0x83, 0x02}, /* CREATE FILE : directory descriptor, then file id */
+					ZERO_IV = new byte[8];
 
     private int securityLevel; /* Security level of the secure channel */
     private boolean session_opened; /* A flag indicating if a secure channel session is established or no. */
+    private boolean authenticated = false; /* A flag indicating if a secure channel was ever established by this session. */
     
     /**
      * Constructs a new DaplugSession() object.
@@ -138,46 +165,93 @@ public final class DaplugSession implements SessionConstante{
      */
     public DaplugApduResponse exchange(DaplugApduCommand apdu) throws DaplugException {
     	
-    	//Wrap
-    	DaplugApduCommand wrappedApdu = this.wrapApdu(apdu);
-    	
-    	//Base exchange
-    	String[] responseHexStr = new String[2];
-    	
-    	if(this.dongle != null){
-    		try{
-					responseHexStr = this.dongle.exchange(wrappedApdu.toString());
-				} catch (DaplugCommunicationException
-						| DaplugStatusWordException 
-						| IOException | DaplugSessionException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-    	}else{
-    		throw new DaplugSessionException("Session dongle not initialized !");
-    	}
-    	
-    	String resp = new String();
-    	resp = resp.concat(responseHexStr[0]);
-    	resp = resp.concat(responseHexStr[1]);
-    	
-    	byte[] responseBytes = DaplugUtils.hexStringToByteArray(resp);
+    	//Wrap into the session command buffer, then base exchange : data followed by the status word, no hex conversion
+    	byte[] bytes = apdu.getBytes();
+    	DaplugDongleMetrics metrics = this.metrics();
+    	Object event = DaplugFlightRecorder.beginExchange();
+    	int level = this.securityLevel, wrappedLen = 0, responseLen = 0;
     	
     	//Unwrap
     	DaplugApduResponse retResponse = null;
     	
     	try{
-    		retResponse = this.unwrapApdu(apdu, responseBytes);
-    	}catch(DaplugSessionException e){
-    		System.err.println(e.getMessage());
-    	}   
-    	
-    	System.out.println("=> " + wrappedApdu.toString());
-    	System.out.println("<= " + DaplugUtils.byteArrayToHexString(responseBytes));
+    		long start = (metrics != null) ? System.nanoTime() : 0;
+    		wrappedLen = this.wrapCommand(bytes, 0, bytes.length);
+    		long wrapped = (metrics != null) ? System.nanoTime() : 0;
+    		responseLen = this.transmitCommand(wrappedLen);
+    		long received = (metrics != null) ? System.nanoTime() : 0;
+    		try{
+    			int len = this.unwrapResponse(bytes, 0, bytes.length, responseLen);
+    			if(metrics != null){
+    				this.recordExchange(metrics, bytes[1], start, wrapped, received, wrappedLen, responseLen, len);
+    			}
+    			retResponse = new DaplugApduResponse(this.responseBuffer, 0, len);
+    		}catch(DaplugSessionException e){
+    			System.err.println(e.getMessage());
+    		}catch(DaplugApduException e){
+    			System.err.println(e.getMessage());
+    		}
+    	}finally{
+    		if(event != null){
+    			this.commitExchange(event, bytes, 0, bytes.length, level, wrappedLen, responseLen);
+    		}
+    	}
     	
     	return retResponse;
     }
     
+    /**
+     * Exchanges an Apdu command according to the security level of the secure channel, without copy nor allocation :
+     * the command is wrapped into a buffer of the session and the response is unwrapped in place.
+     * @param apdu The Apdu command to be exchanged. Its buffer is left untouched.
+     * @return the Apdu response : a view over the response buffer of the session, valid until the next exchange on this session.
+     * @throws DaplugException if an error occurs during the exchange or if the response can not be unwrapped.
+     */
+    public DaplugApduResponseView exchange(DaplugApduCommandView apdu) throws DaplugException {
+    	byte[] buffer = apdu.getBuffer();
+    	int offset = apdu.getOffset(),
+    		length = apdu.getLength();
+    	DaplugDongleMetrics metrics = this.metrics();
+    	Object event = DaplugFlightRecorder.beginExchange();
+    	int level = this.securityLevel, wrappedLen = 0, responseLen = 0;
+    	try{
+    		long start = (metrics != null) ? System.nanoTime() : 0;
+    		wrappedLen = this.wrapCommand(buffer, offset, length);
+    		long wrapped = (metrics != null) ? System.nanoTime() : 0;
+    		responseLen = this.transmitCommand(wrappedLen);
+    		long received = (metrics != null) ? System.nanoTime() : 0;
+    		int len = this.unwrapResponse(buffer, offset, length, responseLen);
+    		if(metrics != null){
+    			this.recordExchange(metrics, buffer[offset + 1], start, wrapped, received, wrappedLen, responseLen, len);
+    		}
+    		return this.responseView.wrap(this.responseBuffer, 0, len);
+    	}finally{
+    		if(event != null){
+    			this.commitExchange(event, buffer, offset, length, level, wrappedLen, responseLen);
+    		}
+    	}
+    }
+    
+    /**
+     * Sets the sink receiving the trace of this session : the wrapped commands, the responses and the informative messages.
+     * @param trace the sink, null to disable the trace of this session.
+     */
+    public void setTraceSink(DaplugTraceSink trace){
+    	this.trace = (trace == null) ? DaplugTrace.NONE : trace;
+    }
+    
+    /**
+     * @return the sink receiving the trace of this session, DaplugTrace.getSink() when the session was constructed unless it was set.
+     */
+    public DaplugTraceSink getTraceSink(){
+    	return this.trace;
+    }
+    
+    //Exchange the command formed by a builder of the session
+    private DaplugApduResponseView send(DaplugApduBuilder command) throws DaplugException {
+    	return this.exchange(command.view());
+    }
+    
     /**
      * Get the unique serial number for the selected Daplug dongle.
      * @return Returned serial.
@@ -187,8 +261,7 @@ public final class DaplugSession implements SessionConstante{
     	byte[] serial = null;
     	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray("80E6000000"));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.GET_SERIAL));
     		if(r.normalEnding())
     			serial = r.getData();
     		else
@@ -239,8 +312,7 @@ public final class DaplugSession implements SessionConstante{
     	byte[] bytesBuf = null;
     	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray("80F2400000"));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.GET_STATUS));
     		if(r.normalEnding())
     			bytesBuf = r.getData();
     		else
@@ -269,15 +341,10 @@ public final class DaplugSession implements SessionConstante{
      */
     public void setDongleStatus(int status){
     	
-    	String apduStr = new String("80F040");
-    	apduStr = apduStr.concat(String.format("%02X", status));
-    	apduStr = apduStr.concat("00");
-    	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(apduStr));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.SET_STATUS).p2(status));
     		if(r.normalEnding()){
-    			System.out.println("setDongleStatus() - Dongle status set");;
+    			if(this.trace.isEnabled()) this.trace.message("setDongleStatus() - Dongle status set");
     		}else{
     			throw new DaplugSessionException("setDongleStatus() - Cannot set status !");
     		}
@@ -302,6 +369,20 @@ public final class DaplugSession implements SessionConstante{
      * @throws DaplugCryptoException if an error occurs when performing the mutual authentication.
      */
     public void authenticate(DaplugKeyset keys, int mode, byte[] diversifier, byte[] challenge) throws DaplugException{
+    	Object event = DaplugFlightRecorder.beginSecureChannel();
+    	boolean succeeded = false;
+    	try{
+    		this.openSecureChannel(keys, mode, diversifier, challenge);
+    		succeeded = true;
+    	}finally{
+    		if(event != null){
+    			DaplugFlightRecorder.endSecureChannel(event, this.dongleName(), "authenticate", keys.getVersion(), this.securityLevel, succeeded);
+    		}
+    	}
+    }
+    
+    //Mutual authentication, see authenticate()
+    private void openSecureChannel(DaplugKeyset keys, int mode, byte[] diversifier, byte[] challenge) throws DaplugException{
     
     	byte[]	hostChallenge = new byte[8],
     			counter = new byte[2],
@@ -310,11 +391,6 @@ public final class DaplugSession implements SessionConstante{
     	    	hostCryptogram = new byte[8],
     			computedCardCryptogram = new byte[8];
     	
-    	String temp = new String();
-    	
-    	DaplugApduCommand initializeUpdate = null,
-    				externalAuthenticate = null;
-    	
     	//Close Any SC previously opened
     	this.deAuthenticate();
     	
@@ -345,32 +421,17 @@ public final class DaplugSession implements SessionConstante{
     		}
     	}
     	
-    	//keyset version
-    	String version = String.format("%02X", keys.getVersion());
-    	
-    	//Form the initialize apdu buf
+    	//Form the initialize update apdu
     	if(diversifier == null){
-    		temp = temp.concat("8050");
-    		temp = temp.concat(version);
-    		temp = temp.concat("0008");
-    		temp = temp.concat(DaplugUtils.byteArrayToHexString(hostChallenge));
+    		this.builder.start(DaplugInstruction.INITIALIZE_UPDATE).p1(keys.getVersion()).bytes(hostChallenge);
     	}else{
-    		temp = temp.concat("D050");
-    		temp = temp.concat(version);
-    		temp = temp.concat("1018");
-    		temp = temp.concat(DaplugUtils.byteArrayToHexString(hostChallenge));
-    		temp = temp.concat(DaplugUtils.byteArrayToHexString(diversifier));
+    		this.builder.start(DaplugInstruction.INITIALIZE_UPDATE_DIV).p1(keys.getVersion()).bytes(hostChallenge).bytes(diversifier);
     	}
-		try{
-			initializeUpdate = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(temp));
-		}catch(Exception e){
-			System.err.println(e.getMessage());
-		}
 		
 		//Exchange
-		DaplugApduResponse r = null;
+		DaplugApduResponseView r = null;
 		try{
-			r = this.exchange(initializeUpdate);
+			r = this.send(this.builder);
 		}catch(DaplugException e){
 			System.err.println(e.getMessage());
 		}
@@ -380,9 +441,9 @@ public final class DaplugSession implements SessionConstante{
 		}
 		
 		//Extract data returned by the card
-		System.arraycopy(r.getData(), 12, counter, 0, counter.length);
-		System.arraycopy(r.getData(), 12+counter.length, cardChallenge, 0, cardChallenge.length);
-		System.arraycopy(r.getData(), 12+counter.length+cardChallenge.length, cardCryptogram, 0, cardCryptogram.length);
+		r.copyData(12, counter, 0, counter.length);
+		r.copyData(12+counter.length, cardChallenge, 0, cardChallenge.length);
+		r.copyData(12+counter.length+cardChallenge.length, cardCryptogram, 0, cardCryptogram.length);
 		
 		//Compute session keys
 		//Session s-enc key
@@ -396,6 +457,8 @@ public final class DaplugSession implements SessionConstante{
 		this.rMacKey = DaplugCrypto.computeSessionKey(counter, DaplugCrypto.KEY_CONSTANT_R_MAC, keys.getKey(1));
 		//Session dek key. In case of need it will be used. (to form "put key" command for example)
 		this.sDekKey = DaplugCrypto.computeSessionKey(counter, DaplugCrypto.KEY_CONSTANT_DEK, keys.getKey(2));
+		//Ciphers of the session keys, initialized once for the whole session
+		this.crypto = new DaplugCryptoContext(this.sEncKey, this.rEncKey, this.cMacKey, this.rMacKey, this.sDekKey);
 		
 		//Compute card cryptogram
 		computedCardCryptogram = DaplugCrypto.computeCardCryptogram(hostChallenge, cardChallenge, counter, this.sEncKey);
@@ -407,25 +470,11 @@ public final class DaplugSession implements SessionConstante{
 			//Form the external authenticate apdu
 			//compute host cryptogram
 			hostCryptogram = DaplugCrypto.computeHostCryptogram(hostChallenge, cardChallenge, counter, this.sEncKey);
-			//security level
-			String secLevel = String.format("%02X", mode);
-			
-			temp = "";
-			temp = temp.concat("8082");
-			temp = temp.concat(secLevel);
-			temp = temp.concat("0008");
-			temp = temp.concat(DaplugUtils.byteArrayToHexString(hostCryptogram));
-			
-			try{
-				externalAuthenticate = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(temp));
-			}catch(DaplugApduException e){
-				System.err.println(e.getMessage());
-			}
 			
 			//Exchange
 			r = null;
 			try{
-				r = this.exchange(externalAuthenticate);
+				r = this.send(this.builder.start(DaplugInstruction.EXTERNAL_AUTHENTICATE).p1(mode).bytes(hostCryptogram));
 			}catch(DaplugException e){
 				System.err.println(e.getMessage());
 			}
@@ -436,7 +485,12 @@ public final class DaplugSession implements SessionConstante{
 			
 		}
 		
-		System.out.println("authenticate() - Successful authentication...");		
+		if(this.trace.isEnabled()) this.trace.message("authenticate() - Successful authentication...");
+		DaplugDongleMetrics metrics = this.metrics();
+		if(metrics != null){
+			metrics.recordAuthentication(this.authenticated);
+		}
+		this.authenticated = true;
 		
 		//Update session 
 		System.arraycopy(this.cMac, 0, this.rMac, 0, MAC_LEN);
@@ -491,22 +545,29 @@ public final class DaplugSession implements SessionConstante{
     public void deAuthenticate(){
     	
     	if(this.session_opened){		
+    		Object event = DaplugFlightRecorder.beginSecureChannel();
+    		int level = this.securityLevel;
+    		boolean succeeded = false;
     		//send Any Apdu to close the SC
     		try{
-        		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray("0000000000"));
-        		DaplugApduResponse r = this.exchange(a);
+        		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.CLOSE_SECURE_CHANNEL));
         		if(!r.normalEnding()){
-        			System.out.println("deAuthenticate() - De-authentication...");
+        			if(this.trace.isEnabled()) this.trace.message("deAuthenticate() - De-authentication...");
+        			succeeded = true;
         		}else{
         			throw new DaplugSessionException("deAuthenticate() - De-authentication failed !");
         		}
         	}catch(DaplugException e){
         		System.err.println(e.getMessage());
         	}   		
+    		if(event != null){
+    			DaplugFlightRecorder.endSecureChannel(event, this.dongleName(), "deAuthenticate", 0, level, succeeded);
+    		}
         	//this.donglesList = null;
         	//this.dongle = null; 		
     		this.securityLevel = 0;
     		this.session_opened = false;
+    		this.crypto = null;
     	}
     }
     
@@ -541,26 +602,6 @@ public final class DaplugSession implements SessionConstante{
 	 */
     public void putKey(DaplugKeyset k, boolean itselfParent, int mode) throws DaplugException{
 		
-		byte[] retBuf = null;
-		
-		String 	element1 = "80D8",
-				element2 = "", //numKeyset
-				element3 = "", //mode
-				element4 = "55", //Lc
-				element5 = "FF8010", //key type + key length
-				element6 = "", //GP-ENC key value, wrapped by session DEK
-				element7 = "03", //KCV length
-				element8 = "", //key1 KCV
-				element9 = "01", //key usage length
-				element10 = "", //key usage
-				element11 = "02", //key access length
-				element12 = "", //key access
-				element13 = "", //GP-MAC key value, wrapped by session DEK
-				element14 = "", //key2 kcv
-				element15 = "", //GP-DEK value, wrapped by session DEK
-				element16 = "", //key3 kcv
-				element17 = ""; //keyset diversifier value for a GP keyset
-		
 		//This keyset is the parent of itself?
 		int keysetUsage = 0;
 		if(itselfParent){
@@ -569,72 +610,25 @@ public final class DaplugSession implements SessionConstante{
 			keysetUsage = k.getUsage() & 0xFF;
 		}
 		
-		element2 = String.format("%02X", k.getVersion());
-		element3 = String.format("%02X", mode);
-		element10 = String.format("%02X", keysetUsage);
-		element12 = String.format("%04X", k.getAccess());
-		
-		//=== Encrypt GP keys ===
+		//Form the putkey apdu : keyset version, then for each GP key its value wrapped by session DEK, KCV, usage and access
+		this.builder.start(DaplugInstruction.PUT_KEY, k.getVersion(), mode).u8(k.getVersion());
 		
 		try{
-			//ENC key
-			element6 = DaplugUtils.byteArrayToHexString(DaplugCrypto.tripleDES_ECB_GP(k.getKey(0), this.sDekKey, DaplugCrypto.ENCRYPT));
-			//MAC key
-			element13 = DaplugUtils.byteArrayToHexString(DaplugCrypto.tripleDES_ECB_GP(k.getKey(1), this.sDekKey, DaplugCrypto.ENCRYPT));
-			//DEK key
-			element15 = DaplugUtils.byteArrayToHexString(DaplugCrypto.tripleDES_ECB_GP(k.getKey(2), this.sDekKey, DaplugCrypto.ENCRYPT));
-				
-			//=== Compute KCVs ===
-			//KCV1
-			element8 = DaplugUtils.byteArrayToHexString(DaplugCrypto.computeKCV(k.getKey(0)));
-			//KCV2
-			element14 = DaplugUtils.byteArrayToHexString(DaplugCrypto.computeKCV(k.getKey(1)));
-			//KCV3
-			element16 = DaplugUtils.byteArrayToHexString(DaplugCrypto.computeKCV(k.getKey(2)));
+			for(int i = 0; i < 3; i++){
+				this.builder.bytes(GP_KEY_TYPE)
+						.bytes(this.crypto.keyData(k.getKey(i), DaplugCrypto.ENCRYPT))
+						.u8(0x03).bytes(DaplugCrypto.computeKCV(k.getKey(i)))
+						.u8(0x01).u8(keysetUsage)
+						.u8(0x02).u16(k.getAccess());
+			}
 		}catch(Exception e){
 			System.err.println(e.getMessage());
 		}
 		
-		//Form the putkey buf
-		String hexStrBuf = "";
-		hexStrBuf = hexStrBuf.concat(element1);
-		hexStrBuf = hexStrBuf.concat(element2);
-		hexStrBuf = hexStrBuf.concat(element3);
-		hexStrBuf = hexStrBuf.concat(element4);
-		hexStrBuf = hexStrBuf.concat(element2);
-		hexStrBuf = hexStrBuf.concat(element5);
-		hexStrBuf = hexStrBuf.concat(element6);
-		hexStrBuf = hexStrBuf.concat(element7);
-		hexStrBuf = hexStrBuf.concat(element8);
-		hexStrBuf = hexStrBuf.concat(element9);
-		hexStrBuf = hexStrBuf.concat(element10);
-		hexStrBuf = hexStrBuf.concat(element11);
-		hexStrBuf = hexStrBuf.concat(element12);
-		hexStrBuf = hexStrBuf.concat(element5);
-		hexStrBuf = hexStrBuf.concat(element13);
-		hexStrBuf = hexStrBuf.concat(element7);
-		hexStrBuf = hexStrBuf.concat(element14);
-		hexStrBuf = hexStrBuf.concat(element9);
-		hexStrBuf = hexStrBuf.concat(element10);
-		hexStrBuf = hexStrBuf.concat(element11);
-		hexStrBuf = hexStrBuf.concat(element12);
-		hexStrBuf = hexStrBuf.concat(element5);
-		hexStrBuf = hexStrBuf.concat(element15);
-		hexStrBuf = hexStrBuf.concat(element7);
-		hexStrBuf = hexStrBuf.concat(element16);
-		hexStrBuf = hexStrBuf.concat(element9);
-		hexStrBuf = hexStrBuf.concat(element10);
-		hexStrBuf = hexStrBuf.concat(element11);
-		hexStrBuf = hexStrBuf.concat(element12);
-		hexStrBuf = hexStrBuf.concat(element17);
-		
-		retBuf = DaplugUtils.hexStringToByteArray(hexStrBuf);
-		
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(retBuf);
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder);
     		if(r.normalEnding()){
-    			System.out.println("putKey() - DaplugKeyset " + String.format("%02X", k.getVersion()) + " successfuly created/modified");
+    			if(this.trace.isEnabled()) this.trace.message("putKey() - DaplugKeyset " + String.format("%02X", k.getVersion()) + " successfuly created/modified");
     		}else{
     			throw new DaplugException("putKey() - Cannot create/modify keyset " + String.format("%02X", k.getVersion()) + " !");
     		}
@@ -652,16 +646,17 @@ public final class DaplugSession implements SessionConstante{
      */
     public void deleteKey(int keyVersion) throws Exception{
     	
-    	String keyFileId = "10";
-    	String keyFilePath  = "3F00:C00F:C0DE:0001:10";
+    	int keyFileId = 0x1000 | (keyVersion & 0xFF);
     	
-    	keyFileId = keyFileId.concat(String.format("%02X", keyVersion));
-    	keyFilePath = keyFilePath.concat(String.format("%02X", keyVersion));
+    	//Key file path : 3F00:C00F:C0DE:0001:10xx
+    	this.selectFile(0x3F00);
+    	this.selectFile(0xC00F);
+    	this.selectFile(0xC0DE);
+    	this.selectFile(0x0001);
+    	this.selectFile(keyFileId);
+    	this.deleteFileOrDir(keyFileId);
     	
-    	this.selectPath(keyFilePath);
-    	this.deleteFileOrDir(Integer.parseInt(keyFileId,16) & 0xFFFF);
-    	
-    	System.out.println("deleteKey() - Key " + String.format("%02X", keyVersion) + " successfully deleted...");
+    	if(this.trace.isEnabled()) this.trace.message("deleteKey() - Key " + String.format("%02X", keyVersion) + " successfully deleted...");
     	
     }
     
@@ -679,19 +674,11 @@ public final class DaplugSession implements SessionConstante{
     	
     	byte[] exportedKey = null;
     	
-    	//Form the export APDU
-    	String hexStrBuf = "";
-    	hexStrBuf = hexStrBuf.concat("D0A0");
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", keyVersion));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", index));
-    	hexStrBuf = hexStrBuf.concat("00");
-    	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.EXPORT_KEY, keyVersion, index));
     		if(r.normalEnding()){
     			exportedKey = r.getData();
-    			System.out.println("Key successfuly exported...");
+    			if(this.trace.isEnabled()) this.trace.message("Key successfuly exported...");
     		}else{
     			throw new DaplugSessionException("exportKey() - Cannot export key !");
     		}
@@ -713,19 +700,10 @@ public final class DaplugSession implements SessionConstante{
      */
     public void importKey(int keyVersion, int index, byte[] keyToImport) throws DaplugException{
     	
-    	//Form the export APDU
-    	String hexStrBuf = "";
-    	hexStrBuf = hexStrBuf.concat("D0A2");
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", keyVersion));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", index));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", keyToImport.length));
-    	hexStrBuf = hexStrBuf.concat(DaplugUtils.byteArrayToHexString(keyToImport));
-    	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.IMPORT_KEY, keyVersion, index).bytes(keyToImport));
     		if(r.normalEnding()){
-    			System.out.println("Key successfuly imported...");
+    			if(this.trace.isEnabled()) this.trace.message("Key successfuly imported...");
     		}else{
     			throw new DaplugSessionException("importKey() - Cannot import key !");
     		}
@@ -769,27 +747,17 @@ public final class DaplugSession implements SessionConstante{
     		ief = 0;
     	}    	
     	
-    	//Form the APDU
-    	String hexStrBuf = "";
-    	hexStrBuf = hexStrBuf.concat("80E000001C6214820201218302");
-    	hexStrBuf = hexStrBuf.concat(String.format("%04X", id));
-    	hexStrBuf = hexStrBuf.concat("8102");
-    	hexStrBuf = hexStrBuf.concat(String.format("%04X", size));
-    	hexStrBuf = hexStrBuf.concat("8c0600");
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", access[0]));
-    	hexStrBuf = hexStrBuf.concat("0000");
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", access[1]));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", access[2]));
-    	hexStrBuf = hexStrBuf.concat("8601");
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", ief));
-    	hexStrBuf = hexStrBuf.concat("8701");
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", icf));
+    	//Form the APDU : file control parameters
+    	this.builder.start(DaplugInstruction.CREATE_FILE).bytes(FILE_FCP).u16(id)
+    			.u8(0x81).u8(0x02).u16(size)
+    			.u8(0x8C).u8(0x06).u8(0x00).u8(access[0]).u16(0x0000).u8(access[1]).u8(access[2])
+    			.u8(0x86).u8(0x01).u8(ief)
+    			.u8(0x87).u8(0x01).u8(icf);
     	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder);
     		if(r.normalEnding()){
-    			System.out.println("createFile() - File " + String.format("%04X", id) + " successfuly created...");
+    			if(this.trace.isEnabled()) this.trace.message("createFile() - File " + String.format("%04X", id) + " successfuly created...");
     		}else{
     			throw new DaplugSessionException("createFile() - Cannot create file " + String.format("%04X", id) + " !");
     		}
@@ -813,20 +781,14 @@ public final class DaplugSession implements SessionConstante{
     		throw new DaplugSessionException("createFile() - Invalid access value !");
     	}
     	
-    	//Form the APDU
-    	String hexStrBuf = "";
-    	hexStrBuf = hexStrBuf.concat("80E0000010620E820232218302");
-    	hexStrBuf = hexStrBuf.concat(String.format("%04X", id));
-    	hexStrBuf = hexStrBuf.concat("8C0400");
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", access[0]));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", access[1]));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", access[2]));
+    	//Form the APDU : directory control parameters
+    	this.builder.start(DaplugInstruction.CREATE_FILE).bytes(DIR_FCP).u16(id)
+    			.u8(0x8C).u8(0x04).u8(0x00).u8(access[0]).u8(access[1]).u8(access[2]);
     	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder);
     		if(r.normalEnding()){
-    			System.out.println("createDir() - Directory " + String.format("%04X", id) + " successfuly created...");
+    			if(this.trace.isEnabled()) this.trace.message("createDir() - Directory " + String.format("%04X", id) + " successfuly created...");
     		}else{
     			throw new DaplugSessionException("createFile() - Cannot create directory " + String.format("%04X", id) + " !");
     		}
@@ -843,15 +805,10 @@ public final class DaplugSession implements SessionConstante{
      */
     public void deleteFileOrDir(int id) throws DaplugException{
     	
-    	String hexStrBuf = "";
-    	hexStrBuf = hexStrBuf.concat("80E4000002");
-    	hexStrBuf = hexStrBuf.concat(String.format("%04X", id));
-    	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.DELETE_FILE).u16(id));
     		if(r.normalEnding()){
-    			System.out.println("deleteFileOrDir() - File/Directory " + String.format("%04X", id) + " successfuly deleted...");
+    			if(this.trace.isEnabled()) this.trace.message("deleteFileOrDir() - File/Directory " + String.format("%04X", id) + " successfuly deleted...");
     		}else{
     			throw new DaplugSessionException("deleteFileOrDir() - Cannot delete file/directory " + String.format("%04X", id) + " !");
     		}
@@ -868,15 +825,10 @@ public final class DaplugSession implements SessionConstante{
      */
     public void selectFile(int id) throws DaplugException{
     	
-    	String hexStrBuf = "";
-    	hexStrBuf = hexStrBuf.concat("80A4000002");
-    	hexStrBuf = hexStrBuf.concat(String.format("%04X", id));
-    	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.SELECT_FILE).u16(id));
     		if(r.normalEnding()){
-    			System.out.println("selectFile() - File " + String.format("%04X", id) + " seleted...");
+    			if(this.trace.isEnabled()) this.trace.message("selectFile() - File " + String.format("%04X", id) + " seleted...");
     		}else{
     			throw new DaplugSessionException("selectFile() - Cannot select file " + String.format("%04X", id) +" !");
     		}
@@ -928,14 +880,8 @@ public final class DaplugSession implements SessionConstante{
     	
     	while(readsNb > 0){
     		    		
-    		String hexStrBuf = "";
-        	hexStrBuf = hexStrBuf.concat("80B0");
-        	hexStrBuf = hexStrBuf.concat(String.format("%04X", offset));
-        	hexStrBuf = hexStrBuf.concat("00");
-        	
         	try{
-        		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-        		DaplugApduResponse r = this.exchange(a);
+        		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.READ_BINARY).p1p2(offset));
         		if(r.normalEnding()){
         			int len = 0;
         			if(readsNb == 1 && lastPartLen != 0){
@@ -947,7 +893,7 @@ public final class DaplugSession implements SessionConstante{
         				readData = null;
         				throw new DaplugSessionException("readData() -  The requested length exceeds file's size !");
         			}
-            		System.arraycopy(r.getData(), 0, readData, i * MAX_REAL_DATA_SIZE, len);
+            		System.arraycopy(r.getBuffer(), r.getOffset(), readData, i * MAX_REAL_DATA_SIZE, len);
         		}else{
         			readData = null;
         			throw new DaplugSessionException("readData() - Data read failed !");
@@ -965,6 +911,37 @@ public final class DaplugSession implements SessionConstante{
     	return readData;
     }
     
+    /**
+     * Reads length bytes of data from the selected file, without exception on the status words of the card.
+     * Reading stops at the first refused READ BINARY; a file ending before offset + length gives an END_OF_FILE outcome.
+     * In both cases the result holds the data read so far.
+     * @param result DaplugResult filled with the read data and the status word.
+     * @param offset Indicates where reading position starts.
+     * @param length The length of data to read.
+     * @return the result.
+     * @throws DaplugException if the length is invalid, or if the exchange fails.
+     */
+    public DaplugResult readData(DaplugResult result, int offset, int length) throws DaplugException{
+    	
+    	if(length + offset > MAX_FS_FILE_SIZE){
+    		throw new DaplugSessionException("readData() - Authorized data length exceeded !");
+    	}
+    	
+    	result.reset().status(0x9000);
+    	for(int read = 0; read < length; read += MAX_REAL_DATA_SIZE){
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.READ_BINARY).p1p2(offset + read));
+    		if(!r.normalEnding()){
+    			return result.status(r.getStatusWord());
+    		}
+    		int len = Math.min(MAX_REAL_DATA_SIZE, length - read);
+    		if(r.getDataLen() < len){
+    			return result.append(r, r.getDataLen()).status(DaplugResult.SW_END_OF_FILE);
+    		}
+    		result.append(r, len);
+    	}
+    	return result;
+    }
+    
     /**
      * Writes provided data into the selected file. Writing starts at the given offset.
      * @param offset Indicates where writing position starts.
@@ -976,7 +953,6 @@ public final class DaplugSession implements SessionConstante{
     	
     	int len = dataToWrite.length;
     	int lastPartLen = len % MAX_REAL_DATA_SIZE;
-    	byte[] tempDataBuf = null;
     	
     	if(len + offset > MAX_FS_FILE_SIZE){
     		throw new DaplugSessionException("writeData() - Authorized data length exceeded !");
@@ -987,18 +963,9 @@ public final class DaplugSession implements SessionConstante{
     	
     	while(writeNb > 1 || (writeNb == 1 && lastPartLen == 0)){
     		
-    		tempDataBuf = new byte[MAX_REAL_DATA_SIZE];
-    		System.arraycopy(dataToWrite, i * MAX_REAL_DATA_SIZE, tempDataBuf, 0, tempDataBuf.length);
-    		
-    		String hexStrBuf = "";
-        	hexStrBuf = hexStrBuf.concat("80D6");
-        	hexStrBuf = hexStrBuf.concat(String.format("%04X", offset));
-        	hexStrBuf = hexStrBuf.concat(String.format("%02X", MAX_REAL_DATA_SIZE));
-        	hexStrBuf = hexStrBuf.concat(DaplugUtils.byteArrayToHexString(tempDataBuf));
-        	
         	try{
-        		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-        		DaplugApduResponse r = this.exchange(a);
+        		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.UPDATE_BINARY).p1p2(offset)
+        				.bytes(dataToWrite, i * MAX_REAL_DATA_SIZE, MAX_REAL_DATA_SIZE));
         		if(!r.normalEnding()){
         			throw new DaplugSessionException("writeData() - Data write failed !");
         		}
@@ -1013,18 +980,9 @@ public final class DaplugSession implements SessionConstante{
     	}
     	
     	//Write the last part : here last part length is < MAX_REAL_DATA_SIZE
-    	tempDataBuf = new byte[lastPartLen];
-		System.arraycopy(dataToWrite, i * MAX_REAL_DATA_SIZE, tempDataBuf, 0, tempDataBuf.length);
-		
-		String hexStrBuf = "";
-    	hexStrBuf = hexStrBuf.concat("80D6");
-    	hexStrBuf = hexStrBuf.concat(String.format("%04X", offset));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", lastPartLen));
-    	hexStrBuf = hexStrBuf.concat(DaplugUtils.byteArrayToHexString(tempDataBuf));
-    	
     	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-    		DaplugApduResponse r = this.exchange(a);
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.UPDATE_BINARY).p1p2(offset)
+    				.bytes(dataToWrite, i * MAX_REAL_DATA_SIZE, lastPartLen));
     		if(!r.normalEnding()){
     			throw new DaplugSessionException("writeData() - Data write failed !");
     		}
@@ -1034,6 +992,36 @@ public final class DaplugSession implements SessionConstante{
     	
     }
     
+    /**
+     * Writes provided data into the selected file, without exception on the status words of the card.
+     * Writing stops at the first refused UPDATE BINARY, whose status word is returned.
+     * @param result DaplugResult filled with the status word.
+     * @param offset Indicates where writing position starts.
+     * @param dataToWrite Data to write.
+     * @return the result.
+     * @throws DaplugException if the length is invalid, or if the exchange fails.
+     */
+    public DaplugResult writeData(DaplugResult result, int offset, byte[] dataToWrite) throws DaplugException{
+    	
+    	int len = dataToWrite.length;
+    	if(len + offset > MAX_FS_FILE_SIZE){
+    		throw new DaplugSessionException("writeData() - Authorized data length exceeded !");
+    	}
+    	
+    	int written = 0;
+    	do{
+    		int partLen = Math.min(MAX_REAL_DATA_SIZE, len - written);
+    		DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.UPDATE_BINARY).p1p2(offset + written)
+    				.bytes(dataToWrite, written, partLen));
+    		result.reset().status(r.getStatusWord());
+    		if(!r.normalEnding()){
+    			return result;
+    		}
+    		written += partLen;
+    	}while(written < len);
+    	return result;
+    }
+    
 	/**
 	 * Encrypts a sequence of bytes using Triple DES encryption. Clear data length must be a multiple of 8 bytes. 
 	 * The mode parameter combines options to use such as block cipher mode (ENC_ECB or ENC_CBC) and the use of diversifiers or not (ENC_1_DIV, ENC_2_DIV).
@@ -1072,6 +1060,40 @@ public final class DaplugSession implements SessionConstante{
     	return crypt(keyVersion, keyId, mode, iv, div1, div2, encryptedData, DECRYPT);
     }
     
+    /**
+     * Encrypts a sequence of bytes using Triple DES encryption, without exception on the status words of the card. See encrypt().
+     * @param result DaplugResult filled with the encrypted data and the status word.
+	 * @param keyVersion Encryption DaplugKeyset version.
+	 * @param keyId The index of the keyset key to use for encryption (1,2 or 3).
+	 * @param mode Specifies block cipher mode (ECB or CBC) and if we use diversifiers or not.
+	 * @param iv initialization vector (Used only for CBC mode). If not specified, a zero-IV is used instead.
+	 * @param div1 First diversifier (optional).
+	 * @param div2 Second diversifier (optional).
+	 * @param clearData sequence of bytes to encrypt.
+	 * @return the result.
+	 * @throws DaplugException if a parameter is invalid, or if the exchange fails.
+     */
+    public DaplugResult encrypt(DaplugResult result, int keyVersion, int keyId, int mode, byte[] iv, byte[] div1, byte[] div2, byte[] clearData) throws DaplugException{
+    	return result.set(this.sendCrypt("encrypt()", keyVersion, keyId, mode, iv, div1, div2, clearData, ENCRYPT));
+    }
+    
+    /**
+     * Decrypts a sequence of bytes using Triple DES encryption, without exception on the status words of the card. See decrypt().
+     * @param result DaplugResult filled with the decrypted data and the status word.
+	 * @param keyVersion Encryption DaplugKeyset version.
+	 * @param keyId The index of the keyset key to use for encryption (1,2 or 3).
+	 * @param mode Specifies block cipher mode (ECB or CBC) and if we use diversifiers or not.
+	 * @param iv initialization vector (Used only for CBC mode). If not specified, a zero-IV is used instead.
+	 * @param div1 First diversifier (optional).
+	 * @param div2 Second diversifier (optional).
+	 * @param encryptedData sequence of bytes to decrypt (peviously encrypted using the same parameters).
+	 * @return the result.
+	 * @throws DaplugException if a parameter is invalid, or if the exchange fails.
+     */
+    public DaplugResult decrypt(DaplugResult result, int keyVersion, int keyId, int mode, byte[] iv, byte[] div1, byte[] div2, byte[] encryptedData) throws DaplugException{
+    	return result.set(this.sendCrypt("decrypt()", keyVersion, keyId, mode, iv, div1, div2, encryptedData, DECRYPT));
+    }
+    
     /**
 	 * make the daplug dongle generate a true random value.
 	 * @param length int : the length of random value desire
@@ -1079,33 +1101,23 @@ public final class DaplugSession implements SessionConstante{
 	 * @throws DaplugException
 	 */
 	public byte[] getRandom(int length) throws DaplugException {
-		String s_apdu = "D0240000";
 		if (length <= 0 || length > MAX_REAL_DATA_SIZE)
 			throw new DaplugSessionException(
 					"getRandom() : Invalid random length ! Correct length is between 1 and 239 bytes");
-		String len_s = String.format("%02X", length);
-		StringBuilder sb = new StringBuilder();
-		sb.append(s_apdu).append(len_s);
 		// the length here is the returned data length (the apdu does not
 		// contain input data)
 		// for wrap reason, we use non meaningful data with size Lc
-		int i = length;
-		while (i > 0) {
-			sb.append("00");
-			i--;
-		}
-		DaplugApduResponse result = null;
+		byte[] result = null;
 		try {
-			DaplugApduCommand apdu = new DaplugApduCommand(
-					DaplugUtils.hexStringToByteArray(sb.toString()));
-			result = this.exchange(apdu);
-			if (result.normalEnding() == false)
+			DaplugApduResponseView r = this.send(this.builder.start(DaplugInstruction.GET_RANDOM).zeros(length));
+			if (r.normalEnding() == false)
 				throw new DaplugSessionException(
 						"getRandom() : Can not generate Ramdom value! ");
+			result = r.getData();
 		} catch (DaplugApduException e) {
 			e.printStackTrace();
 		}
-		return result.getData();
+		return result;
 	}
 	
     /**
@@ -1122,13 +1134,27 @@ public final class DaplugSession implements SessionConstante{
      */
     public byte[] hmac(int keysetVersion, int options, byte[] div1, byte[] div2, byte[] inData) throws DaplugException{
     	
-    	if (((options & OTP_6_DIGIT) != 0) && ((options & OTP_7_DIGIT) != 0) && ((options & OTP_8_DIGIT) != 0)){
-    		throw new DaplugSessionException ("hmac() - Invalid option for hmac : " + options);
-    	}	
+    	checkHmac(options);
     	
     	return hmacSha1(keysetVersion, options, div1, div2, inData, HMAC);
     }
     
+    /**
+     * Signs provided data using HMAC-SHA1, without exception on the status words of the card. See hmac().
+	 * @param result DaplugResult filled with the 20 bytes signature and the status word
+	 * @param keysetVersion int HMAC keyset version (see x_otp)
+	 * @param options int Specifies if we want to use diversifiers or not
+	 * @param div1 byte [] First diversifier
+	 * @param div2 byte [] Second diversifier
+	 * @param inData byte [] Data to sign
+	 * @return result DaplugResult
+	 * @throws DaplugException if a parameter is invalid, or if the exchange fails
+     */
+    public DaplugResult hmac(DaplugResult result, int keysetVersion, int options, byte[] div1, byte[] div2, byte[] inData) throws DaplugException{
+    	checkHmac(options);
+    	return result.set(this.sendHmacSha1("hmac()", keysetVersion, options, div1, div2, inData));
+    }
+    
     /**
      * Returns an HMAC based One Time Password. options parameter specifies the size of the resultant HOTP and if we want to use one (OTP_1_DIV) or two (OTP_2_DIV) provided diversifier(s).
 	 * If no diversifier is provided, div parameters must be equal to an empty string ("") and mode parameter must be equal to OTP_0_DIV.
@@ -1143,17 +1169,28 @@ public final class DaplugSession implements SessionConstante{
      */
     public byte[] hotp(int keysetVersion, int options, byte[] div1, byte[] div2, byte[] inData) throws DaplugException{
     	
-		if (((options & OTP_6_DIGIT) == 0) && ((options & OTP_7_DIGIT) == 0) && ((options & OTP_8_DIGIT) == 0)){
-			throw new DaplugSessionException ("hotp() : Invalid mode option for hotp : " + options);
-		}
-		
-		if ((inData.length != 2) && (inData.length != 8)){
-			throw new DaplugSessionException ("hotp() : Invalid Data for hotp : " + DaplugUtils.byteArrayToHexString(inData));
-		}
+    	checkHotp(options, inData);
     	
 		return hmacSha1(keysetVersion, options, div1, div2, inData, HOTP);
     }
     
+    /**
+     * Returns or validates an HMAC based One Time Password, without exception on the status words of the card :
+     * a refused HOTP_VALIDATION is an outcome of the result. See hotp().
+	 * @param result DaplugResult filled with the HOTP and the status word
+	 * @param keysetVersion int HOTP/HOTP_VALIDATION keyset version
+	 * @param options int Specifies Specifies the size of the resultant HOTP and if we want to use diversifiers or not
+	 * @param div1 byte [] First diversifier
+	 * @param div2 byte [] Second diversifier
+	 * @param inData byte [] A counter file ID if HOTP keyset is provided or counter value as an 8 bytes string if HOTP_VALIDATION keyset is provided.
+	 * @return result DaplugResult
+	 * @throws DaplugException if a parameter is invalid, or if the exchange fails
+     */
+    public DaplugResult hotp(DaplugResult result, int keysetVersion, int options, byte[] div1, byte[] div2, byte[] inData) throws DaplugException{
+    	checkHotp(options, inData);
+    	return result.set(this.sendHmacSha1("hotp()", keysetVersion, options, div1, div2, inData));
+    }
+    
 	/**
 	 * Returns a Time based One Time Password. options parameter specifies the size of the resultant HOTP and if we want to use one (OTP_1_DIV) or two (OTP_2_DIV) provided diversifier(s).
 	 * If no diversifier is provided, div parameters must be equal to an empty string ("") and mode parameter must be equal to OTP_0_DIV. If TOTP keyset is provided,
@@ -1168,15 +1205,27 @@ public final class DaplugSession implements SessionConstante{
 	 */
     public byte[] totp(int keysetVersion, int options, byte[] div1, byte[] div2, byte[] inData) throws DaplugException{
     	
-		if (((options & OTP_6_DIGIT) == 0)  && ((options & OTP_7_DIGIT) == 0) && ((options & OTP_8_DIGIT) == 0))
-		throw new DaplugSessionException ("totp() : Invalid mode option for Daplug_totp : " + options);
-	
-		if ((inData != null) && (inData.length != 8)){
-			throw new DaplugSessionException ("totp() - Invalid Data for totp : " + DaplugUtils.byteArrayToHexString(inData));
-		}
+    	checkTotp(options, inData);
 		
     	return hmacSha1(keysetVersion, options, div1, div2, inData, TOTP);
     }
+    
+	/**
+	 * Returns or validates a Time based One Time Password, without exception on the status words of the card :
+	 * a refused TOTP_VALIDATION is an outcome of the result. See totp().
+	 * @param result DaplugResult filled with the TOTP and the status word
+	 * @param keysetVersion int TOTP/TOTP_VALIDATION keyset version
+	 * @param options int Specifies the size of the resultant TOTP and if we want to use diversifiers or not
+	 * @param div1 byte [] First diversifier
+	 * @param div2 byte [] Second diversifier
+	 * @param inData byte [] Empty value "" if TOTP keyset is provided or time data as an 8 bytes string if TOTP_VALIDATION keyset is provided.
+	 * @return result DaplugResult
+	 * @throws DaplugException if a parameter is invalid, or if the exchange fails
+	 */
+    public DaplugResult totp(DaplugResult result, int keysetVersion, int options, byte[] div1, byte[] div2, byte[] inData) throws DaplugException{
+    	checkTotp(options, inData);
+    	return result.set(this.sendHmacSha1("totp()", keysetVersion, options, div1, div2, inData));
+    }
   
 	/**
 	 * Sets the time reference of the dongle. After the time reference is set, the dongle internal clock will tick from this value on until it is powered off.
@@ -1191,47 +1240,29 @@ public final class DaplugSession implements SessionConstante{
 	 */
 	public void setTimeOTP(int keysetVersion, int keyId,
 			byte [] timeSrcKey, int step, int t) throws DaplugException {
-		String initial_apdu = "D0B2";
-		String s_keyVersion = String.format("%02X", keysetVersion);
-		String s_keyId = String.format("%02X", keyId);
-
-		// Signature
-		String temp_in = "", temp_out = "", signature = "";
-		byte[] nonce = DaplugCrypto.generateChallenge(11);
-		String s_nonce = DaplugUtils.byteArrayToHexString(nonce);
 		
 		if (step == 0)
 			step = HOTP_TIME_STEP;
-		String s_step = String.format("%02X", step);
 
 		// get currentTime in millisecondes if t = 0
 		if (t == 0)
 			t = (int) (new Date().getTime());
 
-		String time_s = String.format("%08X", t);
-		
-		StringBuilder sb1 = new StringBuilder();
-		sb1.append(s_nonce).append(s_step).append(time_s);
-		temp_in = sb1.toString();
+		// nonce, step and time, signed with the time source key
+		byte[] timeData = new byte[16];
+		System.arraycopy(DaplugCrypto.generateChallenge(11), 0, timeData, 0, 11);
+		timeData[11] = (byte) step;
+		timeData[12] = (byte) (t >> 24);
+		timeData[13] = (byte) (t >> 16);
+		timeData[14] = (byte) (t >> 8);
+		timeData[15] = (byte) t;
 		
-		// tripleDES_CBC
-		temp_out = DaplugUtils.bytesToHex(DaplugCrypto.tripleDES_CBC_GP(
-				DaplugUtils.hexStringToByteArray(temp_in),
-				timeSrcKey, null, 1));
+		// tripleDES_CBC : the signature is the last block
+		byte[] signature = DaplugCrypto.tripleDES_CBC_GP(timeData, timeSrcKey, null, 1);
 		
-		signature = temp_out.substring(16, 32);
-		
-		// form the apdu
-		StringBuilder sb = new StringBuilder();
-		sb.append(initial_apdu).append(s_keyVersion).append(s_keyId)
-				.append("18").append(temp_in).append(signature);
-		String output = sb.toString();
-
-		// Set to apdu cde
 		try {
-		DaplugApduCommand apduCommand = new DaplugApduCommand(
-				DaplugUtils.hexStringToByteArray(output));
-		DaplugApduResponse response = this.exchange(apduCommand);
+		DaplugApduResponseView response = this.send(this.builder.start(DaplugInstruction.SET_TIME_OTP, keysetVersion, keyId)
+				.bytes(timeData).bytes(signature, 8, 8));
 		if (!response.normalEnding())
 			throw new DaplugSessionException ("setTimeOTP(): Cannot set time reference for dongle !");
 		} catch (DaplugApduException e ) {
@@ -1251,52 +1282,7 @@ public final class DaplugSession implements SessionConstante{
 	 */
 	public void setTimeOTP(int keysetVersion, int keyId,
 			byte [] timeSrcKey) throws DaplugException {
-		String initial_apdu = "D0B2";
-		String s_keyVersion = String.format("%02X", keysetVersion);
-		String s_keyId = String.format("%02X", keyId);
-
-		// Signature
-		String temp_in = "", temp_out = "", signature = "";
-		byte[] nonce = DaplugCrypto.generateChallenge(11);
-		String s_nonce = DaplugUtils.byteArrayToHexString(nonce);
-		
-		
-		int step = HOTP_TIME_STEP;
-		String s_step = String.format("%02X", step);
-
-		// get currentTime in millisecondes if t = 0
-	
-		int t = (int) (new Date().getTime());
-
-		String time_s = String.format("%08X", t);
-		
-		StringBuilder sb1 = new StringBuilder();
-		sb1.append(s_nonce).append(s_step).append(time_s);
-		temp_in = sb1.toString();
-		
-		// tripleDES_CBC
-		temp_out = DaplugUtils.bytesToHex(DaplugCrypto.tripleDES_CBC_GP(
-				DaplugUtils.hexStringToByteArray(temp_in),
-				timeSrcKey, null, 1));
-		
-		signature = temp_out.substring(16, 32);
-		
-		// form the apdu
-		StringBuilder sb = new StringBuilder();
-		sb.append(initial_apdu).append(s_keyVersion).append(s_keyId)
-				.append("18").append(temp_in).append(signature);
-		String output = sb.toString();
-
-		// Set to apdu cde
-		try {
-		DaplugApduCommand apduCommand = new DaplugApduCommand(
-				DaplugUtils.hexStringToByteArray(output));
-		DaplugApduResponse response = this.exchange(apduCommand);
-		if (!response.normalEnding())
-			throw new DaplugSessionException ("setTimeOTP(): Cannot set time reference for dongle !");
-		} catch (DaplugApduException e) {
-			e.printStackTrace();
-		}
+		setTimeOTP(keysetVersion, keyId, timeSrcKey, 0, 0);
 	}
 	
 	/**
@@ -1306,16 +1292,12 @@ public final class DaplugSession implements SessionConstante{
 	 * 
 	 */
 	public byte[] getTimeOTP() throws DaplugException {
-		String apdu = "D0B0000000";
 		byte [] outData = null;
 		try {
-			DaplugApduCommand apduCommand = new DaplugApduCommand(
-					DaplugUtils.hexStringToByteArray(apdu));
-			DaplugApduResponse response = this.exchange(apduCommand);
+			DaplugApduResponseView response = this.send(this.builder.start(DaplugInstruction.GET_TIME_OTP));
 			if(response.normalEnding()){
 				if (response.getDataLen() != 0) {
-					outData = new byte[response.getDataLen()];
-					System.arraycopy(response.getData(), 0, outData, 0, response.getDataLen());
+					outData = response.getData();
 				}else{
 					throw new DaplugSessionException("getTimeOTP() : Dongle_info time reference not set yet !");
 				}
@@ -1335,8 +1317,7 @@ public final class DaplugSession implements SessionConstante{
 	 * @author yassir
 	 */
 	public void useAsKeyboard() throws Exception{
-		String apdu = "D032000000";
-		boolean result = this.daplugMake(apdu);
+		boolean result = this.daplugMake(this.builder.start(DaplugInstruction.USE_AS_KEYBOARD));
 		if (!result)
 			throw new Exception("useAsKeyboard(): Keyboard input file set.");
 	}
@@ -1348,22 +1329,14 @@ public final class DaplugSession implements SessionConstante{
 	 * @author yassir
 	 */
 	public void setKeyboardAtBoot(boolean activated) throws Exception{
-		StringBuilder apdu = new StringBuilder().append("D032");
-		int active = (activated) ? 1 : 0; // convert boolean to int to used it
-											// in switch
-		switch (active) {
-		case 1: // activated is true
-			apdu.append("020000");
-			boolean result1 = this.daplugMake(apdu.toString());
+		if (activated) {
+			boolean result1 = this.daplugMake(this.builder.start(DaplugInstruction.KEYBOARD_AT_BOOT).p1(0x02));
 			if (!result1)
 				throw new Exception("setKeyboardAtBoot(): Cannot activate automatic keyboard emulation !");
-			break;
-		case 0: // activated is false
-			apdu.append("010000");
-			boolean result0 = this.daplugMake(apdu.toString());
+		} else {
+			boolean result0 = this.daplugMake(this.builder.start(DaplugInstruction.KEYBOARD_AT_BOOT).p1(0x01));
 			if (!result0)
 				throw new Exception("setKeyboardAtBoot(): Cannot deactivate automatic keyboard emulation !");
-			break;
 		}
 	}
 	
@@ -1373,7 +1346,7 @@ public final class DaplugSession implements SessionConstante{
 	 * 
 	 */
 	public void triggerKeyboard() throws DaplugException{
-		boolean result = this.daplugMake("D030010000");
+		boolean result = this.daplugMake(this.builder.start(DaplugInstruction.TRIGGER_KEYBOARD));
 		if (!result)
 			throw new DaplugSessionException( "triggerKeyboard() : Cannot trigger keyboard input !");
 		}
@@ -1384,7 +1357,7 @@ public final class DaplugSession implements SessionConstante{
 	 * 
 	 */
 	public void hidToWinusb()  throws  DaplugException {
-		boolean result = this.daplugMake("D052080200");
+		boolean result = this.daplugMake(this.builder.start(DaplugInstruction.SWITCH_MODE).p2(0x02));
 		if (!result)
 			throw new DaplugSessionException("hidToWinusb(): Can not switch dongle to winusb mode!");
 		}
@@ -1395,7 +1368,7 @@ public final class DaplugSession implements SessionConstante{
 	 * 
 	 */
 	public void winusbToHid() throws  DaplugException{
-		boolean result = this.daplugMake("D052080100");
+		boolean result = this.daplugMake(this.builder.start(DaplugInstruction.SWITCH_MODE).p2(0x01));
 		if (!result)
 			throw new DaplugSessionException("winusbToHid(): Can not switch dongle to HID mode !");
 		}
@@ -1406,7 +1379,7 @@ public final class DaplugSession implements SessionConstante{
 	 * 
 	 */
 	public void reset() throws DaplugException  {
-		boolean result = this.daplugMake("D052010000");
+		boolean result = this.daplugMake(this.builder.start(DaplugInstruction.RESET));
 		if (!result)
 			throw new DaplugSessionException("reset(): Can not reset dongle !");
 		}
@@ -1418,226 +1391,258 @@ public final class DaplugSession implements SessionConstante{
 	 */
 	public void halt() throws DaplugException {
 
-		boolean result = this.daplugMake("D052020000");
+		boolean result = this.daplugMake(this.builder.start(DaplugInstruction.HALT));
 		if (!result)
 			throw new DaplugSessionException("halt(): Can not halt dongle !");
 		}
 
+    //Current R-MAC chaining value, saved and restored to replay a wrapped response (benchmarks)
+    byte[] getRMac(){
+    	return Arrays.copyOf(this.rMac, this.rMac.length);
+    }
+    
+    void setRMac(byte[] rMac){
+    	System.arraycopy(rMac, 0, this.rMac, 0, MAC_LEN);
+    }
+    
+    //Session response buffer, to unwrap a response in place (benchmarks)
+    byte[] getResponseBuffer(){
+    	return this.responseBuffer;
+    }
+    
     //=== private methods ===    
     
-    //Wrap an Apdu command according to the current SC security level
-    private DaplugApduCommand wrapApdu(DaplugApduCommand apdu){
-    	    	
-    	int		dataLen = apdu.getLc(),
-    			macSize = 0,
-        		padSize = 0,
-        		orCla = 0x00;
-  
-    	byte[] 	header = new byte[DaplugApduCommand.APDU_HEADER_LEN],
-    			finalHeader = new byte[DaplugApduCommand.APDU_HEADER_LEN],
-    			data = new byte[dataLen],
-    			tmpFinalData = new byte[DaplugApduCommand.APDU_DATA_MAX_LEN];
-    	
-    	header = apdu.getHeader();
-    	data = apdu.getData();
-    	System.arraycopy(header, 0, finalHeader, 0, DaplugApduCommand.APDU_HEADER_LEN);
-   		System.arraycopy(data, 0, tmpFinalData, 0, dataLen);
-    	
-        //Data encryption (exclude external authenticate apdu : encryption will be applied for subsequent commands)
-   		if(((this.securityLevel & SEC_LEVEL_C_DEC) != 0) && ((apdu.getCLA() != (0x80 & 0xFF) || (apdu.getINS() != (0x82 & 0xFF))))){
-	    		
-	    	//encrypt apdu data
-	    	tmpFinalData  = DaplugCrypto.apduDataEncryption(data, this.sEncKey, DaplugCrypto.ENCRYPT);  
-	    		
-	        //padSize
-	        int paddedDataLen = dataLen + 1; //add 0x80 to pad
-	        while(paddedDataLen % 8 != 0){
-	        	paddedDataLen++; //add 0x00 to pad
-	        }
-	        
-	        padSize = paddedDataLen - dataLen;
-	    }
+    //Wrap an Apdu command according to the current SC security level (package-private for the benchmarks)
+    DaplugApduCommand wrapApdu(DaplugApduCommand apdu) throws DaplugException{
+    	byte[] bytes = apdu.getBytes();
+    	int len = this.wrapCommand(bytes, 0, bytes.length);
+    	return new DaplugApduCommand(this.commandBuffer, 0, len);
+    }
+    
+    //Wrap an Apdu command into the session command buffer, the command itself is left untouched.
+    //Returns the wrapped command length (package-private for the benchmarks)
+    int wrapCommand(byte[] apdu, int offset, int length) throws DaplugException{
+    	
+    	final int headerLen = DaplugApduCommand.APDU_HEADER_LEN;
+    	byte[] out = this.commandBuffer;
+    	
+    	int		cla = apdu[offset] & 0xFF,
+    			ins = apdu[offset + 1] & 0xFF,
+    			dataLen = length - headerLen,
+    			p3 = (dataLen == 0) ? (apdu[offset + 4] & 0xFF) : dataLen, //Le for a command without data, Lc otherwise
+    			bodyLen = dataLen,
+    			macSize = 0;
+    	boolean extAuth = (cla == 0x80 && ins == 0x82);
+    	
+    	System.arraycopy(apdu, offset, out, 0, headerLen);
+    	out[4] = (byte) p3;
+    	System.arraycopy(apdu, offset + headerLen, out, headerLen, dataLen);
     	
         //Command integrity (forced for external authenticate command)
-        if(((this.securityLevel & SEC_LEVEL_C_MAC) != 0) || ((apdu.getCLA() == (0x80 & 0xFF) && (apdu.getINS() == (0x82 & 0xFF))))){
-        	
-        	byte[] tmpBuf = new byte[DaplugApduCommand.APDU_HEADER_LEN + dataLen];
+        if(((this.securityLevel & SEC_LEVEL_C_MAC) != 0) || extAuth){
 
-            macSize = (byte)0x08;
-            orCla = (byte)0x04;
+            macSize = MAC_LEN;
 
-            header[0]= (byte) (header[0] | orCla); //CLA ORed with 0x04 if c-mac
-            header[4]= (byte) (header[4] + macSize); //increase Lc
-
-  
-            System.arraycopy(header, 0, tmpBuf, 0, DaplugApduCommand.APDU_HEADER_LEN);
-           	System.arraycopy(data, 0, tmpBuf, DaplugApduCommand.APDU_HEADER_LEN, dataLen);
-            
-            //compute c-mac
-            this.cMac = DaplugCrypto.computeRetailMac(tmpBuf, this.cMacKey, this.cMac, DaplugCrypto.C_MAC);
-        }        
-        
-        //Final apdu header
-        finalHeader[0]= (byte) (finalHeader[0] | orCla); //CLA ORed with 0x04 if c-mac
-        finalHeader[4]= (byte)(finalHeader[4] + padSize + macSize); //increase Lc   
+            //compute c-mac over the modified header (CLA ORed with 0x04, Lc increased) and the clear data
+            out[0] = (byte) (cla | 0x04);
+            out[4] = (byte) (p3 + macSize);
+            DaplugRetailMac macEngine = this.crypto.getCommandMacEngine();
+            macEngine.init(DaplugCrypto.C_MAC, this.cMac, 0, this.cMac.length);
+            macEngine.update(out, 0, headerLen + dataLen);
+            if(this.cMac.length != MAC_LEN){ //first c-mac of the session
+            	this.cMac = new byte[MAC_LEN];
+            }
+            macEngine.doFinal(this.cMac, 0);
+        }
+    	
+        //Data encryption in place, padded with 80 00 .. (exclude external authenticate apdu : encryption will be applied for subsequent commands)
+   		if(((this.securityLevel & SEC_LEVEL_C_DEC) != 0) && !extAuth){
+   			bodyLen = (dataLen / 8 + 1) * 8;
+   			out[headerLen + dataLen] = (byte) 0x80;
+   			Arrays.fill(out, headerLen + dataLen + 1, headerLen + bodyLen, (byte) 0);
+   			this.crypto.getSEnc().encryptCBC(out, headerLen, bodyLen, out, headerLen, null);
+	    }
         
-        //Final apdu data
-        int finalDataLen = (finalHeader[4] - macSize) & 0xFF;
-        byte[] finalData = new byte[finalDataLen];
-        System.arraycopy(tmpFinalData, 0, finalData, 0, finalDataLen);
-
-        //Final apdu
-        int finalLc = finalHeader[4] & 0xFF;
-        byte[] finalApduBuf = new byte[DaplugApduCommand.APDU_HEADER_LEN + finalLc];
-        System.arraycopy(finalHeader, 0, finalApduBuf, 0, DaplugApduCommand.APDU_HEADER_LEN);
-        System.arraycopy(finalData, 0, finalApduBuf, DaplugApduCommand.APDU_HEADER_LEN, finalDataLen);
+        //Final apdu : a command without data declares Le data bytes, sent as zeros
+        int finalDataLen = bodyLen + (p3 - dataLen),
+        	finalLc = finalDataLen + macSize;
+        if(finalLc > DaplugApduCommand.APDU_DATA_MAX_LEN){
+        	throw new DaplugSessionException("wrapApdu() - Wrapped command length exceeded : " + finalLc);
+        }
+        Arrays.fill(out, headerLen + bodyLen, headerLen + finalDataLen, (byte) 0);
+        out[0] = (byte) (macSize == MAC_LEN ? (cla | 0x04) : cla);
+        out[4] = (byte) finalLc;
         if(macSize == MAC_LEN){//if C_MAC
-            System.arraycopy(this.cMac, 0, finalApduBuf, DaplugApduCommand.APDU_HEADER_LEN + finalDataLen, MAC_LEN);
-        }    
-        
-        //Create DaplugApduCommand
-    	DaplugApduCommand retApdu = null;
-        try{
-        	retApdu = new DaplugApduCommand(finalApduBuf);
-        }catch(DaplugApduException e){
-        	System.out.println(e.getMessage());
+            System.arraycopy(this.cMac, 0, out, headerLen + finalDataLen, MAC_LEN);
         }
         
-    	return retApdu;
+    	return headerLen + finalLc;
     }
     
-    //Unwrap an Apdu response according to the current SC security level
-    private DaplugApduResponse unwrapApdu (DaplugApduCommand apduCmd, byte[] apduRespBuf) throws DaplugException{
-		
-		//Original apdu response
-		DaplugApduResponse tmpApduResp = null;
-		try{
-			tmpApduResp = new DaplugApduResponse(apduRespBuf);
-		}catch(Exception e){
-			System.err.println(e.getMessage());
-		}
-		
-		byte[] 	data0 = null,
-				paddedClearData = new byte[DaplugApduCommand.APDU_DATA_MAX_LEN],
-				clearData = new byte[DaplugApduCommand.APDU_DATA_MAX_LEN],
-				tempData = null,
-				finalData = null,
-				returnedMac = new byte[8],
-				mac = new byte[8];
-		
-		//Sec level = r-mac
-		if(((this.securityLevel & SEC_LEVEL_R_MAC) != 0) && ((this.securityLevel & SEC_LEVEL_R_ENC) == 0)){
-			data0 = new byte[tmpApduResp.getDataLen() - 8];
-			System.arraycopy(tmpApduResp.getData(), 0, data0, 0, tmpApduResp.getDataLen() - 8);
-			System.arraycopy(tmpApduResp.getData(), tmpApduResp.getDataLen() - 8, returnedMac, 0, 8);
-			
-			//Compute the host r-mac and compare it with the returned mac (card r-mac)
-			tempData = new byte[5+apduCmd.getLc()+data0.length+3];
-			System.arraycopy(apduCmd.getBytes(), 0, tempData, 0, 5+apduCmd.getLc());
-			byte[] tmp = DaplugUtils.hexStringToByteArray(String.format("%02X", data0.length));
-			System.arraycopy(tmp, 0, tempData, 5+apduCmd.getLc(), 1);
-			System.arraycopy(data0, 0, tempData, 5+apduCmd.getLc()+1, data0.length);
-			System.arraycopy(tmpApduResp.getSW(), 0, tempData, 5+apduCmd.getLc()+1+data0.length, 2);
-			
-			mac = DaplugCrypto.computeRetailMac(tempData, this.rMacKey, this.rMac, DaplugCrypto.R_MAC);
-			
-			if(Arrays.equals(mac, returnedMac) == false){
-				this.deAuthenticate();
-				throw new DaplugException("Response integrity failed !");
-			}
-			
-			System.arraycopy(mac, 0, this.rMac, 0, 8);
-			finalData = new byte[tmpApduResp.getDataLen() - 8];
-			System.arraycopy(data0, 0, finalData, 0, tmpApduResp.getDataLen() - 8);
-			
-		}
-		
-		//Sec level = r-enc
-		if(((this.securityLevel & SEC_LEVEL_R_MAC) == 0) && ((this.securityLevel & SEC_LEVEL_R_ENC) != 0)){
-			if(tmpApduResp.getDataLen()>0){
-				byte[] encryptedData = new byte[tmpApduResp.getDataLen()];
-				System.arraycopy(tmpApduResp.getData(), 0, encryptedData, 0, tmpApduResp.getDataLen());
-				paddedClearData = DaplugCrypto.apduDataEncryption(encryptedData, this.rEncKey, DaplugCrypto.DECRYPT);
-				//Exclude padding to obtain clear data
-				int i  = paddedClearData.length - 1;
-				while(paddedClearData[i] == 0 && i>0){
-					i--;
-				}
-				if(paddedClearData[i] == (byte)0x80){
-					System.arraycopy(paddedClearData, 0, clearData, 0, i);
-				}else{
-					this.deAuthenticate();
-	    			throw new DaplugException("Response decryption failed !");	
-				}
-			
-	    		finalData = new byte[i];
-	    		System.arraycopy(clearData, 0, finalData, 0, i); 
-			}    	
-		}
-		
-		//Sec level = r-mac + r-enc
-		if(((this.securityLevel & SEC_LEVEL_R_MAC) != 0) && ((this.securityLevel & SEC_LEVEL_R_ENC) != 0)){    		
-			//encrypted data + r-mac
-			data0 = new byte[tmpApduResp.getDataLen() - 8];
-			System.arraycopy(tmpApduResp.getData(), 0, data0, 0, tmpApduResp.getDataLen() - 8);
-			System.arraycopy(tmpApduResp.getData(), tmpApduResp.getDataLen() - 8, returnedMac, 0, 8);
-			
-			//decrypt data
-			int i = 0;
-			if(data0.length > 0){
-				paddedClearData = DaplugCrypto.apduDataEncryption(data0, this.rEncKey, DaplugCrypto.DECRYPT);
-				//Exclude padding to obtain clear data
-				i  = paddedClearData.length - 1;
-				while(paddedClearData[i] == 0 && i>0){
-					i--;
-				}
-				if(paddedClearData[i] == (byte)0x80){
-					System.arraycopy(paddedClearData, 0, clearData, 0, i);
-				}else{
-					this.deAuthenticate();
-	    			throw new DaplugException("Response decryption failed !");	
+    //Exchange the wrapped command held in the session command buffer, the response is written in the session response buffer
+    private int transmitCommand(int commandLength) throws DaplugException{
+    	if(this.dongle == null){
+    		throw new DaplugSessionException("Session dongle not initialized !");
+    	}
+    	DaplugTraceSink trace = this.trace;
+    	if(trace.isEnabled()){
+    		trace.command(this.commandBuffer, 0, commandLength);
+    	}
+    	int responseLen = 0;
+    	boolean transmitted = false;
+    	try{
+    		for(int attempt = 0; ; attempt++){
+    			try{
+    				responseLen = this.dongle.exchange(this.commandBuffer, 0, commandLength, this.responseBuffer, 0);
+    				break;
+    			}catch(DaplugTimeoutException e){
+    				if(attempt >= EXCHANGE_RETRIES || !this.isRetriable()){
+    					throw e;
+    				}
+    				if(trace.isEnabled()){
+    					trace.message("transmitCommand() - " + e.getMessage() + ", sent again");
+    				}
+    			}
+    		}
+    		transmitted = true;
+    	}finally{
+    		DaplugDongleMetrics metrics = this.metrics();
+    		if(!transmitted && metrics != null){
+    			metrics.recordError(this.commandBuffer[1]);
+    		}
+    	}
+    	if(trace.isEnabled()){
+    		trace.response(this.responseBuffer, 0, responseLen);
+    	}
+    	return responseLen;
+    }
+    
+    //A timed out command is sent again only if it reads without side effect outside a secure channel :
+    //GET SERIAL, GET STATUS, READ BINARY. In a secure channel the C-MAC chain forbids it.
+    private boolean isRetriable(){
+    	if(this.session_opened){
+    		return false;
+    	}
+    	int cla = this.commandBuffer[0] & 0xFF, ins = this.commandBuffer[1] & 0xFF;
+    	return cla == DaplugInstruction.GET_SERIAL.getCLA() && (ins == DaplugInstruction.GET_SERIAL.getINS()
+    			|| ins == DaplugInstruction.GET_STATUS.getINS() || ins == DaplugInstruction.READ_BINARY.getINS());
+    }
+    
+    //Name of the session dongle in the flight recorder events
+    private String dongleName(){
+    	return (this.dongle != null) ? this.dongle.getName() : null;
+    }
+    
+    //Metrics of the session dongle, null if they are not recorded
+    private DaplugDongleMetrics metrics(){
+    	return (this.dongle != null && DaplugMetrics.isEnabled()) ? this.dongle.getMetrics() : null;
+    }
+    
+    //Record an exchange : time stamps taken before wrapping, after wrapping and after transmitting ; unwrapped response length
+    private void recordExchange(DaplugDongleMetrics metrics, int ins, long start, long wrapped, long received,
+    		int wrappedLen, int responseLen, int len){
+    	long end = System.nanoTime();
+    	metrics.recordExchange(ins, wrapped - start, end - received, end - start, wrappedLen, responseLen, this.responseBuffer[len - 2]);
+    }
+    
+    //Commit the flight recorder event of an exchange : clear command, security level when the exchange started,
+    //wrapped command and raw response lengths (0 if not transmitted). The raw status word is left in place by the unwrapping.
+    private void commitExchange(Object event, byte[] apdu, int offset, int length, int level, int wrappedLen, int responseLen){
+    	int dataLen = length - DaplugApduCommand.APDU_HEADER_LEN,
+    		le = (dataLen == 0) ? (apdu[offset + 4] & 0xFF) : 0,
+    		sw = (responseLen >= 2) ? ((this.responseBuffer[responseLen - 2] & 0xFF) << 8) | (this.responseBuffer[responseLen - 1] & 0xFF) : 0;
+    	DaplugFlightRecorder.endExchange(event, this.dongleName(), apdu[offset + 1] & 0xFF, Math.max(dataLen, 0), le, sw, level, wrappedLen, responseLen);
+    }
+    
+    //R-MAC over the command, the clear response data length, the clear response data and the status word
+    private void computeResponseMac(byte[] apdu, int offset, int length, byte[] response, int clearDataLen, int swOffset, byte[] mac) throws DaplugException{
+    	final int headerLen = DaplugApduCommand.APDU_HEADER_LEN;
+    	DaplugRetailMac macEngine = this.crypto.getResponseMacEngine();
+    	macEngine.init(DaplugCrypto.R_MAC, this.rMac, 0, MAC_LEN);
+    	macEngine.update(apdu, offset, headerLen - 1);
+    	macEngine.update((byte) (length == headerLen ? apdu[offset + 4] : length - headerLen));
+    	macEngine.update(apdu, offset + headerLen, length - headerLen);
+    	macEngine.update((byte) clearDataLen);
+    	macEngine.update(response, 0, clearDataLen);
+    	macEngine.update(response, swOffset, 2);
+    	macEngine.doFinal(mac, 0);
+    }
+    
+    //Unwrap an Apdu response according to the current SC security level (package-private for the benchmarks)
+    DaplugApduResponse unwrapApdu (DaplugApduCommand apduCmd, byte[] apduRespBuf) throws DaplugException{
+    	if(apduRespBuf.length > this.responseBuffer.length){
+    		throw new DaplugSessionException("unwrapApdu() - Length exceeded : " + apduRespBuf.length);
+    	}
+    	System.arraycopy(apduRespBuf, 0, this.responseBuffer, 0, apduRespBuf.length);
+    	byte[] bytes = apduCmd.getBytes();
+    	int len = this.unwrapResponse(bytes, 0, bytes.length, apduRespBuf.length);
+    	return new DaplugApduResponse(this.responseBuffer, 0, len);
+    }
+    
+    //Unwrap in place the response held in the session response buffer, for the given clear command.
+    //Returns the unwrapped response length : clear data followed by the status word (package-private for the benchmarks)
+    int unwrapResponse(byte[] apdu, int offset, int length, int responseLength) throws DaplugException{
+    	
+    	byte[] resp = this.responseBuffer;
+    	boolean rMacOn = (this.securityLevel & SEC_LEVEL_R_MAC) != 0,
+    			rEncOn = (this.securityLevel & SEC_LEVEL_R_ENC) != 0;
+    	
+    	if(responseLength < 2){
+    		throw new DaplugSessionException("unwrapApdu() - Invalid Apdu response !");
+    	}
+    	
+    	int swOffset = responseLength - 2,
+    		dataLen = swOffset;
+    	
+		//The card answers without R-MAC once it closed the secure channel (after an error status word)
+    	if(rMacOn){
+    		if(dataLen < MAC_LEN){
+    			DaplugDongleMetrics metrics = this.metrics();
+    			if(metrics != null){
+    				metrics.recordRmacFailure();
+    			}
+    			throw new DaplugSessionException("unwrapApdu() - Response without R-MAC, the secure channel is closed !");
+    		}
+    		dataLen -= MAC_LEN; //encrypted or clear data, then r-mac
+    	}
+    	
+    	//Decrypt data in place and exclude padding to obtain clear data
+    	int clearLen = dataLen;
+    	if(rEncOn && dataLen > 0){
+    		this.crypto.getREnc().decryptCBC(resp, 0, dataLen, resp, 0, null);
+    		int i = dataLen - 1;
+    		while(resp[i] == 0 && i > 0){
+    			i--;
+    		}
+    		if(resp[i] != (byte)0x80){
+    			this.deAuthenticate();
+    			throw new DaplugException("Response decryption failed !");
+    		}
+    		clearLen = i;
+    	}
+    	
+		//Compute the host r-mac and compare it with the returned mac (card r-mac)
+    	if(rMacOn){
+    		this.computeResponseMac(apdu, offset, length, resp, clearLen, swOffset, this.hostRMac);
+    		boolean equal = true;
+    		for(int i = 0; i < MAC_LEN; i++){
+    			equal &= (this.hostRMac[i] == resp[dataLen + i]);
+    		}
+    		if(!equal){
+				DaplugDongleMetrics metrics = this.metrics();
+				if(metrics != null){
+					metrics.recordRmacFailure();
 				}
-			}
-			
-			//Compute the host r-mac and compare it with the returned mac (card r-mac)
-			tempData = new byte[5+apduCmd.getLc()+i+3];
-			System.arraycopy(apduCmd.getBytes(), 0, tempData, 0, 5+apduCmd.getLc());
-			byte[] tmp = DaplugUtils.hexStringToByteArray(String.format("%02X", i));
-			System.arraycopy(tmp, 0, tempData, 5+apduCmd.getLc(), 1);
-			System.arraycopy(clearData, 0, tempData, 5+apduCmd.getLc()+1, i);
-			System.arraycopy(tmpApduResp.getSW(), 0, tempData, 5+apduCmd.getLc()+1+i, 2);
-			
-			mac = DaplugCrypto.computeRetailMac(tempData, this.rMacKey, this.rMac, DaplugCrypto.R_MAC);
-			
-			if(Arrays.equals(mac, returnedMac) == false){
 				this.deAuthenticate();
 				throw new DaplugException("Response integrity failed !");
-			}
-			
-			System.arraycopy(mac, 0, this.rMac, 0, 8);
-			finalData = new byte[i];
-			System.arraycopy(clearData, 0, finalData, 0, i); 
-			
-		}
-		
-		//Sec level contains no r-mac or r-enc 
-		if(((this.securityLevel & SEC_LEVEL_R_MAC) == 0) && ((this.securityLevel & SEC_LEVEL_R_ENC) == 0)){
-			finalData = new byte[tmpApduResp.getDataLen()];
-			System.arraycopy(tmpApduResp.getData(), 0, finalData, 0, tmpApduResp.getDataLen()); 
-	   	}    	
-		
-		byte[] retResponseBytes = new byte[finalData.length + 2];  
-		System.arraycopy(finalData, 0, retResponseBytes, 0, finalData.length);
-		System.arraycopy(tmpApduResp.getSW(), 0, retResponseBytes, finalData.length, 2);
-		
-		DaplugApduResponse retResponse = null;
-		try{
-			retResponse = new DaplugApduResponse(retResponseBytes);
-		}catch(DaplugApduException e){
-			System.out.println(e.getMessage());
-		}
-		
-		return retResponse;
+    		}
+    		System.arraycopy(this.hostRMac, 0, this.rMac, 0, MAC_LEN);
+    	}
+    	
+    	//Status word right after the clear data
+    	resp[clearLen] = resp[swOffset];
+    	resp[clearLen + 1] = resp[swOffset + 1];
+		return clearLen + 2;
 	}
     
     //Encrypt/decrypt Apdu	
@@ -1645,8 +1650,6 @@ public final class DaplugSession implements SessionConstante{
     	
     	byte[] outData = null;
     	
-    	int lc = 10; //kv, kid & iv
-    	
     	//What function?
     	String functionName  = "", operationName = "";    	
     	if(enc == ENCRYPT){
@@ -1659,19 +1662,40 @@ public final class DaplugSession implements SessionConstante{
 			throw new DaplugSessionException(functionName + " - Invalid parameter : " + enc);
     	}
     	
+    	try{
+    		DaplugApduResponseView r = this.sendCrypt(functionName, keyVersion, keyID, mode, iv, div1, div2, inData, enc);
+    		if(r.normalEnding()){
+    			outData = r.getData();
+    		}else{
+    			throw new DaplugSessionException(functionName + " - Data " + operationName + " failed !");
+    		}
+    	}catch(DaplugApduException e){
+    		System.err.println(e.getMessage());
+    	}    	
+    	
+    	return outData;
+    	
+	}
+	
+	//Check the parameters of an encryption/decryption, then send the CRYPT command
+	private DaplugApduResponseView sendCrypt(String functionName, int keyVersion, int keyID, int mode, byte[] iv,
+			byte[] div1, byte[] div2, byte[] inData, int enc) throws DaplugException{
+    	
+    	int lc = 10; //kv, kid & iv
+    	
     	//IV
     	if(iv == null){
-    		iv = DaplugUtils.hexStringToByteArray("0000000000000000");
+    		iv = ZERO_IV;
     	}
     	
     	//Check diversifiers validity
-    	String div1_str = "", div2_str = "";
+    	boolean useDiv1 = false, useDiv2 = false;
     	if((mode & ENC_1_DIV) != 0 || (mode & ENC_2_DIV) != 0){
 	    	if(div1 != null){
 	    		if(div1.length != 16){
 	    			throw new DaplugSessionException(functionName + " - Invalid diversifier length : " + DaplugUtils.byteArrayToHexString(div1));
 	    		}else{
-	    			div1_str = DaplugUtils.byteArrayToHexString(div1);
+	    			useDiv1 = true;
 	    			lc = lc + 16;
 	    		}
 	    	}else{
@@ -1683,7 +1707,7 @@ public final class DaplugSession implements SessionConstante{
 	    		if(div2.length != 16){
 	    			throw new DaplugSessionException(functionName + " - Invalid diversifier length : " + DaplugUtils.byteArrayToHexString(div2));
 	    		}else{
-	    			div2_str = DaplugUtils.byteArrayToHexString(div2);
+	    			useDiv2 = true;
 	    			lc = lc + 16;
 	    		}
 	    	}else{
@@ -1698,40 +1722,41 @@ public final class DaplugSession implements SessionConstante{
     		lc = lc + inData.length;
     	}
     	
-    	String hexStrBuf = "";
-    	hexStrBuf = hexStrBuf.concat("D020");
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", enc));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", mode));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", lc));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", keyVersion));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", keyID));
-    	hexStrBuf = hexStrBuf.concat(DaplugUtils.byteArrayToHexString(iv));
-    	hexStrBuf = hexStrBuf.concat(div1_str);
-    	hexStrBuf = hexStrBuf.concat(div2_str);
-    	hexStrBuf = hexStrBuf.concat(DaplugUtils.byteArrayToHexString(inData));
-    	
-    	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-    		DaplugApduResponse r = this.exchange(a);
-    		if(r.normalEnding()){
-    			outData = new byte[r.getDataLen()];
-    			System.arraycopy(r.getData(), 0, outData, 0, r.getDataLen());
-    		}else{
-    			throw new DaplugSessionException(functionName + " - Data " + operationName + " failed !");
-    		}
-    	}catch(DaplugApduException e){
-    		System.err.println(e.getMessage());
-    	}    	
-    	
-    	return outData;
+    	this.builder.start(DaplugInstruction.CRYPT, enc, mode).u8(keyVersion).u8(keyID).bytes(iv);
+    	if(useDiv1) this.builder.bytes(div1);
+    	if(useDiv2) this.builder.bytes(div2);
+    	this.builder.bytes(inData);
     	
+    	return this.send(this.builder);
+	}
+	
+	
+	private static void checkHmac(int options) throws DaplugSessionException{
+    	if (((options & OTP_6_DIGIT) != 0) && ((options & OTP_7_DIGIT) != 0) && ((options & OTP_8_DIGIT) != 0)){
+    		throw new DaplugSessionException ("hmac() - Invalid option for hmac : " + options);
+    	}
 	}
 	
+	private static void checkHotp(int options, byte[] inData) throws DaplugSessionException{
+		if (((options & OTP_6_DIGIT) == 0) && ((options & OTP_7_DIGIT) == 0) && ((options & OTP_8_DIGIT) == 0)){
+			throw new DaplugSessionException ("hotp() : Invalid mode option for hotp : " + options);
+		}
+		if ((inData.length != 2) && (inData.length != 8)){
+			throw new DaplugSessionException ("hotp() : Invalid Data for hotp : " + DaplugUtils.byteArrayToHexString(inData));
+		}
+	}
+	
+	private static void checkTotp(int options, byte[] inData) throws DaplugSessionException{
+		if (((options & OTP_6_DIGIT) == 0)  && ((options & OTP_7_DIGIT) == 0) && ((options & OTP_8_DIGIT) == 0))
+		throw new DaplugSessionException ("totp() : Invalid mode option for Daplug_totp : " + options);
+		if ((inData != null) && (inData.length != 8)){
+			throw new DaplugSessionException ("totp() - Invalid Data for totp : " + DaplugUtils.byteArrayToHexString(inData));
+		}
+	}
 	
 	private byte[] hmacSha1(int keysetVersion, int options, byte[] div1, byte[] div2, byte[] inData, int sign) throws DaplugException{
 		
 		byte[] outData = null;
-		int lc = 0;
     	
     	//What function?
     	String functionName  = "", operationName = "";    	
@@ -1748,14 +1773,35 @@ public final class DaplugSession implements SessionConstante{
 			throw new DaplugSessionException(functionName + " - Invalid parameter : " + sign);
     	}
     	
+    	try{
+    		DaplugApduResponseView r = this.sendHmacSha1(functionName, keysetVersion, options, div1, div2, inData);
+    		if(r.normalEnding()){
+    			outData = r.getData();
+    		}else{
+    			throw new DaplugSessionException(functionName + " - Generating " + operationName + " failed !");
+    		}
+    	}catch(DaplugApduException e){
+    		e.printStackTrace();
+    	}    	
+    	
+    	return outData;
+		
+	}
+	
+	//Check the parameters of a signature, then send the HMAC-SHA1 command
+	private DaplugApduResponseView sendHmacSha1(String functionName, int keysetVersion, int options,
+			byte[] div1, byte[] div2, byte[] inData) throws DaplugException{
+		
+		int lc = 0;
+    	
     	//Check diversifiers validity
-    	String div1_str = "", div2_str = "";
+    	boolean useDiv1 = false, useDiv2 = false;
     	if((options & OTP_1_DIV) != 0 || (options & OTP_2_DIV) != 0){
 	    	if(div1 != null){
 	    		if(div1.length != 16){
 	    			throw new DaplugSessionException(functionName + " - Invalid diversifier length : " + DaplugUtils.byteArrayToHexString(div1));
 	    		}else{
-	    			div1_str = DaplugUtils.byteArrayToHexString(div1);
+	    			useDiv1 = true;
 	    			lc = lc + 16;
 	    		}
 	    	}else{
@@ -1767,7 +1813,7 @@ public final class DaplugSession implements SessionConstante{
 	    		if(div2.length != 16){
 	    			throw new DaplugSessionException(functionName + " - Invalid diversifier length : " + DaplugUtils.byteArrayToHexString(div2));
 	    		}else{
-	    			div2_str = DaplugUtils.byteArrayToHexString(div2);
+	    			useDiv2 = true;
 	    			lc = lc + 16;
 	    		}
 	    	}else{
@@ -1784,37 +1830,17 @@ public final class DaplugSession implements SessionConstante{
 	    	}
     	} 
     	
-    	String hexStrBuf = "";
-    	hexStrBuf = hexStrBuf.concat("D022");
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", keysetVersion));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", options));
-    	hexStrBuf = hexStrBuf.concat(String.format("%02X", lc));
-    	hexStrBuf = hexStrBuf.concat(div1_str);
-    	hexStrBuf = hexStrBuf.concat(div2_str);
-   		hexStrBuf = hexStrBuf.concat(DaplugUtils.byteArrayToHexString(inData));
+    	this.builder.start(DaplugInstruction.HMAC_SHA1, keysetVersion, options);
+    	if(useDiv1) this.builder.bytes(div1);
+    	if(useDiv2) this.builder.bytes(div2);
+    	this.builder.bytes(inData);
    		
-    	try{
-    		DaplugApduCommand a = new DaplugApduCommand(DaplugUtils.hexStringToByteArray(hexStrBuf));
-    		DaplugApduResponse r = this.exchange(a);
-    		if(r.normalEnding()){
-    			outData = new byte[r.getDataLen()];
-    			System.arraycopy(r.getData(), 0, outData, 0, r.getDataLen());
-    		}else{
-    			throw new DaplugSessionException(functionName + " - Generating " + operationName + " failed !");
-    		}
-    	}catch(DaplugApduException e){
-    		e.printStackTrace();
-    	}    	
-    	
-    	return outData;
-		
+    	return this.send(this.builder);
 	}
 	
-	private boolean daplugMake(String apdu) {
+	private boolean daplugMake(DaplugApduBuilder command) {
 		try {
-			DaplugApduCommand a = new DaplugApduCommand(
-				DaplugUtils.hexStringToByteArray(apdu));
-			DaplugApduResponse r = this.exchange(a);
+			DaplugApduResponseView r = this.send(command);
 			if (r.normalEnding())
 				return true;
 			else
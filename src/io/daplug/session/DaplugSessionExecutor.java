@@ -0,0 +1,340 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.session;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.apdu.DaplugApduResponse;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugSessionException;
+import io.daplug.utils.DaplugMpscQueue;
+
+/**
+ * Single-writer access to a DaplugSession from any number of threads.
+ * A DaplugSession is not thread-safe : its MAC chaining values and security level change with every
+ * APDU. The executor owns the session on its own thread; other threads submit commands through a
+ * bounded lock-free queue and get Futures back.
+ *
+ * The executor thread drains up to maxBatch queued commands per wake-up and only sleeps when the
+ * queue is empty; submitting threads only wake it up when it sleeps.
+ *
+ * Once the executor is started, the session must only be used through it.
+ *
+ */
+public class DaplugSessionExecutor {
+
+	/**
+	 * Default queue capacity
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Default maximum number of commands run per wake-up
+	 */
+	public static final int DEFAULT_MAX_BATCH = 32;
+
+	/* empty polls before the executor thread parks */
+	private static final int IDLE_SPINS = 64;
+
+	private final DaplugSession session;
+	private final DaplugMpscQueue<Job<?>> queue;
+	private final Job<?>[] batch;
+	private final Thread thread;
+
+	private volatile boolean sleeping = false;
+	private volatile boolean closed = false;
+	/* set by the executor thread before its last sweep of the queue : no command is run afterwards */
+	private volatile boolean terminated = false;
+	private final AtomicLong submitted = new AtomicLong();
+	/* written by the executor thread only */
+	private volatile long executed = 0, wakeUps = 0;
+
+	/**
+	 * Starts an executor with the default capacity and batch size
+	 * @param session DaplugSession session owned by the executor from now on
+	 */
+	public DaplugSessionExecutor(DaplugSession session) {
+		this(session, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * Starts an executor
+	 * @param session DaplugSession session owned by the executor from now on
+	 * @param capacity int maximum number of queued commands
+	 * @param maxBatch int maximum number of commands run per wake-up
+	 */
+	public DaplugSessionExecutor(DaplugSession session, int capacity, int maxBatch) {
+		if (session == null)
+			throw new NullPointerException("DaplugSessionExecutor() - session is null");
+		if (maxBatch <= 0)
+			throw new IllegalArgumentException("DaplugSessionExecutor() - Invalid batch size : " + maxBatch);
+		this.session = session;
+		this.queue = new DaplugMpscQueue<Job<?>>(capacity);
+		this.batch = new Job<?>[maxBatch];
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				consume();
+			}
+		}, "daplug-session-executor");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Submits a task, waiting while the queue is full
+	 * @param task DaplugSessionTask<T>
+	 * @return Future<T> result of the task
+	 * @throws DaplugSessionException if the executor is closed
+	 */
+	public <T> Future<T> submit(DaplugSessionTask<T> task) throws DaplugSessionException {
+		return submit(task, null);
+	}
+
+	/**
+	 * Submits a task, waiting while the queue is full
+	 * @param task DaplugSessionTask<T>
+	 * @param owner DaplugFuture<?> failed with the task if the executor closes before running it, or null
+	 * @return Future<T> result of the task
+	 * @throws DaplugSessionException if the executor is closed
+	 */
+	<T> Future<T> submit(DaplugSessionTask<T> task, DaplugFuture<?> owner) throws DaplugSessionException {
+		Job<T> job = new Job<T>(task, owner);
+		int spins = 0;
+		while (!offer(job)) {
+			if (this.closed)
+				throw new DaplugSessionException("DaplugSessionExecutor.submit() - The executor is closed !");
+			// full : the executor thread is running, give it time
+			if (++spins < 100)
+				Thread.yield();
+			else
+				LockSupport.parkNanos(10000L);
+		}
+		return job;
+	}
+
+	/**
+	 * Submits a task if the queue is not full
+	 * @param task DaplugSessionTask<T>
+	 * @return Future<T> result of the task, null if the queue is full
+	 * @throws DaplugSessionException if the executor is closed
+	 */
+	public <T> Future<T> trySubmit(DaplugSessionTask<T> task) throws DaplugSessionException {
+		if (this.closed)
+			throw new DaplugSessionException("DaplugSessionExecutor.trySubmit() - The executor is closed !");
+		Job<T> job = new Job<T>(task, null);
+		return offer(job) ? job : null;
+	}
+
+	/**
+	 * Exchanges an apdu through the secure channel of the session (see DaplugSession.exchange())
+	 * @param apdu DaplugApduCommand
+	 * @return Future<DaplugApduResponse> response
+	 * @throws DaplugSessionException if the executor is closed
+	 */
+	public Future<DaplugApduResponse> exchange(final DaplugApduCommand apdu) throws DaplugSessionException {
+		return submit(new DaplugSessionTask<DaplugApduResponse>() {
+			public DaplugApduResponse execute(DaplugSession s) throws DaplugException {
+				return s.exchange(apdu);
+			}
+		});
+	}
+
+	/**
+	 * Stops accepting commands. The commands already queued are run, then the executor thread ends.
+	 * A command queued while the executor thread ends is not run : its future fails.
+	 * The session is not de-authenticated.
+	 * @param waitMillis long maximum time to wait for the queued commands (ms), 0 not to wait
+	 * @throws InterruptedException
+	 */
+	public void close(long waitMillis) throws InterruptedException {
+		this.closed = true;
+		LockSupport.unpark(this.thread);
+		if (waitMillis > 0)
+			this.thread.join(waitMillis);
+	}
+
+	/**
+	 * @return boolean true once close() has been called
+	 */
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * @return boolean true if the calling thread is the executor thread
+	 */
+	public boolean isExecutorThread() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	/**
+	 * @return DaplugSession the session owned by the executor
+	 */
+	public DaplugSession getSession() {
+		return this.session;
+	}
+
+	/**
+	 * @return int approximate number of queued commands
+	 */
+	public int getQueueDepth() {
+		return this.queue.size();
+	}
+
+	/**
+	 * @return long number of commands submitted
+	 */
+	public long getSubmitted() {
+		return this.submitted.get();
+	}
+
+	/**
+	 * @return long number of commands run
+	 */
+	public long getExecuted() {
+		return this.executed;
+	}
+
+	/**
+	 * @return double average number of commands run per wake-up of the executor thread
+	 */
+	public double getAverageBatchSize() {
+		long w = this.wakeUps;
+		return (w == 0) ? 0 : (double) this.executed / w;
+	}
+
+	private boolean offer(Job<?> job) throws DaplugSessionException {
+		if (this.closed)
+			throw closedException();
+		if (!this.queue.offer(job))
+			return false;
+		this.submitted.incrementAndGet();
+		if (this.terminated) {
+			// closed between the check above and the offer, the executor thread may have swept the queue already
+			job.fail(closedException());
+			return true;
+		}
+		if (this.sleeping)
+			LockSupport.unpark(this.thread);
+		return true;
+	}
+
+	private static DaplugSessionException closedException() {
+		return new DaplugSessionException("DaplugSessionExecutor - The executor is closed !");
+	}
+
+	/* executor thread, once terminated : fails the commands queued after the last drain.
+	 * A claimed slot is published shortly after : wait for it rather than leave its command behind */
+	private void failQueued() {
+		while (!this.queue.isEmpty()) {
+			int n = this.queue.drain(this.batch, this.batch.length);
+			if (n == 0)
+				Thread.yield();
+			for (int i = 0; i < n; i++) {
+				Job<?> job = this.batch[i];
+				this.batch[i] = null;
+				job.fail(closedException());
+			}
+		}
+	}
+
+	private void consume() {
+		int idle = 0;
+		while (true) {
+			int n = this.queue.drain(this.batch, this.batch.length);
+			if (n == 0) {
+				if (this.closed && this.queue.isEmpty()) {
+					this.terminated = true;
+					failQueued();
+					return;
+				}
+				// commands often follow each other closely : spin a little before parking
+				if (++idle < IDLE_SPINS) {
+					Thread.yield();
+					continue;
+				}
+				idle = 0;
+				this.sleeping = true;
+				// re-check after publishing the sleeping flag : a producer which missed it has queued before
+				if (this.queue.isEmpty() && !this.closed)
+					LockSupport.park(this);
+				this.sleeping = false;
+				continue;
+			}
+			idle = 0;
+			this.wakeUps++;
+			for (int i = 0; i < n; i++) {
+				Job<?> job = this.batch[i];
+				this.batch[i] = null;
+				this.executed++;
+				job.runOn(this.session);
+			}
+		}
+	}
+
+	/* a submitted task with its future result, run by the executor thread */
+	private static final class Job<T> extends FutureTask<T> {
+
+		private final SessionCall<T> call;
+		private final DaplugFuture<?> owner;
+
+		Job(DaplugSessionTask<T> task, DaplugFuture<?> owner) {
+			this(new SessionCall<T>(task), owner);
+		}
+
+		private Job(SessionCall<T> call, DaplugFuture<?> owner) {
+			super(call);
+			this.call = call;
+			this.owner = owner;
+		}
+
+		/* never run : fails the future, and the DaplugFuture waiting for it */
+		void fail(Throwable cause) {
+			setException(cause);
+			if (this.owner != null)
+				this.owner.fail(cause);
+		}
+
+		void runOn(DaplugSession session) {
+			this.call.session = session;
+			run();
+		}
+	}
+
+	private static final class SessionCall<T> implements Callable<T> {
+
+		private final DaplugSessionTask<T> task;
+		private DaplugSession session = null;
+
+		SessionCall(DaplugSessionTask<T> task) {
+			this.task = task;
+		}
+
+		public T call() throws Exception {
+			return this.task.execute(this.session);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.session;
+
+import io.daplug.exception.DaplugException;
+
+/**
+ * An operation depending on the result of a previous one, run on the session by the thread which owns it
+ * (see DaplugFuture.then()).
+ *
+ * @param <T> result type of the previous operation
+ * @param <U> result type
+ */
+public interface DaplugSessionFunction<T, U> {
+
+	/**
+	 * Runs the operation
+	 * @param session DaplugSession
+	 * @param previous T result of the previous operation
+	 * @return U result
+	 * @throws DaplugException
+	 */
+	U apply(DaplugSession session, T previous) throws DaplugException;
+}
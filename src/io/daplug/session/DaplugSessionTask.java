@@ -0,0 +1,40 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.session;
+
+import io.daplug.exception.DaplugException;
+
+/**
+ * A unit of work run on a DaplugSession by the thread which owns it (see DaplugSessionExecutor).
+ * The task must not keep the session.
+ *
+ * @param <T> result type
+ */
+public interface DaplugSessionTask<T> {
+
+	/**
+	 * Runs the task
+	 * @param session DaplugSession
+	 * @return T result
+	 * @throws DaplugException
+	 */
+	T execute(DaplugSession session) throws DaplugException;
+}
@@ -58,6 +58,7 @@ public interface SessionConstante {
 		public static final int HOTP_TIME_STEP = 30; //Recommended HOTP time step 
 		public static final int ACCESS_ALWAYS = 0x00;
 		public static final int ACCESS_NEVER = 0xFF;
+		public static final int EXCHANGE_RETRIES = 1; //Retries of a read without side effect timed out outside a secure channel
 		
 		public static final int 	ENCRYPT = (byte) 0x01, /* Encryption */
 									DECRYPT = (byte) 0x02, /* Decryption */
@@ -0,0 +1,69 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.trace;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Prints the trace as the library always did : "=> " followed by the hexadecimal command,
+ * "<= " followed by the hexadecimal response, messages as they are.
+ * Each line is formatted and printed synchronously : this sink is meant for debugging.
+ *
+ */
+public class DaplugConsoleTraceSink implements DaplugTraceSink {
+
+	private final PrintStream out;
+
+	/**
+	 * Constructs a sink printing on System.out
+	 */
+	public DaplugConsoleTraceSink() {
+		this(System.out);
+	}
+
+	/**
+	 * Constructs a sink printing on the given stream
+	 * @param out PrintStream
+	 */
+	public DaplugConsoleTraceSink(PrintStream out) {
+		if (out == null)
+			throw new NullPointerException("DaplugConsoleTraceSink() - out is required");
+		this.out = out;
+	}
+
+	public boolean isEnabled() {
+		return true;
+	}
+
+	public void command(byte[] apdu, int offset, int length) {
+		this.out.println("=> " + DaplugUtils.byteArrayToHexString(Arrays.copyOfRange(apdu, offset, offset + length)));
+	}
+
+	public void response(byte[] response, int offset, int length) {
+		this.out.println("<= " + DaplugUtils.byteArrayToHexString(Arrays.copyOfRange(response, offset, offset + length)));
+	}
+
+	public void message(String message) {
+		this.out.println(message);
+	}
+}
@@ -0,0 +1,213 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.trace;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.daplug.apdu.DaplugApduCommand;
+import io.daplug.dongle.IDaplugDongle;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Records the trace in a ring of fixed-size binary records : the raw bytes of each command and response
+ * with a System.nanoTime() timestamp. Nothing is formatted nor allocated while recording ; the records
+ * are formatted only when the ring is dumped. When the ring is full the oldest records are overwritten.
+ *
+ * Recording is lock-free : a writer claims a record with an atomic increment, fills it, then publishes
+ * its sequence number. dump() skips the records overwritten or being written while it reads them.
+ * Data longer than the record size is truncated, its original length is kept.
+ *
+ */
+public final class DaplugRingTraceSink implements DaplugTraceSink {
+
+	/**
+	 * Default number of records
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Default record size : a wrapped command (C-MAC and encryption padding) or a response
+	 */
+	public static final int DEFAULT_RECORD_SIZE = Math.max(DaplugApduCommand.APDU_COMMAND_MAX_LEN + 16,
+			IDaplugDongle.RESPONSE_MAX_LEN);
+
+	private static final byte COMMAND = 0, RESPONSE = 1, MESSAGE = 2;
+	private static final long WRITING = -1;
+
+	private final int mask, recordSize;
+	private final byte[] data, kinds;
+	private final int[] lengths;
+	private final long[] times;
+	private final String[] messages;
+	private final AtomicLongArray sequences;
+	private final AtomicLong next = new AtomicLong();
+	private volatile long first = 0;
+	private volatile boolean enabled = true;
+
+	/**
+	 * Constructs a ring of DEFAULT_CAPACITY records of DEFAULT_RECORD_SIZE bytes
+	 */
+	public DaplugRingTraceSink() {
+		this(DEFAULT_CAPACITY, DEFAULT_RECORD_SIZE);
+	}
+
+	/**
+	 * Constructs a ring
+	 * @param capacity int number of records, rounded up to a power of 2
+	 * @param recordSize int maximum number of bytes kept by record
+	 */
+	public DaplugRingTraceSink(int capacity, int recordSize) {
+		if (capacity <= 0 || capacity > (1 << 24))
+			throw new IllegalArgumentException("DaplugRingTraceSink() - Invalid capacity : " + capacity);
+		if (recordSize <= 0)
+			throw new IllegalArgumentException("DaplugRingTraceSink() - Invalid record size : " + recordSize);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.mask = size - 1;
+		this.recordSize = recordSize;
+		this.data = new byte[size * recordSize];
+		this.kinds = new byte[size];
+		this.lengths = new int[size];
+		this.times = new long[size];
+		this.messages = new String[size];
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+			this.sequences.set(i, WRITING);
+	}
+
+	/**
+	 * Pauses or resumes the recording
+	 * @param enabled boolean
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void command(byte[] apdu, int offset, int length) {
+		record(COMMAND, apdu, offset, length, null);
+	}
+
+	public void response(byte[] response, int offset, int length) {
+		record(RESPONSE, response, offset, length, null);
+	}
+
+	public void message(String message) {
+		record(MESSAGE, null, 0, 0, message);
+	}
+
+	private void record(byte kind, byte[] buffer, int offset, int length, String message) {
+		long sequence = this.next.getAndIncrement();
+		int slot = (int) (sequence & this.mask);
+		// the record is marked before being filled, so that a concurrent dump does not take a mix
+		this.sequences.getAndSet(slot, WRITING);
+		this.times[slot] = System.nanoTime();
+		this.kinds[slot] = kind;
+		this.lengths[slot] = length;
+		this.messages[slot] = message;
+		if (buffer != null)
+			System.arraycopy(buffer, offset, this.data, slot * this.recordSize, Math.min(length, this.recordSize));
+		this.sequences.lazySet(slot, sequence);
+	}
+
+	/**
+	 * @return int number of records of the ring
+	 */
+	public int getCapacity() {
+		return this.mask + 1;
+	}
+
+	/**
+	 * @return long number of records written since the ring was constructed, including the overwritten ones
+	 */
+	public long getRecorded() {
+		return this.next.get();
+	}
+
+	/**
+	 * Forgets the records written so far
+	 */
+	public void clear() {
+		this.first = this.next.get();
+	}
+
+	/**
+	 * Formats the records of the ring, oldest first, one line each : time elapsed since the first record,
+	 * then "=> " and the hexadecimal command, "<= " and the hexadecimal response, or the message.
+	 * @param out Appendable destination
+	 * @return int number of records formatted
+	 * @throws IOException if out fails
+	 */
+	public int dump(Appendable out) throws IOException {
+		long end = this.next.get();
+		long start = Math.max(this.first, end - getCapacity());
+		byte[] bytes = new byte[this.recordSize];
+		long origin = 0;
+		int count = 0;
+		for (long sequence = start; sequence < end; sequence++) {
+			int slot = (int) (sequence & this.mask);
+			if (this.sequences.get(slot) != sequence)
+				continue;
+			long time = this.times[slot];
+			byte kind = this.kinds[slot];
+			int length = this.lengths[slot];
+			String message = this.messages[slot];
+			int kept = Math.min(length, this.recordSize);
+			System.arraycopy(this.data, slot * this.recordSize, bytes, 0, kept);
+			// compareAndSet orders the reads above before the check : the record was not overwritten meanwhile
+			if (!this.sequences.compareAndSet(slot, sequence, sequence))
+				continue;
+			if (count == 0)
+				origin = time;
+			out.append(String.format("[+%12.3f us] ", (time - origin) / 1000.0));
+			if (kind == MESSAGE) {
+				out.append(message);
+			} else {
+				out.append(kind == COMMAND ? "=> " : "<= ");
+				out.append(DaplugUtils.byteArrayToHexString(Arrays.copyOf(bytes, kept)));
+				if (kept < length)
+					out.append("... (" + length + " bytes)");
+			}
+			out.append('\n');
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return String the records of the ring, formatted as by dump(Appendable)
+	 */
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			dump(sb);
+		} catch (IOException e) {
+			// a StringBuilder does not fail
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,95 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.trace;
+
+/**
+ * Holds the default trace sink of the library. Sessions take it when they are constructed
+ * (DaplugSession.setTraceSink() changes it for one session), static code such as DaplugEnumerator
+ * reads it on each call.
+ *
+ * Tracing is disabled by default. It is set from the daplug.trace system property when this class
+ * is loaded : "console" prints the trace on System.out, "ring" records it in a DaplugRingTraceSink.
+ *
+ */
+public final class DaplugTrace {
+
+	/**
+	 * System property selecting the initial sink : "console", "ring" or "none"
+	 */
+	public static final String TRACE_PROPERTY = "daplug.trace";
+
+	/**
+	 * The disabled sink
+	 */
+	public static final DaplugTraceSink NONE = new DaplugTraceSink() {
+
+		public boolean isEnabled() {
+			return false;
+		}
+
+		public void command(byte[] apdu, int offset, int length) {
+		}
+
+		public void response(byte[] response, int offset, int length) {
+		}
+
+		public void message(String message) {
+		}
+	};
+
+	private static volatile DaplugTraceSink sink = initialSink();
+
+	private DaplugTrace() {
+	}
+
+	private static DaplugTraceSink initialSink() {
+		String value = System.getProperty(TRACE_PROPERTY, "none");
+		if ("console".equalsIgnoreCase(value))
+			return new DaplugConsoleTraceSink();
+		if ("ring".equalsIgnoreCase(value))
+			return new DaplugRingTraceSink();
+		return NONE;
+	}
+
+	/**
+	 * @return the default sink, NONE if tracing is disabled
+	 */
+	public static DaplugTraceSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * Sets the default sink. Sessions already constructed keep their sink.
+	 * @param traceSink DaplugTraceSink new default sink, null to disable tracing
+	 */
+	public static void setSink(DaplugTraceSink traceSink) {
+		sink = (traceSink == null) ? NONE : traceSink;
+	}
+
+	/**
+	 * Sends a message to the default sink
+	 * @param message String
+	 */
+	public static void message(String message) {
+		DaplugTraceSink s = sink;
+		if (s.isEnabled())
+			s.message(message);
+	}
+}
@@ -0,0 +1,61 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.trace;
+
+/**
+ * Receives the trace of the library : the raw apdus exchanged with the dongles (wrapped commands
+ * as sent, responses as received) and informative messages of the session methods.
+ *
+ * Callers check isEnabled() before formatting or passing anything, so a disabled sink costs a
+ * single call the JIT inlines away. The buffers passed to command() and response() belong to the
+ * caller and are only valid during the call : a sink keeping them must copy them.
+ *
+ * A sink may be called from several threads (sessions of a pool, executors) and must be thread-safe.
+ *
+ */
+public interface DaplugTraceSink {
+
+	/**
+	 * @return boolean true if this sink records anything
+	 */
+	boolean isEnabled();
+
+	/**
+	 * A command is sent to a dongle
+	 * @param apdu byte [] buffer holding the command
+	 * @param offset int offset of the command
+	 * @param length int length of the command
+	 */
+	void command(byte[] apdu, int offset, int length);
+
+	/**
+	 * A response is received from a dongle
+	 * @param response byte [] buffer holding the response : data followed by the status word
+	 * @param offset int offset of the response
+	 * @param length int length of the response
+	 */
+	void response(byte[] response, int offset, int length);
+
+	/**
+	 * An informative message
+	 * @param message String
+	 */
+	void message(String message);
+}
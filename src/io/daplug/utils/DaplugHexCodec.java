@@ -0,0 +1,308 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.utils;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Table-driven hexadecimal codec. Each byte is encoded by one lookup in a 256 entries table of digit pairs,
+ * each digit is decoded by one lookup in a 256 entries table of values : decoding validates and converts
+ * in a single pass. Input is any CharSequence (String, StringBuilder, CharBuffer...) and the codec writes
+ * into buffers supplied by the caller, so that nothing is allocated but the results asked for.
+ *
+ * Encoding is upper case, as the apdus traced by DaplugSession; decoding accepts both cases.
+ *
+ */
+public final class DaplugHexCodec {
+
+	/* digit pairs of each byte value : PAIRS[2 * b], PAIRS[2 * b + 1] */
+	private static final char[] PAIRS = new char[512], LOWER_PAIRS = new char[512];
+
+	/* value of each char below 256, -1 if it is not an hexadecimal digit */
+	private static final byte[] DIGITS = new byte[256];
+
+	static {
+		String upper = "0123456789ABCDEF", lower = "0123456789abcdef";
+		for (int b = 0; b < 256; b++) {
+			PAIRS[2 * b] = upper.charAt(b >>> 4);
+			PAIRS[2 * b + 1] = upper.charAt(b & 0x0F);
+			LOWER_PAIRS[2 * b] = lower.charAt(b >>> 4);
+			LOWER_PAIRS[2 * b + 1] = lower.charAt(b & 0x0F);
+		}
+		Arrays.fill(DIGITS, (byte) -1);
+		for (int i = 0; i < 16; i++) {
+			DIGITS[upper.charAt(i)] = (byte) i;
+			DIGITS[lower.charAt(i)] = (byte) i;
+		}
+	}
+
+	private DaplugHexCodec() {
+	}
+
+	/**
+	 * @param c char
+	 * @return int value of the hexadecimal digit, -1 if c is not one
+	 */
+	public static int digit(char c) {
+		return c < 256 ? DIGITS[c] : -1;
+	}
+
+	/**
+	 * Decodes the byte written by two digits
+	 * @param s CharSequence
+	 * @param off int offset of the first digit
+	 * @return int byte value, -1 if one of the two chars is not an hexadecimal digit
+	 */
+	public static int byteAt(CharSequence s, int off) {
+		return Math.max(pair(s.charAt(off), s.charAt(off + 1)), -1);
+	}
+
+	/**
+	 * Checks that a sequence is an even number of hexadecimal digits
+	 * @param s CharSequence
+	 * @return boolean true if s is an hexadecimal string (the empty string is one)
+	 */
+	public static boolean isHex(CharSequence s) {
+		return isHex(s, 0, s.length());
+	}
+
+	/**
+	 * Checks that a part of a sequence is an even number of hexadecimal digits
+	 * @param s CharSequence
+	 * @param off int offset of the first char
+	 * @param len int number of chars
+	 * @return boolean
+	 */
+	public static boolean isHex(CharSequence s, int off, int len) {
+		if ((len & 1) != 0)
+			return false;
+		int bad = 0;
+		for (int i = off; i < off + len; i++) {
+			char c = s.charAt(i);
+			bad |= c > 0xFF ? -1 : DIGITS[c];
+		}
+		return bad >= 0;
+	}
+
+	/**
+	 * Decodes an hexadecimal string
+	 * @param s CharSequence
+	 * @return byte [] decoded bytes, null if s is not an hexadecimal string
+	 */
+	public static byte[] decode(CharSequence s) {
+		int len = s.length();
+		if ((len & 1) != 0)
+			return null;
+		byte[] out = new byte[len >> 1];
+		return decode(s, 0, len, out, 0) < 0 ? null : out;
+	}
+
+	/**
+	 * Decodes a part of an hexadecimal string into a buffer.
+	 * On an invalid input the content of the buffer is undefined.
+	 * @param s CharSequence
+	 * @param off int offset of the first char
+	 * @param len int number of chars
+	 * @param out byte [] buffer receiving len / 2 bytes
+	 * @param outOff int offset where the bytes are written
+	 * @return int number of bytes written, -1 if the input is not an even number of hexadecimal digits
+	 */
+	public static int decode(CharSequence s, int off, int len, byte[] out, int outOff) {
+		if ((len & 1) != 0)
+			return -1;
+		int o = outOff;
+		for (int i = off, end = off + len; i < end; i += 2) {
+			int v = pair(s.charAt(i), s.charAt(i + 1));
+			if (v < 0)
+				return -1;
+			out[o++] = (byte) v;
+		}
+		return o - outOff;
+	}
+
+	/**
+	 * Decodes a part of an hexadecimal string at the position of a buffer, then moves the position.
+	 * On an invalid input the content of the buffer is undefined and its position is unchanged.
+	 * @param s CharSequence
+	 * @param off int offset of the first char
+	 * @param len int number of chars
+	 * @param out ByteBuffer buffer receiving len / 2 bytes
+	 * @return int number of bytes written, -1 if the input is not an even number of hexadecimal digits
+	 * @throws BufferOverflowException if the buffer has less than len / 2 bytes remaining
+	 */
+	public static int decode(CharSequence s, int off, int len, ByteBuffer out) {
+		if ((len & 1) != 0)
+			return -1;
+		int n = len >> 1;
+		if (out.remaining() < n)
+			throw new BufferOverflowException();
+		if (out.hasArray()) {
+			int r = decode(s, off, len, out.array(), out.arrayOffset() + out.position());
+			if (r > 0)
+				out.position(out.position() + r);
+			return r;
+		}
+		int p = out.position();
+		for (int i = 0; i < n; i++) {
+			int v = pair(s.charAt(off + 2 * i), s.charAt(off + 2 * i + 1));
+			if (v < 0)
+				return -1;
+			out.put(p + i, (byte) v);
+		}
+		out.position(p + n);
+		return n;
+	}
+
+	/**
+	 * Encodes bytes in upper case
+	 * @param in byte []
+	 * @return String hexadecimal string
+	 */
+	public static String encode(byte[] in) {
+		return encode(in, 0, in.length);
+	}
+
+	/**
+	 * Encodes a part of a byte array in upper case
+	 * @param in byte []
+	 * @param off int offset of the first byte
+	 * @param len int number of bytes
+	 * @return String hexadecimal string
+	 */
+	public static String encode(byte[] in, int off, int len) {
+		char[] out = new char[len * 2];
+		encode(in, off, len, out, 0);
+		return new String(out);
+	}
+
+	/**
+	 * Encodes a part of a byte array in upper case into a buffer
+	 * @param in byte []
+	 * @param off int offset of the first byte
+	 * @param len int number of bytes
+	 * @param out char [] buffer receiving 2 * len chars
+	 * @param outOff int offset where the chars are written
+	 * @return int number of chars written
+	 */
+	public static int encode(byte[] in, int off, int len, char[] out, int outOff) {
+		return encode(in, off, len, out, outOff, PAIRS);
+	}
+
+	/**
+	 * Encodes a part of a byte array in lower case into a buffer
+	 * @param in byte []
+	 * @param off int offset of the first byte
+	 * @param len int number of bytes
+	 * @param out char [] buffer receiving 2 * len chars
+	 * @param outOff int offset where the chars are written
+	 * @return int number of chars written
+	 */
+	public static int encodeLowerCase(byte[] in, int off, int len, char[] out, int outOff) {
+		return encode(in, off, len, out, outOff, LOWER_PAIRS);
+	}
+
+	/**
+	 * Appends a part of a byte array in upper case, to a StringBuilder, a Writer...
+	 * @param in byte []
+	 * @param off int offset of the first byte
+	 * @param len int number of bytes
+	 * @param out Appendable
+	 * @throws IOException if out fails
+	 */
+	public static void encode(byte[] in, int off, int len, Appendable out) throws IOException {
+		if (out instanceof StringBuilder) {
+			append(in, off, len, (StringBuilder) out);
+			return;
+		}
+		for (int i = off; i < off + len; i++) {
+			int p = (in[i] & 0xFF) << 1;
+			out.append(PAIRS[p]).append(PAIRS[p + 1]);
+		}
+	}
+
+	/**
+	 * Appends the remaining bytes of a buffer in upper case, then moves its position to its limit
+	 * @param in ByteBuffer
+	 * @param out Appendable
+	 * @throws IOException if out fails
+	 */
+	public static void encode(ByteBuffer in, Appendable out) throws IOException {
+		if (in.hasArray()) {
+			encode(in.array(), in.arrayOffset() + in.position(), in.remaining(), out);
+			in.position(in.limit());
+			return;
+		}
+		while (in.hasRemaining()) {
+			int p = (in.get() & 0xFF) << 1;
+			out.append(PAIRS[p]).append(PAIRS[p + 1]);
+		}
+	}
+
+	/**
+	 * Appends a part of a byte array in upper case
+	 * @param in byte []
+	 * @param off int offset of the first byte
+	 * @param len int number of bytes
+	 * @param out StringBuilder
+	 * @return StringBuilder out
+	 */
+	public static StringBuilder append(byte[] in, int off, int len, StringBuilder out) {
+		int o = out.length();
+		out.setLength(o + 2 * len);
+		for (int i = off; i < off + len; i++) {
+			int p = (in[i] & 0xFF) << 1;
+			out.setCharAt(o++, PAIRS[p]);
+			out.setCharAt(o++, PAIRS[p + 1]);
+		}
+		return out;
+	}
+
+	/**
+	 * Appends the two lower case digits of a byte value
+	 * @param b int byte value, only its 8 lower bits are taken
+	 * @param out StringBuilder
+	 * @return StringBuilder out
+	 */
+	public static StringBuilder appendLowerCase(int b, StringBuilder out) {
+		int p = (b & 0xFF) << 1;
+		return out.append(LOWER_PAIRS[p]).append(LOWER_PAIRS[p + 1]);
+	}
+
+	private static int encode(byte[] in, int off, int len, char[] out, int outOff, char[] pairs) {
+		int o = outOff;
+		for (int i = off; i < off + len; i++) {
+			int p = (in[i] & 0xFF) << 1;
+			out[o++] = pairs[p];
+			out[o++] = pairs[p + 1];
+		}
+		return o - outOff;
+	}
+
+	/* value of two digits, negative if one of them is not an hexadecimal digit */
+	private static int pair(char hi, char lo) {
+		if ((hi | lo) > 0xFF)
+			return -1;
+		return (DIGITS[hi] << 4) | DIGITS[lo];
+	}
+}
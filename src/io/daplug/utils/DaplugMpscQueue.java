@@ -0,0 +1,133 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+
+package io.daplug.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue for many producer threads and one consumer thread.
+ * Producers claim a slot of a ring buffer with a CAS on the tail, then publish the element in it;
+ * the consumer takes the elements in order and frees their slots. No lock is taken and nothing
+ * is allocated per element.
+ *
+ * offer() may be called from any thread; poll(), drain() and isEmpty() only from the consumer thread.
+ *
+ * @param <E> element type
+ */
+public final class DaplugMpscQueue<E> {
+
+	private final AtomicReferenceArray<E> buffer;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong(), head = new AtomicLong();
+
+	/**
+	 * Constructs a queue
+	 * @param capacity int maximum number of elements, rounded up to a power of 2
+	 */
+	public DaplugMpscQueue(int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30))
+			throw new IllegalArgumentException("DaplugMpscQueue() - Invalid capacity : " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.buffer = new AtomicReferenceArray<E>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Adds an element, from any thread
+	 * @param e E element, not null
+	 * @return boolean false if the queue is full
+	 */
+	public boolean offer(E e) {
+		if (e == null)
+			throw new NullPointerException("DaplugMpscQueue.offer() - null element");
+		while (true) {
+			long t = this.tail.get();
+			if (t - this.head.get() > this.mask)
+				return false;
+			if (this.tail.compareAndSet(t, t + 1)) {
+				this.buffer.lazySet((int) t & this.mask, e);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Takes the oldest element, from the consumer thread
+	 * @return E element, null if the queue is empty (or the oldest element is not published yet)
+	 */
+	public E poll() {
+		long h = this.head.get();
+		int index = (int) h & this.mask;
+		E e = this.buffer.get(index);
+		if (e == null)
+			return null;
+		this.buffer.lazySet(index, null);
+		this.head.lazySet(h + 1);
+		return e;
+	}
+
+	/**
+	 * Takes up to max elements in one pass, from the consumer thread
+	 * @param out E[] array receiving the elements from index 0
+	 * @param max int maximum number of elements taken
+	 * @return int number of elements taken
+	 */
+	public int drain(E[] out, int max) {
+		long h = this.head.get();
+		int n = 0;
+		while (n < max) {
+			int index = (int) (h + n) & this.mask;
+			E e = this.buffer.get(index);
+			if (e == null)
+				break;
+			this.buffer.lazySet(index, null);
+			out[n++] = e;
+		}
+		if (n > 0)
+			this.head.lazySet(h + n);
+		return n;
+	}
+
+	/**
+	 * @return boolean true if no element was offered since the last one taken
+	 */
+	public boolean isEmpty() {
+		return this.tail.get() == this.head.get();
+	}
+
+	/**
+	 * @return int approximate number of elements in the queue
+	 */
+	public int size() {
+		long size = this.tail.get() - this.head.get();
+		return (int) Math.max(0, Math.min(size, this.mask + 1));
+	}
+
+	/**
+	 * @return int maximum number of elements
+	 */
+	public int capacity() {
+		return this.mask + 1;
+	}
+}
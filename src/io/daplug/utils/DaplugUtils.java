@@ -33,16 +33,7 @@ public class DaplugUtils {
 		
 		if(b.length == 0) return "";
 			
-		StringBuffer sb = new StringBuffer(b.length * 2);
-		for (int i = 0; i < b.length; i++) {
-			int v = b[i] & 0xff;
-			if (v < 16) {
-				sb.append('0');
-			}
-			sb.append(Integer.toHexString(v));
-		}
-		
-		return sb.toString().toUpperCase();
+		return DaplugHexCodec.encode(b);
 
 	}
 
@@ -56,19 +47,11 @@ public class DaplugUtils {
 	 */
 	public static byte[] hexStringToByteArray(String s) {
 
-		if (!isHexInput(s)) {
+		byte[] b = DaplugHexCodec.decode(s);
+		if (b == null) {
 			System.err.println("Invalid hex string : " + s);
 			return null; // or exception
 		}
-		
-		if(s.length() == 0) return new byte[0];
-		
-		int len = s.length();
-		byte[] b = new byte[len / 2];
-		for (int i = 0; i < len; i += 2) {
-			b[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4) + Character
-					.digit(s.charAt(i + 1), 16));
-		}
 
 		return b;
 	}
@@ -101,13 +84,7 @@ public class DaplugUtils {
 	 * @author Yassir
 	 */
 	public static String bytesToHex(byte[] bytes) {
-		char[] hexChars = new char[bytes.length * 2];
-		for (int j = 0; j < bytes.length; j++) {
-			int v = bytes[j] & 0xFF;
-			hexChars[j * 2] = hexArray[v >>> 4];
-			hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-		}
-		return new String(hexChars);
+		return DaplugHexCodec.encode(bytes);
 	}
 
 	/**
@@ -137,31 +114,7 @@ public class DaplugUtils {
 	 * @author Saada
 	 */
 	public static boolean isHexInput(String input) {
-
-		boolean is_hex = true;
-
-		int i = 0, j;
-		String hex_nb = "0123456789abcdefABCDEF";
-
-		if (input.length() % 2 != 0) {
-			return false;
-		}
-
-		while ((i < input.length()) && is_hex) {
-			j = 0;
-			while (j < 22) {
-				if (input.charAt(i) != hex_nb.charAt(j)) {
-					is_hex = false;
-					j++;
-				} else {
-					is_hex = true;
-					break;
-				}
-			}
-			i++;
-		}
-
-		return is_hex;
+		return DaplugHexCodec.isHex(input);
 	}
 
 	/**
@@ -182,9 +135,13 @@ public class DaplugUtils {
 	 * @author yassir
 	 */
 	public static String asciiToHex(String ascii){
-        StringBuilder hex = new StringBuilder();
+        StringBuilder hex = new StringBuilder(ascii.length() * 2);
         for (int i=0; i < ascii.length(); i++) {
-        		hex.append(Integer.toHexString(ascii.charAt(i)));
+        		char c = ascii.charAt(i);
+        		if (c >= 0x10 && c <= 0xFF)
+        			DaplugHexCodec.appendLowerCase(c, hex);
+        		else // 1, 3 or 4 digits, as Integer.toHexString writes them
+        			hex.append(Integer.toHexString(c));
         }
         return hex.toString();
     } 
@@ -200,14 +157,14 @@ public class DaplugUtils {
            System.err.println("requires EVEN number of chars");
            return null;
         }
-        StringBuilder sb = new StringBuilder();               
-        //Convert Hex 0232343536AB into two characters stream.
-        for( int i=0; i < hex.length()-1; i+=2 ){
-            String output = hex.substring(i, (i + 2));
-            int decimal = Integer.parseInt(output, 16);                 
-            sb.append((char)decimal);             
-        }           
-        return sb.toString();
+        char[] ascii = new char[hex.length() / 2];
+        for( int i=0; i < ascii.length; i++ ){
+            int decimal = DaplugHexCodec.byteAt(hex, 2 * i);
+            if (decimal < 0)
+                throw new NumberFormatException("hexToASCII() - Invalid hex string : " + hex);
+            ascii[i] = (char) decimal;
+        }
+        return new String(ascii);
 	} 
 	
 	/**
@@ -220,4 +177,24 @@ public class DaplugUtils {
 	public static String byteToString(byte [] array, int byteLength) {
 		return new String(array, 0, byteLength);
 	}
+	
+	/**
+	 * split a raw apdu response (data followed by the status word) into the legacy
+	 * String array format : element 0 the data in hexadecimal, element 1 the status word.
+	 * @param response byte [] buffer holding the response
+	 * @param offset int offset of the response in the buffer
+	 * @param length int response length (data length + 2)
+	 * @return String[2] result
+	 */
+	public static String[] responseToHexStrings(byte[] response, int offset, int length) {
+		String[] result = new String[2];
+		if (length > 2) { // the result is compose of data + sw
+			result[0] = DaplugHexCodec.encode(response, offset, length - 2);
+			result[1] = DaplugHexCodec.encode(response, offset + length - 2, 2);
+		} else {
+			result[0] = "";
+			result[1] = DaplugHexCodec.encode(response, offset, length);
+		}
+		return result;
+	}
 }
@@ -0,0 +1,120 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.crypto;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * The session crypto context against values computed by the JCE implementation of DaplugCrypto it replaced :
+ * C-MAC and R-MAC chained over consecutive apdus, and C-DEC encryption.
+ *
+ */
+public class DaplugCryptoContextTest {
+
+	private static final byte[] KEY = DaplugRetailMacTest.KEY;
+
+	/* commands as signed (CLA 84, Lc including the MAC) and the C-MAC chained after each one */
+	private static final String[][] COMMANDS = {
+		{ "8482330010A1B2C3D4E5F60718", "4B56A4DD0297D3E4" },
+		{ "84F2000008", "7945D118DE4BC948" },
+		{ "84E6000008", "3ADC6318E6FA3197" },
+		{ "84D600000D0102030405", "A1046E19DFC76700" },
+	};
+
+	/* command, response data length, response data and status word, and the R-MAC chained after each one */
+	private static final String[][] RESPONSES = {
+		{ "80F2000000" + "03" + "010203" + "9000", "475E45F3E0097998" },
+		{ "80E6000000" + "00" + "9000", "D6951BAF2DDC939E" },
+		{ "80D6000005" + "00" + "6A82", "D80592F3E892A529" },
+	};
+
+	/* data length, data encrypted (padded 80 00 .., 3DES-CBC with a zero IV) */
+	private static final String[][] ENCRYPTED = {
+		{ "0", "F1FBCF2A56D19BA7" },
+		{ "1", "6C6CD010BEE10930" },
+		{ "7", "B6A1F9DE1D7BACF8" },
+		{ "8", "ECA8E6C443514B334BF0A2FE0522456C" },
+		{ "16", "ECA8E6C443514B334E064BF612EF59975F99A3DDAD90F602" },
+		{ "30", "ECA8E6C443514B334E064BF612EF59977EA156A08EF224196C21BFEC8A7AFE62" },
+	};
+
+	private final DaplugCryptoContext context;
+
+	public DaplugCryptoContextTest() throws Exception {
+		this.context = new DaplugCryptoContext(KEY, KEY, KEY, KEY, KEY);
+	}
+
+	@Test
+	public void commandMacChain() throws Exception {
+		byte[] mac = new byte[0];
+		for (String[] c : COMMANDS) {
+			mac = this.context.commandMac(DaplugUtils.hexStringToByteArray(c[0]), mac);
+			assertEquals("C-MAC of " + c[0], c[1], DaplugUtils.byteArrayToHexString(mac));
+		}
+	}
+
+	@Test
+	public void commandMacChainOnTheEngine() throws Exception {
+		DaplugRetailMac engine = this.context.getCommandMacEngine();
+		byte[] mac = new byte[DaplugRetailMac.MAC_LEN];
+		int previous = 0;
+		for (String[] c : COMMANDS) {
+			byte[] command = DaplugUtils.hexStringToByteArray(c[0]);
+			// the header, then the data, as the secure channel signs a command in place
+			engine.init(DaplugCrypto.C_MAC, mac, 0, previous);
+			engine.update(command, 0, 5);
+			engine.update(command, 5, command.length - 5);
+			engine.doFinal(mac, 0);
+			previous = DaplugRetailMac.MAC_LEN;
+			assertEquals("C-MAC of " + c[0], c[1], DaplugUtils.byteArrayToHexString(mac));
+		}
+	}
+
+	@Test
+	public void responseMacChain() throws Exception {
+		byte[] mac = new byte[DaplugRetailMac.MAC_LEN];
+		for (String[] r : RESPONSES) {
+			mac = this.context.responseMac(DaplugUtils.hexStringToByteArray(r[0]), mac);
+			assertEquals("R-MAC of " + r[0], r[1], DaplugUtils.byteArrayToHexString(mac));
+		}
+	}
+
+	@Test
+	public void commandDataEncryption() throws Exception {
+		for (String[] e : ENCRYPTED) {
+			byte[] data = DaplugRetailMacTest.data(Integer.parseInt(e[0]));
+			byte[] encrypted = this.context.commandData(data, DaplugCrypto.ENCRYPT);
+			assertEquals("data of " + e[0] + " bytes", e[1], DaplugUtils.byteArrayToHexString(encrypted));
+			assertEquals(e[1], DaplugUtils.byteArrayToHexString(DaplugCrypto.apduDataEncryption(data, KEY,
+					DaplugCrypto.ENCRYPT)));
+			// decryption returns the padded data
+			byte[] padded = Arrays.copyOf(data, encrypted.length);
+			padded[data.length] = (byte) 0x80;
+			assertEquals(DaplugUtils.byteArrayToHexString(padded),
+					DaplugUtils.byteArrayToHexString(this.context.commandData(encrypted, DaplugCrypto.DECRYPT)));
+		}
+	}
+}
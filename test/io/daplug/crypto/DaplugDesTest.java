@@ -0,0 +1,70 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.crypto;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Single DES blocks of DaplugDes against fixed values : the FIPS 46 example and blocks encrypted by the JCE
+ * DES/ECB/NoPadding cipher the retail MAC used before DaplugDes.
+ *
+ */
+public class DaplugDesTest {
+
+	private static long block(String hex) {
+		return DaplugDes.toLong(DaplugUtils.hexStringToByteArray(hex), 0);
+	}
+
+	private static String hex(long block) {
+		byte[] b = new byte[8];
+		DaplugDes.toBytes(block, b, 0);
+		return DaplugUtils.byteArrayToHexString(b);
+	}
+
+	@Test
+	public void fipsExample() {
+		DaplugDes des = new DaplugDes(DaplugUtils.hexStringToByteArray("133457799BBCDFF1"), 0);
+		assertEquals("85E813540F0AB405", hex(des.encrypt(block("0123456789ABCDEF"))));
+		assertEquals("0123456789ABCDEF", hex(des.decrypt(block("85E813540F0AB405"))));
+	}
+
+	@Test
+	public void jceBlocks() {
+		// first and second halves of a GP key, as the retail MAC uses them
+		byte[] key = DaplugUtils.hexStringToByteArray("0123456789ABCDEFFEDCBA9876543210");
+		DaplugDes des = new DaplugDes(key, 0);
+		assertEquals("2BFA41ADEC0F9742", hex(des.encrypt(block("010E1B2835424F5C"))));
+		assertEquals("010E1B2835424F5C", hex(des.decrypt(block("2BFA41ADEC0F9742"))));
+		des.setKey(key, 8);
+		assertEquals(0x0123456789ABCDEFL, des.decrypt(des.encrypt(0x0123456789ABCDEFL)));
+	}
+
+	@Test
+	public void blockConversions() {
+		byte[] b = new byte[10];
+		DaplugDes.toBytes(0x8000000000000001L, b, 1);
+		assertEquals("00800000000000000100", DaplugUtils.byteArrayToHexString(b));
+		assertEquals(0x8000000000000001L, DaplugDes.toLong(b, 1));
+	}
+}
@@ -0,0 +1,149 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import io.daplug.exception.DaplugCryptoException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Retail MACs of DaplugRetailMac against values computed by the JCE implementation of
+ * DaplugCrypto.computeRetailMac that it replaced. That implementation failed on data padded to a single block
+ * without a previous MAC : those inputs have no expected value here.
+ *
+ */
+public class DaplugRetailMacTest {
+
+	static final byte[] KEY = DaplugUtils.hexStringToByteArray("0123456789ABCDEFFEDCBA9876543210");
+	static final byte[] PREVIOUS_MAC = DaplugUtils.hexStringToByteArray("1122334455667788");
+
+	/* data length, C-MAC without previous MAC, C-MAC after PREVIOUS_MAC, R-MAC after PREVIOUS_MAC */
+	private static final String[][] VECTORS = {
+		{ "0", null, "7E2AEA5CF35FDC0E", null },
+		{ "1", null, "E463D61648CDBD67", null },
+		{ "7", null, "E6E44BAC5105D809", null },
+		{ "8", "9E0C7FD67C67EA50", "51194297D6B0194B", "9503F59FD37E45A5" },
+		{ "9", "2CD4E08C8F5ABB49", "64A660B1FB172CE6", "8D5F18AE8ADB3874" },
+		{ "15", "7F9723968FC195EA", "AC155EA7DE89DFA9", "87EB187FC10DF004" },
+		{ "16", "D77EA35BF6AC3890", "D08741BA92BB4F4C", "E0C86D1232BD1ADB" },
+		{ "17", "93A6EACA358CF00F", "730F0958F07286BF", "15930406ED21981C" },
+		{ "63", "53E764C140519AE9", "94FC79075DB6D8DB", "F458886CF6EA2A3B" },
+		{ "64", "77494C1B8BB0AE6F", "90C511495CD56782", "D63C4DFBB4936F7E" },
+		{ "255", "0D040E6F750A95A5", "54DD4E1F26CC61B4", "B13A55EDA7154C06" },
+	};
+
+	/* the data signed by the vectors : bytes i * 13 + 1 */
+	static byte[] data(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++)
+			data[i] = (byte) (i * 13 + 1);
+		return data;
+	}
+
+	private static String mac(DaplugRetailMac engine, int mode, byte[] previousMac, byte[] data)
+			throws DaplugCryptoException {
+		byte[] out = new byte[DaplugRetailMac.MAC_LEN + 2];
+		engine.mac(mode, previousMac, data, 0, data.length, out, 1);
+		return DaplugUtils.byteArrayToHexString(Arrays.copyOfRange(out, 1, 1 + DaplugRetailMac.MAC_LEN));
+	}
+
+	@Test
+	public void commandMacs() throws Exception {
+		DaplugRetailMac engine = new DaplugRetailMac(KEY);
+		for (String[] v : VECTORS) {
+			byte[] data = data(Integer.parseInt(v[0]));
+			if (v[1] != null)
+				assertEquals("C-MAC of " + v[0] + " bytes", v[1], mac(engine, DaplugCrypto.C_MAC, new byte[0], data));
+			assertEquals("chained C-MAC of " + v[0] + " bytes", v[2],
+					mac(engine, DaplugCrypto.C_MAC, PREVIOUS_MAC, data));
+		}
+	}
+
+	@Test
+	public void responseMacs() throws Exception {
+		DaplugRetailMac engine = new DaplugRetailMac(KEY);
+		for (String[] v : VECTORS) {
+			if (v[3] != null)
+				assertEquals("R-MAC of " + v[0] + " bytes", v[3],
+						mac(engine, DaplugCrypto.R_MAC, PREVIOUS_MAC, data(Integer.parseInt(v[0]))));
+		}
+	}
+
+	@Test
+	public void staticRetailMac() {
+		for (String[] v : VECTORS) {
+			byte[] data = data(Integer.parseInt(v[0]));
+			if (v[1] != null)
+				assertEquals(v[1], DaplugUtils.byteArrayToHexString(
+						DaplugCrypto.computeRetailMac(data, KEY, new byte[0], DaplugCrypto.C_MAC)));
+			assertEquals(v[2], DaplugUtils.byteArrayToHexString(
+					DaplugCrypto.computeRetailMac(data, KEY, PREVIOUS_MAC, DaplugCrypto.C_MAC)));
+			if (v[3] != null)
+				assertEquals(v[3], DaplugUtils.byteArrayToHexString(
+						DaplugCrypto.computeRetailMac(data, KEY, PREVIOUS_MAC, DaplugCrypto.R_MAC)));
+		}
+	}
+
+	@Test
+	public void updatesInPieces() throws Exception {
+		// 255 bytes given as single bytes and ranges crossing the block boundaries
+		byte[] data = data(255);
+		DaplugRetailMac engine = new DaplugRetailMac(DaplugUtils.hexStringToByteArray("00000000000000000000000000000000"));
+		engine.setKey(KEY);
+		engine.init(DaplugCrypto.C_MAC, PREVIOUS_MAC, 0, PREVIOUS_MAC.length);
+		int off = 0;
+		for (int piece = 1; off < data.length; piece = piece * 3 % 17 + 1) {
+			int len = Math.min(piece, data.length - off);
+			if (len == 1)
+				engine.update(data[off]);
+			else
+				engine.update(data, off, len);
+			off += len;
+		}
+		byte[] out = new byte[DaplugRetailMac.MAC_LEN];
+		engine.doFinal(out, 0);
+		assertEquals("54DD4E1F26CC61B4", DaplugUtils.byteArrayToHexString(out));
+		// doFinal() resets the engine
+		assertEquals("54DD4E1F26CC61B4", mac(engine, DaplugCrypto.C_MAC, PREVIOUS_MAC, data));
+	}
+
+	@Test
+	public void invalidPreviousMac() throws Exception {
+		DaplugRetailMac engine = new DaplugRetailMac(KEY);
+		try {
+			engine.init(DaplugCrypto.R_MAC, new byte[0], 0, 0);
+			fail("R-MAC without previous MAC");
+		} catch (DaplugCryptoException e) {
+			// expected
+		}
+		try {
+			engine.init(DaplugCrypto.C_MAC, PREVIOUS_MAC, 0, 4);
+			fail("C-MAC after a previous MAC of 4 bytes");
+		} catch (DaplugCryptoException e) {
+			// expected
+		}
+	}
+}
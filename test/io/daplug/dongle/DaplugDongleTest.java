@@ -0,0 +1,71 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import io.daplug.dongle.sim.DaplugDongleSim;
+import io.daplug.exception.DaplugCommunicationException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * The byte exchanges of a DaplugDongle, on a simulated dongle : they go through the circuit breaker
+ * and teach the timeout policy whichever method makes them.
+ *
+ */
+public class DaplugDongleTest {
+
+	private static final byte[] GET_STATUS = DaplugUtils.hexStringToByteArray("80F2400000");
+
+	@Test
+	public void exchangeBytesTeachesTheTimeoutPolicy() throws Exception {
+		DaplugDongle dongle = new DaplugDongle(new DaplugDongleSim());
+		DaplugTimeoutPolicy policy = dongle.getTimeoutPolicy();
+		for (int i = 1; i < DaplugTimeoutPolicy.MIN_SAMPLES; i++)
+			dongle.exchangeBytes(GET_STATUS);
+		assertEquals(0, policy.getTimeoutMillis(0xF2));
+		byte[] response = dongle.exchangeBytes(GET_STATUS);
+		assertTrue(response.length >= 2);
+		assertEquals(DaplugTimeoutPolicy.DEFAULT_FLOOR_MILLIS, policy.getTimeoutMillis(0xF2));
+	}
+
+	@Test
+	public void exchangeBytesThroughTheCircuitBreaker() throws Exception {
+		DaplugDongle dongle = new DaplugDongle(new DaplugDongleSim());
+		DaplugCircuitBreaker breaker = dongle.getCircuitBreaker();
+		for (int i = 0; i < DaplugCircuitBreaker.DEFAULT_THRESHOLD; i++) {
+			breaker.acquire(dongle.getName());
+			breaker.onTimeout();
+		}
+		assertEquals(DaplugCircuitBreaker.OPEN, breaker.getState());
+		try {
+			dongle.exchangeBytes(GET_STATUS);
+			fail("exchange with a quarantined dongle");
+		} catch (DaplugCommunicationException e) {
+			// expected
+		}
+		breaker.reset();
+		assertTrue(dongle.exchangeBytes(GET_STATUS).length >= 2);
+	}
+}
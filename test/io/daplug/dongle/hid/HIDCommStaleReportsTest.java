@@ -0,0 +1,187 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.codeminders.hidapi.HIDDevice;
+
+import io.daplug.dongle.DaplugTimeoutPolicy;
+import io.daplug.exception.DaplugTimeoutException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * A response coming after the timeout of its exchange : HIDComm and HIDAsyncComm drain it before the next
+ * exchange, whose response is then decoded from its own reports.
+ *
+ */
+public class HIDCommStaleReportsTest {
+
+	/* A dongle answering each apdu with the next scripted input reports, readable once the apdu is written */
+	private static final class ScriptedPort implements IHIDPort {
+
+		private final ArrayDeque<byte[]> answers = new ArrayDeque<byte[]>();
+		private final ArrayDeque<byte[]> input = new ArrayDeque<byte[]>();
+		private final List<String> log = new ArrayList<String>();
+		private final byte[] apdu = new byte[300];
+		private int received = 0;
+
+		/* queues the input reports answering the next apdu, none for a dongle which does not answer */
+		synchronized void answer(byte[]... reports) {
+			this.answers.add(concat(reports));
+		}
+
+		/* input reports readable at once, such as a late response */
+		synchronized void late(byte[]... reports) {
+			this.readable(concat(reports));
+		}
+
+		private void readable(byte[] frames) {
+			for (int off = 0; off < frames.length; off += HidReportCodec.INPUT_REPORT_LENGTH)
+				this.input.add(Arrays.copyOfRange(frames, off, off + HidReportCodec.INPUT_REPORT_LENGTH));
+		}
+
+		/* the apdus written and the input reports read, in order */
+		synchronized List<String> log() {
+			return new ArrayList<String>(this.log);
+		}
+
+		public synchronized int write(byte[] report) throws IOException {
+			if (report.length != HidReportCodec.OUTPUT_REPORT_LENGTH || report[0] != 0)
+				throw new IOException("invalid output report");
+			System.arraycopy(report, 1, this.apdu, this.received, IHIDComm.HID_BLOCK_SIZE);
+			this.received += IHIDComm.HID_BLOCK_SIZE;
+			int length = 5 + (this.apdu[4] & 0xFF);
+			if (this.received >= length) {
+				this.log.add("apdu " + DaplugUtils.byteArrayToHexString(Arrays.copyOf(this.apdu, length)));
+				this.received = 0;
+				this.readable(this.answers.poll());
+			}
+			return report.length;
+		}
+
+		public synchronized int read(byte[] report) {
+			byte[] next = this.input.poll();
+			if (next == null)
+				return 0;
+			this.log.add("read " + DaplugUtils.byteArrayToHexString(Arrays.copyOf(next, 2)));
+			System.arraycopy(next, 0, report, 0, next.length);
+			return next.length;
+		}
+
+		public void close() {
+		}
+	}
+
+	private static byte[] concat(byte[]... reports) {
+		byte[] frames = new byte[reports.length * HidReportCodec.INPUT_REPORT_LENGTH];
+		for (int i = 0; i < reports.length; i++)
+			System.arraycopy(reports[i], 0, frames, i * HidReportCodec.INPUT_REPORT_LENGTH, reports[i].length);
+		return frames;
+	}
+
+	private static byte[] report(String hex) {
+		return DaplugUtils.hexStringToByteArray(hex);
+	}
+
+	/* the stale response : 70 bytes of 0x11 and 90 00, over two reports */
+	private static byte[][] staleResponse() {
+		byte[] first = new byte[HidReportCodec.INPUT_REPORT_LENGTH];
+		Arrays.fill(first, (byte) 0x11);
+		first[0] = 0x61;
+		first[1] = 70;
+		byte[] second = new byte[10];
+		Arrays.fill(second, 0, 8, (byte) 0x11);
+		second[8] = (byte) 0x90;
+		return new byte[][] { first, second };
+	}
+
+	private static List<String> expectedLog() {
+		return Arrays.asList("apdu 80B4000000", "read 6146", "read 1111", "apdu 80E6000000", "read 6104");
+	}
+
+	@Test(timeout = 5000)
+	public void hidCommDrainsALateResponse() throws Exception {
+		final ScriptedPort port = new ScriptedPort();
+		// readTimeout() answers 0 when no report is ready : the exchange times out at once
+		HIDDevice device = new HIDDevice(0) {
+			@Override
+			public int write(byte[] report) throws IOException {
+				return port.write(report);
+			}
+
+			@Override
+			public int readTimeout(byte[] report, int milliseconds) {
+				return port.read(report);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		HIDComm comm = new HIDComm(device, true);
+		this.exchanges(comm, port);
+		comm.close();
+	}
+
+	@Test(timeout = 5000)
+	public void hidAsyncCommDrainsALateResponse() throws Exception {
+		ScriptedPort port = new ScriptedPort();
+		HIDAsyncComm comm = new HIDAsyncComm(port, new DaplugHidMultiplexer("stale-reports-test"));
+		// the learned timeout of the first apdu is the floor of 50 ms instead of 2 s
+		DaplugTimeoutPolicy policy = new DaplugTimeoutPolicy(50, 1);
+		for (int i = 0; i < DaplugTimeoutPolicy.MIN_SAMPLES; i++)
+			policy.record(0xB4, 1000000L);
+		comm.setTimeoutPolicy(policy);
+		try {
+			this.exchanges(comm, port);
+		} finally {
+			comm.close();
+		}
+	}
+
+	/* a first exchange timing out, its response coming late, then a second exchange */
+	private void exchanges(HIDComm comm, ScriptedPort port) throws Exception {
+		port.answer();
+		byte[] response = new byte[300];
+		try {
+			comm.exchange(report("80B4000000"), 0, 5, response, 0);
+			fail("exchange answered without a response");
+		} catch (DaplugTimeoutException e) {
+			// expected
+		}
+		port.late(staleResponse());
+		port.answer(report("6104CAFEBABE9000"));
+
+		assertEquals(6, comm.exchange(report("80E6000000"), 0, 5, response, 0));
+		assertEquals("CAFEBABE9000", DaplugUtils.byteArrayToHexString(Arrays.copyOf(response, 6)));
+		assertEquals(expectedLog(), port.log());
+	}
+}
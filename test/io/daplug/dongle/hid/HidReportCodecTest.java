@@ -0,0 +1,235 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import io.daplug.exception.DaplugCommunicationException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Framing of the apdus in output reports and decoding of the input reports of a HID dongle.
+ *
+ */
+public class HidReportCodecTest {
+
+	private final HidReportCodec codec = new HidReportCodec();
+
+	/* decodes the first bytes of an input report */
+	private boolean feed(byte[] report, int length) throws DaplugCommunicationException {
+		System.arraycopy(report, 0, this.codec.inputReport(), 0, report.length);
+		return this.codec.decode(length);
+	}
+
+	/* decodes the input reports, all of INPUT_REPORT_LENGTH bytes, checking that only the last one completes */
+	private byte[] decode(byte[]... reports) throws DaplugCommunicationException {
+		byte[] response = new byte[IHIDComm.HID_BLOCK_SIZE * 5];
+		this.codec.begin(response, 0);
+		for (int i = 0; i < reports.length; i++)
+			assertEquals("report " + i + " completes the response", i == reports.length - 1,
+					this.feed(reports[i], reports[i].length));
+		return Arrays.copyOf(response, this.codec.responseLength());
+	}
+
+	/* an input report : the given bytes, zero padded */
+	private static byte[] report(String hex) {
+		return Arrays.copyOf(DaplugUtils.hexStringToByteArray(hex), HidReportCodec.INPUT_REPORT_LENGTH);
+	}
+
+	/* the input reports of a response with data : 0x61, the data length (0 for 256), the data, 90 00 */
+	private static byte[][] reports(byte[] data) {
+		byte[] frames = new byte[data.length + 4];
+		frames[0] = 0x61;
+		frames[1] = (byte) data.length;
+		System.arraycopy(data, 0, frames, 2, data.length);
+		frames[data.length + 2] = (byte) 0x90;
+		byte[][] reports = new byte[HidReportCodec.reportCount(frames.length)][];
+		for (int i = 0; i < reports.length; i++)
+			reports[i] = Arrays.copyOfRange(frames, i * HidReportCodec.INPUT_REPORT_LENGTH,
+					(i + 1) * HidReportCodec.INPUT_REPORT_LENGTH);
+		return reports;
+	}
+
+	private static byte[] data(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++)
+			data[i] = (byte) (i * 7 + 3);
+		return data;
+	}
+
+	private static byte[] withStatusWord(byte[] data) {
+		byte[] response = Arrays.copyOf(data, data.length + 2);
+		response[data.length] = (byte) 0x90;
+		return response;
+	}
+
+	@Test
+	public void statusWordAlone() throws Exception {
+		assertArrayEquals(DaplugUtils.hexStringToByteArray("9000"), this.decode(report("9000")));
+		assertArrayEquals(DaplugUtils.hexStringToByteArray("6A82"), this.decode(report("6A82")));
+		assertEquals(2, this.codec.responseLength());
+	}
+
+	@Test
+	public void dataInOneReport() throws Exception {
+		// 19 bytes of data and 90 00 in one report
+		byte[] response = this.decode(report("6113" + "4A4B1A2B3C4D5E6F708192A3B4C5D6E7F8090A" + "9000"));
+		assertEquals("4A4B1A2B3C4D5E6F708192A3B4C5D6E7F8090A9000", DaplugUtils.byteArrayToHexString(response));
+	}
+
+	@Test
+	public void randomResponseOverThreeReports() throws Exception {
+		// 150 bytes of data : 62 bytes in the first report, then 64, then the last 24 and 90 00
+		byte[] data = data(150);
+		byte[][] reports = reports(data);
+		assertEquals(3, reports.length);
+		assertArrayEquals(withStatusWord(data), this.decode(reports));
+	}
+
+	@Test
+	public void lengthZeroIs256Bytes() throws Exception {
+		byte[] data = data(256);
+		byte[][] reports = reports(data);
+		assertEquals(0, reports[0][1]);
+		assertEquals(5, reports.length);
+		assertArrayEquals(withStatusWord(data), this.decode(reports));
+		assertEquals(258, this.codec.responseLength());
+	}
+
+	@Test
+	public void continuationAtTheReportBoundaries() throws Exception {
+		// 60 bytes : the status word ends the first report ; 61 : it is cut between two reports ;
+		// 62 : it comes alone in the second report
+		assertEquals(1, reports(data(60)).length);
+		assertEquals(2, reports(data(61)).length);
+		assertEquals(2, reports(data(62)).length);
+		for (int length = 1; length <= 256; length++) {
+			byte[] data = data(length);
+			assertArrayEquals("data of " + length + " bytes", withStatusWord(data), this.decode(reports(data)));
+		}
+	}
+
+	@Test
+	public void responseWrittenAtOffset() throws Exception {
+		byte[] data = data(100);
+		byte[][] reports = reports(data);
+		byte[] response = new byte[120];
+		Arrays.fill(response, (byte) 0xEE);
+		this.codec.begin(response, 7);
+		assertFalse(this.feed(reports[0], HidReportCodec.INPUT_REPORT_LENGTH));
+		assertTrue(this.feed(reports[1], HidReportCodec.INPUT_REPORT_LENGTH));
+		assertArrayEquals(withStatusWord(data), Arrays.copyOfRange(response, 7, 109));
+		assertEquals((byte) 0xEE, response[6]);
+		assertEquals((byte) 0xEE, response[109]);
+	}
+
+	@Test
+	public void truncatedLastReport() throws Exception {
+		// 100 bytes of data : 62 in the first report, the last 38 and 90 00 expected in the second one
+		byte[][] reports = reports(data(100));
+		this.codec.begin(new byte[102], 0);
+		assertFalse(this.feed(reports[0], HidReportCodec.INPUT_REPORT_LENGTH));
+		try {
+			this.feed(reports[1], 39);
+			fail("truncated report decoded");
+		} catch (DaplugCommunicationException e) {
+			// expected
+		}
+		// 40 bytes hold the rest of the response
+		assertTrue(this.feed(reports[1], 40));
+	}
+
+	@Test
+	public void truncatedFirstReport() throws Exception {
+		this.codec.begin(new byte[8], 0);
+		try {
+			this.feed(report("90"), 1);
+			fail("report of one byte decoded");
+		} catch (DaplugCommunicationException e) {
+			// expected
+		}
+		this.codec.begin(new byte[8], 0);
+		try {
+			this.feed(report("6104AABB"), 4);
+			fail("truncated report decoded");
+		} catch (DaplugCommunicationException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void decodeWithoutBegin() throws Exception {
+		this.codec.decode(HidReportCodec.INPUT_REPORT_LENGTH);
+	}
+
+	@Test
+	public void beginDropsTheResponseInProgress() throws Exception {
+		// the first report of an abandoned response, then a whole new one
+		this.codec.begin(new byte[300], 0);
+		assertFalse(this.feed(reports(data(200))[0], HidReportCodec.INPUT_REPORT_LENGTH));
+		assertArrayEquals(DaplugUtils.hexStringToByteArray("01029000"), this.decode(report("610201029000")));
+	}
+
+	@Test
+	public void encodeAtTheReportBoundaries() throws Exception {
+		for (int length : new int[] { 1, 5, 63, 64, 65, 127, 128, 129, 255, 261 }) {
+			byte[] apdu = new byte[length + 3];
+			for (int i = 0; i < apdu.length; i++)
+				apdu[i] = (byte) (i + 1);
+			int count = HidReportCodec.reportCount(length);
+			assertEquals("reports of " + length + " bytes", (length + 63) / 64, count);
+			byte[] payload = new byte[count * IHIDComm.HID_BLOCK_SIZE];
+			for (int i = 0; i < count; i++) {
+				byte[] report = this.codec.encode(apdu, 3, length, i);
+				assertEquals(HidReportCodec.OUTPUT_REPORT_LENGTH, report.length);
+				assertEquals(0, report[0]);
+				System.arraycopy(report, 1, payload, i * IHIDComm.HID_BLOCK_SIZE, IHIDComm.HID_BLOCK_SIZE);
+			}
+			assertArrayEquals(Arrays.copyOfRange(apdu, 3, 3 + length), Arrays.copyOf(payload, length));
+			for (int i = length; i < payload.length; i++)
+				assertEquals("padding of " + length + " bytes", 0, payload[i]);
+		}
+	}
+
+	@Test
+	public void roundTripAtTheReportBoundaries() throws Exception {
+		// a dongle echoing the apdu data : what is encoded comes back decoded
+		for (int length : new int[] { 1, 60, 61, 62, 63, 64, 65, 126, 127, 128, 129, 190, 191, 192, 256 }) {
+			byte[] apdu = new byte[5 + length];
+			apdu[4] = (byte) length;
+			System.arraycopy(data(length), 0, apdu, 5, length);
+			byte[] echoed = new byte[HidReportCodec.reportCount(apdu.length) * IHIDComm.HID_BLOCK_SIZE];
+			for (int i = 0; i < HidReportCodec.reportCount(apdu.length); i++)
+				System.arraycopy(this.codec.encode(apdu, 0, apdu.length, i), 1, echoed, i * IHIDComm.HID_BLOCK_SIZE,
+						IHIDComm.HID_BLOCK_SIZE);
+			byte[] data = Arrays.copyOfRange(echoed, 5, 5 + length);
+			assertArrayEquals("echo of " + length + " bytes", withStatusWord(Arrays.copyOfRange(apdu, 5, apdu.length)),
+					this.decode(reports(data)));
+		}
+	}
+}
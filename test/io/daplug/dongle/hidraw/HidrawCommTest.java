@@ -0,0 +1,315 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hidraw;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.dongle.DaplugTimeoutPolicy;
+import io.daplug.dongle.hid.HidReportCodec;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugTimeoutException;
+
+/**
+ * Exchanges of a HidrawComm over pipes, with a dongle thread reading the output reports from one pipe and
+ * writing the input reports to the other one.
+ *
+ */
+public class HidrawCommTest {
+
+	private Pipe toDongle, fromDongle;
+	private HidrawComm comm;
+
+	/* The dongle side of one exchange : reads the output reports, then writes the input reports in chunks */
+	private final class Dongle extends Thread {
+
+		private final int reports, chunk;
+		private final byte[] frames;
+		private final boolean closeAfter;
+		private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		private volatile IOException failure = null;
+
+		Dongle(int reports, byte[] frames, int chunk, boolean closeAfter) {
+			this.reports = reports;
+			this.frames = frames;
+			this.chunk = chunk;
+			this.closeAfter = closeAfter;
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				ByteBuffer report = ByteBuffer.allocate(HidReportCodec.OUTPUT_REPORT_LENGTH);
+				for (int i = 0; i < this.reports; i++) {
+					report.clear();
+					while (report.hasRemaining())
+						if (toDongle.source().read(report) < 0)
+							throw new EOFException("output report " + i);
+					this.received.write(report.array(), 0, report.capacity());
+				}
+				for (int off = 0; off < this.frames.length; off += this.chunk)
+					fromDongle.sink().write(ByteBuffer.wrap(this.frames, off, Math.min(this.chunk, this.frames.length - off)));
+				if (this.closeAfter)
+					fromDongle.sink().close();
+			} catch (IOException e) {
+				this.failure = e;
+			}
+		}
+
+		/* the output reports read by the dongle */
+		byte[] received() throws Exception {
+			this.join(5000);
+			if (this.failure != null)
+				throw this.failure;
+			return this.received.toByteArray();
+		}
+	}
+
+	@Before
+	public void open() throws IOException {
+		this.toDongle = Pipe.open();
+		this.fromDongle = Pipe.open();
+		this.comm = new HidrawComm(this.fromDongle.source(), this.toDongle.sink());
+	}
+
+	@After
+	public void close() throws IOException {
+		this.comm.close();
+		this.toDongle.source().close();
+		this.fromDongle.sink().close();
+	}
+
+	private Dongle dongle(int reports, byte[] frames, int chunk, boolean closeAfter) {
+		Dongle dongle = new Dongle(reports, frames, chunk, closeAfter);
+		dongle.start();
+		return dongle;
+	}
+
+	private static byte[] apdu(int dataLength) {
+		byte[] apdu = new byte[5 + dataLength];
+		apdu[0] = (byte) 0x80;
+		apdu[1] = (byte) 0xD0;
+		apdu[4] = (byte) dataLength;
+		for (int i = 0; i < dataLength; i++)
+			apdu[5 + i] = (byte) (i + 1);
+		return apdu;
+	}
+
+	private static byte[] data(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++)
+			data[i] = (byte) (0xA0 + i);
+		return data;
+	}
+
+	/* input reports answering data and 90 00 : 0x61, the data length (0 for 256), the data and the status word */
+	private static byte[] frames(byte[] data) {
+		int length = data.length + 4;
+		byte[] frames = new byte[HidReportCodec.reportCount(length) * HidReportCodec.INPUT_REPORT_LENGTH];
+		frames[0] = 0x61;
+		frames[1] = (byte) data.length;
+		System.arraycopy(data, 0, frames, 2, data.length);
+		frames[2 + data.length] = (byte) 0x90;
+		return frames;
+	}
+
+	/* output reports carrying an apdu : report number 0, 64 bytes of the apdu, zero padded */
+	private static byte[] reports(byte[] apdu) {
+		int count = HidReportCodec.reportCount(apdu.length);
+		byte[] reports = new byte[count * HidReportCodec.OUTPUT_REPORT_LENGTH];
+		for (int i = 0; i < count; i++) {
+			int offset = i * HidReportCodec.INPUT_REPORT_LENGTH;
+			System.arraycopy(apdu, offset, reports, i * HidReportCodec.OUTPUT_REPORT_LENGTH + 1,
+					Math.min(HidReportCodec.INPUT_REPORT_LENGTH, apdu.length - offset));
+		}
+		return reports;
+	}
+
+	private static byte[] withStatusWord(byte[] data) {
+		byte[] response = Arrays.copyOf(data, data.length + 2);
+		response[data.length] = (byte) 0x90;
+		return response;
+	}
+
+	@Test(timeout = 5000)
+	public void exchangeWithoutData() throws Exception {
+		byte[] apdu = apdu(0);
+		byte[] frames = new byte[HidReportCodec.INPUT_REPORT_LENGTH];
+		frames[0] = 0x6A;
+		frames[1] = (byte) 0x88;
+		Dongle dongle = this.dongle(1, frames, frames.length, false);
+
+		byte[] response = new byte[8];
+		assertEquals(2, this.comm.exchange(apdu, 0, apdu.length, response, 3));
+		assertArrayEquals(new byte[] { 0, 0, 0, 0x6A, (byte) 0x88, 0, 0, 0 }, response);
+		assertArrayEquals(reports(apdu), dongle.received());
+	}
+
+	@Test(timeout = 5000)
+	public void exchangeOverSeveralReports() throws Exception {
+		byte[] apdu = apdu(200);
+		byte[] data = data(250);
+		Dongle dongle = this.dongle(4, frames(data), HidReportCodec.INPUT_REPORT_LENGTH, false);
+
+		assertArrayEquals(withStatusWord(data), this.comm.exchangeBytes(apdu));
+		assertArrayEquals(reports(apdu), dongle.received());
+	}
+
+	@Test(timeout = 5000)
+	public void exchangeOf256Bytes() throws Exception {
+		byte[] apdu = apdu(64 - 5);
+		byte[] data = data(256);
+		Dongle dongle = this.dongle(1, frames(data), HidReportCodec.INPUT_REPORT_LENGTH, false);
+
+		assertArrayEquals(withStatusWord(data), this.comm.exchangeBytes(apdu));
+		assertArrayEquals(reports(apdu), dongle.received());
+	}
+
+	@Test(timeout = 5000)
+	public void shortReads() throws Exception {
+		byte[] data = data(200);
+		for (int chunk : new int[] { 1, 7, 37, 63, 65 }) {
+			byte[] apdu = apdu(64 - 4);
+			Dongle dongle = this.dongle(2, frames(data), chunk, false);
+			assertArrayEquals("chunks of " + chunk, withStatusWord(data), this.comm.exchangeBytes(apdu));
+			assertArrayEquals(reports(apdu), dongle.received());
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void hexadecimalExchange() throws Exception {
+		Dongle dongle = this.dongle(1, frames(new byte[] { 0x01, (byte) 0xAB }), 64, false);
+		assertArrayEquals(new String[] { "01AB", "9000" }, this.comm.exchange("80b8000000"));
+		dongle.received();
+	}
+
+	@Test(timeout = 5000)
+	public void noAnswerEndsWhenClosed() throws Exception {
+		// closing the channels ends the exchange before its timeout
+		Dongle dongle = this.dongle(1, new byte[0], 1, false);
+		final HidrawComm comm = this.comm;
+		Thread closer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+				comm.close();
+			}
+		};
+		closer.start();
+		long start = System.nanoTime();
+		try {
+			comm.exchangeBytes(apdu(0));
+			fail("exchange answered without a response");
+		} catch (IOException e) {
+			// the pending read ends with the channel
+		}
+		assertTrue(System.nanoTime() - start >= 150000000L);
+		assertFalse(comm.isDeviceStatus());
+		dongle.received();
+		closer.join();
+	}
+
+	@Test(timeout = 5000)
+	public void noAnswerTimesOut() throws Exception {
+		// the comm of open() is not used : it shares the pipes
+		this.comm = new HidrawComm(this.fromDongle.source(), this.toDongle.sink()) {
+			@Override
+			int timeoutMillis(byte[] apdu, int apduOffset, int apduLength) {
+				return 200;
+			}
+		};
+		Dongle dongle = this.dongle(1, new byte[0], 1, false);
+		long start = System.nanoTime();
+		try {
+			this.comm.exchangeBytes(apdu(0));
+			fail("exchange answered without a response");
+		} catch (DaplugTimeoutException e) {
+			// expected
+		}
+		assertTrue(System.nanoTime() - start >= 150000000L);
+		assertTrue(this.comm.isDeviceStatus());
+		dongle.received();
+
+		// the late response is dropped : the next exchange gets its own one
+		this.fromDongle.sink().write(ByteBuffer.wrap(frames(data(100))));
+		while (this.comm.queuedReports() < 2)
+			Thread.sleep(10);
+		byte[] data = data(10);
+		byte[] apdu = apdu(3);
+		dongle = this.dongle(1, frames(data), 64, false);
+		assertArrayEquals(withStatusWord(data), this.comm.exchangeBytes(apdu));
+		assertArrayEquals(reports(apdu), dongle.received());
+	}
+
+	@Test
+	public void timeoutLearnedByTheDongle() throws Exception {
+		DaplugDongle dongle = new DaplugDongle(new DaplugDongleHidraw("/dev/hidraw-test", this.comm));
+		byte[] apdu = apdu(0);
+		assertEquals(HidrawComm.DEFAULT_TIMEOUT, this.comm.timeoutMillis(apdu, 0, apdu.length));
+		for (int i = 0; i < DaplugTimeoutPolicy.MIN_SAMPLES; i++)
+			dongle.getTimeoutPolicy().record(apdu[1], 1000000L);
+		assertEquals(DaplugTimeoutPolicy.DEFAULT_FLOOR_MILLIS, this.comm.timeoutMillis(apdu, 0, apdu.length));
+	}
+
+	@Test(timeout = 5000)
+	public void deviceClosedDuringTheResponse() throws Exception {
+		// the first input report is cut after 40 bytes, then the dongle goes away
+		byte[] frames = Arrays.copyOf(frames(data(100)), 40);
+		Dongle dongle = this.dongle(1, frames, 40, true);
+		try {
+			this.comm.exchangeBytes(apdu(0));
+			fail("exchange answered with a truncated response");
+		} catch (EOFException e) {
+			// expected
+		}
+		dongle.received();
+	}
+
+	@Test(timeout = 5000)
+	public void exchangeAfterClose() throws Exception {
+		this.comm.close();
+		try {
+			this.comm.exchangeBytes(apdu(0));
+			fail("exchange on a closed device");
+		} catch (DaplugException e) {
+			// expected
+		}
+	}
+}
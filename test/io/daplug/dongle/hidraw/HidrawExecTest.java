@@ -0,0 +1,89 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.hidraw;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Enumeration of a stand-in sysfs tree : the hidrawN entries and their uevent files.
+ *
+ */
+public class HidrawExecTest {
+
+	private Path root;
+
+	@Before
+	public void create() throws IOException {
+		this.root = Files.createTempDirectory("hidraw");
+	}
+
+	@After
+	public void delete() throws IOException {
+		delete(this.root.toFile());
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	/* hidrawN/device/uevent with the given HID_ID */
+	private void node(String name, String id) throws IOException {
+		File device = new File(new File(this.root.toFile(), name), "device");
+		device.mkdirs();
+		String uevent = "HID_ID=" + id + "\nHID_NAME=Plug-up Daplug\nHID_UNIQ=0123\nHID_PHYS=usb-0000:00:14.0-1/input0\n";
+		Files.write(new File(device, "uevent").toPath(), uevent.getBytes(Charset.forName("US-ASCII")));
+	}
+
+	@Test
+	public void daplugDongle() throws IOException {
+		this.node("hidraw0", "0003:00002581:00001807");
+		Vector<HidrawDeviceInfo> devices = new HidrawExec(this.root.toFile(), new File("/dev")).listAllDaplug();
+		assertEquals(1, devices.size());
+		assertEquals("/dev/hidraw0", devices.get(0).getPath());
+		assertEquals(0, devices.get(0).getInterfaceNumber());
+	}
+
+	@Test
+	public void malformedIdsAreSkipped() throws IOException {
+		this.node("hidraw0", "0003:0000258G:00001807");
+		this.node("hidraw1", "USB:00002581:00001807");
+		this.node("hidraw2", "0003:00002581:");
+		this.node("hidraw3", "0003:00002581:00001807");
+		this.node("hidraw4", "0005:00002581:00001807");
+		Vector<HidrawDeviceInfo> devices = new HidrawExec(this.root.toFile(), new File("/dev")).listDevice();
+		assertEquals(1, devices.size());
+		assertEquals("/dev/hidraw3", devices.get(0).getPath());
+	}
+}
@@ -0,0 +1,68 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.sim;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * CREATE FILE on the card simulator : malformed FCP templates are answered with a status word.
+ *
+ */
+public class DaplugCardSimTest {
+
+	private final DaplugCardSim card = new DaplugCardSim();
+
+	/* the status word answering an apdu */
+	private String process(String hexApdu) {
+		byte[] apdu = DaplugUtils.hexStringToByteArray(hexApdu);
+		byte[] response = new byte[300];
+		int len = this.card.process(apdu, 0, apdu.length, response, 0);
+		return DaplugUtils.byteArrayToHexString(Arrays.copyOfRange(response, len - 2, len));
+	}
+
+	@Test
+	public void createFile() {
+		// EF 0x0123 of 16 bytes
+		assertEquals("9000", this.process("80E0000010" + "620E" + "82020121" + "83020123" + "81020010" + "8C00"));
+		assertEquals("6A89", this.process("80E0000010" + "620E" + "82020121" + "83020123" + "81020010" + "8C00"));
+		assertEquals("9000", this.process("80A4000002" + "0123"));
+	}
+
+	@Test
+	public void shortValuesAtTheEnd() {
+		assertEquals("6A80", this.process("80E0000004" + "6202" + "8200"));
+		assertEquals("6A80", this.process("80E0000004" + "6202" + "8700"));
+		assertEquals("6A80", this.process("80E0000005" + "6203" + "830101"));
+		assertEquals("6A80", this.process("80E0000009" + "6207" + "83020123" + "810110"));
+		assertEquals("6A80", this.process("80E0000005" + "6203" + "830301"));
+	}
+
+	@Test
+	public void oversizedValues() {
+		assertEquals("6A80", this.process("80E0000007" + "6205" + "8303012345"));
+		assertEquals("6A80", this.process("80E000000B" + "6209" + "83020123" + "8103000010"));
+	}
+}
@@ -0,0 +1,215 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.usb4java.LibUsb;
+
+import io.daplug.dongle.DaplugExchangeFuture;
+import io.daplug.exception.DaplugTimeoutException;
+import io.daplug.utils.DaplugUtils;
+
+/**
+ * Exchanges of WinusbAsyncComm without a USB bus : the test stands for the event thread, it completes the
+ * transfers and expires the exchanges. A response coming after its exchange timed out is not taken for the
+ * response of the next one.
+ *
+ */
+public class WinusbAsyncCommTest {
+
+	private static final int PACKET_SIZE = 64;
+
+	/* the transfers, completed by the test */
+	private static final class ScriptedTransfers implements IWinusbTransfers {
+		int outs = 0, outLength = -1;
+		boolean inSubmitted = false;
+		ByteBuffer inBuffer = null;
+		int inTimeout = -1;
+		int cancelResult = LibUsb.SUCCESS;
+
+		public int submitOut(int length, int timeout) {
+			this.outs++;
+			this.outLength = length;
+			return LibUsb.SUCCESS;
+		}
+
+		public int submitIn(ByteBuffer buffer, int timeout) {
+			assertFalse(this.inSubmitted);
+			this.inSubmitted = true;
+			this.inBuffer = buffer;
+			this.inTimeout = timeout;
+			return LibUsb.SUCCESS;
+		}
+
+		public int cancelIn() {
+			return this.cancelResult;
+		}
+
+		public int cancelOut() {
+			return LibUsb.SUCCESS;
+		}
+
+		public void free() {
+		}
+	}
+
+	private final ScriptedTransfers transfers = new ScriptedTransfers();
+	private final ByteBuffer outBuffer = ByteBuffer.allocate(IWinusb.PACKET_SIZE);
+	private final WinusbAsyncComm comm = new WinusbAsyncComm(this.transfers, PACKET_SIZE, this.outBuffer,
+			ByteBuffer.allocate(WinusbFraming.bufferSize(PACKET_SIZE)));
+
+	@Test
+	public void exchange() throws Exception {
+		byte[] response = new byte[300];
+		DaplugExchangeFuture future = this.submit("80F2000000", response);
+		assertEquals(1, this.transfers.outs);
+		assertEquals(5, this.transfers.outLength);
+		assertEquals("80F2000000", DaplugUtils.byteArrayToHexString(Arrays.copyOf(this.outBuffer.array(), 5)));
+		assertEquals(0, this.transfers.inTimeout);
+		this.comm.written(LibUsb.TRANSFER_COMPLETED);
+		this.answer("61020A0A9000");
+		assertTrue(future.isDone());
+		assertEquals("0A0A9000", response(future, response));
+		assertEquals(0, this.transfers.inTimeout);
+	}
+
+	@Test
+	public void frameReadByPackets() throws Exception {
+		byte[] response = new byte[300];
+		DaplugExchangeFuture future = this.submit("80CA000000", response);
+		this.comm.written(LibUsb.TRANSFER_COMPLETED);
+		byte[] frame = new byte[2 + 100 + 2];
+		frame[0] = 0x61;
+		frame[1] = 100;
+		for (int i = 0; i < 100; i++)
+			frame[2 + i] = (byte) i;
+		frame[102] = (byte) 0x90;
+		this.answer(Arrays.copyOf(frame, PACKET_SIZE));
+		assertFalse(future.isDone());
+		// the rest of the frame, in the view following the first packet
+		assertEquals(PACKET_SIZE, this.transfers.inBuffer.capacity());
+		this.answer(Arrays.copyOfRange(frame, PACKET_SIZE, frame.length));
+		assertEquals(DaplugUtils.byteArrayToHexString(Arrays.copyOfRange(frame, 2, frame.length)),
+				response(future, response));
+		assertEquals(PACKET_SIZE, this.transfers.inBuffer.capacity());
+	}
+
+	@Test
+	public void lateResponseIsDrained() throws Exception {
+		byte[] first = new byte[300], second = new byte[300];
+		DaplugExchangeFuture expired = this.submit("80F2000000", first);
+		this.comm.written(LibUsb.TRANSFER_COMPLETED);
+		DaplugExchangeFuture next = this.submit("80CA000000", second);
+		assertEquals(1, this.transfers.outs);
+
+		this.expire();
+		assertTrue(expired.isDone());
+		try {
+			expired.await();
+			fail();
+		} catch (DaplugTimeoutException e) {
+			// expected
+		}
+		// the read is cancelled, then drains with a short timeout : the next command waits
+		this.transfers.inSubmitted = false;
+		this.comm.received(LibUsb.TRANSFER_CANCELLED, 0);
+		assertEquals(1, this.transfers.outs);
+		assertTrue(this.transfers.inTimeout > 0);
+		this.answer("61020A0A9000");
+		assertEquals(1, this.transfers.outs);
+		assertFalse(next.isDone());
+		assertTrue(this.transfers.inTimeout > 0);
+
+		// nothing left : the next command is sent, its response read without timeout
+		this.transfers.inSubmitted = false;
+		this.comm.received(LibUsb.TRANSFER_TIMED_OUT, 0);
+		assertEquals(2, this.transfers.outs);
+		assertEquals(0, this.transfers.inTimeout);
+		this.comm.written(LibUsb.TRANSFER_COMPLETED);
+		this.answer("61020B0B9000");
+		assertEquals("0B0B9000", response(next, second));
+	}
+
+	@Test
+	public void lateResponseCompletingTheCancelledRead() throws Exception {
+		byte[] first = new byte[300], second = new byte[300];
+		this.submit("80F2000000", first);
+		this.comm.written(LibUsb.TRANSFER_COMPLETED);
+		DaplugExchangeFuture next = this.submit("80CA000000", second);
+		// the read completes with the late response before it is cancelled
+		this.transfers.cancelResult = LibUsb.ERROR_NOT_FOUND;
+		this.expire();
+		this.answer("61020A0A9000");
+		assertEquals(1, this.transfers.outs);
+		assertFalse(next.isDone());
+		this.transfers.inSubmitted = false;
+		this.comm.received(LibUsb.TRANSFER_TIMED_OUT, 0);
+		assertEquals(2, this.transfers.outs);
+		this.comm.written(LibUsb.TRANSFER_COMPLETED);
+		this.answer("61020B0B9000");
+		assertEquals("0B0B9000", response(next, second));
+	}
+
+	@Test
+	public void noExpiryBeforeTheDeadline() throws Exception {
+		DaplugExchangeFuture future = this.submit("80F2000000", new byte[300]);
+		this.comm.written(LibUsb.TRANSFER_COMPLETED);
+		this.comm.expire(System.nanoTime());
+		assertFalse(future.isDone());
+		assertEquals(0, this.transfers.inTimeout);
+	}
+
+	private DaplugExchangeFuture submit(String apdu, byte[] response) {
+		byte[] bytes = DaplugUtils.hexStringToByteArray(apdu);
+		return this.comm.submit(bytes, 0, bytes.length, response, 0);
+	}
+
+	private void expire() {
+		this.comm.expire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(IWinusb.TIMEOUT + 1000));
+	}
+
+	private void answer(String frame) {
+		this.answer(DaplugUtils.hexStringToByteArray(frame));
+	}
+
+	/* the submitted read receives the bytes */
+	private void answer(byte[] bytes) {
+		assertTrue(this.transfers.inSubmitted);
+		ByteBuffer buffer = this.transfers.inBuffer;
+		for (int i = 0; i < bytes.length; i++)
+			buffer.put(i, bytes[i]);
+		this.transfers.inSubmitted = false;
+		this.comm.received(LibUsb.TRANSFER_COMPLETED, bytes.length);
+	}
+
+	private static String response(DaplugExchangeFuture future, byte[] response) throws Exception {
+		int length = future.await();
+		return DaplugUtils.byteArrayToHexString(Arrays.copyOf(response, length));
+	}
+}
@@ -0,0 +1,126 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.dongle.winusb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Reading of the WINUSB responses by IN endpoint packets, as WinusbComm and WinusbAsyncComm do it, without a
+ * USB bus : the frame buffer is cut in the views read by the transfers, and the frames are written in them.
+ *
+ */
+public class WinusbFramingTest {
+
+	private static final int[] PACKET_SIZES = { 8, 16, 64, 512 };
+
+	@Test
+	public void packetSizeOfTheEndpoint() {
+		assertEquals(64, WinusbFraming.packetSize(64));
+		assertEquals(512, WinusbFraming.packetSize(512));
+		assertEquals(IWinusb.PACKET_SIZE, WinusbFraming.packetSize(0));
+	}
+
+	@Test
+	public void readLengthByWholePackets() {
+		assertEquals(0, WinusbFraming.readLength(0, 64));
+		assertEquals(64, WinusbFraming.readLength(1, 64));
+		assertEquals(64, WinusbFraming.readLength(64, 64));
+		assertEquals(128, WinusbFraming.readLength(65, 64));
+		assertEquals(320, WinusbFraming.bufferSize(64));
+		assertEquals(512, WinusbFraming.bufferSize(512));
+		for (int packetSize : PACKET_SIZES)
+			assertTrue(WinusbFraming.bufferSize(packetSize) >= WinusbFraming.MAX_FRAME_LENGTH);
+	}
+
+	@Test
+	public void frameLengthFromTheHeader() {
+		assertEquals(2, WinusbFraming.frameLength(0x90, 0x00));
+		assertEquals(2, WinusbFraming.frameLength(0x6A, 0x82));
+		assertEquals(2 + 1 + 2, WinusbFraming.frameLength(0x61, 0x01));
+		assertEquals(2 + 255 + 2, WinusbFraming.frameLength(0x61, 0xFF));
+		assertEquals(WinusbFraming.MAX_FRAME_LENGTH, WinusbFraming.frameLength(0x61, 0x00));
+		ByteBuffer frame = ByteBuffer.allocate(4);
+		frame.put(0, (byte) 0x61).put(1, (byte) 0x10);
+		assertEquals(-1, WinusbFraming.frameLength(frame, 1));
+		assertEquals(2 + 16 + 2, WinusbFraming.frameLength(frame, 2));
+	}
+
+	@Test
+	public void framesReadByPackets() {
+		for (int packetSize : PACKET_SIZES) {
+			// the views of WinusbComm.openComm() and WinusbAsyncComm : reads[0] the first packet,
+			// reads[k] the k packets following it
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WinusbFraming.bufferSize(packetSize));
+			ByteBuffer[] reads = new ByteBuffer[buffer.capacity() / packetSize];
+			reads[0] = WinusbComm.slice(buffer, 0, packetSize);
+			for (int k = 1; k < reads.length; k++)
+				reads[k] = WinusbComm.slice(buffer, packetSize, k * packetSize);
+
+			for (int dataLength = 0; dataLength <= 256; dataLength++) {
+				byte[] frame = frame(dataLength);
+				String name = "packets of " + packetSize + ", frame of " + frame.length + " bytes";
+				// the first read gets one packet, or the frame if it is shorter
+				int received = Math.min(packetSize, frame.length);
+				reads[0].clear();
+				reads[0].put(frame, 0, received);
+				int frameLength = WinusbFraming.frameLength(buffer, received);
+				assertEquals(name, frame.length, frameLength);
+				if (received < frameLength) {
+					// the rest of the frame by whole packets, after the first one
+					assertEquals(name, packetSize, received);
+					int k = WinusbFraming.readLength(frameLength - received, packetSize) / packetSize;
+					assertTrue(name, k < reads.length);
+					assertTrue(name, reads[k].capacity() >= frameLength - received);
+					reads[k].clear();
+					reads[k].put(frame, received, frameLength - received);
+				}
+				byte[] response = new byte[270];
+				int length = WinusbFraming.copyResponse(buffer, frameLength, response, 3);
+				assertArrayEquals(name, expected(dataLength), Arrays.copyOfRange(response, 3, 3 + length));
+				assertEquals(0, buffer.position());
+			}
+		}
+	}
+
+	/* 61 Lr [data] 90 00, or 6A 82 alone for no data */
+	private static byte[] frame(int dataLength) {
+		if (dataLength == 0)
+			return new byte[] { 0x6A, (byte) 0x82 };
+		byte[] frame = new byte[dataLength + 4];
+		frame[0] = 0x61;
+		frame[1] = (byte) dataLength;
+		for (int i = 0; i < dataLength; i++)
+			frame[2 + i] = (byte) (i + 1);
+		frame[2 + dataLength] = (byte) 0x90;
+		return frame;
+	}
+
+	private static byte[] expected(int dataLength) {
+		byte[] frame = frame(dataLength);
+		return Arrays.copyOfRange(frame, WinusbFraming.responseOffset(frame[0]), frame.length);
+	}
+}
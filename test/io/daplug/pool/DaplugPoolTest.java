@@ -0,0 +1,123 @@
+/*
+* Copyright Plug-up International SAS (c)
+*
+*   Licensed under the Apache License, Version 2.0 (the "License");
+*   you may not use this file except in compliance with the License.
+*   You may obtain a copy of the License at
+*
+*       http://www.apache.org/licenses/LICENSE-2.0
+*
+*   Unless required by applicable law or agreed to in writing, software
+*   distributed under the License is distributed on an "AS IS" BASIS,
+*   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*   See the License for the specific language governing permissions and
+*   limitations under the License.
+*
+* Authors:
+*   Saada BENAMAR <s.benamar@plug-up.com>
+*   Yassir Houssen ABDULLAH <a.yassirhoussen@plug-up.com>
+*/
+package io.daplug.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.daplug.dongle.DaplugDongle;
+import io.daplug.dongle.sim.DaplugDongleSim;
+import io.daplug.exception.DaplugException;
+import io.daplug.exception.DaplugSessionException;
+import io.daplug.session.DaplugSession;
+
+/**
+ * A pool of simulated dongles, without secure channel : the requests run on the workers, and closing the
+ * pool leaves a dongle open as long as its worker runs a request.
+ *
+ */
+public class DaplugPoolTest {
+
+	private static DaplugPool pool(DaplugDongleSim... sims) throws DaplugException {
+		List<DaplugDongle> dongles = new ArrayList<DaplugDongle>();
+		for (DaplugDongleSim sim : sims)
+			dongles.add(new DaplugDongle(sim));
+		return new DaplugPool(dongles, null, 0);
+	}
+
+	/* true while the simulated dongle answers */
+	private static boolean isOpen(DaplugDongleSim sim) {
+		try {
+			sim.exchangeBytes(new byte[] { (byte) 0x80, (byte) 0xF2, 0x40, 0x00, 0x00 });
+			return true;
+		} catch (DaplugException e) {
+			return false;
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void requestsRunOnTheDongles() throws Exception {
+		DaplugDongleSim first = new DaplugDongleSim(), second = new DaplugDongleSim();
+		DaplugPool pool = pool(first, second);
+		List<Future<byte[]>> randoms = new ArrayList<Future<byte[]>>();
+		for (int i = 0; i < 20; i++)
+			randoms.add(pool.getRandom(8));
+		for (Future<byte[]> random : randoms)
+			assertEquals(8, random.get().length);
+		pool.close();
+		assertTrue(pool.isClosed());
+		assertFalse(isOpen(first));
+		assertFalse(isOpen(second));
+		try {
+			pool.getRandom(8);
+			fail("request on a closed pool");
+		} catch (DaplugSessionException e) {
+			// expected
+		}
+	}
+
+	@Test(timeout = 15000)
+	public void dongleClosedOnceItsRequestIsDone() throws Exception {
+		DaplugDongleSim sim = new DaplugDongleSim();
+		DaplugPool pool = pool(sim);
+		final CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+		Future<byte[]> slow = pool.submit(new DaplugPoolTask<byte[]>() {
+			public byte[] execute(DaplugSession session) throws DaplugException {
+				running.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new DaplugSessionException("interrupted");
+				}
+				return session.getRandom(8);
+			}
+		});
+		running.await();
+		Future<byte[]> queued = pool.getRandom(8);
+
+		// the request outlasts CLOSE_TIMEOUT : close() gives up waiting, the dongle stays open
+		long start = System.nanoTime();
+		pool.close();
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(IDaplugPool.CLOSE_TIMEOUT) / 2);
+		try {
+			queued.get();
+			fail("queued request run on a closed pool");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DaplugSessionException);
+		}
+		assertTrue(isOpen(sim));
+		release.countDown();
+		assertEquals(8, slow.get().length);
+		// then the worker closes it
+		while (isOpen(sim))
+			Thread.sleep(10);
+	}
+}